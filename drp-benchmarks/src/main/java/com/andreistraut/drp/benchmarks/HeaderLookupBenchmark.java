@@ -0,0 +1,94 @@
+package com.andreistraut.drp.benchmarks;
+
+import com.andreistraut.drp.core.communicator.RequestTranslator;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the case-insensitive header lookups done on every proxied request, on both request representations.
+ * The looked up header is either the first one, the last one, or missing
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderLookupBenchmark {
+
+    private static final String ENDPOINT = "http://localhost:8089";
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Payloads.Size size;
+
+    @Param({"first", "last", "missing"})
+    public String position;
+
+    private RequestTranslator translator;
+    private HttpRequestBase request;
+    private FullHttpRequest fullHttpRequest;
+    private String headerName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws UnsupportedEncodingException {
+        translator = RequestTranslator.getInstance();
+        request = translator.fromStringUrl(Payloads.headers(size), ENDPOINT);
+        fullHttpRequest = Payloads.fullHttpRequest(size, ENDPOINT);
+
+        switch (position) {
+            case "first":
+                headerName = size.headers() > 1 ? "x-benchmark-header-1" : "content-type";
+                break;
+            case "last":
+                headerName = "content-type";
+                break;
+            default:
+                headerName = HttpHeaderNames.AUTHORIZATION.toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fullHttpRequest.release();
+    }
+
+    @Benchmark
+    public Optional<Entry<String, String>> getHeaderHttpRequestBase() {
+        return translator.getHeader(request, headerName);
+    }
+
+    @Benchmark
+    public Optional<String> getHeaderValueHttpRequestBase() {
+        return translator.getHeaderValue(request, headerName);
+    }
+
+    @Benchmark
+    public Optional<Entry<String, String>> getHeaderFullHttpRequest() {
+        return translator.getHeader(fullHttpRequest, headerName);
+    }
+
+    @Benchmark
+    public Optional<String> getHeaderValueFullHttpRequest() {
+        return translator.getHeaderValue(fullHttpRequest, headerName);
+    }
+}
@@ -0,0 +1,129 @@
+package com.andreistraut.drp.benchmarks;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Request payloads shared by the benchmarks. Sizes are expressed as the number of body fields and of headers, so
+ * that the same size means comparable work for every translation path
+ */
+public final class Payloads {
+
+    public enum Size {
+        SMALL(4, 4),
+        MEDIUM(100, 16),
+        LARGE(5_000, 64);
+
+        private final int fields;
+        private final int headers;
+
+        Size(int fields, int headers) {
+            this.fields = fields;
+            this.headers = headers;
+        }
+
+        public int fields() {
+            return fields;
+        }
+
+        public int headers() {
+            return headers;
+        }
+    }
+
+    private Payloads() {
+    }
+
+    /**
+     * @param size     The payload size
+     * @param endpoint The remote endpoint the envelope points to
+     * @param method   The method of the wrapped request
+     * @return A JSON envelope, as accepted by the local server
+     */
+    static String envelope(Size size, String endpoint, HttpMethod method) {
+        JsonObject envelope = new JsonObject();
+        JsonObject headers = new JsonObject();
+        JsonObject content = new JsonObject();
+
+        for (Map.Entry<String, String> header : headers(size).entrySet()) {
+            headers.addProperty(header.getKey(), header.getValue());
+        }
+
+        for (int i = 0; i < size.fields(); i++) {
+            content.addProperty("Param" + i + "Name", "Param" + i + "Value");
+        }
+
+        envelope.addProperty("endpoint", endpoint);
+        envelope.addProperty("method", method.toString());
+        envelope.add("headers", headers);
+        envelope.add("request", content);
+
+        return envelope.toString();
+    }
+
+    /**
+     * @param size The payload size
+     * @return Request headers, including a JSON Content-Type as the last entry
+     */
+    static Map<String, String> headers(Size size) {
+        Map<String, String> headers = new LinkedHashMap<>();
+
+        for (int i = 1; i < size.headers(); i++) {
+            headers.put("X-Benchmark-Header-" + i, "Header value " + i);
+        }
+        headers.put(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.APPLICATION_JSON.toString());
+
+        return headers;
+    }
+
+    /**
+     * @param size     The payload size
+     * @param endpoint The request URI
+     * @return A Netty request carrying a JSON body and the headers of the given size. The caller owns the content
+     * buffer
+     */
+    static FullHttpRequest fullHttpRequest(Size size, String endpoint) {
+        JsonObject content = new JsonObject();
+        for (int i = 0; i < size.fields(); i++) {
+            content.addProperty("Param" + i + "Name", "Param" + i + "Value");
+        }
+
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, endpoint,
+                Unpooled.copiedBuffer(content.toString(), CharsetUtil.UTF_8));
+
+        for (Map.Entry<String, String> header : headers(size).entrySet()) {
+            request.headers().add(header.getKey(), header.getValue());
+        }
+        request.headers().set(HttpHeaderNames.CONTENT_LENGTH, request.content().readableBytes());
+
+        return request;
+    }
+
+    /**
+     * @param size     The payload size
+     * @param endpoint The base URL
+     * @return The base URL, with one query parameter per body field
+     */
+    static String url(Size size, String endpoint) {
+        StringBuilder url = new StringBuilder(endpoint).append("/?");
+
+        for (int i = 0; i < size.fields(); i++) {
+            if (i > 0) {
+                url.append('&');
+            }
+            url.append("Param").append(i).append("Name=Param").append(i).append("Value");
+        }
+
+        return url.toString();
+    }
+}
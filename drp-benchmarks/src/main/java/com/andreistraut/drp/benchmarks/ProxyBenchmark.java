@@ -0,0 +1,138 @@
+package com.andreistraut.drp.benchmarks;
+
+import com.andreistraut.drp.core.LocalHttpTestServerHandler;
+import com.andreistraut.drp.core.LocalHttpTestServerInitializer;
+import com.andreistraut.drp.core.LocalHttpTestServerRunner;
+import com.andreistraut.drp.core.TestResource;
+import com.andreistraut.drp.local.server.LocalHttpServerInitializer;
+import com.andreistraut.drp.local.server.LocalHttpServerRunner;
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency of a request going through the local proxy server, up to the test server and back. The
+ * client keeps its connections to the proxy alive, so the numbers reflect the proxy and not connection setup
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+@Threads(8)
+public class ProxyBenchmark {
+
+    private static final int PROXY_PORT = 8090;
+    private static final long STARTUP_TIMEOUT_MILLIS = 10_000;
+
+    @State(Scope.Benchmark)
+    public static class Servers {
+
+        @Param({"SMALL", "MEDIUM", "LARGE"})
+        public Payloads.Size size;
+
+        private LocalHttpTestServerRunner upstream;
+        private LocalHttpServerRunner proxy;
+        private ExecutorService executor;
+        private CloseableHttpClient client;
+        private String envelope;
+
+        @Setup
+        public void setUp() throws Exception {
+            /** Per-request INFO logging would otherwise dominate the measurements */
+            Logger.getLogger("").setLevel(Level.WARNING);
+
+            upstream = new LocalHttpTestServerRunner(TestResource.TEST_PORT);
+            proxy = new LocalHttpServerRunner(PROXY_PORT, new LocalHttpServerInitializer(),
+                    LocalHttpServerRunner.DEFAULT_WORKER_THREADS, true);
+
+            executor = Executors.newFixedThreadPool(2);
+            executor.submit(() -> {
+                upstream.run(new LocalHttpTestServerInitializer(new LocalHttpTestServerHandler()));
+                return null;
+            });
+            executor.submit(() -> {
+                proxy.run();
+                return null;
+            });
+
+            awaitListening(TestResource.TEST_PORT);
+            awaitListening(PROXY_PORT);
+
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(64);
+            connectionManager.setDefaultMaxPerRoute(64);
+            client = HttpClients.custom().setConnectionManager(connectionManager).build();
+
+            envelope = Payloads.envelope(size, TestResource.TEST_ENDPOINT, HttpMethod.POST);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException, InterruptedException {
+            client.close();
+            proxy.stop();
+            upstream.stop();
+            executor.shutdown();
+            executor.awaitTermination(STARTUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private static void awaitListening(int port) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+
+            while (true) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress("localhost", port), 100);
+                    return;
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalStateException(String.format("Server on port %s did not start", port), e);
+                    }
+                    TimeUnit.MILLISECONDS.sleep(50);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public String proxyPost(Servers servers) throws IOException {
+        HttpPost post = new HttpPost("http://localhost:" + PROXY_PORT);
+        post.setEntity(new StringEntity(servers.envelope, ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = servers.client.execute(post)) {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IllegalStateException("Unexpected proxy response: " + response.getStatusLine());
+            }
+
+            return EntityUtils.toString(response.getEntity());
+        }
+    }
+}
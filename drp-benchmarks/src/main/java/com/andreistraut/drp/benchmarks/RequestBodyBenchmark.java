@@ -0,0 +1,83 @@
+package com.andreistraut.drp.benchmarks;
+
+import com.andreistraut.drp.core.communicator.RequestTranslator;
+import com.google.gson.JsonObject;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encoding the Json object payload of an envelope into the outgoing request body, form url-encoded or as
+ * Json. Field values carry spaces, reserved and non-ASCII characters, so that form encoding has escaping to do
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBodyBenchmark {
+
+    private static final String ENDPOINT = "http://localhost:8089";
+
+    @Param({"10", "100", "1000"})
+    public int fields;
+
+    private final Map<String, String> headers = Collections.emptyMap();
+    private String formEnvelope;
+    private String jsonEnvelope;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        formEnvelope = envelope(fields, HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString());
+        jsonEnvelope = envelope(fields, HttpHeaderValues.APPLICATION_JSON.toString());
+    }
+
+    @Benchmark
+    public HttpRequestBase formUrlEncoded() throws UnsupportedEncodingException {
+        return RequestTranslator.getInstance().fromJsonString(headers, formEnvelope);
+    }
+
+    @Benchmark
+    public HttpRequestBase json() throws UnsupportedEncodingException {
+        return RequestTranslator.getInstance().fromJsonString(headers, jsonEnvelope);
+    }
+
+    private static String envelope(int fields, String contentType) {
+        JsonObject envelope = new JsonObject();
+        JsonObject envelopeHeaders = new JsonObject();
+        JsonObject content = new JsonObject();
+
+        envelopeHeaders.addProperty(HttpHeaderNames.CONTENT_TYPE.toString(), contentType);
+
+        for (int i = 0; i < fields; i++) {
+            content.addProperty("Param " + i, "Value " + i + " & more = 100% caf\u00e9");
+        }
+
+        envelope.addProperty("endpoint", ENDPOINT);
+        envelope.addProperty("method", HttpMethod.POST.toString());
+        envelope.add("headers", envelopeHeaders);
+        envelope.add("request", content);
+
+        return envelope.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.andreistraut.drp.benchmarks;
+
+import com.andreistraut.drp.core.communicator.RequestTranslator;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning an inbound request into an HttpComponents request, for each of the translation paths
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestTranslatorBenchmark {
+
+    private static final String ENDPOINT = "http://localhost:8089";
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Payloads.Size size;
+
+    private Map<String, String> headers;
+    private String getEnvelope;
+    private String postEnvelope;
+    private String url;
+    private FullHttpRequest fullHttpRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        headers = Payloads.headers(size);
+        getEnvelope = Payloads.envelope(size, ENDPOINT, HttpMethod.GET);
+        postEnvelope = Payloads.envelope(size, ENDPOINT, HttpMethod.POST);
+        url = Payloads.url(size, ENDPOINT);
+        fullHttpRequest = Payloads.fullHttpRequest(size, ENDPOINT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fullHttpRequest.release();
+    }
+
+    @Benchmark
+    public HttpRequestBase fromJsonStringGet() throws UnsupportedEncodingException {
+        return RequestTranslator.getInstance().fromJsonString(headers, getEnvelope);
+    }
+
+    @Benchmark
+    public HttpRequestBase fromJsonStringPost() throws UnsupportedEncodingException {
+        return RequestTranslator.getInstance().fromJsonString(headers, postEnvelope);
+    }
+
+    @Benchmark
+    public HttpRequestBase fromFullHttpRequest() throws UnsupportedEncodingException {
+        HttpRequestBase request = RequestTranslator.getInstance().fromFullHttpRequest(fullHttpRequest);
+
+        /** The entity holds its own reference to the content, which the dispatch would otherwise release */
+        if (request instanceof HttpEntityEnclosingRequest) {
+            ReferenceCountUtil.release(((HttpEntityEnclosingRequest) request).getEntity());
+        }
+
+        return request;
+    }
+
+    @Benchmark
+    public HttpRequestBase fromStringUrl() throws UnsupportedEncodingException {
+        return RequestTranslator.getInstance().fromStringUrl(headers, url);
+    }
+}
@@ -0,0 +1,100 @@
+package com.andreistraut.drp.core.cache;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpMessage;
+
+/**
+ * The Cache-Control directives of a request or response that matter to {@link ResponseCache}. A legacy
+ * "Pragma: no-cache" counts as "Cache-Control: no-cache"
+ */
+final class CacheControl {
+
+    static final long UNSPECIFIED = -1;
+
+    private boolean noStore;
+    private boolean noCache;
+    private boolean isPrivate;
+    private long maxAgeSeconds = UNSPECIFIED;
+    private long sharedMaxAgeSeconds = UNSPECIFIED;
+
+    private CacheControl() {
+    }
+
+    static CacheControl of(HttpMessage message) {
+        CacheControl cacheControl = new CacheControl();
+
+        for (Header header : message.getHeaders(HttpHeaders.CACHE_CONTROL)) {
+            for (HeaderElement directive : header.getElements()) {
+                cacheControl.apply(directive.getName().toLowerCase(), directive.getValue());
+            }
+        }
+
+        for (Header header : message.getHeaders(HttpHeaders.PRAGMA)) {
+            for (HeaderElement directive : header.getElements()) {
+                if ("no-cache".equalsIgnoreCase(directive.getName())) {
+                    cacheControl.noCache = true;
+                }
+            }
+        }
+
+        return cacheControl;
+    }
+
+    private void apply(String directive, String value) {
+        switch (directive) {
+            case "no-store":
+                noStore = true;
+                break;
+            case "no-cache":
+                noCache = true;
+                break;
+            case "private":
+                isPrivate = true;
+                break;
+            case "max-age":
+                maxAgeSeconds = parseSeconds(value);
+                break;
+            case "s-maxage":
+                sharedMaxAgeSeconds = parseSeconds(value);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Parse a delta-seconds value. Invalid values count as zero, so that they make responses stale rather than fresh
+     */
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    boolean isNoStore() {
+        return noStore;
+    }
+
+    boolean isNoCache() {
+        return noCache;
+    }
+
+    boolean isPrivate() {
+        return isPrivate;
+    }
+
+    long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    long getSharedMaxAgeSeconds() {
+        return sharedMaxAgeSeconds;
+    }
+}
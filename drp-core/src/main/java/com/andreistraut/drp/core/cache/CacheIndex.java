@@ -0,0 +1,227 @@
+package com.andreistraut.drp.core.cache;
+
+import com.google.common.collect.Lists;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.http.HttpRequest;
+
+/**
+ * The stored responses of one cache tier, by request URI, bounded by total weight and entry count. The least recently
+ * used URIs are evicted first. Removed responses are reported to a listener, outside of the index lock, so that it
+ * may do I/O
+ */
+final class CacheIndex {
+
+    /**
+     * Notified of every response removed from the index, except those replaced by
+     * {@link #replace(String, CachedResponse, CachedResponse)}
+     */
+    @FunctionalInterface
+    interface RemovalListener {
+
+        /**
+         * @param key      The request URI of the removed response
+         * @param response The removed response
+         * @param evicted  Whether it was evicted to keep the index within its bounds, rather than replaced or
+         * invalidated
+         */
+        void onRemoval(String key, CachedResponse response, boolean evicted);
+    }
+
+    private final long maxBytes;
+    private final int maxEntries;
+    private final RemovalListener removalListener;
+
+    /** Stored variants by request URI, in access order. Also guards the size and count */
+    private final LinkedHashMap<String, List<CachedResponse>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    private int entryCount;
+
+    private final LongAdder evictions = new LongAdder();
+
+    CacheIndex(long maxBytes, int maxEntries, RemovalListener removalListener) {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * @return The most recently stored variant the request selects, or null
+     */
+    CachedResponse lookup(String key, HttpRequest request) {
+        synchronized (entries) {
+            List<CachedResponse> variants = entries.get(key);
+
+            if (variants != null) {
+                for (CachedResponse variant : variants) {
+                    if (variant.matches(request)) {
+                        return variant;
+                    }
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Store a response, replacing any variant with the same Vary values, and evict the least recently used URIs until
+     * the index is within its bounds again
+     *
+     * @return Whether the response was stored; it is not if it is larger than the whole index
+     */
+    boolean put(String key, CachedResponse stored) {
+        if (stored.getWeight() > maxBytes) {
+            return false;
+        }
+
+        List<Map.Entry<String, CachedResponse>> replaced = Lists.newArrayList();
+        List<Map.Entry<String, CachedResponse>> evicted = Lists.newArrayList();
+
+        synchronized (entries) {
+            List<CachedResponse> variants = entries.get(key);
+
+            if (variants == null) {
+                variants = Lists.newArrayList();
+                entries.put(key, variants);
+            }
+
+            Iterator<CachedResponse> variantIterator = variants.iterator();
+            while (variantIterator.hasNext()) {
+                CachedResponse variant = variantIterator.next();
+
+                if (variant.isSameVariant(stored)) {
+                    variantIterator.remove();
+                    sizeBytes -= variant.getWeight();
+                    entryCount--;
+                    replaced.add(new AbstractMap.SimpleImmutableEntry<>(key, variant));
+                }
+            }
+
+            variants.add(0, stored);
+            sizeBytes += stored.getWeight();
+            entryCount++;
+
+            Iterator<Map.Entry<String, List<CachedResponse>>> eldest = entries.entrySet().iterator();
+            while ((sizeBytes > maxBytes || entryCount > maxEntries) && eldest.hasNext()) {
+                Map.Entry<String, List<CachedResponse>> entry = eldest.next();
+
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+
+                for (CachedResponse variant : entry.getValue()) {
+                    sizeBytes -= variant.getWeight();
+                    entryCount--;
+                    evictions.increment();
+                    evicted.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), variant));
+                }
+                eldest.remove();
+            }
+        }
+
+        replaced.forEach(removed -> removalListener.onRemoval(removed.getKey(), removed.getValue(), false));
+        evicted.forEach(removed -> removalListener.onRemoval(removed.getKey(), removed.getValue(), true));
+
+        return true;
+    }
+
+    /**
+     * Replace a stored variant, if it is still stored, or remove it if the replacement is null
+     *
+     * @return Whether the variant was still stored
+     */
+    boolean replace(String key, CachedResponse stored, CachedResponse replacement) {
+        synchronized (entries) {
+            List<CachedResponse> variants = entries.get(key);
+            int index = variants == null ? -1 : variants.indexOf(stored);
+
+            if (index < 0) {
+                return false;
+            }
+
+            sizeBytes -= stored.getWeight();
+
+            if (replacement != null) {
+                variants.set(index, replacement);
+                sizeBytes += replacement.getWeight();
+            } else {
+                variants.remove(index);
+                entryCount--;
+
+                if (variants.isEmpty()) {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        if (replacement == null) {
+            removalListener.onRemoval(key, stored, false);
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove all stored variants of the given URI
+     */
+    void invalidate(String key) {
+        List<CachedResponse> variants;
+
+        synchronized (entries) {
+            variants = entries.remove(key);
+
+            if (variants == null) {
+                return;
+            }
+
+            for (CachedResponse variant : variants) {
+                sizeBytes -= variant.getWeight();
+                entryCount--;
+            }
+        }
+
+        variants.forEach(variant -> removalListener.onRemoval(key, variant, false));
+    }
+
+    /**
+     * Remove all stored responses
+     */
+    void clear() {
+        List<Map.Entry<String, List<CachedResponse>>> removed;
+
+        synchronized (entries) {
+            removed = Lists.newArrayList();
+            for (Map.Entry<String, List<CachedResponse>> entry : entries.entrySet()) {
+                removed.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+            }
+
+            entries.clear();
+            sizeBytes = 0;
+            entryCount = 0;
+        }
+
+        removed.forEach(entry -> entry.getValue().forEach(
+                variant -> removalListener.onRemoval(entry.getKey(), variant, false)));
+    }
+
+    long getSizeBytes() {
+        synchronized (entries) {
+            return sizeBytes;
+        }
+    }
+
+    int getEntryCount() {
+        synchronized (entries) {
+            return entryCount;
+        }
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,457 @@
+package com.andreistraut.drp.core.cache;
+
+import com.andreistraut.drp.core.communicator.FileRegionEntity;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.StatusLine;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+/**
+ * An immutable stored response: status, end-to-end headers and body, along with what is needed to compute its age
+ * and freshness (RFC 7234, section 4.2) and to select it among the variants of the same URI. The body is either kept
+ * in memory, or in a file of the disk tier
+ */
+final class CachedResponse {
+
+    /** Headers describing the upstream connection or the stored body framing, which are never stored */
+    private static final List<String> UNSTORED_HEADERS = Lists.newArrayList(
+            HttpHeaders.CONNECTION,
+            "Keep-Alive",
+            HttpHeaders.PROXY_AUTHENTICATE,
+            HttpHeaders.PROXY_AUTHORIZATION,
+            HttpHeaders.TE,
+            "Trailer",
+            HttpHeaders.TRANSFER_ENCODING,
+            HttpHeaders.UPGRADE,
+            HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.AGE);
+
+    /** Rough per-header bookkeeping overhead, counted towards the entry weight */
+    private static final int HEADER_OVERHEAD_BYTES = 32;
+
+    private static final int METADATA_MAGIC = 0x44525043;
+    private static final int METADATA_VERSION = 1;
+
+    private final StatusLine statusLine;
+    private final Header[] headers;
+    private final Map<String, String> varyValues;
+    private final byte[] body;
+    private final Path bodyFile;
+    private final long bodyLength;
+    private final long responseTimeMillis;
+    private final long correctedInitialAgeMillis;
+    private final long freshnessLifetimeMillis;
+    private final long weight;
+
+    private CachedResponse(StatusLine statusLine, Header[] headers, Map<String, String> varyValues,
+            byte[] body, Path bodyFile, long bodyLength,
+            long responseTimeMillis, long correctedInitialAgeMillis, long freshnessLifetimeMillis) {
+        this.statusLine = statusLine;
+        this.headers = headers;
+        this.varyValues = varyValues;
+        this.body = body;
+        this.bodyFile = bodyFile;
+        this.bodyLength = bodyLength;
+        this.responseTimeMillis = responseTimeMillis;
+        this.correctedInitialAgeMillis = correctedInitialAgeMillis;
+        this.freshnessLifetimeMillis = freshnessLifetimeMillis;
+
+        long headerBytes = 0;
+        for (Header header : headers) {
+            headerBytes += header.getName().length() + header.getValue().length() + HEADER_OVERHEAD_BYTES;
+        }
+        this.weight = bodyLength + headerBytes;
+    }
+
+    private static CachedResponse received(StatusLine statusLine, Header[] headers, Map<String, String> varyValues,
+            byte[] body, Path bodyFile, long bodyLength, long ageMillis, long requestTimeMillis, long responseTimeMillis) {
+        long dateMillis = getDateMillis(headers, HttpHeaders.DATE, responseTimeMillis);
+        long apparentAgeMillis = Math.max(0, responseTimeMillis - dateMillis);
+        long responseDelayMillis = Math.max(0, responseTimeMillis - requestTimeMillis);
+
+        return new CachedResponse(statusLine, headers, varyValues, body, bodyFile, bodyLength, responseTimeMillis,
+                Math.max(apparentAgeMillis, ageMillis + responseDelayMillis),
+                computeFreshnessLifetimeMillis(statusLine, headers, dateMillis));
+    }
+
+    /**
+     * @param request            The request the response was received for
+     * @param response           The upstream response
+     * @param body               The upstream response body, fully read
+     * @param requestTimeMillis  When the request was sent
+     * @param responseTimeMillis When the response was received
+     * @return The stored form of the response, with its body in memory
+     */
+    static CachedResponse of(HttpRequest request, HttpResponse response, byte[] body,
+            long requestTimeMillis, long responseTimeMillis) {
+        Header[] headers = response.getAllHeaders();
+
+        return received(response.getStatusLine(), storedHeaders(headers), varyValues(headers, request),
+                body, null, body.length, getAgeMillis(headers), requestTimeMillis, responseTimeMillis);
+    }
+
+    /**
+     * @param request            The request the response was received for
+     * @param response           The upstream response
+     * @param bodyFile           The file the upstream response body was written to
+     * @param bodyLength         The upstream response body length
+     * @param requestTimeMillis  When the request was sent
+     * @param responseTimeMillis When the response was received
+     * @return The stored form of the response, with its body on disk
+     */
+    static CachedResponse of(HttpRequest request, HttpResponse response, Path bodyFile, long bodyLength,
+            long requestTimeMillis, long responseTimeMillis) {
+        Header[] headers = response.getAllHeaders();
+
+        return received(response.getStatusLine(), storedHeaders(headers), varyValues(headers, request),
+                null, bodyFile, bodyLength, getAgeMillis(headers), requestTimeMillis, responseTimeMillis);
+    }
+
+    /**
+     * Combine this response with the headers of a 304 (Not Modified) response that validated it
+     *
+     * @param notModified        The 304 response
+     * @param requestTimeMillis  When the conditional request was sent
+     * @param responseTimeMillis When the 304 response was received
+     * @return The updated stored response, with the same body
+     */
+    CachedResponse revalidated(HttpResponse notModified, long requestTimeMillis, long responseTimeMillis) {
+        Header[] received = notModified.getAllHeaders();
+        Header[] updates = storedHeaders(received);
+        List<Header> merged = Lists.newArrayList();
+
+        for (Header header : headers) {
+            if (!containsHeader(updates, header.getName())) {
+                merged.add(header);
+            }
+        }
+        merged.addAll(Lists.newArrayList(updates));
+
+        return received(statusLine, merged.toArray(new Header[merged.size()]), varyValues, body, bodyFile, bodyLength,
+                getAgeMillis(received), requestTimeMillis, responseTimeMillis);
+    }
+
+    /**
+     * @param bodyFile The file the body of this response was written to
+     * @return The same response, with its body on disk
+     */
+    CachedResponse withBodyFile(Path bodyFile) {
+        return new CachedResponse(statusLine, headers, varyValues, null, bodyFile, bodyLength,
+                responseTimeMillis, correctedInitialAgeMillis, freshnessLifetimeMillis);
+    }
+
+    /**
+     * @param request The request to select a stored response for
+     * @return Whether the request headers named by this response's Vary header match those of the original request
+     */
+    boolean matches(HttpRequest request) {
+        for (Map.Entry<String, String> vary : varyValues.entrySet()) {
+            if (!Objects.equals(vary.getValue(), joinedValues(request, vary.getKey()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Whether the given response was selected by the same request header values, so that it supersedes this
+     * one
+     */
+    boolean isSameVariant(CachedResponse other) {
+        return varyValues.equals(other.varyValues);
+    }
+
+    /**
+     * @param nowMillis         The current time
+     * @param maxAgeSeconds     The max-age the client asked for, or {@link CacheControl#UNSPECIFIED}
+     * @return Whether the response can be served without contacting the upstream
+     */
+    boolean isFresh(long nowMillis, long maxAgeSeconds) {
+        long ageMillis = getCurrentAgeMillis(nowMillis);
+
+        return ageMillis < freshnessLifetimeMillis
+                && (maxAgeSeconds == CacheControl.UNSPECIFIED || ageMillis <= maxAgeSeconds * 1000);
+    }
+
+    long getCurrentAgeMillis(long nowMillis) {
+        return correctedInitialAgeMillis + Math.max(0, nowMillis - responseTimeMillis);
+    }
+
+    /**
+     * @return The entity tag of the response, or null
+     */
+    String getETag() {
+        Header etag = getFirstHeader(HttpHeaders.ETAG);
+        return etag == null ? null : etag.getValue();
+    }
+
+    /**
+     * @return The last modification date of the response, or null
+     */
+    String getLastModified() {
+        Header lastModified = getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        return lastModified == null ? null : lastModified.getValue();
+    }
+
+    boolean hasValidator() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    /**
+     * @return The approximate footprint of the body and headers, in bytes
+     */
+    long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return The body, or null if it is on disk
+     */
+    byte[] getBody() {
+        return body;
+    }
+
+    long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return The file holding the body, or null if it is in memory
+     */
+    Path getBodyFile() {
+        return bodyFile;
+    }
+
+    /**
+     * Build a new response to serve from this stored one
+     *
+     * @param nowMillis The current time, from which the Age header is computed
+     * @return A response the caller is free to modify. A body on disk is served as a {@link FileRegionEntity}
+     * @throws IOException If the body file cannot be opened
+     */
+    HttpResponse toHttpResponse(long nowMillis) throws IOException {
+        AbstractHttpEntity entity = bodyFile == null
+                ? new ByteArrayEntity(body)
+                : FileRegionEntity.open(bodyFile, bodyLength);
+        entity.setContentType(getFirstHeader(HttpHeaders.CONTENT_TYPE));
+        entity.setContentEncoding(getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+
+        HttpResponse response = new BasicHttpResponse(statusLine);
+        response.setHeaders(headers);
+        response.setHeader(HttpHeaders.AGE, Long.toString(getCurrentAgeMillis(nowMillis) / 1000));
+        response.setEntity(entity);
+
+        return response;
+    }
+
+    /**
+     * Write everything but the body, so that the response can be restored with
+     * {@link #readMetadata(DataInput, Path)}
+     */
+    void writeMetadata(DataOutput out) throws IOException {
+        out.writeInt(METADATA_MAGIC);
+        out.writeInt(METADATA_VERSION);
+
+        ProtocolVersion protocolVersion = statusLine.getProtocolVersion();
+        out.writeUTF(protocolVersion.getProtocol());
+        out.writeInt(protocolVersion.getMajor());
+        out.writeInt(protocolVersion.getMinor());
+        out.writeInt(statusLine.getStatusCode());
+        out.writeUTF(statusLine.getReasonPhrase() == null ? "" : statusLine.getReasonPhrase());
+
+        out.writeInt(headers.length);
+        for (Header header : headers) {
+            out.writeUTF(header.getName());
+            out.writeUTF(header.getValue());
+        }
+
+        out.writeInt(varyValues.size());
+        for (Map.Entry<String, String> vary : varyValues.entrySet()) {
+            out.writeUTF(vary.getKey());
+            out.writeBoolean(vary.getValue() != null);
+            out.writeUTF(vary.getValue() == null ? "" : vary.getValue());
+        }
+
+        out.writeLong(responseTimeMillis);
+        out.writeLong(correctedInitialAgeMillis);
+        out.writeLong(freshnessLifetimeMillis);
+        out.writeLong(bodyLength);
+    }
+
+    /**
+     * Restore a response written by {@link #writeMetadata(DataOutput)}
+     *
+     * @param in       The metadata
+     * @param bodyFile The file holding the body
+     * @return The response, with its body on disk
+     * @throws IOException On read errors, or if the metadata is not in the expected format
+     */
+    static CachedResponse readMetadata(DataInput in, Path bodyFile) throws IOException {
+        if (in.readInt() != METADATA_MAGIC || in.readInt() != METADATA_VERSION) {
+            throw new IOException("Unknown cache metadata format");
+        }
+
+        ProtocolVersion protocolVersion = new ProtocolVersion(in.readUTF(), in.readInt(), in.readInt());
+        StatusLine statusLine = new BasicStatusLine(protocolVersion, in.readInt(), in.readUTF());
+
+        Header[] headers = new Header[in.readInt()];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = new BasicHeader(in.readUTF(), in.readUTF());
+        }
+
+        Map<String, String> varyValues = Maps.<String, String>newHashMap();
+        int varyCount = in.readInt();
+        for (int i = 0; i < varyCount; i++) {
+            String name = in.readUTF();
+            boolean present = in.readBoolean();
+            String value = in.readUTF();
+            varyValues.put(name, present ? value : null);
+        }
+
+        long responseTimeMillis = in.readLong();
+        long correctedInitialAgeMillis = in.readLong();
+        long freshnessLifetimeMillis = in.readLong();
+        long bodyLength = in.readLong();
+
+        return new CachedResponse(statusLine, headers, varyValues, null, bodyFile, bodyLength,
+                responseTimeMillis, correctedInitialAgeMillis, freshnessLifetimeMillis);
+    }
+
+    private Header getFirstHeader(String name) {
+        for (Header header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header;
+            }
+        }
+
+        return null;
+    }
+
+    private static Header[] storedHeaders(Header[] headers) {
+        List<Header> stored = Lists.newArrayList();
+
+        for (Header header : headers) {
+            if (UNSTORED_HEADERS.stream().noneMatch(unstored -> unstored.equalsIgnoreCase(header.getName().trim()))) {
+                stored.add(new BasicHeader(header.getName(), header.getValue()));
+            }
+        }
+
+        return stored.toArray(new Header[stored.size()]);
+    }
+
+    private static boolean containsHeader(Header[] headers, String name) {
+        for (Header header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Record, for each request header named by the Vary response header, the value it had in the original request
+     */
+    private static Map<String, String> varyValues(Header[] headers, HttpRequest request) {
+        Map<String, String> varyValues = Maps.<String, String>newHashMap();
+
+        for (Header header : headers) {
+            if (!header.getName().equalsIgnoreCase(HttpHeaders.VARY)) {
+                continue;
+            }
+
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName().trim().toLowerCase(Locale.ROOT);
+                varyValues.put(name, joinedValues(request, name));
+            }
+        }
+
+        return varyValues;
+    }
+
+    private static String joinedValues(HttpRequest request, String name) {
+        Header[] values = request.getHeaders(name);
+
+        if (values.length == 0) {
+            return null;
+        }
+
+        StringBuilder joined = new StringBuilder(values[0].getValue().trim());
+        for (int i = 1; i < values.length; i++) {
+            joined.append(',').append(values[i].getValue().trim());
+        }
+
+        return joined.toString();
+    }
+
+    private static long computeFreshnessLifetimeMillis(StatusLine statusLine, Header[] headers, long dateMillis) {
+        BasicHttpResponse message = new BasicHttpResponse(statusLine);
+        message.setHeaders(headers);
+        CacheControl cacheControl = CacheControl.of(message);
+
+        if (cacheControl.isNoCache()) {
+            return 0;
+        }
+
+        if (cacheControl.getSharedMaxAgeSeconds() != CacheControl.UNSPECIFIED) {
+            return cacheControl.getSharedMaxAgeSeconds() * 1000;
+        }
+
+        if (cacheControl.getMaxAgeSeconds() != CacheControl.UNSPECIFIED) {
+            return cacheControl.getMaxAgeSeconds() * 1000;
+        }
+
+        if (containsHeader(headers, HttpHeaders.EXPIRES)) {
+            /** An invalid date, such as "0", means already expired */
+            return Math.max(0, getDateMillis(headers, HttpHeaders.EXPIRES, dateMillis) - dateMillis);
+        }
+
+        return 0;
+    }
+
+    private static long getDateMillis(Header[] headers, String name, long defaultMillis) {
+        for (Header header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                Date date = DateUtils.parseDate(header.getValue());
+                return date == null ? defaultMillis : date.getTime();
+            }
+        }
+
+        return defaultMillis;
+    }
+
+    private static long getAgeMillis(Header[] headers) {
+        for (Header header : headers) {
+            if (header.getName().equalsIgnoreCase(HttpHeaders.AGE)) {
+                try {
+                    return Math.max(0, Long.parseLong(header.getValue().trim())) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 0;
+    }
+}
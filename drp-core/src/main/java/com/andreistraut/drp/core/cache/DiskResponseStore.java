@@ -0,0 +1,326 @@
+package com.andreistraut.drp.core.cache;
+
+import com.andreistraut.drp.core.communicator.FileRegionEntity;
+import com.google.common.collect.Lists;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+
+/**
+ * The disk tier of a {@link ResponseCache}. Response bodies are kept in files, off the Java heap, and only their
+ * status, headers and freshness information are indexed in memory. Each response is stored as two files in the cache
+ * directory: its body, and its metadata, written once the body is complete. The directory is scanned when the store
+ * is opened, so that the responses stored by a previous run are served again. Instances are thread-safe, but a
+ * directory must not be shared by several stores
+ */
+public class DiskResponseStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int WRITE_BUFFER_SIZE = 65536;
+
+    private static final Logger LOGGER = Logger.getLogger(DiskResponseStore.class.getName());
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final CacheIndex index;
+
+    /**
+     * Open the store in the given directory, creating it if needed, and index the responses already in it. Responses
+     * that no longer fit within the bounds are evicted, least recently stored first
+     *
+     * @param directory     The cache directory
+     * @param maxBytes      The maximum total size of the stored responses, in bytes
+     * @param maxEntryBytes The maximum size of a single stored response body, in bytes
+     * @param maxEntries    The maximum number of stored responses, which bounds the memory used by the index
+     * @throws IOException If the directory cannot be created or read
+     */
+    public DiskResponseStore(Path directory, long maxBytes, long maxEntryBytes, int maxEntries) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Cache directory cannot be null");
+        }
+
+        if (maxBytes <= 0 || maxEntryBytes <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Disk cache bounds must be integers larger than 0");
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.index = new CacheIndex(maxBytes, maxEntries, (key, response, evicted) -> delete(response));
+
+        recover();
+    }
+
+    CachedResponse lookup(String key, HttpRequest request) {
+        return index.lookup(key, request);
+    }
+
+    /**
+     * @param contentLength The length of a response body
+     * @return Whether a response with the given body length may be stored
+     */
+    boolean accepts(long contentLength) {
+        return contentLength >= 0 && contentLength <= maxEntryBytes && contentLength < maxBytes;
+    }
+
+    /**
+     * Write the body of the given upstream response to disk and store it. The entity of the response is replaced by
+     * one reading the stored body
+     *
+     * @throws IOException On errors reading the upstream body or writing the files. Nothing is stored then, and the
+     * upstream response may have been partially read
+     */
+    void store(String key, HttpRequest request, HttpResponse response, long requestTimeMillis,
+            long responseTimeMillis) throws IOException {
+        HttpEntity entity = response.getEntity();
+        Path bodyFile = newBodyFile();
+        long bodyLength;
+
+        try {
+            try (InputStream content = entity.getContent();
+                    OutputStream out = Files.newOutputStream(bodyFile)) {
+                bodyLength = content == null ? 0 : copy(content, out);
+            }
+
+            CachedResponse stored = CachedResponse.of(
+                    request, response, bodyFile, bodyLength, requestTimeMillis, responseTimeMillis);
+            writeMetadata(key, stored);
+
+            FileRegionEntity storedEntity = FileRegionEntity.open(bodyFile, bodyLength);
+            storedEntity.setContentType(entity.getContentType());
+            storedEntity.setContentEncoding(entity.getContentEncoding());
+            response.setEntity(storedEntity);
+
+            /** A response larger than the whole store is still served from its file, which is open by now */
+            if (!index.put(key, stored)) {
+                delete(stored);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(bodyFile);
+            deleteQuietly(getMetadataFile(bodyFile));
+            throw e;
+        }
+    }
+
+    /**
+     * Move a response evicted from memory to disk. Failures are logged, and the response is dropped
+     */
+    void demote(String key, CachedResponse response) {
+        if (response.getBody() == null || !accepts(response.getBodyLength())) {
+            return;
+        }
+
+        Path bodyFile = newBodyFile();
+
+        try {
+            Files.write(bodyFile, response.getBody());
+
+            CachedResponse stored = response.withBodyFile(bodyFile);
+            writeMetadata(key, stored);
+
+            if (!index.put(key, stored)) {
+                delete(stored);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Could not move cached response to disk: %s", e.getMessage()), e);
+
+            deleteQuietly(bodyFile);
+            deleteQuietly(getMetadataFile(bodyFile));
+        }
+    }
+
+    /**
+     * Replace a stored response by its revalidated form, which has the same body file, or remove it if the
+     * replacement is null
+     */
+    void replace(String key, CachedResponse stored, CachedResponse replacement) {
+        if (replacement != null) {
+            try {
+                writeMetadata(key, replacement);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Could not update cached response: %s", e.getMessage()), e);
+                replacement = null;
+            }
+        }
+
+        index.replace(key, stored, replacement);
+    }
+
+    void invalidate(String key) {
+        index.invalidate(key);
+    }
+
+    /**
+     * Remove all stored responses, and their files
+     */
+    public void clear() {
+        index.clear();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The approximate total size of the stored responses, in bytes
+     */
+    public long getSizeBytes() {
+        return index.getSizeBytes();
+    }
+
+    /**
+     * @return The number of stored responses
+     */
+    public int getEntryCount() {
+        return index.getEntryCount();
+    }
+
+    /**
+     * @return The number of stored responses evicted to keep the store within its bounds
+     */
+    public long getEvictionCount() {
+        return index.getEvictionCount();
+    }
+
+    /**
+     * Index the responses found in the directory, least recently written first, and delete incomplete ones
+     */
+    private void recover() throws IOException {
+        List<Path> metadataFiles = Lists.newArrayList();
+        List<Path> bodyFiles = Lists.newArrayList();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+
+                if (name.endsWith(METADATA_SUFFIX)) {
+                    metadataFiles.add(file);
+                } else if (name.endsWith(BODY_SUFFIX)) {
+                    bodyFiles.add(file);
+                } else if (name.endsWith(TEMPORARY_SUFFIX)) {
+                    deleteQuietly(file);
+                }
+            }
+        }
+
+        metadataFiles.sort(Comparator.comparing(DiskResponseStore::getLastModifiedMillis));
+
+        for (Path metadataFile : metadataFiles) {
+            String name = metadataFile.getFileName().toString();
+            Path bodyFile = directory.resolve(name.substring(0, name.length() - METADATA_SUFFIX.length()) + BODY_SUFFIX);
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(metadataFile)))) {
+                String key = in.readUTF();
+                CachedResponse stored = CachedResponse.readMetadata(in, bodyFile);
+
+                if (!Files.isRegularFile(bodyFile) || Files.size(bodyFile) != stored.getBodyLength()) {
+                    throw new IOException("Missing or incomplete body file");
+                }
+
+                bodyFiles.remove(bodyFile);
+
+                if (!index.put(key, stored)) {
+                    delete(stored);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Discarding unreadable cached response %s: %s",
+                        metadataFile, e.getMessage()));
+
+                deleteQuietly(metadataFile);
+                deleteQuietly(bodyFile);
+            }
+        }
+
+        /** Bodies whose metadata was never written */
+        bodyFiles.forEach(DiskResponseStore::deleteQuietly);
+
+        LOGGER.log(Level.INFO, String.format("Disk cache in %s opened with %s responses, %s bytes",
+                directory, index.getEntryCount(), index.getSizeBytes()));
+    }
+
+    private Path newBodyFile() {
+        return directory.resolve(UUID.randomUUID().toString() + BODY_SUFFIX);
+    }
+
+    private static Path getMetadataFile(Path bodyFile) {
+        String name = bodyFile.getFileName().toString();
+        return bodyFile.resolveSibling(name.substring(0, name.length() - BODY_SUFFIX.length()) + METADATA_SUFFIX);
+    }
+
+    /**
+     * Write the metadata to a temporary file and move it in place, so that a crash never leaves it half written
+     */
+    private void writeMetadata(String key, CachedResponse stored) throws IOException {
+        Path metadataFile = getMetadataFile(stored.getBodyFile());
+        Path temporaryFile = metadataFile.resolveSibling(metadataFile.getFileName() + TEMPORARY_SUFFIX);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            out.writeUTF(key);
+            stored.writeMetadata(out);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(temporaryFile);
+            throw e;
+        }
+
+        Files.move(temporaryFile, metadataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete the files of a response. Responses being served keep their body file open, and can still be read
+     */
+    private static void delete(CachedResponse stored) {
+        deleteQuietly(getMetadataFile(stored.getBodyFile()));
+        deleteQuietly(stored.getBodyFile());
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Could not delete cache file %s: %s", file, e.getMessage()));
+        }
+    }
+
+    private static long getLastModifiedMillis(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        long copied = 0;
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            copied += read;
+        }
+
+        return copied;
+    }
+}
@@ -0,0 +1,284 @@
+package com.andreistraut.drp.core.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Single-flight upstream calls: concurrent identical GET and HEAD requests, with the same URI and the same headers,
+ * share one upstream call, and every caller gets its own copy of the response. A burst of requests for a slow or
+ * recovering endpoint then reaches it as a single request. Only bodies up to a maximum size are shared; callers
+ * waiting on a larger response make their own upstream call once it is known. Each caller keeps its own deadline:
+ * aborting a waiting request ends its wait, and the waiters of a call that ended at its own deadline or timeouts,
+ * which theirs exceed, elect another one of them to call again. Instances are thread-safe
+ */
+public class RequestCoalescer implements ResponseCache.Upstream {
+
+    private static final Comparator<Header> HEADER_ORDER = Comparator
+            .comparing((Header header) -> header.getName().toLowerCase(Locale.ROOT))
+            .thenComparing(Header::getValue);
+
+    private final ResponseCache.Upstream upstream;
+    private final int maxBodyBytes;
+    private final ConcurrentHashMap<String, Call> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param upstream     The upstream call being shared
+     * @param maxBodyBytes The maximum size of a shared response body, in bytes
+     */
+    public RequestCoalescer(ResponseCache.Upstream upstream, int maxBodyBytes) {
+        if (upstream == null) {
+            throw new IllegalArgumentException("Upstream cannot be null");
+        }
+
+        if (maxBodyBytes <= 0) {
+            throw new IllegalArgumentException("Coalesced body size must be an integer larger than 0");
+        }
+
+        this.upstream = upstream;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Execute the request, or wait for an identical request already in flight and take a copy of its response
+     *
+     * @param request The request to forward
+     * @return The response, with its body already read if it was shared
+     * @throws IOException Thrown by the upstream call, including one made on behalf of this request by another caller
+     */
+    @Override
+    public HttpResponse execute(HttpRequestBase request) throws IOException {
+        if (!isCoalescable(request)) {
+            return upstream.execute(request);
+        }
+
+        String key = key(request);
+
+        while (true) {
+            Call call = new Call(request);
+            Call leader = inFlight.putIfAbsent(key, call);
+
+            if (leader == null) {
+                return lead(key, request, call);
+            }
+
+            SharedResponse shared;
+            try {
+                shared = await(leader, request);
+            } catch (LeaderLimitException e) {
+                continue;
+            }
+
+            if (shared == null) {
+                return upstream.execute(request);
+            }
+
+            coalesced.increment();
+
+            return shared.toHttpResponse();
+        }
+    }
+
+    /**
+     * @return The number of requests answered with the response of an identical request, without an upstream call
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return The number of distinct upstream calls currently shared
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    int getWaitingCount() {
+        return waiting.get();
+    }
+
+    private HttpResponse lead(String key, HttpRequestBase request, Call call) throws IOException {
+        try {
+            HttpResponse response = upstream.execute(request);
+            byte[] body = ResponseBodies.buffer(response, maxBodyBytes);
+
+            /** Requests arriving from now on make a new call, rather than share a response already received */
+            inFlight.remove(key, call);
+            call.response.complete(body == null ? null : new SharedResponse(response, body));
+
+            return response;
+        } catch (IOException | RuntimeException | Error e) {
+            inFlight.remove(key, call);
+            call.response.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for the response of the leader, until the request is aborted, as its deadline does
+     *
+     * @throws LeaderLimitException If the leader call ended at a deadline or timeout that the request does not share
+     */
+    private SharedResponse await(Call leader, HttpRequestBase request) throws IOException {
+        CompletableFuture<SharedResponse> response = leader.response.thenApply(shared -> shared);
+        request.setCancellable(() -> response.cancel(false));
+        waiting.incrementAndGet();
+
+        try {
+            return response.get();
+        } catch (CancellationException e) {
+            throw new InterruptedIOException(String.format("Call to %s aborted while waiting for a coalesced call",
+                    request.getURI()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a coalesced upstream call");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (leader.request.isAborted()
+                    || (cause instanceof InterruptedIOException && allowsLonger(request, leader.request))) {
+                throw new LeaderLimitException();
+            }
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw (Error) cause;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return True if any timeout of the request is longer than the same timeout of the other request
+     */
+    private static boolean allowsLonger(HttpRequestBase request, HttpRequestBase other) {
+        RequestConfig config = request.getConfig();
+        RequestConfig otherConfig = other.getConfig();
+
+        if (config == null || otherConfig == null) {
+            return false;
+        }
+
+        return isLonger(config.getConnectionRequestTimeout(), otherConfig.getConnectionRequestTimeout())
+                || isLonger(config.getConnectTimeout(), otherConfig.getConnectTimeout())
+                || isLonger(config.getSocketTimeout(), otherConfig.getSocketTimeout());
+    }
+
+    /**
+     * A timeout of 0 or less is infinite
+     */
+    private static boolean isLonger(int timeoutMillis, int otherTimeoutMillis) {
+        return otherTimeoutMillis > 0 && (timeoutMillis <= 0 || timeoutMillis > otherTimeoutMillis);
+    }
+
+    private static boolean isCoalescable(HttpRequestBase request) {
+        return HttpGet.METHOD_NAME.equals(request.getMethod()) || HttpHead.METHOD_NAME.equals(request.getMethod());
+    }
+
+    /**
+     * The method, URI and headers of the request. Header order does not matter, and neither does name case
+     */
+    private static String key(HttpRequestBase request) {
+        Header[] headers = request.getAllHeaders();
+        Arrays.sort(headers, HEADER_ORDER);
+
+        StringBuilder key = new StringBuilder(request.getMethod())
+                .append(' ')
+                .append(request.getURI());
+
+        for (Header header : headers) {
+            key.append('\n')
+                    .append(header.getName().toLowerCase(Locale.ROOT))
+                    .append(':')
+                    .append(header.getValue());
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * A shared upstream call, made for the request of its leader
+     */
+    private static class Call {
+
+        private final HttpRequestBase request;
+        private final CompletableFuture<SharedResponse> response = new CompletableFuture<>();
+
+        Call(HttpRequestBase request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * Thrown to a waiting caller when the leader call ended at a limit of its own, for the caller to call again
+     */
+    private static class LeaderLimitException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * An immutable copy of a response, handed out to every waiting caller
+     */
+    private static class SharedResponse {
+
+        private final StatusLine statusLine;
+        private final Header[] headers;
+        private final byte[] body;
+        private final Header contentType;
+        private final Header contentEncoding;
+        private final boolean hasEntity;
+
+        SharedResponse(HttpResponse response, byte[] body) {
+            HttpEntity entity = response.getEntity();
+
+            this.statusLine = response.getStatusLine();
+            this.headers = response.getAllHeaders();
+            this.body = body;
+            this.hasEntity = entity != null;
+            this.contentType = entity != null ? entity.getContentType() : null;
+            this.contentEncoding = entity != null ? entity.getContentEncoding() : null;
+        }
+
+        HttpResponse toHttpResponse() {
+            HttpResponse response = new BasicHttpResponse(statusLine);
+            response.setHeaders(headers);
+
+            if (hasEntity) {
+                ByteArrayEntity entity = new ByteArrayEntity(body);
+                entity.setContentType(contentType);
+                entity.setContentEncoding(contentEncoding);
+                response.setEntity(entity);
+            }
+
+            return response;
+        }
+    }
+}
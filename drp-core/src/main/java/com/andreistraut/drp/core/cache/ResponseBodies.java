@@ -0,0 +1,106 @@
+package com.andreistraut.drp.core.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Reading upstream response bodies into memory, up to a limit, without losing them when they turn out larger
+ */
+final class ResponseBodies {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private ResponseBodies() {
+    }
+
+    /**
+     * Read the body of the given response into memory, unless it is larger than the given limit. Either way, the
+     * response entity is replaced so that the caller can still read the whole body from it: by one over the bytes
+     * read, or by one over the part already read followed by the rest of the upstream stream. On errors, the response
+     * is closed
+     *
+     * @param response The upstream response
+     * @param maxBytes The largest body to read into memory
+     * @return The body, empty if the response has none, or null if it is larger than the limit
+     * @throws IOException On errors reading the body
+     */
+    static byte[] buffer(HttpResponse response, int maxBytes) throws IOException {
+        HttpEntity entity = response.getEntity();
+
+        if (entity == null) {
+            return new byte[0];
+        }
+
+        if (entity.getContentLength() > maxBytes) {
+            return null;
+        }
+
+        try {
+            byte[] body = read(response, entity, maxBytes);
+
+            if (body != null) {
+                ByteArrayEntity buffered = new ByteArrayEntity(body);
+                buffered.setContentType(entity.getContentType());
+                buffered.setContentEncoding(entity.getContentEncoding());
+                response.setEntity(buffered);
+            }
+
+            return body;
+        } catch (IOException | RuntimeException e) {
+            close(response);
+            throw e;
+        }
+    }
+
+    private static byte[] read(HttpResponse response, HttpEntity entity, int maxBytes) throws IOException {
+        InputStream content = entity.getContent();
+
+        if (content == null) {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(
+                entity.getContentLength() >= 0 ? (int) entity.getContentLength() : READ_BUFFER_SIZE);
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int read;
+
+        while ((read = content.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+
+            if (body.size() > maxBytes) {
+                InputStreamEntity relayed = new InputStreamEntity(
+                        new SequenceInputStream(new ByteArrayInputStream(body.toByteArray()), content),
+                        entity.getContentLength());
+                relayed.setContentType(entity.getContentType());
+                relayed.setContentEncoding(entity.getContentEncoding());
+                response.setEntity(relayed);
+
+                return null;
+            }
+        }
+
+        content.close();
+
+        return body.toByteArray();
+    }
+
+    /**
+     * Discard the rest of the response body, and release its connection
+     */
+    static void close(HttpResponse response) throws IOException {
+        EntityUtils.consume(response.getEntity());
+
+        if (response instanceof Closeable) {
+            ((Closeable) response).close();
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.andreistraut.drp.core.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpTrace;
+
+/**
+ * An in-process HTTP cache for upstream GET responses, following the shared cache rules of RFC 7234. Responses are
+ * keyed by request URI and selected among variants by the request headers their Vary header names. Stored responses
+ * are served while fresh, according to Cache-Control max-age/s-maxage or Expires, and revalidated upstream with
+ * If-None-Match/If-Modified-Since once stale. The total size of the stored responses is bounded, and the least
+ * recently used URIs are evicted first. With a {@link DiskResponseStore}, responses evicted from memory move to disk,
+ * and responses too large for memory are written to disk directly, as long as their length is known upfront.
+ * Instances are thread-safe
+ */
+public class ResponseCache {
+
+    /**
+     * The upstream call made on cache misses and revalidations
+     */
+    @FunctionalInterface
+    public interface Upstream {
+
+        HttpResponse execute(HttpRequestBase request) throws IOException;
+    }
+
+    /** Statuses that are cacheable by default, as long as freshness or a validator is given */
+    private static final List<Integer> CACHEABLE_STATUSES = Arrays.asList(
+            HttpStatus.SC_OK,
+            HttpStatus.SC_NON_AUTHORITATIVE_INFORMATION,
+            HttpStatus.SC_MULTIPLE_CHOICES,
+            HttpStatus.SC_MOVED_PERMANENTLY,
+            HttpStatus.SC_NOT_FOUND,
+            HttpStatus.SC_GONE);
+
+    /** Request headers with which the client asks for something other than a plain, shareable response */
+    private static final List<String> BYPASSING_REQUEST_HEADERS = Arrays.asList(
+            HttpHeaders.AUTHORIZATION,
+            HttpHeaders.IF_NONE_MATCH,
+            HttpHeaders.IF_MODIFIED_SINCE,
+            HttpHeaders.IF_MATCH,
+            HttpHeaders.IF_UNMODIFIED_SINCE,
+            HttpHeaders.IF_RANGE,
+            HttpHeaders.RANGE);
+
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final CacheIndex memory;
+    private final DiskResponseStore disk;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+
+    /**
+     * @param maxBytes      The maximum total size of the stored responses, in bytes
+     * @param maxEntryBytes The maximum size of a single stored response, in bytes. Larger responses are relayed
+     * without being stored
+     */
+    public ResponseCache(long maxBytes, int maxEntryBytes) {
+        this(maxBytes, maxEntryBytes, null);
+    }
+
+    /**
+     * @param maxBytes      The maximum total size of the responses stored in memory, in bytes
+     * @param maxEntryBytes The maximum size of a single response stored in memory, in bytes
+     * @param disk          The disk tier, or null to keep responses in memory only
+     */
+    public ResponseCache(long maxBytes, int maxEntryBytes, DiskResponseStore disk) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Maximum cache size must be an integer larger than 0");
+        }
+
+        if (maxEntryBytes <= 0) {
+            throw new IllegalArgumentException("Maximum cache entry size must be an integer larger than 0");
+        }
+
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.disk = disk;
+        this.memory = new CacheIndex(maxBytes, Integer.MAX_VALUE, this::onMemoryRemoval);
+    }
+
+    /**
+     * Answer the given request from the cache if possible, otherwise from the upstream, storing the upstream response
+     * if it is cacheable. Successful unsafe requests (POST, PUT, DELETE...) invalidate the responses stored for
+     * their URI
+     *
+     * @param request  The request to answer
+     * @param upstream Executes the request upstream
+     * @return The response. When it comes from the cache, it carries an Age header
+     * @throws IOException Thrown by the upstream call, or on errors reading the upstream response body
+     */
+    public HttpResponse execute(HttpRequestBase request, Upstream upstream) throws IOException {
+        String method = request.getMethod();
+
+        if (!HttpGet.METHOD_NAME.equals(method)) {
+            HttpResponse response = upstream.execute(request);
+
+            if (!isSafeMethod(method) && isSuccessful(response)) {
+                invalidate(getKey(request));
+            }
+
+            return response;
+        }
+
+        CacheControl requestCacheControl = CacheControl.of(request);
+
+        if (requestCacheControl.isNoStore()
+                || BYPASSING_REQUEST_HEADERS.stream().anyMatch(request::containsHeader)) {
+            return upstream.execute(request);
+        }
+
+        String key = getKey(request);
+        CachedResponse cached = lookup(key, request);
+        long now = System.currentTimeMillis();
+
+        if (cached != null && !requestCacheControl.isNoCache()
+                && cached.isFresh(now, requestCacheControl.getMaxAgeSeconds())) {
+            HttpResponse response = serve(key, cached, now);
+
+            if (response != null) {
+                hits.increment();
+                return response;
+            }
+
+            cached = null;
+        }
+
+        if (cached != null && cached.hasValidator()) {
+            return revalidate(key, request, cached, upstream);
+        }
+
+        return fetch(key, request, upstream, cached);
+    }
+
+    private HttpResponse fetch(String key, HttpRequestBase request, Upstream upstream, CachedResponse replaced)
+            throws IOException {
+        misses.increment();
+
+        long requestTime = System.currentTimeMillis();
+        HttpResponse response = upstream.execute(request);
+
+        return store(key, request, response, requestTime, System.currentTimeMillis(), replaced);
+    }
+
+    /**
+     * @return The response to serve from the stored one, or null if its body file is gone, in which case it is
+     * removed
+     */
+    private HttpResponse serve(String key, CachedResponse cached, long now) {
+        try {
+            return cached.toHttpResponse(now);
+        } catch (IOException e) {
+            replace(key, cached, null);
+            return null;
+        }
+    }
+
+    private HttpResponse revalidate(String key, HttpRequestBase request, CachedResponse cached, Upstream upstream)
+            throws IOException {
+        if (cached.getETag() != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, cached.getETag());
+        }
+
+        if (cached.getLastModified() != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+        }
+
+        long requestTime = System.currentTimeMillis();
+        HttpResponse response;
+
+        try {
+            response = upstream.execute(request);
+        } finally {
+            request.removeHeaders(HttpHeaders.IF_NONE_MATCH);
+            request.removeHeaders(HttpHeaders.IF_MODIFIED_SINCE);
+        }
+
+        long responseTime = System.currentTimeMillis();
+
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_NOT_MODIFIED) {
+            misses.increment();
+            return store(key, request, response, requestTime, responseTime, cached);
+        }
+
+        ResponseBodies.close(response);
+        revalidations.increment();
+
+        CachedResponse revalidated = cached.revalidated(response, requestTime, responseTime);
+        replace(key, cached, revalidated);
+
+        HttpResponse served = serve(key, revalidated, responseTime);
+        return served != null ? served : fetch(key, request, upstream, null);
+    }
+
+    /**
+     * Store the given upstream response if it is cacheable, reading its body into memory. The returned response has
+     * the same status, headers and body as the upstream one
+     */
+    private HttpResponse store(String key, HttpRequestBase request, HttpResponse response,
+            long requestTime, long responseTime, CachedResponse replaced) throws IOException {
+        /** The new response supersedes the stored one, whether it is stored itself or not */
+        if (replaced != null) {
+            replace(key, replaced, null);
+        }
+
+        if (!isCacheable(response)) {
+            return response;
+        }
+
+        HttpEntity entity = response.getEntity();
+
+        if (entity != null && entity.getContentLength() > maxEntryBytes) {
+            if (disk != null && disk.accepts(entity.getContentLength())) {
+                storeOnDisk(key, request, response, requestTime, responseTime);
+            }
+
+            return response;
+        }
+
+        byte[] body = ResponseBodies.buffer(response, maxEntryBytes);
+
+        if (body == null) {
+            return response;
+        }
+
+        CachedResponse stored = CachedResponse.of(request, response, body, requestTime, responseTime);
+
+        if (stored.getWeight() <= maxEntryBytes) {
+            memory.put(key, stored);
+        } else if (disk != null) {
+            disk.demote(key, stored);
+        }
+
+        return response;
+    }
+
+    private void storeOnDisk(String key, HttpRequestBase request, HttpResponse response,
+            long requestTime, long responseTime) throws IOException {
+        try {
+            disk.store(key, request, response, requestTime, responseTime);
+        } catch (IOException | RuntimeException e) {
+            ResponseBodies.close(response);
+            throw e;
+        }
+    }
+
+    /**
+     * Responses evicted from memory move to the disk tier, unless they are stale and cannot be revalidated
+     */
+    private void onMemoryRemoval(String key, CachedResponse response, boolean evicted) {
+        if (evicted && disk != null
+                && (response.hasValidator() || response.isFresh(System.currentTimeMillis(), CacheControl.UNSPECIFIED))) {
+            disk.demote(key, response);
+        }
+    }
+
+    private static boolean isCacheable(HttpResponse response) {
+        if (!CACHEABLE_STATUSES.contains(response.getStatusLine().getStatusCode())) {
+            return false;
+        }
+
+        CacheControl cacheControl = CacheControl.of(response);
+
+        if (cacheControl.isNoStore() || cacheControl.isPrivate()
+                || response.containsHeader("Set-Cookie")
+                || Arrays.stream(response.getHeaders(HttpHeaders.VARY))
+                        .anyMatch(vary -> vary.getValue().trim().equals("*"))) {
+            return false;
+        }
+
+        return cacheControl.getMaxAgeSeconds() != CacheControl.UNSPECIFIED
+                || cacheControl.getSharedMaxAgeSeconds() != CacheControl.UNSPECIFIED
+                || response.containsHeader(HttpHeaders.EXPIRES)
+                || response.containsHeader(HttpHeaders.ETAG)
+                || response.containsHeader(HttpHeaders.LAST_MODIFIED);
+    }
+
+    private static boolean isSafeMethod(String method) {
+        return HttpHead.METHOD_NAME.equals(method)
+                || HttpOptions.METHOD_NAME.equals(method)
+                || HttpTrace.METHOD_NAME.equals(method);
+    }
+
+    private static boolean isSuccessful(HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        return status >= HttpStatus.SC_OK && status < HttpStatus.SC_BAD_REQUEST;
+    }
+
+    private static String getKey(HttpRequestBase request) {
+        return request.getURI().toString();
+    }
+
+    private CachedResponse lookup(String key, HttpRequestBase request) {
+        CachedResponse cached = memory.lookup(key, request);
+
+        if (cached == null && disk != null) {
+            cached = disk.lookup(key, request);
+        }
+
+        return cached;
+    }
+
+    /**
+     * Replace a stored response in the tier holding it, or remove it if the replacement is null
+     */
+    private void replace(String key, CachedResponse stored, CachedResponse replacement) {
+        if (stored.getBodyFile() != null) {
+            disk.replace(key, stored, replacement);
+        } else {
+            memory.replace(key, stored, replacement);
+        }
+    }
+
+    /**
+     * Remove all stored variants of the given URI
+     *
+     * @param uri The request URI
+     */
+    public void invalidate(String uri) {
+        memory.invalidate(uri);
+
+        if (disk != null) {
+            disk.invalidate(uri);
+        }
+    }
+
+    /**
+     * Remove all stored responses, from both tiers
+     */
+    public void clear() {
+        memory.clear();
+
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    /**
+     * @return The number of requests answered from the cache without contacting the upstream
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of requests for which the upstream sent a full response
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of requests answered from the cache after the upstream confirmed, with a 304, that the
+     * stored response was still valid
+     */
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    /**
+     * @return The number of stored responses evicted from memory to keep it within its size. With a disk tier, they
+     * are moved there
+     */
+    public long getEvictionCount() {
+        return memory.getEvictionCount();
+    }
+
+    /**
+     * @return The approximate total size of the responses stored in memory, in bytes
+     */
+    public long getSizeBytes() {
+        return memory.getSizeBytes();
+    }
+
+    /**
+     * @return The number of responses stored in memory
+     */
+    public int getEntryCount() {
+        return memory.getEntryCount();
+    }
+
+    /**
+     * @return The disk tier, or an empty Optional if responses are kept in memory only
+     */
+    public Optional<DiskResponseStore> getDiskStore() {
+        return Optional.ofNullable(disk);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,143 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.metrics.ProxyMetrics;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Dispatches the requests of a batch through a {@link RequestDispatcher}, a limited number at a time, and reports
+ * the result of each request as soon as it completes. The calls run in lanes: each lane takes the next request of the
+ * batch once its previous call completes, so no thread waits for a lane to free up
+ */
+public class BatchDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchDispatcher.class.getName());
+
+    private final RequestDispatcher dispatcher;
+    private final int concurrency;
+
+    /**
+     * @param dispatcher The dispatcher making the upstream calls, whose settings give the batch concurrency
+     */
+    public BatchDispatcher(RequestDispatcher dispatcher) {
+        this(dispatcher, dispatcher.getSettings().getBatchConcurrency());
+    }
+
+    /**
+     * @param dispatcher  The dispatcher making the upstream calls
+     * @param concurrency Maximum number of the calls of a batch in flight at once
+     */
+    public BatchDispatcher(RequestDispatcher dispatcher, int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Batch concurrency must be an integer larger than 0");
+        }
+
+        this.dispatcher = dispatcher;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Dispatch the requests of a batch, and report each result as it completes. Invalid requests are reported with
+     * their validation error, without an upstream call
+     *
+     * @param batch    The translated requests
+     * @param onResult Called once per request, in completion order, from a dispatcher thread or the calling thread
+     * @return A future completed once every result has been reported. It never completes exceptionally
+     */
+    public CompletableFuture<Void> dispatch(List<TranslationResult> batch, Consumer<BatchResult> onResult) {
+        Batch running = new Batch(batch, onResult);
+
+        if (batch.isEmpty()) {
+            running.done.complete(null);
+        }
+
+        for (int lane = 0; lane < Math.min(concurrency, batch.size()); lane++) {
+            dispatchNext(running);
+        }
+
+        return running.done;
+    }
+
+    /**
+     * Dispatch the requests of a batch, and collect their results
+     *
+     * @param batch The translated requests
+     * @return A future completed with the results, in request order, once every request has completed. It never
+     * completes exceptionally
+     */
+    public CompletableFuture<List<BatchResult>> dispatchAll(List<TranslationResult> batch) {
+        BatchResult[] results = new BatchResult[batch.size()];
+
+        return dispatch(batch, result -> results[result.getIndex()] = result)
+                .thenApply(ignored -> Arrays.asList(results));
+    }
+
+    /**
+     * Dispatch the next request of the batch on the calling lane. Invalid requests are reported on the spot, and the
+     * lane moves on to the request after them
+     */
+    private void dispatchNext(Batch batch) {
+        int index;
+
+        while ((index = batch.next.getAndIncrement()) < batch.requests.size()) {
+            TranslationResult translation = batch.requests.get(index);
+
+            if (!translation.isValid()) {
+                ProxyMetrics.getInstance().recordTranslationFailure();
+                batch.report(BatchResult.invalid(index, translation.getErrorMessage()));
+                continue;
+            }
+
+            int requestIndex = index;
+            HttpRequestBase request = translation.getRequestOrThrow();
+
+            dispatcher.executeAsync(request, response -> BatchResult.of(requestIndex, response))
+                    .whenComplete((result, error) -> {
+                        if (error != null) {
+                            LOGGER.log(Level.WARNING, String.format("Batch request %s to %s failed: %s",
+                                    requestIndex, request.getURI(), error.getMessage()));
+                        }
+
+                        batch.report(error == null ? result : BatchResult.failed(requestIndex, error));
+                        dispatchNext(batch);
+                    });
+            return;
+        }
+    }
+
+    /**
+     * The progress of a batch: the next request to dispatch, and the number of results still to report
+     */
+    private static final class Batch {
+
+        private final List<TranslationResult> requests;
+        private final Consumer<BatchResult> onResult;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Batch(List<TranslationResult> requests, Consumer<BatchResult> onResult) {
+            this.requests = requests;
+            this.onResult = onResult;
+            this.remaining = new AtomicInteger(requests.size());
+        }
+
+        private void report(BatchResult result) {
+            try {
+                onResult.accept(result);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, String.format("Could not report batch result: %s", e.getMessage()), e);
+            }
+
+            if (remaining.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+    }
+}
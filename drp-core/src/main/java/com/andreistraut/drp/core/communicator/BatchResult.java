@@ -0,0 +1,245 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.compression.ContentEncoding;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * The outcome of one request of a batch: the upstream response status, headers and body, or the status and message
+ * of the error that kept the request from getting a response. Results serialize to a Json object such as
+ * {"index":0,"status":200,"headers":{"Content-Type":"text/plain"},"body":"..."} or
+ * {"index":1,"status":400,"error":"..."}
+ */
+public final class BatchResult {
+
+    /** Content type of batch results written one Json object per line, as they complete */
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    /** Connection-specific headers, and those describing the upstream body encoding, are not relevant to results */
+    private static final List<String> EXCLUDED_HEADERS = Arrays.asList(
+            HttpHeaders.CONNECTION, "Keep-Alive", HttpHeaders.PROXY_AUTHENTICATE, HttpHeaders.PROXY_AUTHORIZATION,
+            HttpHeaders.TE, HttpHeaders.TRAILER, HttpHeaders.TRANSFER_ENCODING, HttpHeaders.UPGRADE,
+            HttpHeaders.CONTENT_LENGTH);
+    private static final String ACCESS_CONTROL_HEADER_PREFIX = "access-control-";
+
+    private final int index;
+    private final int status;
+    private final Map<String, String> headers;
+    private final String body;
+    private final String error;
+
+    private BatchResult(int index, int status, Map<String, String> headers, String body, String error) {
+        this.index = index;
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+        this.error = error;
+    }
+
+    /**
+     * Read the given upstream response into a result. The body is read fully, so this may block
+     *
+     * @param index    The position of the request in its batch
+     * @param response The upstream response
+     * @return The result
+     * @throws IOException On errors reading the response body
+     */
+    public static BatchResult of(int index, HttpResponse response) throws IOException {
+        /** Bodies are embedded in JSON as text, so they are decompressed first */
+        ContentEncoding.decode(response);
+
+        Map<String, String> headers = new LinkedHashMap<>();
+
+        for (Header header : response.getAllHeaders()) {
+            if (isExcludedHeader(header.getName())) {
+                continue;
+            }
+
+            /** Repeated headers are combined into one comma-separated value */
+            headers.merge(header.getName(), header.getValue(), (first, second) -> first + ", " + second);
+        }
+
+        String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+
+        return new BatchResult(index, response.getStatusLine().getStatusCode(),
+                Collections.unmodifiableMap(headers), body, null);
+    }
+
+    /**
+     * @param index        The position of the request in its batch
+     * @param errorMessage Why the request envelope could not be translated
+     * @return A 400 Bad Request result
+     */
+    public static BatchResult invalid(int index, String errorMessage) {
+        return new BatchResult(index, HttpStatus.SC_BAD_REQUEST, Collections.emptyMap(), null, errorMessage);
+    }
+
+    /**
+     * Map an upstream call failure to a result, with the status a single request failing the same way gets: 503
+     * if the call was refused, 504 if it timed out or passed its deadline, and 500 otherwise
+     *
+     * @param index The position of the request in its batch
+     * @param error The failure, possibly wrapped in a CompletionException
+     * @return The result
+     */
+    public static BatchResult failed(int index, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+
+        int status;
+        Map<String, String> headers = Collections.emptyMap();
+
+        if (cause instanceof RejectedExecutionException || cause instanceof UpstreamUnavailableException) {
+            status = HttpStatus.SC_SERVICE_UNAVAILABLE;
+
+            if (cause instanceof UpstreamUnavailableException
+                    && ((UpstreamUnavailableException) cause).getRetryAfterSeconds() > 0) {
+                headers = Collections.singletonMap(HttpHeaders.RETRY_AFTER,
+                        String.valueOf(((UpstreamUnavailableException) cause).getRetryAfterSeconds()));
+            }
+        } else if (cause instanceof InterruptedIOException) {
+            status = HttpStatus.SC_GATEWAY_TIMEOUT;
+        } else {
+            status = HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        }
+
+        return new BatchResult(index, status, headers, null,
+                String.format("%s: %s", cause.getClass().getSimpleName(), cause.getMessage()));
+    }
+
+    /**
+     * @param results Batch results
+     * @return The results as a Json array, in the given order
+     */
+    public static String toJsonArray(List<BatchResult> results) {
+        StringWriter out = new StringWriter();
+
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginArray();
+
+            for (BatchResult result : results) {
+                result.write(writer);
+            }
+
+            writer.endArray();
+            writer.flush();
+        } catch (IOException e) {
+            /** Writing to a StringWriter never fails */
+            throw new IllegalStateException(e);
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * @param results Batch results
+     * @return The results one Json object per line, in the given order
+     */
+    public static String toNdjson(List<BatchResult> results) {
+        StringBuilder out = new StringBuilder();
+
+        for (BatchResult result : results) {
+            out.append(result.toJson()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * @return The position of the request in its batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The upstream response status, or the status of the error
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The upstream response headers, or the headers of the error
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return The upstream response body, decoded with its charset, defaulting to UTF-8, or null on errors
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return The error message, or null if the request got an upstream response
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return The result as a single line Json object
+     */
+    public String toJson() {
+        StringWriter out = new StringWriter();
+
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            write(writer);
+            writer.flush();
+        } catch (IOException e) {
+            /** Writing to a StringWriter never fails */
+            throw new IllegalStateException(e);
+        }
+
+        return out.toString();
+    }
+
+    private void write(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("index").value(index);
+        writer.name("status").value(status);
+
+        if (!headers.isEmpty()) {
+            writer.name("headers").beginObject();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                writer.name(header.getKey()).value(header.getValue());
+            }
+            writer.endObject();
+        }
+
+        if (error != null) {
+            writer.name("error").value(error);
+        } else {
+            writer.name("body").value(body);
+        }
+
+        writer.endObject();
+    }
+
+    private static boolean isExcludedHeader(String headerName) {
+        String name = headerName.trim();
+
+        return name.toLowerCase().startsWith(ACCESS_CONTROL_HEADER_PREFIX)
+                || EXCLUDED_HEADERS.stream().anyMatch(excluded -> excluded.equalsIgnoreCase(name));
+    }
+}
@@ -0,0 +1,232 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Encodes request bodies into UTF-8 bytes, either as they are or form url-encoded, as {@link java.net.URLEncoder}
+ * does, but without looking up the charset or building intermediate strings. Bodies are written into a buffer owned
+ * by the calling thread and reused by every body it encodes; only the finished body is copied out. As a
+ * {@link Writer}, the encoder lets a Json writer produce its text straight into the buffer
+ */
+final class BodyEncoder extends Writer {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** Buffers grown past this size by a large body are not kept for the next one */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final ThreadLocal<BodyEncoder> ENCODERS = ThreadLocal.withInitial(BodyEncoder::new);
+
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    /** The ASCII characters form url-encoding leaves as they are */
+    private static final boolean[] SAFE = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            SAFE[c] = true;
+            SAFE[Character.toUpperCase(c)] = true;
+        }
+
+        for (char c = '0'; c <= '9'; c++) {
+            SAFE[c] = true;
+        }
+
+        SAFE['.'] = true;
+        SAFE['-'] = true;
+        SAFE['*'] = true;
+        SAFE['_'] = true;
+    }
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count;
+    private boolean urlEncoding;
+    private boolean fieldWritten;
+    private char highSurrogate;
+
+    private BodyEncoder() {
+    }
+
+    /**
+     * @return The encoder of the calling thread, emptied. It must not be used past the body being encoded
+     */
+    static BodyEncoder get() {
+        BodyEncoder encoder = ENCODERS.get();
+        encoder.count = 0;
+        encoder.urlEncoding = false;
+        encoder.fieldWritten = false;
+        encoder.highSurrogate = 0;
+
+        return encoder;
+    }
+
+    /**
+     * Start a form field, separated from the previous one, if any, and url-encode the characters written next, which
+     * make up its value
+     *
+     * @param name The field name
+     */
+    void beginFormField(CharSequence name) {
+        flushSurrogate();
+        urlEncoding = false;
+
+        if (fieldWritten) {
+            put((byte) '&');
+        }
+
+        writeUrlEncoded(name);
+        put((byte) '=');
+
+        fieldWritten = true;
+        urlEncoding = true;
+    }
+
+    /**
+     * @param value The characters to write url-encoded, whatever the current mode
+     */
+    void writeUrlEncoded(CharSequence value) {
+        boolean previous = urlEncoding;
+        urlEncoding = true;
+
+        for (int i = 0; i < value.length(); i++) {
+            writeChar(value.charAt(i));
+        }
+
+        flushSurrogate();
+        urlEncoding = previous;
+    }
+
+    /**
+     * @return A copy of the encoded body
+     */
+    byte[] toByteArray() {
+        flushSurrogate();
+        byte[] body = Arrays.copyOf(buffer, count);
+
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+
+        count = 0;
+
+        return body;
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(string.charAt(i));
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            writeChar(chars.charAt(i));
+        }
+
+        return this;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void writeChar(char c) {
+        if (c < 0x80 && highSurrogate == 0) {
+            writeByte(c);
+            return;
+        }
+
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+
+            writeByte('?');
+        }
+
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeByte('?');
+        } else {
+            writeCodePoint(c);
+        }
+    }
+
+    /**
+     * A high surrogate left unpaired is replaced, as String.getBytes does
+     */
+    private void flushSurrogate() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            writeByte('?');
+        }
+    }
+
+    private void writeCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            writeByte(codePoint);
+        } else if (codePoint < 0x800) {
+            writeByte(0xC0 | (codePoint >> 6));
+            writeByte(0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            writeByte(0xE0 | (codePoint >> 12));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+        } else {
+            writeByte(0xF0 | (codePoint >> 18));
+            writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+            writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+            writeByte(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void writeByte(int b) {
+        if (!urlEncoding || (b < 0x80 && SAFE[b])) {
+            put((byte) b);
+        } else if (b == ' ') {
+            put((byte) '+');
+        } else {
+            ensureCapacity(3);
+            buffer[count++] = '%';
+            buffer[count++] = HEX_DIGITS[(b >> 4) & 0xF];
+            buffer[count++] = HEX_DIGITS[b & 0xF];
+        }
+    }
+
+    private void put(byte b) {
+        ensureCapacity(1);
+        buffer[count++] = b;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + length));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.andreistraut.drp.core.communicator;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.util.ReferenceCounted;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * An HttpComponents entity backed by a Netty buffer, so that request bodies received by Netty can be forwarded
+ * without being copied or decoded. The entity holds one reference to the buffer, and must be released once the
+ * request has been sent
+ */
+public class ByteBufEntity extends AbstractHttpEntity implements ReferenceCounted {
+
+    private final ByteBuf content;
+
+    /**
+     * @param content The body. The entity takes over one reference to it
+     */
+    public ByteBufEntity(ByteBuf content) {
+        if (content == null) {
+            throw new IllegalArgumentException("Content buffer cannot be null");
+        }
+
+        this.content = content;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.readableBytes();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new ByteBufInputStream(content.duplicate());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream cannot be null");
+        }
+
+        content.getBytes(content.readerIndex(), outstream, content.readableBytes());
+        outstream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public int refCnt() {
+        return content.refCnt();
+    }
+
+    @Override
+    public ByteBufEntity retain() {
+        content.retain();
+        return this;
+    }
+
+    @Override
+    public ByteBufEntity retain(int increment) {
+        content.retain(increment);
+        return this;
+    }
+
+    @Override
+    public ByteBufEntity touch() {
+        content.touch();
+        return this;
+    }
+
+    @Override
+    public ByteBufEntity touch(Object hint) {
+        content.touch(hint);
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return content.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return content.release(decrement);
+    }
+}
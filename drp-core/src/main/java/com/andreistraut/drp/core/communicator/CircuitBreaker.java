@@ -0,0 +1,172 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker for the calls to one upstream host. The outcomes of the last calls are kept in a fixed-size
+ * window; once enough calls are recorded, and the share of failed or slow calls in the window reaches its threshold,
+ * the breaker opens and calls are refused without contacting the host. After a while, the breaker lets a few probe
+ * calls through: if they all succeed, it closes again, otherwise it stays open for another period. Instances are
+ * thread-safe
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final LongSupplier nanoClock;
+
+    /** Ring buffers of the outcomes of the last calls */
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int nextCall;
+    private int recordedCalls;
+    private int failedCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private int admittedProbes;
+    private int succeededProbes;
+    private long openCount;
+
+    /**
+     * @param settings The dispatcher settings holding the circuit breaker thresholds
+     */
+    public CircuitBreaker(DispatcherSettings settings) {
+        this(settings, System::nanoTime);
+    }
+
+    CircuitBreaker(DispatcherSettings settings, LongSupplier nanoClock) {
+        this.failureRateThreshold = settings.getCircuitBreakerFailureRateThreshold();
+        this.slowCallRateThreshold = settings.getCircuitBreakerSlowCallRateThreshold();
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(settings.getCircuitBreakerSlowCallMillis());
+        this.minimumCalls = Math.min(settings.getCircuitBreakerMinimumCalls(), settings.getCircuitBreakerWindowSize());
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(settings.getCircuitBreakerOpenMillis());
+        this.halfOpenCalls = settings.getCircuitBreakerHalfOpenCalls();
+        this.nanoClock = nanoClock;
+
+        this.failedCalls = new boolean[settings.getCircuitBreakerWindowSize()];
+        this.slowCalls = new boolean[settings.getCircuitBreakerWindowSize()];
+    }
+
+    /**
+     * Ask to make a call. Every permitted call must be followed by {@link #onResult(boolean, long)}
+     *
+     * @return Whether the call may go ahead
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAtNanos < openNanos) {
+                return false;
+            }
+
+            state = State.HALF_OPEN;
+            admittedProbes = 0;
+            succeededProbes = 0;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (admittedProbes >= halfOpenCalls) {
+                return false;
+            }
+
+            admittedProbes++;
+        }
+
+        return true;
+    }
+
+    /**
+     * Record the outcome of a permitted call
+     *
+     * @param failed        Whether the call failed
+     * @param durationNanos How long the call took
+     */
+    public synchronized void onResult(boolean failed, long durationNanos) {
+        boolean slow = durationNanos >= slowCallNanos;
+
+        switch (state) {
+            case CLOSED:
+                record(failed, slow);
+
+                if (recordedCalls >= minimumCalls
+                        && (failedCount * 100 >= failureRateThreshold * recordedCalls
+                        || slowCount * 100 >= slowCallRateThreshold * recordedCalls)) {
+                    open();
+                }
+                break;
+
+            case HALF_OPEN:
+                if (failed || slow) {
+                    open();
+                } else if (++succeededProbes >= halfOpenCalls) {
+                    close();
+                }
+                break;
+
+            default:
+                /** Calls started before the breaker opened */
+                break;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return How long until the open breaker lets probe calls through, in milliseconds, or 0 if it is not open
+     */
+    public synchronized long getRetryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openedAtNanos + openNanos - nanoClock.getAsLong()));
+    }
+
+    /**
+     * @return The number of times the breaker has opened
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    private void record(boolean failed, boolean slow) {
+        if (recordedCalls == failedCalls.length) {
+            failedCount -= failedCalls[nextCall] ? 1 : 0;
+            slowCount -= slowCalls[nextCall] ? 1 : 0;
+        } else {
+            recordedCalls++;
+        }
+
+        failedCalls[nextCall] = failed;
+        slowCalls[nextCall] = slow;
+        failedCount += failed ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        nextCall = (nextCall + 1) % failedCalls.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAtNanos = nanoClock.getAsLong();
+        openCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        nextCall = 0;
+        recordedCalls = 0;
+        failedCount = 0;
+        slowCount = 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when an upstream call is abandoned because its deadline passed, whether the deadline is configured for its
+ * route or given by the client. Servers answer it with 504 Gateway Timeout
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message The call that was abandoned, and its deadline
+     */
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,663 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+/**
+ * Tuning parameters for a {@link RequestDispatcher} instance. All values have sensible defaults, so a settings
+ * object only needs the values that differ from them
+ */
+public class DispatcherSettings {
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 60_000;
+    public static final int DEFAULT_DEADLINE_MILLIS = 0;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    public static final int DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 30_000;
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS = 2_000;
+    public static final int DEFAULT_DISPATCH_THREADS = DEFAULT_MAX_CONNECTIONS_TOTAL;
+    public static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1_000;
+    public static final long DEFAULT_RESPONSE_CACHE_MAX_BYTES = 0;
+    public static final int DEFAULT_RESPONSE_CACHE_MAX_ENTRY_BYTES = 1_048_576;
+    public static final long DEFAULT_RESPONSE_CACHE_DISK_MAX_BYTES = 1_073_741_824;
+    public static final long DEFAULT_RESPONSE_CACHE_DISK_MAX_ENTRY_BYTES = 268_435_456;
+    public static final int DEFAULT_RESPONSE_CACHE_DISK_MAX_ENTRIES = 100_000;
+    public static final int DEFAULT_COALESCED_RESPONSE_MAX_BYTES = 1_048_576;
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD = 100;
+    public static final int DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_MILLIS = 10_000;
+    public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+    public static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 10;
+    public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS = 30_000;
+    public static final int DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS = 3;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 0;
+    public static final int DEFAULT_HTTP2_CONNECTIONS_PER_HOST = 2;
+    public static final int DEFAULT_BATCH_CONCURRENCY = 8;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_DNS_CACHE_TTL_MILLIS = 0;
+    public static final int DEFAULT_DNS_NEGATIVE_TTL_MILLIS = 5_000;
+
+    private int connectTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private int connectionRequestTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private int socketTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private int deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+    private final Map<String, RouteTimeouts> routeTimeouts = new LinkedHashMap<>();
+    private int maxConnectionsTotal = DEFAULT_MAX_CONNECTIONS_TOTAL;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int idleConnectionTimeoutMillis = DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+    private int validateAfterInactivityMillis = DEFAULT_VALIDATE_AFTER_INACTIVITY_MILLIS;
+    private int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+    private int dispatchQueueSize = DEFAULT_DISPATCH_QUEUE_SIZE;
+    private long responseCacheMaxBytes = DEFAULT_RESPONSE_CACHE_MAX_BYTES;
+    private int responseCacheMaxEntryBytes = DEFAULT_RESPONSE_CACHE_MAX_ENTRY_BYTES;
+    private String responseCacheDirectory = null;
+    private long responseCacheDiskMaxBytes = DEFAULT_RESPONSE_CACHE_DISK_MAX_BYTES;
+    private long responseCacheDiskMaxEntryBytes = DEFAULT_RESPONSE_CACHE_DISK_MAX_ENTRY_BYTES;
+    private int responseCacheDiskMaxEntries = DEFAULT_RESPONSE_CACHE_DISK_MAX_ENTRIES;
+    private boolean coalesceRequests = false;
+    private int coalescedResponseMaxBytes = DEFAULT_COALESCED_RESPONSE_MAX_BYTES;
+    private boolean circuitBreakerEnabled = false;
+    private int circuitBreakerFailureRateThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD;
+    private int circuitBreakerSlowCallRateThreshold = DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD;
+    private int circuitBreakerSlowCallMillis = DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_MILLIS;
+    private int circuitBreakerWindowSize = DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+    private int circuitBreakerMinimumCalls = DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS;
+    private int circuitBreakerOpenMillis = DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS;
+    private int circuitBreakerHalfOpenCalls = DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_CALLS;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private boolean http2Enabled = false;
+    private int http2ConnectionsPerHost = DEFAULT_HTTP2_CONNECTIONS_PER_HOST;
+    private int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private boolean decompressResponses = true;
+    private DnsResolver dnsResolver = SystemDefaultDnsResolver.INSTANCE;
+    private int dnsCacheTtlMillis = DEFAULT_DNS_CACHE_TTL_MILLIS;
+    private int dnsNegativeTtlMillis = DEFAULT_DNS_NEGATIVE_TTL_MILLIS;
+    private boolean dnsRefreshAhead = true;
+
+    /**
+     * @param timeoutMillis Connect, connection request (pool lease) and socket timeout, in milliseconds, for the routes
+     * without timeouts of their own
+     */
+    public void setTimeoutMillis(int timeoutMillis) {
+        setConnectTimeoutMillis(timeoutMillis);
+        setConnectionRequestTimeoutMillis(timeoutMillis);
+        setSocketTimeoutMillis(timeoutMillis);
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @param connectTimeoutMillis Connect timeout, in milliseconds. 0 waits indefinitely
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getConnectionRequestTimeoutMillis() {
+        return connectionRequestTimeoutMillis;
+    }
+
+    /**
+     * @param connectionRequestTimeoutMillis Timeout for leasing a pooled connection, in milliseconds. 0 waits
+     * indefinitely
+     */
+    public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+        if (connectionRequestTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+
+        this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    /**
+     * @param socketTimeoutMillis Timeout between two packets read from the upstream, in milliseconds. 0 waits
+     * indefinitely
+     */
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        if (socketTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    public int getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * @param deadlineMillis Total time allowed for an upstream call, until its response head is received, in
+     * milliseconds. Calls still running at their deadline are aborted. 0 sets no deadline
+     */
+    public void setDeadlineMillis(int deadlineMillis) {
+        if (deadlineMillis < 0) {
+            throw new IllegalArgumentException("Deadline cannot be negative");
+        }
+
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @return The timeouts of the routes without timeouts of their own
+     */
+    public RouteTimeouts getDefaultTimeouts() {
+        return new RouteTimeouts(connectTimeoutMillis, connectionRequestTimeoutMillis, socketTimeoutMillis,
+                deadlineMillis);
+    }
+
+    /**
+     * @return The timeouts of specific routes, by endpoint URL pattern, in the order they were added
+     */
+    public Map<String, RouteTimeouts> getRouteTimeouts() {
+        return Collections.unmodifiableMap(routeTimeouts);
+    }
+
+    /**
+     * Set the timeouts of the endpoints matching a pattern. The pattern is matched against the whole endpoint URL,
+     * and a {@code *} in it matches any characters, as in {@code http://reports.example.com/*}. The first pattern
+     * added that matches an endpoint decides its timeouts
+     *
+     * @param urlPattern The endpoint URL pattern
+     * @param timeouts   The timeouts of the matching endpoints
+     */
+    public void addRouteTimeouts(String urlPattern, RouteTimeouts timeouts) {
+        if (urlPattern == null || urlPattern.trim().isEmpty()) {
+            throw new IllegalArgumentException("Route URL pattern cannot be empty");
+        }
+
+        if (timeouts == null) {
+            throw new IllegalArgumentException("Route timeouts cannot be null");
+        }
+
+        this.routeTimeouts.put(urlPattern.trim(), timeouts);
+    }
+
+    public int getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    /**
+     * @param maxConnectionsTotal Maximum number of pooled upstream connections, across all hosts
+     */
+    public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+        if (maxConnectionsTotal <= 0) {
+            throw new IllegalArgumentException("Maximum total connections must be an integer larger than 0");
+        }
+
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @param maxConnectionsPerRoute Maximum number of pooled upstream connections to a single host
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if (maxConnectionsPerRoute <= 0) {
+            throw new IllegalArgumentException("Maximum connections per route must be an integer larger than 0");
+        }
+
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getIdleConnectionTimeoutMillis() {
+        return idleConnectionTimeoutMillis;
+    }
+
+    /**
+     * @param idleConnectionTimeoutMillis Pooled connections idle for longer than this are closed in the background
+     */
+    public void setIdleConnectionTimeoutMillis(int idleConnectionTimeoutMillis) {
+        if (idleConnectionTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Idle connection timeout must be an integer larger than 0");
+        }
+
+        this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+    }
+
+    public int getValidateAfterInactivityMillis() {
+        return validateAfterInactivityMillis;
+    }
+
+    /**
+     * @param validateAfterInactivityMillis Pooled connections idle for longer than this are checked for staleness
+     * before being leased again
+     */
+    public void setValidateAfterInactivityMillis(int validateAfterInactivityMillis) {
+        this.validateAfterInactivityMillis = validateAfterInactivityMillis;
+    }
+
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    /**
+     * @param dispatchThreads Maximum number of asynchronous dispatches waiting on upstream I/O at the same time
+     */
+    public void setDispatchThreads(int dispatchThreads) {
+        if (dispatchThreads <= 0) {
+            throw new IllegalArgumentException("Dispatch thread count must be an integer larger than 0");
+        }
+
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    public int getDispatchQueueSize() {
+        return dispatchQueueSize;
+    }
+
+    /**
+     * @param dispatchQueueSize Maximum number of asynchronous dispatches waiting for a free dispatch thread. Further
+     * dispatches are rejected
+     */
+    public void setDispatchQueueSize(int dispatchQueueSize) {
+        if (dispatchQueueSize <= 0) {
+            throw new IllegalArgumentException("Dispatch queue size must be an integer larger than 0");
+        }
+
+        this.dispatchQueueSize = dispatchQueueSize;
+    }
+
+    public long getResponseCacheMaxBytes() {
+        return responseCacheMaxBytes;
+    }
+
+    /**
+     * @param responseCacheMaxBytes Maximum total size, in bytes, of the upstream GET responses kept in memory and
+     * served again while fresh. 0 disables the response cache
+     */
+    public void setResponseCacheMaxBytes(long responseCacheMaxBytes) {
+        if (responseCacheMaxBytes < 0) {
+            throw new IllegalArgumentException("Response cache size cannot be negative");
+        }
+
+        this.responseCacheMaxBytes = responseCacheMaxBytes;
+    }
+
+    public int getResponseCacheMaxEntryBytes() {
+        return responseCacheMaxEntryBytes;
+    }
+
+    /**
+     * @param responseCacheMaxEntryBytes Maximum size, in bytes, of a single cached response. Larger responses are
+     * relayed without being cached
+     */
+    public void setResponseCacheMaxEntryBytes(int responseCacheMaxEntryBytes) {
+        if (responseCacheMaxEntryBytes <= 0) {
+            throw new IllegalArgumentException("Response cache entry size must be an integer larger than 0");
+        }
+
+        this.responseCacheMaxEntryBytes = responseCacheMaxEntryBytes;
+    }
+
+    public String getResponseCacheDirectory() {
+        return responseCacheDirectory;
+    }
+
+    /**
+     * @param responseCacheDirectory Directory for the disk tier of the response cache, which takes the responses
+     * evicted from memory or too large for it, and keeps them across restarts. Null keeps responses in memory only.
+     * Ignored if the response cache is disabled
+     */
+    public void setResponseCacheDirectory(String responseCacheDirectory) {
+        this.responseCacheDirectory = responseCacheDirectory;
+    }
+
+    public long getResponseCacheDiskMaxBytes() {
+        return responseCacheDiskMaxBytes;
+    }
+
+    /**
+     * @param responseCacheDiskMaxBytes Maximum total size, in bytes, of the responses in the disk tier
+     */
+    public void setResponseCacheDiskMaxBytes(long responseCacheDiskMaxBytes) {
+        if (responseCacheDiskMaxBytes <= 0) {
+            throw new IllegalArgumentException("Disk cache size must be an integer larger than 0");
+        }
+
+        this.responseCacheDiskMaxBytes = responseCacheDiskMaxBytes;
+    }
+
+    public long getResponseCacheDiskMaxEntryBytes() {
+        return responseCacheDiskMaxEntryBytes;
+    }
+
+    /**
+     * @param responseCacheDiskMaxEntryBytes Maximum size, in bytes, of a single response body in the disk tier
+     */
+    public void setResponseCacheDiskMaxEntryBytes(long responseCacheDiskMaxEntryBytes) {
+        if (responseCacheDiskMaxEntryBytes <= 0) {
+            throw new IllegalArgumentException("Disk cache entry size must be an integer larger than 0");
+        }
+
+        this.responseCacheDiskMaxEntryBytes = responseCacheDiskMaxEntryBytes;
+    }
+
+    public int getResponseCacheDiskMaxEntries() {
+        return responseCacheDiskMaxEntries;
+    }
+
+    /**
+     * @param responseCacheDiskMaxEntries Maximum number of responses in the disk tier, which bounds the memory used to
+     * index them
+     */
+    public void setResponseCacheDiskMaxEntries(int responseCacheDiskMaxEntries) {
+        if (responseCacheDiskMaxEntries <= 0) {
+            throw new IllegalArgumentException("Disk cache entry count must be an integer larger than 0");
+        }
+
+        this.responseCacheDiskMaxEntries = responseCacheDiskMaxEntries;
+    }
+
+    public boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    /**
+     * @param coalesceRequests Whether concurrent identical GET and HEAD requests share a single upstream call, whose
+     * response is copied to each of them
+     */
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    public int getCoalescedResponseMaxBytes() {
+        return coalescedResponseMaxBytes;
+    }
+
+    /**
+     * @param coalescedResponseMaxBytes Maximum size, in bytes, of a response body shared by coalesced requests. The
+     * requests waiting on a larger response make their own upstream calls
+     */
+    public void setCoalescedResponseMaxBytes(int coalescedResponseMaxBytes) {
+        if (coalescedResponseMaxBytes <= 0) {
+            throw new IllegalArgumentException("Coalesced response size must be an integer larger than 0");
+        }
+
+        this.coalescedResponseMaxBytes = coalescedResponseMaxBytes;
+    }
+
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    /**
+     * @param circuitBreakerEnabled Whether each upstream host gets a circuit breaker, which refuses calls to the host
+     * with 503 Service Unavailable while it keeps failing or answering slowly
+     */
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+
+    public int getCircuitBreakerFailureRateThreshold() {
+        return circuitBreakerFailureRateThreshold;
+    }
+
+    /**
+     * @param circuitBreakerFailureRateThreshold Percentage of failed calls (I/O errors and 5xx responses) among
+     * the last calls to a host from which its circuit breaker opens
+     */
+    public void setCircuitBreakerFailureRateThreshold(int circuitBreakerFailureRateThreshold) {
+        if (circuitBreakerFailureRateThreshold <= 0 || circuitBreakerFailureRateThreshold > 100) {
+            throw new IllegalArgumentException("Failure rate threshold must be a percentage between 1 and 100");
+        }
+
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+    }
+
+    public int getCircuitBreakerSlowCallRateThreshold() {
+        return circuitBreakerSlowCallRateThreshold;
+    }
+
+    /**
+     * @param circuitBreakerSlowCallRateThreshold Percentage of slow calls among the last calls to a host from
+     * which its circuit breaker opens
+     */
+    public void setCircuitBreakerSlowCallRateThreshold(int circuitBreakerSlowCallRateThreshold) {
+        if (circuitBreakerSlowCallRateThreshold <= 0 || circuitBreakerSlowCallRateThreshold > 100) {
+            throw new IllegalArgumentException("Slow call rate threshold must be a percentage between 1 and 100");
+        }
+
+        this.circuitBreakerSlowCallRateThreshold = circuitBreakerSlowCallRateThreshold;
+    }
+
+    public int getCircuitBreakerSlowCallMillis() {
+        return circuitBreakerSlowCallMillis;
+    }
+
+    /**
+     * @param circuitBreakerSlowCallMillis Calls taking at least this long, in milliseconds, count as slow
+     */
+    public void setCircuitBreakerSlowCallMillis(int circuitBreakerSlowCallMillis) {
+        if (circuitBreakerSlowCallMillis <= 0) {
+            throw new IllegalArgumentException("Slow call duration must be an integer larger than 0");
+        }
+
+        this.circuitBreakerSlowCallMillis = circuitBreakerSlowCallMillis;
+    }
+
+    public int getCircuitBreakerWindowSize() {
+        return circuitBreakerWindowSize;
+    }
+
+    /**
+     * @param circuitBreakerWindowSize Number of last calls to a host whose outcomes are considered
+     */
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        if (circuitBreakerWindowSize <= 0) {
+            throw new IllegalArgumentException("Circuit breaker window size must be an integer larger than 0");
+        }
+
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+    }
+
+    public int getCircuitBreakerMinimumCalls() {
+        return circuitBreakerMinimumCalls;
+    }
+
+    /**
+     * @param circuitBreakerMinimumCalls Number of calls to a host to record before its circuit breaker
+     * may open
+     */
+    public void setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+        if (circuitBreakerMinimumCalls <= 0) {
+            throw new IllegalArgumentException("Circuit breaker minimum calls must be an integer larger than 0");
+        }
+
+        this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+    }
+
+    public int getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    /**
+     * @param circuitBreakerOpenMillis How long an open circuit breaker refuses calls, in milliseconds, before
+     * letting probe calls through
+     */
+    public void setCircuitBreakerOpenMillis(int circuitBreakerOpenMillis) {
+        if (circuitBreakerOpenMillis <= 0) {
+            throw new IllegalArgumentException("Circuit breaker open duration must be an integer larger than 0");
+        }
+
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    public int getCircuitBreakerHalfOpenCalls() {
+        return circuitBreakerHalfOpenCalls;
+    }
+
+    /**
+     * @param circuitBreakerHalfOpenCalls Number of probe calls that must all succeed for an open circuit breaker
+     * to close again
+     */
+    public void setCircuitBreakerHalfOpenCalls(int circuitBreakerHalfOpenCalls) {
+        if (circuitBreakerHalfOpenCalls <= 0) {
+            throw new IllegalArgumentException("Circuit breaker probe calls must be an integer larger than 0");
+        }
+
+        this.circuitBreakerHalfOpenCalls = circuitBreakerHalfOpenCalls;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * @param maxRequestsPerHost Maximum number of calls in flight to a single upstream host. Further calls are
+     * refused with 503 Service Unavailable rather than queued. 0 leaves the calls unbounded
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 0) {
+            throw new IllegalArgumentException("Maximum requests per host cannot be negative");
+        }
+
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * @param http2Enabled Whether plain HTTP upstream calls are first tried over HTTP/2, multiplexed over a few
+     * connections per host. Hosts that do not accept HTTP/2 are called over the HTTP/1.1 connection pool
+     */
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public int getHttp2ConnectionsPerHost() {
+        return http2ConnectionsPerHost;
+    }
+
+    /**
+     * @param http2ConnectionsPerHost Maximum number of HTTP/2 connections to a single upstream host, over which its
+     * concurrent calls are spread
+     */
+    public void setHttp2ConnectionsPerHost(int http2ConnectionsPerHost) {
+        if (http2ConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("HTTP/2 connections per host must be an integer larger than 0");
+        }
+
+        this.http2ConnectionsPerHost = http2ConnectionsPerHost;
+    }
+
+    public int getBatchConcurrency() {
+        return batchConcurrency;
+    }
+
+    /**
+     * @param batchConcurrency Maximum number of the calls of a single batch request in flight at once
+     */
+    public void setBatchConcurrency(int batchConcurrency) {
+        if (batchConcurrency <= 0) {
+            throw new IllegalArgumentException("Batch concurrency must be an integer larger than 0");
+        }
+
+        this.batchConcurrency = batchConcurrency;
+    }
+
+    public boolean isDecompressResponses() {
+        return decompressResponses;
+    }
+
+    /**
+     * @param decompressResponses Whether gzip and deflate encoded upstream bodies are decompressed before being
+     * returned. Servers that relay compressed bodies as they are, to the clients that accept them, turn this off and
+     * decompress the others themselves
+     */
+    public void setDecompressResponses(boolean decompressResponses) {
+        this.decompressResponses = decompressResponses;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize Maximum number of requests in a single batch request. Larger batches are refused whole
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Maximum batch size must be an integer larger than 0");
+        }
+
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    /**
+     * @param dnsResolver Resolver of upstream host names, such as a hosts file. The JVM's resolver by default
+     */
+    public void setDnsResolver(DnsResolver dnsResolver) {
+        if (dnsResolver == null) {
+            throw new IllegalArgumentException("DNS resolver cannot be null");
+        }
+
+        this.dnsResolver = dnsResolver;
+    }
+
+    public int getDnsCacheTtlMillis() {
+        return dnsCacheTtlMillis;
+    }
+
+    /**
+     * @param dnsCacheTtlMillis How long, in milliseconds, the dispatcher caches the addresses of upstream hosts, on
+     * top of any caching by the resolver itself. 0 disables the cache
+     */
+    public void setDnsCacheTtlMillis(int dnsCacheTtlMillis) {
+        if (dnsCacheTtlMillis < 0) {
+            throw new IllegalArgumentException("DNS cache time to live cannot be negative");
+        }
+
+        this.dnsCacheTtlMillis = dnsCacheTtlMillis;
+    }
+
+    public int getDnsNegativeTtlMillis() {
+        return dnsNegativeTtlMillis;
+    }
+
+    /**
+     * @param dnsNegativeTtlMillis How long, in milliseconds, the DNS cache remembers hosts that could not be resolved.
+     * 0 looks them up again on every call
+     */
+    public void setDnsNegativeTtlMillis(int dnsNegativeTtlMillis) {
+        if (dnsNegativeTtlMillis < 0) {
+            throw new IllegalArgumentException("DNS negative cache time to live cannot be negative");
+        }
+
+        this.dnsNegativeTtlMillis = dnsNegativeTtlMillis;
+    }
+
+    public boolean isDnsRefreshAhead() {
+        return dnsRefreshAhead;
+    }
+
+    /**
+     * @param dnsRefreshAhead Whether the DNS cache refreshes hosts looked up near the end of their time to live in the
+     * background, so that calls to them never wait for a lookup
+     */
+    public void setDnsRefreshAhead(boolean dnsRefreshAhead) {
+        this.dnsRefreshAhead = dnsRefreshAhead;
+    }
+}
@@ -0,0 +1,156 @@
+package com.andreistraut.drp.core.communicator;
+
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * An HttpComponents entity backed by a region of a file, such as a response body kept by a disk cache. Netty servers
+ * can send it with {@link #toFileRegion()}, which lets the kernel copy the file straight to the socket. The entity
+ * holds the file open until its content stream is closed, it is written, or its file region is released
+ */
+public class FileRegionEntity extends AbstractHttpEntity implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+
+    /**
+     * @param channel  The open file. The entity takes over closing it
+     * @param position The start of the body in the file
+     * @param count    The body length
+     */
+    public FileRegionEntity(FileChannel channel, long position, long count) {
+        if (channel == null) {
+            throw new IllegalArgumentException("File channel cannot be null");
+        }
+
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("File region position and length cannot be negative");
+        }
+
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    /**
+     * Open the first bytes of the given file as an entity
+     *
+     * @param file  The file
+     * @param count The body length, which must not exceed the file size
+     * @return The entity
+     * @throws IOException If the file cannot be opened, or is shorter than the body
+     */
+    public static FileRegionEntity open(Path file, long count) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        if (channel.size() < count) {
+            channel.close();
+            throw new IOException(String.format("File %s is shorter than %s bytes", file, count));
+        }
+
+        return new FileRegionEntity(channel, 0, count);
+    }
+
+    /**
+     * Hand the body over to Netty as a file region. The region takes over the file, and closes it once it has been
+     * written or released, so the entity must not be used afterwards
+     *
+     * @return The file region
+     */
+    public FileRegion toFileRegion() {
+        return new DefaultFileRegion(channel, position, count);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        return count;
+    }
+
+    /**
+     * @return A stream over the body. Closing it closes the file
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        return new InputStream() {
+
+            private long offset = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                if (offset >= count) {
+                    return -1;
+                }
+
+                int read = channel.read(
+                        ByteBuffer.wrap(buffer, off, (int) Math.min(len, count - offset)), position + offset);
+
+                if (read > 0) {
+                    offset += read;
+                }
+
+                return read;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, count - offset);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        if (outstream == null) {
+            throw new IllegalArgumentException("Output stream cannot be null");
+        }
+
+        try (InputStream content = getContent()) {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+
+            while ((read = content.read(buffer)) != -1) {
+                outstream.write(buffer, 0, read);
+            }
+        }
+
+        outstream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
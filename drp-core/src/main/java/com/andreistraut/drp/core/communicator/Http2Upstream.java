@@ -0,0 +1,1110 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.cache.ResponseCache;
+import com.andreistraut.drp.core.compression.ContentEncoding;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2Exception;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandler;
+import io.netty.handler.codec.http2.HttpToHttp2ConnectionHandlerBuilder;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Makes plain HTTP upstream calls over HTTP/2, so that the concurrent calls to a host are multiplexed over a few
+ * connections instead of taking one pooled HTTP/1.1 connection each. Connections are opened with prior knowledge
+ * (h2c): the first call to a host sends the HTTP/2 preface and waits for the server's SETTINGS. A host that answers
+ * otherwise does not speak HTTP/2; it is remembered, and its calls go to the HTTP/1.1 fallback from then on, as do all
+ * https calls, since TLS negotiation of HTTP/2 (ALPN) is not available to the dispatcher, until it is tried again
+ * after {@link #HTTP1_HOST_RETRY_NANOS}. Response bodies received over HTTP/2 are streamed to the caller as their DATA
+ * frames arrive, and HTTP/2 flow control holds the server back to what the caller has read. Hosts are chosen by
+ * clients, so at most {@link #MAX_HOSTS} are tracked: once full, hosts with no open connection are forgotten, and the
+ * calls to a new host go to the fallback while all tracked hosts have connections. Instances are thread-safe
+ */
+public class Http2Upstream implements ResponseCache.Upstream, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(Http2Upstream.class.getName());
+
+    private static final String HTTP_SCHEME = "http";
+    private static final int HTTP_PORT = 80;
+
+    /** Upstream hosts are chosen by clients, so the number of hosts with HTTP/2 connections is bounded */
+    static final int MAX_HOSTS = 1_000;
+
+    /** Hosts found not to speak HTTP/2 are tried again after this long, in case they were only slow to answer */
+    static final long HTTP1_HOST_RETRY_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * The flow-control window of each stream: a server sends at most this much of a response body ahead of the
+     * caller reading it
+     */
+    static final int STREAM_WINDOW_BYTES = 262_144;
+
+    /** The flow-control window of each connection, so that a caller reading slowly does not stall the others */
+    static final int CONNECTION_WINDOW_BYTES = 16_777_216;
+
+    private final ResponseCache.Upstream fallback;
+    private final DispatcherSettings settings;
+    private final DnsResolver dnsResolver;
+    private final EventLoopGroup eventLoopGroup;
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+    /** The hosts found not to speak HTTP/2, with the System.nanoTime after which they are tried again */
+    private final ConcurrentHashMap<String, Long> http1Hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param fallback The HTTP/1.1 upstream, for the hosts that do not speak HTTP/2
+     * @param settings The dispatcher settings holding the connection count per host and the default timeouts
+     */
+    public Http2Upstream(ResponseCache.Upstream fallback, DispatcherSettings settings) {
+        this(fallback, settings, SystemDefaultDnsResolver.INSTANCE);
+    }
+
+    /**
+     * @param fallback    The HTTP/1.1 upstream, for the hosts that do not speak HTTP/2
+     * @param settings    The dispatcher settings holding the connection count per host and the default timeouts
+     * @param dnsResolver The resolver of upstream host names, shared with the fallback
+     */
+    public Http2Upstream(ResponseCache.Upstream fallback, DispatcherSettings settings, DnsResolver dnsResolver) {
+        if (fallback == null) {
+            throw new IllegalArgumentException("Fallback upstream cannot be null");
+        }
+
+        if (settings == null) {
+            throw new IllegalArgumentException("DispatcherSettings cannot be null");
+        }
+
+        if (dnsResolver == null) {
+            throw new IllegalArgumentException("DnsResolver cannot be null");
+        }
+
+        this.fallback = fallback;
+        this.settings = settings;
+        this.dnsResolver = dnsResolver;
+        this.eventLoopGroup = new NioEventLoopGroup(0, new DefaultThreadFactory("drp-http2", true));
+    }
+
+    /**
+     * Execute the request over HTTP/2, or over the fallback if its host does not speak HTTP/2. The connect timeout
+     * of the request bounds opening a connection, and its socket timeout bounds the wait for the response head, then
+     * each wait for more of its body
+     *
+     * @param request The request to forward
+     * @return The response, with its body read as it arrives. Closing the body before its end resets the stream
+     * @throws IOException If the host cannot be reached, the call is aborted or times out, or the stream is reset
+     */
+    @Override
+    public HttpResponse execute(HttpRequestBase request) throws IOException {
+        URI uri = request.getURI();
+
+        if (!HTTP_SCHEME.equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+            return fallback.execute(request);
+        }
+
+        String hostName = UpstreamGuard.getHostName(request);
+
+        if (isHttp1Host(hostName)) {
+            return fallback.execute(request);
+        }
+
+        RequestConfig config = request.getConfig();
+        int connectTimeoutMillis = config != null
+                ? Math.max(config.getConnectTimeout(), 0)
+                : settings.getConnectTimeoutMillis();
+        int socketTimeoutMillis = config != null
+                ? Math.max(config.getSocketTimeout(), 0)
+                : settings.getSocketTimeoutMillis();
+
+        Connection connection;
+        try {
+            connection = acquire(hostName, uri, connectTimeoutMillis);
+        } catch (Http2UnsupportedException e) {
+            if (addHttp1Host(hostName)) {
+                LOGGER.log(Level.INFO, String.format("%s does not accept HTTP/2 connections, using HTTP/1.1: %s",
+                        hostName, e.getMessage()));
+            }
+
+            return fallback.execute(request);
+        }
+
+        if (connection == null) {
+            return fallback.execute(request);
+        }
+
+        CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+
+        /** Aborting the request, as its deadline does, cancels the stream */
+        request.setCancellable(() -> response.cancel(false));
+
+        connection.send(toHttp2Request(request), response, socketTimeoutMillis);
+
+        try {
+            return socketTimeoutMillis > 0
+                    ? response.get(socketTimeoutMillis, TimeUnit.MILLISECONDS)
+                    : response.get();
+        } catch (CancellationException e) {
+            throw new IOException(String.format("Call to %s aborted", uri));
+        } catch (TimeoutException e) {
+            abandon(response);
+            throw new SocketTimeoutException(String.format("No response from %s within %sms", uri,
+                    socketTimeoutMillis));
+        } catch (InterruptedException e) {
+            abandon(response);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while calling %s", uri));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(String.format("Call to %s failed", uri), e.getCause());
+        }
+    }
+
+    /**
+     * @return The number of open HTTP/2 connections, across all hosts. Read without locking, as metrics are scraped
+     * on event loops
+     */
+    public int getConnectionCount() {
+        int count = 0;
+
+        for (Host host : hosts.values()) {
+            for (Connection connection : host.connections) {
+                count += connection.isUsable() ? 1 : 0;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The number of calls waiting for their response over HTTP/2, across all hosts. Read without locking
+     */
+    public int getActiveStreamCount() {
+        int count = 0;
+
+        for (Host host : hosts.values()) {
+            for (Connection connection : host.connections) {
+                count += connection.getActiveStreamCount();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return The hosts currently called over HTTP/1.1 because they were found not to speak HTTP/2, as
+     * scheme://name:port
+     */
+    public Set<String> getHttp1Hosts() {
+        Set<String> http1 = new HashSet<>();
+
+        for (String hostName : http1Hosts.keySet()) {
+            if (isHttp1Host(hostName)) {
+                http1.add(hostName);
+            }
+        }
+
+        return Collections.unmodifiableSet(http1);
+    }
+
+    /**
+     * @return The number of hosts tracked, with or without open connections
+     */
+    public int getHostCount() {
+        return hosts.size();
+    }
+
+    /**
+     * Close all HTTP/2 connections. The calls still waiting for their response fail
+     */
+    @Override
+    public void close() {
+        eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    private boolean isHttp1Host(String hostName) {
+        Long retryNanos = http1Hosts.get(hostName);
+
+        if (retryNanos == null) {
+            return false;
+        }
+
+        if (System.nanoTime() - retryNanos < 0) {
+            return true;
+        }
+
+        http1Hosts.remove(hostName, retryNanos);
+
+        return false;
+    }
+
+    /**
+     * Remember that the host does not speak HTTP/2 until it is due to be tried again. Once as many hosts as tracked
+     * are remembered, the expired ones are forgotten, then the one due to be tried soonest
+     *
+     * @return True if the host was not remembered already
+     */
+    private boolean addHttp1Host(String hostName) {
+        long now = System.nanoTime();
+
+        if (http1Hosts.size() >= MAX_HOSTS && !http1Hosts.containsKey(hostName)) {
+            http1Hosts.entrySet().removeIf(entry -> now - entry.getValue() >= 0);
+        }
+
+        if (http1Hosts.size() >= MAX_HOSTS && !http1Hosts.containsKey(hostName)) {
+            http1Hosts.entrySet().stream()
+                    .min((first, second) -> Long.signum(first.getValue() - second.getValue()))
+                    .ifPresent(soonest -> http1Hosts.remove(soonest.getKey(), soonest.getValue()));
+        }
+
+        Long previous = http1Hosts.put(hostName, now + HTTP1_HOST_RETRY_NANOS);
+
+        return previous == null || now - previous >= 0;
+    }
+
+    /**
+     * The least busy connection to the host. Another connection is opened while there are fewer than allowed and all
+     * of them carry calls. Only one connection to a host is opened at a time, outside the host lock: the calls
+     * arriving meanwhile use the existing connections, or wait for it if there are none
+     *
+     * @return The connection, or null if the host cannot be tracked
+     */
+    private Connection acquire(String hostName, URI uri, int connectTimeoutMillis) throws IOException {
+        while (true) {
+            Host host = getHost(hostName);
+
+            if (host == null) {
+                return null;
+            }
+
+            CompletableFuture<Connection> opening;
+            boolean opener = false;
+
+            synchronized (host) {
+                if (host.evicted) {
+                    continue;
+                }
+
+                host.connections.removeIf(connection -> !connection.isUsable());
+
+                Connection leastBusy = null;
+                for (Connection connection : host.connections) {
+                    if (leastBusy == null || connection.getActiveStreamCount() < leastBusy.getActiveStreamCount()) {
+                        leastBusy = connection;
+                    }
+                }
+
+                if (leastBusy != null && (leastBusy.getActiveStreamCount() == 0 || host.opening != null
+                        || host.connections.size() >= settings.getHttp2ConnectionsPerHost())) {
+                    return leastBusy;
+                }
+
+                if (host.opening == null) {
+                    host.opening = new CompletableFuture<>();
+                    opener = true;
+                }
+
+                opening = host.opening;
+            }
+
+            if (opener) {
+                return open(host, opening, uri, connectTimeoutMillis);
+            }
+
+            return await(opening, uri, connectTimeoutMillis);
+        }
+    }
+
+    /**
+     * @return The host, tracked if it can be, or null if all tracked hosts have connections
+     */
+    private Host getHost(String hostName) {
+        Host host = hosts.get(hostName);
+
+        if (host != null) {
+            return host;
+        }
+
+        if (hosts.size() >= MAX_HOSTS) {
+            evictUnconnectedHosts();
+        }
+
+        if (hosts.size() >= MAX_HOSTS) {
+            return null;
+        }
+
+        return hosts.computeIfAbsent(hostName, name -> new Host());
+    }
+
+    /**
+     * Forget the hosts with no open connection and none being opened. Connections close once idle, so these are the
+     * hosts not called lately
+     */
+    private void evictUnconnectedHosts() {
+        for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+            Host host = entry.getValue();
+
+            synchronized (host) {
+                host.connections.removeIf(connection -> !connection.isUsable());
+
+                if (host.connections.isEmpty() && host.opening == null) {
+                    host.evicted = true;
+                    hosts.remove(entry.getKey(), host);
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a connection to the host, then publish it to the calls waiting for it
+     */
+    private Connection open(Host host, CompletableFuture<Connection> opening, URI uri, int connectTimeoutMillis)
+            throws IOException {
+        Connection opened = null;
+
+        try {
+            opened = open(uri, connectTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            opening.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (host) {
+                if (opened != null) {
+                    host.connections.add(opened);
+                }
+
+                host.opening = null;
+            }
+        }
+
+        opening.complete(opened);
+
+        return opened;
+    }
+
+    /**
+     * Wait for the connection another call is opening, for as long as opening it may take: the connect timeout to
+     * connect, and as long again for the SETTINGS
+     */
+    private static Connection await(CompletableFuture<Connection> opening, URI uri, int connectTimeoutMillis)
+            throws IOException {
+        try {
+            return connectTimeoutMillis > 0
+                    ? opening.get(2L * connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                    : opening.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Http2UnsupportedException) {
+                throw new Http2UnsupportedException(e.getCause().getMessage());
+            }
+
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(String.format("Could not connect to %s", uri.getAuthority()), e.getCause());
+        } catch (TimeoutException e) {
+            throw new ConnectTimeoutException(String.format("No HTTP/2 connection to %s within %sms",
+                    uri.getAuthority(), 2L * connectTimeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while connecting to %s", uri.getAuthority()));
+        }
+    }
+
+    /**
+     * Connect to the host and wait for its SETTINGS, which are the first frame an HTTP/2 server sends. Without a
+     * connect timeout, the SETTINGS are waited for as long as the default timeout
+     *
+     * @throws Http2UnsupportedException If the host accepted the connection but did not answer the preface
+     */
+    private Connection open(URI uri, int connectTimeoutMillis) throws IOException {
+        /** Resolved here rather than by Netty, so that HTTP/2 connections use the dispatcher's resolver */
+        InetSocketAddress address = new InetSocketAddress(dnsResolver.resolve(uri.getHost())[0],
+                uri.getPort() != -1 ? uri.getPort() : HTTP_PORT);
+        Connection connection = new Connection(settings.getIdleConnectionTimeoutMillis());
+        int settingsTimeoutMillis = connectTimeoutMillis > 0
+                ? connectTimeoutMillis
+                : DispatcherSettings.DEFAULT_TIMEOUT_MILLIS;
+
+        ChannelFuture connect = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        connection.init(channel);
+                    }
+                })
+                .connect(address);
+
+        try {
+            connect.await();
+
+            if (!connect.isSuccess()) {
+                ConnectException refused = new ConnectException(String.format("Could not connect to %s: %s",
+                        uri.getAuthority(), connect.cause().getMessage()));
+                refused.initCause(connect.cause());
+
+                throw refused;
+            }
+
+            connection.ready.get(settingsTimeoutMillis, TimeUnit.MILLISECONDS);
+
+            return connection;
+        } catch (ExecutionException e) {
+            connect.channel().close();
+            throw new Http2UnsupportedException(e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            connect.channel().close();
+            throw new Http2UnsupportedException(String.format("no SETTINGS within %sms", settingsTimeoutMillis));
+        } catch (InterruptedException e) {
+            connect.channel().close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while connecting to %s", uri.getAuthority()));
+        }
+    }
+
+    /**
+     * The body of a response received meanwhile is closed, since nobody will read it
+     */
+    private static void abandon(CompletableFuture<HttpResponse> response) {
+        if (!response.cancel(false) && !response.isCompletedExceptionally()) {
+            try {
+                response.join().getEntity().getContent().close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close an abandoned HTTP/2 response", e);
+            }
+        }
+    }
+
+    /**
+     * Copy the request into a Netty request, whose absolute URI gives the :scheme, :authority and :path of the
+     * stream. Connection-specific headers are dropped when it is converted to HTTP/2
+     */
+    private static FullHttpRequest toHttp2Request(HttpRequestBase request) throws IOException {
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity()
+                : null;
+        ByteBuf body = Unpooled.EMPTY_BUFFER;
+
+        if (entity != null) {
+            long length = entity.getContentLength();
+            body = Unpooled.buffer(length >= 0 && length <= Integer.MAX_VALUE ? (int) length : 256);
+
+            try (ByteBufOutputStream out = new ByteBufOutputStream(body)) {
+                entity.writeTo(out);
+            } catch (IOException | RuntimeException e) {
+                body.release();
+                throw e;
+            }
+        }
+
+        FullHttpRequest converted = new DefaultFullHttpRequest(io.netty.handler.codec.http.HttpVersion.HTTP_1_1,
+                HttpMethod.valueOf(request.getMethod()), request.getURI().toASCIIString(), body, false);
+
+        for (Header header : request.getAllHeaders()) {
+            converted.headers().add(header.getName(), header.getValue());
+        }
+
+        if (entity != null) {
+            converted.headers().set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+
+            if (entity.getContentType() != null && !converted.headers().contains(HttpHeaderNames.CONTENT_TYPE)) {
+                converted.headers().set(HttpHeaderNames.CONTENT_TYPE, entity.getContentType().getValue());
+            }
+        } else {
+            converted.headers().remove(HttpHeaderNames.CONTENT_LENGTH);
+        }
+
+        /** As over the connection pool, upstreams may compress their responses */
+        if (!converted.headers().contains(HttpHeaderNames.ACCEPT_ENCODING)) {
+            converted.headers().set(HttpHeaderNames.ACCEPT_ENCODING, ContentEncoding.UPSTREAM_ACCEPT_ENCODING);
+        }
+
+        return converted;
+    }
+
+    /**
+     * Convert a response head, whose body is read from the given stream, or is empty without one
+     */
+    private static HttpResponse toHttpResponse(HttpResponseStatus status, Http2Headers headers, InputStream body) {
+        BasicHttpResponse converted = new BasicHttpResponse(HttpVersion.HTTP_1_1, status.code(), status.reasonPhrase());
+
+        for (Map.Entry<CharSequence, CharSequence> header : headers) {
+            /** Pseudo-headers, such as :status, have no HTTP/1.1 equivalent */
+            if (header.getKey().length() > 0 && header.getKey().charAt(0) != ':') {
+                converted.addHeader(header.getKey().toString(), header.getValue().toString());
+            }
+        }
+
+        AbstractHttpEntity entity;
+        if (body != null) {
+            Long length = headers.getLong(HttpHeaderNames.CONTENT_LENGTH);
+            entity = new InputStreamEntity(body, length != null ? length : -1);
+        } else {
+            entity = new ByteArrayEntity(new byte[0]);
+        }
+
+        CharSequence contentType = headers.get(HttpHeaderNames.CONTENT_TYPE);
+        CharSequence contentEncoding = headers.get(HttpHeaderNames.CONTENT_ENCODING);
+        entity.setContentType(contentType != null ? contentType.toString() : null);
+        entity.setContentEncoding(contentEncoding != null ? contentEncoding.toString() : null);
+        converted.setEntity(entity);
+
+        return converted;
+    }
+
+    /**
+     * The HTTP/2 connections to one host. Changes are made holding the host; the connections are copied on write,
+     * so that the gauges read them without it
+     */
+    private static class Host {
+
+        private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+        /** The connection being opened, if any */
+        private CompletableFuture<Connection> opening;
+
+        /** Set once the host is no longer tracked, for the calls still holding it to look it up again */
+        private boolean evicted;
+    }
+
+    /**
+     * Thrown when a host accepts a connection but does not answer the HTTP/2 preface
+     */
+    private static class Http2UnsupportedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        Http2UnsupportedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One HTTP/2 connection. Requests are written as HTTP/1.1 messages and converted to streams; each call is
+     * completed with its response head, then its body is read as the DATA frames of its stream arrive. Streams beyond
+     * the server's concurrency limit are queued until others complete
+     */
+    private static class Connection extends ChannelInboundHandlerAdapter {
+
+        /** Queued after the last DATA frame of a stream */
+        private static final byte[] END = new byte[0];
+
+        private final int idleTimeoutMillis;
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+        /** The calls waiting for their response head or still receiving their body, by stream id */
+        private final ConcurrentHashMap<Integer, Exchange> streams = new ConcurrentHashMap<>();
+
+        private volatile Channel channel;
+        private volatile HttpToHttp2ConnectionHandler http2;
+
+        Connection(int idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+        }
+
+        void init(Channel channel) {
+            DefaultHttp2Connection connection = new DefaultHttp2Connection(false);
+
+            /** Streams closed before the end of their response, such as reset ones, fail their call */
+            connection.addListener(new Http2ConnectionAdapter() {
+                @Override
+                public void onStreamClosed(Http2Stream stream) {
+                    Exchange exchange = streams.remove(stream.id());
+
+                    if (exchange != null) {
+                        exchange.fail(new IOException(String.format("Stream %s closed by %s before the end of the "
+                                + "response", stream.id(), channel.remoteAddress())));
+                    }
+                }
+            });
+
+            this.channel = channel;
+            this.http2 = new HttpToHttp2ConnectionHandlerBuilder()
+                    .connection(connection)
+                    .encoderEnforceMaxConcurrentStreams(true)
+                    .initialSettings(new Http2Settings().initialWindowSize(STREAM_WINDOW_BYTES))
+                    .frameListener(new Frames())
+                    .build();
+
+            channel.pipeline().addLast(
+                    new IdleStateHandler(0, 0, idleTimeoutMillis, TimeUnit.MILLISECONDS),
+                    http2,
+                    this);
+        }
+
+        boolean isUsable() {
+            return channel.isActive()
+                    && !http2.connection().goAwayReceived()
+                    && !http2.connection().goAwaySent();
+        }
+
+        int getActiveStreamCount() {
+            return streams.size();
+        }
+
+        /**
+         * Open a stream for the request on the event loop, where stream ids are allocated in order
+         *
+         * @param socketTimeoutMillis The longest wait for more of the response body, or 0 to wait indefinitely
+         */
+        void send(FullHttpRequest request, CompletableFuture<HttpResponse> response, int socketTimeoutMillis) {
+            Exchange exchange = new Exchange(response, socketTimeoutMillis);
+
+            try {
+                channel.eventLoop().execute(() -> write(request, exchange));
+            } catch (RejectedExecutionException e) {
+                request.release();
+                response.completeExceptionally(new IOException("HTTP/2 upstream is closed", e));
+            }
+        }
+
+        private void write(FullHttpRequest request, Exchange exchange) {
+            CompletableFuture<HttpResponse> response = exchange.response;
+
+            if (response.isDone()) {
+                request.release();
+                return;
+            }
+
+            int streamId = http2.connection().local().incrementAndGetNextStreamId();
+            request.headers().setInt(HttpConversionUtil.ExtensionHeaderNames.STREAM_ID.text(), streamId);
+            streams.put(streamId, exchange);
+
+            channel.writeAndFlush(request).addListener(written -> {
+                if (!written.isSuccess() && streams.remove(streamId, exchange)) {
+                    exchange.fail(new IOException(String.format("Could not send request to %s",
+                            channel.remoteAddress()), written.cause()));
+                }
+            });
+
+            response.whenComplete((received, error) -> {
+                if (response.isCancelled()) {
+                    cancel(streamId, exchange);
+                }
+            });
+        }
+
+        /**
+         * Reset the stream if its response is still being received, so that the server sends no more of it
+         */
+        private void cancel(int streamId, Exchange exchange) {
+            if (streams.remove(streamId, exchange)) {
+                try {
+                    channel.eventLoop().execute(() -> reset(streamId));
+                } catch (RejectedExecutionException e) {
+                    LOGGER.log(Level.FINE, "HTTP/2 upstream closed before the stream was reset", e);
+                }
+            }
+        }
+
+        private void reset(int streamId) {
+            if (channel.isActive()) {
+                ChannelHandlerContext context = channel.pipeline().context(http2);
+                http2.resetStream(context, streamId, Http2Error.CANCEL.code(), context.newPromise());
+                context.flush();
+            }
+        }
+
+        /**
+         * Return bytes read from the body of a stream to the flow-control windows of the stream and the connection.
+         * A closed stream returned its unread bytes to the connection already
+         */
+        private void consume(int streamId, int bytes) {
+            try {
+                channel.eventLoop().execute(() -> {
+                    Http2Stream stream = http2.connection().stream(streamId);
+
+                    if (stream == null) {
+                        return;
+                    }
+
+                    try {
+                        if (http2.connection().local().flowController().consumeBytes(stream, bytes)) {
+                            channel.flush();
+                        }
+                    } catch (Http2Exception e) {
+                        LOGGER.log(Level.FINE, String.format("Could not update the flow-control window of stream %s",
+                                streamId), e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.FINE, "HTTP/2 upstream closed before the response body was read", e);
+            }
+        }
+
+        /**
+         * The connection preface is written when the channel becomes active, but only flushed by the next write;
+         * the server sends its SETTINGS once it receives the preface. The connection window is widened along with
+         * it, as the initial SETTINGS only set the window of each stream
+         */
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            super.channelActive(ctx);
+            http2.connection().local().flowController().incrementWindowSize(http2.connection().connectionStream(),
+                    CONNECTION_WINDOW_BYTES - Http2CodecUtil.DEFAULT_WINDOW_SIZE);
+            ctx.flush();
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && streams.isEmpty()) {
+                ctx.close();
+                return;
+            }
+
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            IOException closed = new IOException(String.format("HTTP/2 connection to %s closed",
+                    ctx.channel().remoteAddress()));
+
+            ready.completeExceptionally(closed);
+
+            for (Integer streamId : new ArrayList<>(streams.keySet())) {
+                Exchange exchange = streams.remove(streamId);
+
+                if (exchange != null) {
+                    exchange.fail(closed);
+                }
+            }
+
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (cause instanceof Http2Exception.StreamException) {
+                int streamId = ((Http2Exception.StreamException) cause).streamId();
+                Exchange exchange = streams.remove(streamId);
+
+                if (exchange != null) {
+                    exchange.fail(new IOException(cause.getMessage(), cause));
+                }
+
+                return;
+            }
+
+            LOGGER.log(Level.FINE, String.format("HTTP/2 connection to %s failed", ctx.channel().remoteAddress()),
+                    cause);
+            ready.completeExceptionally(cause);
+            ctx.close();
+        }
+
+        /**
+         * The frames received, on the event loop: the response head completes its call, and the DATA frames are
+         * queued for its body. Their bytes are only returned to the flow-control window once the body is read
+         */
+        private class Frames extends Http2FrameAdapter {
+
+            @Override
+            public void onSettingsRead(ChannelHandlerContext ctx, Http2Settings settings) {
+                ready.complete(null);
+            }
+
+            @Override
+            public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers,
+                    int streamDependency, short weight, boolean exclusive, int padding, boolean endOfStream)
+                    throws Http2Exception {
+                onHeadersRead(ctx, streamId, headers, padding, endOfStream);
+            }
+
+            @Override
+            public void onHeadersRead(ChannelHandlerContext ctx, int streamId, Http2Headers headers, int padding,
+                    boolean endOfStream) throws Http2Exception {
+                Exchange exchange = streams.get(streamId);
+
+                if (exchange == null) {
+                    return;
+                }
+
+                /** Trailers, which have no place in the relayed response */
+                if (exchange.body != null) {
+                    if (endOfStream) {
+                        end(streamId, exchange);
+                    }
+
+                    return;
+                }
+
+                HttpResponseStatus status = HttpConversionUtil.parseStatus(headers.status());
+
+                /** Interim responses, such as 100 Continue, are followed by the final one */
+                if (status.codeClass() == HttpStatusClass.INFORMATIONAL) {
+                    return;
+                }
+
+                if (endOfStream) {
+                    streams.remove(streamId, exchange);
+                    exchange.response.complete(toHttpResponse(status, headers, null));
+                    return;
+                }
+
+                exchange.body = new Body(streamId, exchange);
+
+                if (!exchange.response.complete(toHttpResponse(status, headers, exchange.body))) {
+                    cancel(streamId, exchange);
+                }
+            }
+
+            @Override
+            public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding,
+                    boolean endOfStream) {
+                Exchange exchange = streams.get(streamId);
+
+                if (exchange == null || exchange.body == null) {
+                    return data.readableBytes() + padding;
+                }
+
+                if (data.isReadable()) {
+                    exchange.body.offer(ByteBufUtil.getBytes(data));
+                }
+
+                if (endOfStream) {
+                    end(streamId, exchange);
+                }
+
+                return padding;
+            }
+
+            private void end(int streamId, Exchange exchange) {
+                if (streams.remove(streamId, exchange)) {
+                    exchange.body.end();
+                }
+            }
+        }
+
+        /**
+         * A call over a stream: the response head it waits for, then the body it reads
+         */
+        private static class Exchange {
+
+            private final CompletableFuture<HttpResponse> response;
+            private final int socketTimeoutMillis;
+
+            /** Set on the event loop once the response head is received */
+            private Body body;
+
+            Exchange(CompletableFuture<HttpResponse> response, int socketTimeoutMillis) {
+                this.response = response;
+                this.socketTimeoutMillis = socketTimeoutMillis;
+            }
+
+            /**
+             * Fail the call waiting for its response head, or the body being read. Called on the event loop
+             */
+            void fail(IOException e) {
+                if (!response.completeExceptionally(e) && body != null) {
+                    body.fail(e);
+                }
+            }
+        }
+
+        /**
+         * The body of a response, read as its DATA frames arrive. Each read waits at most the socket timeout of the
+         * call for more, and each chunk read is returned to the flow-control window. Instances are read by one thread
+         */
+        private class Body extends InputStream {
+
+            private final int streamId;
+            private final Exchange exchange;
+            private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+
+            /** Set before the end is queued */
+            private volatile IOException failure;
+
+            private byte[] chunk;
+            private int position;
+            private boolean ended;
+            private boolean closed;
+
+            Body(int streamId, Exchange exchange) {
+                this.streamId = streamId;
+                this.exchange = exchange;
+            }
+
+            void offer(byte[] data) {
+                chunks.add(data);
+            }
+
+            void end() {
+                chunks.add(END);
+            }
+
+            void fail(IOException e) {
+                failure = e;
+                chunks.add(END);
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Response body closed");
+                }
+
+                if (len == 0) {
+                    return 0;
+                }
+
+                if (!next()) {
+                    return -1;
+                }
+
+                int read = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, read);
+                position += read;
+
+                if (position == chunk.length) {
+                    consume(streamId, chunk.length);
+                    chunk = null;
+                }
+
+                return read;
+            }
+
+            @Override
+            public int available() {
+                return chunk != null ? chunk.length - position : 0;
+            }
+
+            /**
+             * Closing the body before its end resets the stream, so that the server sends no more of it
+             */
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                chunk = null;
+
+                if (!ended) {
+                    cancel(streamId, exchange);
+                }
+            }
+
+            /**
+             * Wait for the next chunk, unless the current one is not fully read yet
+             *
+             * @return False at the end of the body
+             */
+            private boolean next() throws IOException {
+                while (chunk == null) {
+                    if (ended) {
+                        if (failure != null) {
+                            throw new IOException(failure.getMessage(), failure);
+                        }
+
+                        return false;
+                    }
+
+                    byte[] polled;
+                    try {
+                        polled = exchange.socketTimeoutMillis > 0
+                                ? chunks.poll(exchange.socketTimeoutMillis, TimeUnit.MILLISECONDS)
+                                : chunks.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException(String.format("Interrupted while reading a response from %s",
+                                channel.remoteAddress()));
+                    }
+
+                    if (polled == null) {
+                        throw new SocketTimeoutException(String.format("No response data from %s within %sms",
+                                channel.remoteAddress(), exchange.socketTimeoutMillis));
+                    }
+
+                    if (polled == END) {
+                        ended = true;
+                    } else {
+                        chunk = polled;
+                        position = 0;
+                    }
+                }
+
+                return true;
+            }
+        }
+    }
+}
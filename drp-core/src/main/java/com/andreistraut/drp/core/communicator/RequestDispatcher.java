@@ -1,49 +1,288 @@
 package com.andreistraut.drp.core.communicator;
 
+import com.andreistraut.drp.core.cache.DiskResponseStore;
+import com.andreistraut.drp.core.cache.RequestCoalescer;
+import com.andreistraut.drp.core.cache.ResponseCache;
+import com.andreistraut.drp.core.compression.ContentEncoding;
+import com.andreistraut.drp.core.dns.CachingDnsResolver;
+import com.andreistraut.drp.core.metrics.ProxyMetrics;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 
-public class RequestDispatcher {
+/**
+ * Forwards requests to their remote endpoints. A dispatcher owns a pool of keep-alive upstream connections, so it
+ * is meant to be long-lived and shared: use {@link #getInstance()} rather than creating one per request
+ */
+public class RequestDispatcher implements Closeable {
 
-    private static final int TIMEOUT_MILLIS = 60_000;
+    /**
+     * Request header with which clients give the time they are willing to wait for the upstream call, in
+     * milliseconds. It can only shorten the deadline of the route, and is not forwarded
+     */
+    public static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
+
+    private static final Logger LOGGER = Logger.getLogger(RequestDispatcher.class.getName());
+
+    private static final Object SHARED_INSTANCE_LOCK = new Object();
+    private static volatile RequestDispatcher sharedInstance;
+
+    private final DispatcherSettings settings;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final ThreadPoolExecutor dispatchExecutor;
+    private final ScheduledThreadPoolExecutor deadlineExecutor;
+    private final RequestConfig defaultRequestConfig;
+    private final RouteTimeouts defaultTimeouts;
+    private final List<Route> routes;
+    private final Http2Upstream http2Upstream;
+    private final CachingDnsResolver dnsCache;
+    private final UpstreamGuard upstreamGuard;
+    private final RequestCoalescer requestCoalescer;
+    private final ResponseCache responseCache;
+    private final ResponseCache.Upstream upstream;
 
     /**
-     * Dispatch (forward) the given request to its URL
+     * Create a dispatcher with default settings
+     */
+    public RequestDispatcher() {
+	this(new DispatcherSettings());
+    }
+
+    /**
+     * Create a dispatcher with the given settings
+     * @param settings The connection pool and timeout settings
+     */
+    public RequestDispatcher(DispatcherSettings settings) {
+	if (settings == null) {
+	    throw new IllegalArgumentException("DispatcherSettings cannot be null");
+	}
+
+	this.settings = settings;
+
+	this.dnsCache = settings.getDnsCacheTtlMillis() > 0
+		? new CachingDnsResolver(settings.getDnsResolver(), settings.getDnsCacheTtlMillis(),
+			settings.getDnsNegativeTtlMillis(), settings.isDnsRefreshAhead(), settings.getConnectTimeoutMillis())
+		: null;
+	DnsResolver dnsResolver = this.dnsCache != null ? this.dnsCache : settings.getDnsResolver();
+
+	/**
+	 * The same socket factories as the default connection manager, which takes no resolver without them
+	 */
+	this.connectionManager = new PoolingHttpClientConnectionManager(
+		RegistryBuilder.<ConnectionSocketFactory>create()
+			.register("http", PlainConnectionSocketFactory.getSocketFactory())
+			.register("https", SSLConnectionSocketFactory.getSocketFactory())
+			.build(),
+		dnsResolver);
+	this.connectionManager.setMaxTotal(settings.getMaxConnectionsTotal());
+	this.connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+	this.connectionManager.setValidateAfterInactivity(settings.getValidateAfterInactivityMillis());
+
+	this.defaultTimeouts = settings.getDefaultTimeouts();
+	this.defaultRequestConfig = RequestConfig.custom()
+		.setConnectTimeout(this.defaultTimeouts.getConnectTimeoutMillis())
+		.setConnectionRequestTimeout(this.defaultTimeouts.getConnectionRequestTimeoutMillis())
+		.setSocketTimeout(this.defaultTimeouts.getSocketTimeoutMillis())
+		.build();
+	this.routes = settings.getRouteTimeouts().entrySet().stream()
+		.map(route -> new Route(route.getKey(), route.getValue()))
+		.collect(Collectors.toList());
+
+	this.client = HttpClientBuilder.create()
+		.setConnectionManager(this.connectionManager)
+		.setDefaultRequestConfig(this.defaultRequestConfig)
+		.evictExpiredConnections()
+		.evictIdleConnections(settings.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS)
+		/** Compressed bodies are kept as they are, and decompressed only where needed; see execute() */
+		.disableContentCompression()
+		.addInterceptorLast(new RequestAcceptEncoding())
+		.build();
+
+	this.dispatchExecutor = new ThreadPoolExecutor(
+		settings.getDispatchThreads(), settings.getDispatchThreads(),
+		settings.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS,
+		new ArrayBlockingQueue<>(settings.getDispatchQueueSize()),
+		new DispatchThreadFactory("dispatcher"));
+	this.dispatchExecutor.allowCoreThreadTimeOut(true);
+
+	this.deadlineExecutor = new ScheduledThreadPoolExecutor(1, new DispatchThreadFactory("deadline"));
+	this.deadlineExecutor.setRemoveOnCancelPolicy(true);
+	this.deadlineExecutor.setKeepAliveTime(settings.getIdleConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+	this.deadlineExecutor.allowCoreThreadTimeOut(true);
+
+	/**
+	 * Hosts that do not speak HTTP/2 are called over the connection pool
+	 */
+	this.http2Upstream = settings.isHttp2Enabled()
+		? new Http2Upstream(this.client::execute, settings, dnsResolver)
+		: null;
+	ResponseCache.Upstream transport = this.http2Upstream != null ? this.http2Upstream : this.client::execute;
+
+	this.upstreamGuard = settings.isCircuitBreakerEnabled() || settings.getMaxRequestsPerHost() > 0
+		? new UpstreamGuard(transport, settings)
+		: null;
+	ResponseCache.Upstream guarded = this.upstreamGuard != null ? this.upstreamGuard : transport;
+
+	this.requestCoalescer = settings.isCoalesceRequests()
+		? new RequestCoalescer(guarded, settings.getCoalescedResponseMaxBytes())
+		: null;
+
+	this.responseCache = settings.getResponseCacheMaxBytes() > 0
+		? new ResponseCache(settings.getResponseCacheMaxBytes(), settings.getResponseCacheMaxEntryBytes(),
+			openDiskResponseStore(settings))
+		: null;
+
+	/**
+	 * Cache misses and revalidations are coalesced too, so a stale popular entry is refreshed by one request. Cache
+	 * hits and coalesced requests never reach the circuit breakers and bulkheads
+	 */
+	ResponseCache.Upstream origin = this.requestCoalescer != null ? this.requestCoalescer : guarded;
+	this.upstream = this.responseCache != null
+		? request -> this.responseCache.execute(request, origin)
+		: origin;
+    }
+
+    private static DiskResponseStore openDiskResponseStore(DispatcherSettings settings) {
+	if (settings.getResponseCacheDirectory() == null) {
+	    return null;
+	}
+
+	try {
+	    return new DiskResponseStore(Paths.get(settings.getResponseCacheDirectory()),
+		    settings.getResponseCacheDiskMaxBytes(),
+		    settings.getResponseCacheDiskMaxEntryBytes(),
+		    settings.getResponseCacheDiskMaxEntries());
+	} catch (IOException e) {
+	    throw new UncheckedIOException(String.format("Could not open response cache directory %s",
+		    settings.getResponseCacheDirectory()), e);
+	}
+    }
+
+    /**
+     * Get the dispatcher shared by the whole application
+     * @return The shared dispatcher, created with default settings on first use unless configured before
+     * @see #configureSharedInstance(DispatcherSettings)
+     */
+    public static RequestDispatcher getInstance() {
+	RequestDispatcher instance = sharedInstance;
+
+	if (instance == null) {
+	    synchronized (SHARED_INSTANCE_LOCK) {
+		if (sharedInstance == null) {
+		    sharedInstance = new RequestDispatcher();
+		}
+		instance = sharedInstance;
+	    }
+	}
+
+	return instance;
+    }
+
+    /**
+     * Create the dispatcher shared by the whole application with the given settings. Must be called at startup,
+     * before anything uses the shared dispatcher
+     * @param settings The connection pool, timeout and cache settings
+     * @return The shared dispatcher
+     * @throws IllegalStateException If the shared dispatcher has already been created
+     */
+    public static RequestDispatcher configureSharedInstance(DispatcherSettings settings) throws IllegalStateException {
+	synchronized (SHARED_INSTANCE_LOCK) {
+	    if (sharedInstance != null) {
+		throw new IllegalStateException("The shared dispatcher has already been created");
+	    }
+
+	    sharedInstance = new RequestDispatcher(settings);
+	    return sharedInstance;
+	}
+    }
+
+    /**
+     * Dispatch (forward) the given request to its URL, using the shared dispatcher
      * @param proxyRequest The request to forward
      * @return The response of the remote endpoint
      * @throws UnsupportedEncodingException
      * @throws IOException Thrown by HttpComponents on client request execution
+     * @see #execute(HttpRequestBase)
      */
     public static HttpResponse dispatch(HttpRequestBase proxyRequest) throws UnsupportedEncodingException, IOException {
-	RequestConfig.Builder requestBuilder = RequestConfig.custom()
-		.setConnectTimeout(TIMEOUT_MILLIS)
-		.setConnectionRequestTimeout(TIMEOUT_MILLIS)
-		.setSocketTimeout(TIMEOUT_MILLIS);
+	return getInstance().execute(proxyRequest);
+    }
 
-	/**
-	 * Build the HTTP Request, Clean all default request headers
-	 */
-	HttpClient client = HttpClientBuilder.create()
-		.setDefaultRequestConfig(requestBuilder.build())
-		.build();
+    /**
+     * Dispatch (forward) the given request to its URL. The response entity must be fully consumed (or the response
+     * closed) for the underlying connection to be returned to the pool. If the response cache is enabled, GET
+     * requests may be answered from it without contacting the remote endpoint. If request coalescing is enabled,
+     * GET and HEAD requests identical to one already in flight wait for its response instead
+     * @param proxyRequest The request to forward
+     * @return The response of the remote endpoint
+     * @throws UnsupportedEncodingException
+     * @throws UpstreamUnavailableException If the remote host is not called, because its circuit breaker is open or
+     * it already has too many requests in flight
+     * @throws DeadlineExceededException If the deadline of the route, or the one given by the client, passed before
+     * the response was received
+     * @throws IOException Thrown by HttpComponents on client request execution
+     */
+    public HttpResponse execute(HttpRequestBase proxyRequest) throws UnsupportedEncodingException, IOException {
+	return execute(proxyRequest, System.nanoTime());
+    }
 
-	Logger.getLogger(RequestDispatcher.class.getName()).log(Level.INFO,
-		String.format("Dispatching Request:%s%s",
-			System.lineSeparator(),
-			proxyRequest.toString()));
+    /**
+     * @param startNanos When the request was received, from which its deadline runs
+     */
+    private HttpResponse execute(HttpRequestBase proxyRequest, long startNanos) throws IOException {
+	/** Requests are logged by the servers' access logs; full requests and responses only when debugging */
+	if (LOGGER.isLoggable(Level.FINE)) {
+	    LOGGER.log(Level.FINE, String.format("Dispatching Request:%s%s",
+		    System.lineSeparator(),
+		    proxyRequest.toString()));
+	}
 
 	/**
 	 * Execute the request and get the response content
 	 */
-	HttpResponse response = client.execute(proxyRequest);
+	HttpResponse response = executeRecorded(proxyRequest, startNanos);
+
+	/**
+	 * Cached and coalesced responses keep the body as the upstream sent it, so only the callers' copy is decoded
+	 */
+	if (settings.isDecompressResponses()) {
+	    ContentEncoding.decode(response);
+	}
 
 	/**
 	 * Add CORS headers
@@ -52,11 +291,306 @@ public class RequestDispatcher {
 	response.addHeader(HttpHeaderNames.ACCESS_CONTROL_ALLOW_HEADERS.toString(), "*");
 	response.addHeader(HttpHeaderNames.ACCESS_CONTROL_ALLOW_METHODS.toString(), "*");
 
-	Logger.getLogger(RequestDispatcher.class.getName()).log(Level.INFO,
-		String.format("Request dispatched, response received:%s%s",
-			System.lineSeparator(),
-			response.toString()));
+	if (LOGGER.isLoggable(Level.FINE)) {
+	    LOGGER.log(Level.FINE, String.format("Request dispatched, response received:%s%s",
+		    System.lineSeparator(),
+		    response.toString()));
+	}
 
 	return response;
     }
+
+    /**
+     * Dispatch (forward) the given request to its URL without blocking the calling thread. The upstream call is made
+     * on one of the dispatcher's own threads, so this is safe to call from an event loop
+     * @param proxyRequest The request to forward
+     * @return A future completed with the response of the remote endpoint, or exceptionally with the IOException
+     * raised by HttpComponents, or a RejectedExecutionException if too many dispatches are already pending. The
+     * response entity has not been read yet, and reading it may block
+     */
+    public CompletableFuture<HttpResponse> executeAsync(HttpRequestBase proxyRequest) {
+	return executeAsync(proxyRequest, response -> response);
+    }
+
+    /**
+     * Dispatch (forward) the given request to its URL without blocking the calling thread, and process the response
+     * on the dispatching thread. Blocking work such as reading the response entity belongs in the handler
+     * @param <T> The type the response is converted to
+     * @param proxyRequest The request to forward
+     * @param handler Converts the response; it must consume the response entity for the connection to be reused
+     * @return A future completed with the handler result, or exceptionally with the IOException raised by
+     * HttpComponents or the handler, or a RejectedExecutionException if too many dispatches are already pending
+     */
+    public <T> CompletableFuture<T> executeAsync(HttpRequestBase proxyRequest, ResponseHandler<? extends T> handler) {
+	CompletableFuture<T> result = new CompletableFuture<>();
+
+	long startNanos = System.nanoTime();
+
+	try {
+	    this.dispatchExecutor.execute(() -> {
+		try {
+		    result.complete(handler.handleResponse(execute(proxyRequest, startNanos)));
+		} catch (IOException | RuntimeException e) {
+		    result.completeExceptionally(e);
+		}
+	    });
+	} catch (RejectedExecutionException e) {
+	    result.completeExceptionally(e);
+	}
+
+	return result;
+    }
+
+    /**
+     * Record the upstream call latency by host and status class, or as an error if no response was received
+     */
+    private HttpResponse executeRecorded(HttpRequestBase proxyRequest, long startNanos) throws IOException {
+	ProxyMetrics metrics = ProxyMetrics.getInstance();
+	long callStartNanos = System.nanoTime();
+	int statusCode = 0;
+
+	metrics.upstreamCallStarted();
+
+	try {
+	    HttpResponse response = executeWithinDeadline(proxyRequest, startNanos);
+	    statusCode = response.getStatusLine().getStatusCode();
+
+	    return response;
+	} finally {
+	    metrics.upstreamCallFinished(UpstreamGuard.getHostName(proxyRequest), statusCode,
+		    System.nanoTime() - callStartNanos);
+	}
+    }
+
+    /**
+     * Apply the timeouts of the request route, shortened to fit its deadline, and abort the call if the deadline
+     * passes before the response head is received
+     */
+    private HttpResponse executeWithinDeadline(HttpRequestBase proxyRequest, long startNanos) throws IOException {
+	RouteTimeouts timeouts = getTimeouts(proxyRequest);
+	long deadlineMillis = timeouts.getDeadlineMillis();
+
+	if (deadlineMillis == 0) {
+	    if (timeouts != this.defaultTimeouts) {
+		proxyRequest.setConfig(toRequestConfig(timeouts, 0));
+	    }
+
+	    return upstream.execute(proxyRequest);
+	}
+
+	long remainingMillis = deadlineMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+	if (remainingMillis <= 0) {
+	    throw new DeadlineExceededException(String.format("Deadline of %sms passed before calling %s",
+		    deadlineMillis, proxyRequest.getURI()));
+	}
+
+	proxyRequest.setConfig(toRequestConfig(timeouts, remainingMillis));
+	ScheduledFuture<?> abort = this.deadlineExecutor.schedule(
+		proxyRequest::abort, remainingMillis, TimeUnit.MILLISECONDS);
+
+	try {
+	    return upstream.execute(proxyRequest);
+	} catch (IOException e) {
+	    if (proxyRequest.isAborted()) {
+		DeadlineExceededException exceeded = new DeadlineExceededException(String.format(
+			"Deadline of %sms passed while calling %s", deadlineMillis, proxyRequest.getURI()));
+		exceeded.initCause(e);
+
+		throw exceeded;
+	    }
+
+	    throw e;
+	} finally {
+	    abort.cancel(false);
+	}
+    }
+
+    /**
+     * The timeouts of the first route matching the request endpoint, with the deadline shortened to the one given by
+     * the client, if any. The client deadline header is removed from the request
+     */
+    private RouteTimeouts getTimeouts(HttpRequestBase proxyRequest) {
+	RouteTimeouts timeouts = this.defaultTimeouts;
+
+	if (!this.routes.isEmpty()) {
+	    String url = proxyRequest.getURI().toString();
+
+	    for (Route route : this.routes) {
+		if (route.pattern.matcher(url).matches()) {
+		    timeouts = route.timeouts;
+		    break;
+		}
+	    }
+	}
+
+	Header clientTimeout = proxyRequest.getFirstHeader(REQUEST_TIMEOUT_HEADER);
+
+	if (clientTimeout == null) {
+	    return timeouts;
+	}
+
+	proxyRequest.removeHeaders(REQUEST_TIMEOUT_HEADER);
+
+	try {
+	    int clientTimeoutMillis = Integer.parseInt(clientTimeout.getValue().trim());
+
+	    if (clientTimeoutMillis > 0
+		    && (timeouts.getDeadlineMillis() == 0 || clientTimeoutMillis < timeouts.getDeadlineMillis())) {
+		return timeouts.withDeadlineMillis(clientTimeoutMillis);
+	    }
+	} catch (NumberFormatException e) {
+	    LOGGER.log(Level.WARNING,
+		    String.format("Ignoring invalid %s header: %s", REQUEST_TIMEOUT_HEADER, clientTimeout.getValue()));
+	}
+
+	return timeouts;
+    }
+
+    /**
+     * @param remainingMillis The time left until the deadline, which no timeout may exceed, or 0 if there is none
+     */
+    private RequestConfig toRequestConfig(RouteTimeouts timeouts, long remainingMillis) {
+	return RequestConfig.copy(this.defaultRequestConfig)
+		.setConnectTimeout(capTimeout(timeouts.getConnectTimeoutMillis(), remainingMillis))
+		.setConnectionRequestTimeout(capTimeout(timeouts.getConnectionRequestTimeoutMillis(), remainingMillis))
+		.setSocketTimeout(capTimeout(timeouts.getSocketTimeoutMillis(), remainingMillis))
+		.build();
+    }
+
+    /**
+     * A timeout of 0 waits indefinitely, so it is replaced by the remaining time rather than kept
+     */
+    private static int capTimeout(int timeoutMillis, long remainingMillis) {
+	if (remainingMillis <= 0) {
+	    return timeoutMillis;
+	}
+
+	return (int) (timeoutMillis == 0 ? remainingMillis : Math.min(timeoutMillis, remainingMillis));
+    }
+
+    /**
+     * Get the settings this dispatcher was created with
+     * @return The dispatcher settings
+     */
+    public DispatcherSettings getSettings() {
+	return this.settings;
+    }
+
+    /**
+     * Get the response cache, with its hit and miss counters
+     * @return The response cache, or an empty Optional if it is disabled
+     */
+    public Optional<ResponseCache> getResponseCache() {
+	return Optional.ofNullable(this.responseCache);
+    }
+
+    /**
+     * Get the per-host circuit breakers and bulkheads
+     * @return The upstream guard, or an empty Optional if both circuit breakers and bulkheads are disabled
+     */
+    public Optional<UpstreamGuard> getUpstreamGuard() {
+	return Optional.ofNullable(this.upstreamGuard);
+    }
+
+    /**
+     * Get the request coalescer, with its coalesced request counter
+     * @return The request coalescer, or an empty Optional if coalescing is disabled
+     */
+    public Optional<RequestCoalescer> getRequestCoalescer() {
+	return Optional.ofNullable(this.requestCoalescer);
+    }
+
+    /**
+     * Get the HTTP/2 upstream, with its connection and stream counts
+     * @return The HTTP/2 upstream, or an empty Optional if HTTP/2 is disabled
+     */
+    public Optional<Http2Upstream> getHttp2Upstream() {
+	return Optional.ofNullable(this.http2Upstream);
+    }
+
+    /**
+     * Get the cache of upstream host addresses, with its lookup counters and latency
+     * @return The DNS cache, or an empty Optional if it is disabled
+     */
+    public Optional<CachingDnsResolver> getDnsCache() {
+	return Optional.ofNullable(this.dnsCache);
+    }
+
+    /**
+     * Get a snapshot of the upstream connection pool usage
+     * @return The leased, available, pending and maximum connection counts, across all hosts
+     */
+    public PoolStats getPoolStats() {
+	return this.connectionManager.getTotalStats();
+    }
+
+    /**
+     * Get the number of upstream calls being made on the dispatcher's own threads
+     * @return The number of dispatches running
+     */
+    public int getActiveDispatchCount() {
+	return this.dispatchExecutor.getActiveCount();
+    }
+
+    /**
+     * Get the number of dispatches waiting for a dispatcher thread
+     * @return The number of dispatches queued
+     */
+    public int getQueuedDispatchCount() {
+	return this.dispatchExecutor.getQueue().size();
+    }
+
+    /**
+     * Close all pooled and HTTP/2 connections and stop the background connection eviction
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+	this.dispatchExecutor.shutdown();
+	this.deadlineExecutor.shutdownNow();
+	if (this.http2Upstream != null) {
+	    this.http2Upstream.close();
+	}
+	this.client.close();
+	if (this.dnsCache != null) {
+	    this.dnsCache.close();
+	}
+    }
+
+    /**
+     * Endpoints matching a URL pattern, and their timeouts
+     */
+    private static class Route {
+
+	private final Pattern pattern;
+	private final RouteTimeouts timeouts;
+
+	Route(String urlPattern, RouteTimeouts timeouts) {
+	    this.pattern = Pattern.compile(Arrays.stream(urlPattern.split("\\*", -1))
+		    .map(Pattern::quote)
+		    .collect(Collectors.joining(".*")));
+	    this.timeouts = timeouts;
+	}
+    }
+
+    private static class DispatchThreadFactory implements ThreadFactory {
+
+	private static final AtomicInteger DISPATCHER_COUNT = new AtomicInteger();
+
+	private final String namePrefix;
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	DispatchThreadFactory(String role) {
+	    this.namePrefix = String.format("drp-%s-%s-", role, DISPATCHER_COUNT.incrementAndGet());
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+	    Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+	    thread.setDaemon(true);
+
+	    return thread;
+	}
+    }
 }
@@ -0,0 +1,448 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.model.Fields;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A proxy request envelope, read from Json in a single pass. Envelope fields are matched case-insensitively. The
+ * endpoint, method and headers are small, and are kept as Json elements. A Json object request payload is never built
+ * into a tree: it is encoded into the outgoing request body while it is being read or, when the headers deciding its
+ * content type come after it in the envelope, kept as compact Json text and encoded once the whole envelope is read
+ */
+final class RequestEnvelope {
+
+    enum PayloadType {
+        ABSENT, NULL, PRIMITIVE, OBJECT, ARRAY
+    }
+
+    private static final String FORM_URLENCODED = HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString();
+    private static final String JSON = HttpHeaderValues.APPLICATION_JSON.toString();
+
+    private final RequestHeaders requestHeaders;
+
+    private JsonElement endpoint;
+    private JsonElement method;
+    private JsonElement headers;
+    private RequestHeaders parsedHeaders;
+
+    private PayloadType payloadType = PayloadType.ABSENT;
+    private JsonPrimitive primitivePayload;
+    private String capturedPayload;
+    private byte[] encodedPayload;
+    private String encodedPayloadContentType;
+
+    private RequestEnvelope(RequestHeaders requestHeaders) {
+        this.requestHeaders = requestHeaders == null ? RequestHeaders.empty() : requestHeaders;
+    }
+
+    /**
+     * Read an envelope from the given Json content, leniently, as {@link JsonParser} does
+     *
+     * @param content        The Json content
+     * @param requestHeaders The headers to use if the envelope has no headers of its own
+     * @return The envelope, or an empty Optional if the content is empty, null, or an empty string
+     * @throws JsonSyntaxException   On malformed Json
+     * @throws JsonIOException       On errors reading the content
+     * @throws IllegalStateException If the content is not a Json object
+     */
+    static Optional<RequestEnvelope> read(Reader content, RequestHeaders requestHeaders) {
+        JsonReader reader = new JsonReader(content);
+        reader.setLenient(true);
+
+        try {
+            try {
+                reader.peek();
+            } catch (EOFException e) {
+                return Optional.empty();
+            }
+
+            Optional<RequestEnvelope> envelope = readElement(reader, requestHeaders);
+            checkEndOfDocument(reader);
+
+            return envelope;
+        } catch (MalformedJsonException | EOFException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Read a Json array of envelopes from the given Json content, leniently, as {@link JsonParser} does
+     *
+     * @param content        The Json content
+     * @param requestHeaders The headers to use for the envelopes with no headers of their own
+     * @return The envelopes, in order, with an empty Optional for each null or empty string element. The list is
+     * empty if the content is empty
+     * @throws JsonSyntaxException   On malformed Json
+     * @throws JsonIOException       On errors reading the content
+     * @throws IllegalStateException If the content is not a Json array, or an element is not a Json object
+     */
+    static List<Optional<RequestEnvelope>> readArray(Reader content, RequestHeaders requestHeaders) {
+        JsonReader reader = new JsonReader(content);
+        reader.setLenient(true);
+
+        try {
+            try {
+                reader.peek();
+            } catch (EOFException e) {
+                return Collections.emptyList();
+            }
+
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new IllegalStateException("Not a JSON Array: " + new JsonParser().parse(reader));
+            }
+
+            List<Optional<RequestEnvelope>> envelopes = new ArrayList<>();
+            reader.beginArray();
+
+            while (reader.hasNext()) {
+                envelopes.add(readElement(reader, requestHeaders));
+            }
+
+            reader.endArray();
+            checkEndOfDocument(reader);
+
+            return envelopes;
+        } catch (MalformedJsonException | EOFException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    private static Optional<RequestEnvelope> readElement(JsonReader reader, RequestHeaders requestHeaders)
+            throws IOException {
+
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            JsonElement element = new JsonParser().parse(reader);
+
+            if (element.isJsonNull() || RequestTranslator.isEmptyString(element)) {
+                return Optional.empty();
+            }
+
+            throw new IllegalStateException("Not a JSON Object: " + element);
+        }
+
+        RequestEnvelope envelope = new RequestEnvelope(requestHeaders);
+        envelope.readFields(reader);
+
+        return Optional.of(envelope);
+    }
+
+    private static void checkEndOfDocument(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new JsonSyntaxException("Did not consume the entire document.");
+        }
+    }
+
+    /**
+     * @return The endpoint field, or null if absent
+     */
+    JsonElement getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return The method field, or null if absent
+     */
+    JsonElement getMethod() {
+        return method;
+    }
+
+    /**
+     * @return The envelope headers if present, otherwise the request headers the envelope was read with
+     * @throws IllegalStateException If the envelope headers are not a Json object
+     */
+    RequestHeaders getHeaders() {
+        if (headers == null) {
+            return requestHeaders;
+        }
+
+        if (parsedHeaders == null) {
+            parsedHeaders = RequestHeaders.of(parseRequestHeaders(headers.getAsJsonObject()));
+        }
+
+        return parsedHeaders;
+    }
+
+    /**
+     * @return The content type of the request payload, defaulting to form url-encoded
+     * @throws IllegalStateException If the envelope headers are not a Json object
+     */
+    String getContentType() {
+        String contentType = getHeaders().get(HttpHeaderNames.CONTENT_TYPE);
+
+        return contentType != null ? contentType : FORM_URLENCODED;
+    }
+
+    PayloadType getPayloadType() {
+        return payloadType;
+    }
+
+    /**
+     * @return The request payload, if it is a string, number or boolean
+     */
+    JsonPrimitive getPrimitivePayload() {
+        return primitivePayload;
+    }
+
+    /**
+     * Get the Json object request payload, encoded as the body of the outgoing request
+     *
+     * @param contentType The content type of the outgoing request
+     * @return The form url-encoded fields of the payload, or the payload as compact Json, in UTF-8. Empty for other
+     * content types
+     * @throws IOException On encoding errors
+     */
+    byte[] getEncodedObjectPayload(String contentType) throws IOException {
+        if (encodedPayload != null && contentType.equals(encodedPayloadContentType)) {
+            return encodedPayload;
+        }
+
+        if (capturedPayload == null || !isFormUrlEncoded(contentType) && !isJson(contentType)) {
+            return new byte[0];
+        }
+
+        if (isJson(contentType)) {
+            return capturedPayload.getBytes(StandardCharsets.UTF_8);
+        }
+
+        JsonReader reader = new JsonReader(new StringReader(capturedPayload));
+        reader.setLenient(true);
+
+        BodyEncoder body = BodyEncoder.get();
+        encodeObject(reader, contentType, body);
+
+        return body.toByteArray();
+    }
+
+    /**
+     * @param contentType A content type, with or without parameters
+     * @return Whether it is the form url-encoded media type
+     */
+    static boolean isFormUrlEncoded(String contentType) {
+        return isMediaType(contentType, FORM_URLENCODED);
+    }
+
+    /**
+     * @param contentType A content type, with or without parameters
+     * @return Whether it is the Json media type
+     */
+    static boolean isJson(String contentType) {
+        return isMediaType(contentType, JSON);
+    }
+
+    private void readFields(JsonReader reader) throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            switch (reader.nextName().toLowerCase().trim()) {
+                case Fields.ENDPOINT:
+                    endpoint = new JsonParser().parse(reader);
+                    break;
+                case Fields.METHOD:
+                    method = new JsonParser().parse(reader);
+                    break;
+                case Fields.HEADERS:
+                    headers = new JsonParser().parse(reader);
+                    parsedHeaders = null;
+                    break;
+                case Fields.REQUEST:
+                    readPayload(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+    }
+
+    private void readPayload(JsonReader reader) throws IOException {
+        primitivePayload = null;
+        capturedPayload = null;
+        encodedPayload = null;
+        encodedPayloadContentType = null;
+
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                payloadType = PayloadType.OBJECT;
+
+                /** The content type is only final once the headers are read: encode now if they already were */
+                if (headers != null && headers.isJsonObject()) {
+                    BodyEncoder body = BodyEncoder.get();
+                    encodedPayloadContentType = getContentType();
+                    encodeObject(reader, encodedPayloadContentType, body);
+                    encodedPayload = body.toByteArray();
+                } else {
+                    StringWriter captured = new StringWriter();
+                    copy(reader, newJsonWriter(captured));
+                    capturedPayload = captured.toString();
+                }
+                break;
+            case BEGIN_ARRAY:
+                payloadType = PayloadType.ARRAY;
+                reader.skipValue();
+                break;
+            case NULL:
+                payloadType = PayloadType.NULL;
+                reader.nextNull();
+                break;
+            default:
+                payloadType = PayloadType.PRIMITIVE;
+                primitivePayload = new JsonParser().parse(reader).getAsJsonPrimitive();
+        }
+    }
+
+    private static void encodeObject(JsonReader reader, String contentType, BodyEncoder body) throws IOException {
+        if (isFormUrlEncoded(contentType)) {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                writeFormField(reader, reader.nextName(), body);
+            }
+
+            reader.endObject();
+        } else if (isJson(contentType)) {
+            copy(reader, newJsonWriter(body));
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    /**
+     * Write the next value as a form field, joined to the previous fields. Arrays and nulls are skipped
+     */
+    private static void writeFormField(JsonReader reader, String name, BodyEncoder body) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                body.beginFormField(name);
+                body.append(reader.nextString());
+                break;
+            case BOOLEAN:
+                body.beginFormField(name);
+                body.append(Boolean.toString(reader.nextBoolean()));
+                break;
+            case BEGIN_OBJECT:
+                /** Nested objects are sent as their Json text */
+                body.beginFormField(name);
+                copy(reader, newJsonWriter(body));
+                break;
+            default:
+                reader.skipValue();
+        }
+    }
+
+    /**
+     * Copy the next value from the reader to the writer, producing the same text as Gson's JsonElement.toString()
+     */
+    private static void copy(JsonReader in, JsonWriter out) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_OBJECT:
+                in.beginObject();
+                out.beginObject();
+                while (in.hasNext()) {
+                    out.name(in.nextName());
+                    copy(in, out);
+                }
+                in.endObject();
+                out.endObject();
+                break;
+            case BEGIN_ARRAY:
+                in.beginArray();
+                out.beginArray();
+                while (in.hasNext()) {
+                    copy(in, out);
+                }
+                in.endArray();
+                out.endArray();
+                break;
+            case STRING:
+                out.value(in.nextString());
+                break;
+            case NUMBER:
+                out.value(new LazilyParsedNumber(in.nextString()));
+                break;
+            case BOOLEAN:
+                out.value(in.nextBoolean());
+                break;
+            case NULL:
+                in.nextNull();
+                out.nullValue();
+                break;
+            default:
+                throw new IllegalStateException("Unexpected Json token: " + in.peek());
+        }
+    }
+
+    private static JsonWriter newJsonWriter(Writer writer) {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setLenient(true);
+
+        return jsonWriter;
+    }
+
+    /**
+     * Match the media type of a content type, ignoring case, surrounding whitespace and parameters, without
+     * allocating
+     */
+    private static boolean isMediaType(String contentType, String expected) {
+        int start = 0;
+        int end = contentType.indexOf(';');
+
+        if (end < 0) {
+            end = contentType.length();
+        }
+
+        while (start < end && Character.isWhitespace(contentType.charAt(start))) {
+            start++;
+        }
+
+        while (end > start && Character.isWhitespace(contentType.charAt(end - 1))) {
+            end--;
+        }
+
+        return end - start == expected.length() && contentType.regionMatches(true, start, expected, 0, end - start);
+    }
+
+    private static Map<String, String> parseRequestHeaders(JsonObject requestHeaders) {
+        Map<String, String> headers = Maps.<String, String>newLinkedHashMap();
+
+        for (Map.Entry<String, JsonElement> header : requestHeaders.entrySet()) {
+
+            if (header.getValue().isJsonPrimitive() || header.getValue().isJsonObject()) {
+                headers.put(header.getKey().trim(), header.getValue().getAsString());
+            }
+        }
+
+        return headers;
+    }
+}
@@ -0,0 +1,497 @@
+package com.andreistraut.drp.core.communicator;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.AsciiString;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpMessage;
+
+/**
+ * A read-only view of the headers of a request, over the headers of Netty, HttpComponents and JAX-RS requests alike,
+ * which are never copied. Header names are matched case-insensitively, ignoring surrounding whitespace, and repeated
+ * headers are all kept, in order. Netty headers are looked up through their own case-insensitive {@link AsciiString}
+ * hash index; header arrays and maps are scanned, comparing the names in place, so looking up a single value
+ * allocates nothing
+ */
+public abstract class RequestHeaders {
+
+    private static final RequestHeaders EMPTY = new ArrayHeaders(new Header[0]);
+
+    /**
+     * @return A view with no headers
+     */
+    public static RequestHeaders empty() {
+        return EMPTY;
+    }
+
+    /**
+     * @param headers Netty headers, or null
+     * @return A view of the given headers
+     */
+    public static RequestHeaders of(HttpHeaders headers) {
+        return headers == null ? EMPTY : new NettyHeaders(headers);
+    }
+
+    /**
+     * @param message An HttpComponents request or response, or null
+     * @return A view of the headers of the given message, reflecting later changes to them
+     */
+    public static RequestHeaders of(HttpMessage message) {
+        return message == null ? EMPTY : new MessageHeaders(message);
+    }
+
+    /**
+     * @param headers HttpComponents headers, or null
+     * @return A view of the given headers
+     */
+    public static RequestHeaders of(Header[] headers) {
+        return headers == null ? EMPTY : new ArrayHeaders(headers);
+    }
+
+    /**
+     * @param headers Single-valued headers, by name, or null
+     * @return A view of the given headers
+     */
+    public static RequestHeaders of(Map<String, String> headers) {
+        return headers == null ? EMPTY : new SingleValuedMapHeaders(headers);
+    }
+
+    /**
+     * @param headers Multi-valued headers, by name, such as the request headers of a JAX-RS request, or null
+     * @return A view of the given headers
+     */
+    public static RequestHeaders ofMultiValued(Map<String, ? extends List<String>> headers) {
+        return headers == null ? EMPTY : new MultiValuedMapHeaders(headers);
+    }
+
+    /**
+     * @param name The header name
+     * @return The value of the first header with the given name, or null if there is none
+     */
+    public abstract String get(CharSequence name);
+
+    /**
+     * @param name The header name
+     * @return The values of all headers with the given name, in order. Empty if there is none
+     */
+    public abstract List<String> getAll(CharSequence name);
+
+    /**
+     * @param name The header name
+     * @return The first header with the given name, named as it is on the request rather than as it was looked up, or
+     * null if there is none
+     */
+    public abstract Entry<String, String> getEntry(CharSequence name);
+
+    /**
+     * @param name The header name
+     * @return Whether there is a header with the given name
+     */
+    public boolean contains(CharSequence name) {
+        return get(name) != null;
+    }
+
+    /**
+     * @return Whether there are no headers
+     */
+    public abstract boolean isEmpty();
+
+    /**
+     * Pass each header to the given action, in order. Repeated headers are passed once per value
+     *
+     * @param action Receives the name and value of each header
+     */
+    public abstract void forEach(BiConsumer<String, String> action);
+
+    /**
+     * Match a header name against the looked up one, case-insensitively and ignoring surrounding whitespace on both,
+     * without allocating
+     */
+    static boolean nameEquals(CharSequence headerName, CharSequence name) {
+        if (headerName == null) {
+            return false;
+        }
+
+        int headerStart = start(headerName);
+        int headerLength = end(headerName) - headerStart;
+        int nameStart = start(name);
+        int nameLength = end(name) - nameStart;
+
+        return headerLength == nameLength
+                && AsciiString.regionMatchesAscii(headerName, true, headerStart, name, nameStart, nameLength);
+    }
+
+    private static Entry<String, String> entry(String name, String value) {
+        return new AbstractMap.SimpleImmutableEntry<>(name, value);
+    }
+
+    private static int start(CharSequence name) {
+        int start = 0;
+
+        while (start < name.length() && name.charAt(start) <= ' ') {
+            start++;
+        }
+
+        return start;
+    }
+
+    private static int end(CharSequence name) {
+        int end = name.length();
+
+        while (end > 0 && name.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        return end;
+    }
+
+    private static final class NettyHeaders extends RequestHeaders {
+
+        private final HttpHeaders headers;
+
+        NettyHeaders(HttpHeaders headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public String get(CharSequence name) {
+            return headers.get(trim(name));
+        }
+
+        @Override
+        public List<String> getAll(CharSequence name) {
+            return headers.getAll(trim(name));
+        }
+
+        @Override
+        public Entry<String, String> getEntry(CharSequence name) {
+            Iterator<Entry<String, String>> iterator = headers.iteratorAsString();
+
+            while (iterator.hasNext()) {
+                Entry<String, String> header = iterator.next();
+
+                if (nameEquals(header.getKey(), name)) {
+                    return entry(header.getKey(), header.getValue());
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean contains(CharSequence name) {
+            return headers.contains(trim(name));
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return headers.isEmpty();
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, String> action) {
+            Iterator<Entry<String, String>> iterator = headers.iteratorAsString();
+
+            while (iterator.hasNext()) {
+                Entry<String, String> header = iterator.next();
+                action.accept(header.getKey(), header.getValue());
+            }
+        }
+
+        /**
+         * Netty validates names on addition, so only the looked up name may have surrounding whitespace
+         */
+        private static CharSequence trim(CharSequence name) {
+            return start(name) == 0 && end(name) == name.length() ? name : name.toString().trim();
+        }
+    }
+
+    private static final class MessageHeaders extends RequestHeaders {
+
+        private final HttpMessage message;
+
+        MessageHeaders(HttpMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public String get(CharSequence name) {
+            HeaderIterator iterator = message.headerIterator();
+
+            while (iterator.hasNext()) {
+                Header header = iterator.nextHeader();
+
+                if (header != null && nameEquals(header.getName(), name)) {
+                    return header.getValue();
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public List<String> getAll(CharSequence name) {
+            List<String> values = new ArrayList<>(1);
+            HeaderIterator iterator = message.headerIterator();
+
+            while (iterator.hasNext()) {
+                Header header = iterator.nextHeader();
+
+                if (header != null && nameEquals(header.getName(), name)) {
+                    values.add(header.getValue());
+                }
+            }
+
+            return values;
+        }
+
+        @Override
+        public Entry<String, String> getEntry(CharSequence name) {
+            HeaderIterator iterator = message.headerIterator();
+
+            while (iterator.hasNext()) {
+                Header header = iterator.nextHeader();
+
+                if (header != null && nameEquals(header.getName(), name)) {
+                    return entry(header.getName(), header.getValue());
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !message.headerIterator().hasNext();
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, String> action) {
+            HeaderIterator iterator = message.headerIterator();
+
+            while (iterator.hasNext()) {
+                Header header = iterator.nextHeader();
+
+                if (header != null) {
+                    action.accept(header.getName(), header.getValue());
+                }
+            }
+        }
+    }
+
+    private static final class ArrayHeaders extends RequestHeaders {
+
+        private final Header[] headers;
+
+        ArrayHeaders(Header[] headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public String get(CharSequence name) {
+            for (Header header : headers) {
+                if (header != null && nameEquals(header.getName(), name)) {
+                    return header.getValue();
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public List<String> getAll(CharSequence name) {
+            List<String> values = new ArrayList<>(1);
+
+            for (Header header : headers) {
+                if (header != null && nameEquals(header.getName(), name)) {
+                    values.add(header.getValue());
+                }
+            }
+
+            return values;
+        }
+
+        @Override
+        public Entry<String, String> getEntry(CharSequence name) {
+            for (Header header : headers) {
+                if (header != null && nameEquals(header.getName(), name)) {
+                    return entry(header.getName(), header.getValue());
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return headers.length == 0;
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, String> action) {
+            for (Header header : headers) {
+                if (header != null) {
+                    action.accept(header.getName(), header.getValue());
+                }
+            }
+        }
+    }
+
+    private static final class SingleValuedMapHeaders extends RequestHeaders {
+
+        private final Map<String, String> headers;
+
+        SingleValuedMapHeaders(Map<String, String> headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public String get(CharSequence name) {
+            /** Maps keyed case-insensitively, or by the exact name, answer without a scan */
+            String value = headers.get(name.toString());
+
+            if (value != null) {
+                return value;
+            }
+
+            for (Entry<String, String> header : headers.entrySet()) {
+                if (nameEquals(header.getKey(), name)) {
+                    return header.getValue();
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public List<String> getAll(CharSequence name) {
+            List<String> values = new ArrayList<>(1);
+
+            for (Entry<String, String> header : headers.entrySet()) {
+                if (nameEquals(header.getKey(), name) && header.getValue() != null) {
+                    values.add(header.getValue());
+                }
+            }
+
+            return values;
+        }
+
+        @Override
+        public Entry<String, String> getEntry(CharSequence name) {
+            for (Entry<String, String> header : headers.entrySet()) {
+                if (nameEquals(header.getKey(), name) && header.getValue() != null) {
+                    return entry(header.getKey(), header.getValue());
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return headers.isEmpty();
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, String> action) {
+            for (Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey() != null && header.getValue() != null) {
+                    action.accept(header.getKey(), header.getValue());
+                }
+            }
+        }
+    }
+
+    private static final class MultiValuedMapHeaders extends RequestHeaders {
+
+        private final Map<String, ? extends List<String>> headers;
+
+        MultiValuedMapHeaders(Map<String, ? extends List<String>> headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public String get(CharSequence name) {
+            /** JAX-RS request headers are keyed case-insensitively, so the scan is only a fallback */
+            String value = first(headers.get(name.toString()));
+
+            if (value != null) {
+                return value;
+            }
+
+            for (Entry<String, ? extends List<String>> header : headers.entrySet()) {
+                if (nameEquals(header.getKey(), name)) {
+                    value = first(header.getValue());
+
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public List<String> getAll(CharSequence name) {
+            List<String> values = null;
+
+            for (Entry<String, ? extends List<String>> header : headers.entrySet()) {
+                if (nameEquals(header.getKey(), name) && header.getValue() != null) {
+                    if (values == null) {
+                        values = new ArrayList<>(header.getValue().size());
+                    }
+
+                    values.addAll(header.getValue());
+                }
+            }
+
+            return values == null ? Collections.emptyList() : values;
+        }
+
+        @Override
+        public Entry<String, String> getEntry(CharSequence name) {
+            for (Entry<String, ? extends List<String>> header : headers.entrySet()) {
+                String value = nameEquals(header.getKey(), name) ? first(header.getValue()) : null;
+
+                if (value != null) {
+                    return entry(header.getKey(), value);
+                }
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return headers.isEmpty();
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, String> action) {
+            for (Entry<String, ? extends List<String>> header : headers.entrySet()) {
+                if (header.getKey() == null || header.getValue() == null) {
+                    continue;
+                }
+
+                for (String value : header.getValue()) {
+                    action.accept(header.getKey(), value);
+                }
+            }
+        }
+
+        private static String first(List<String> values) {
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+    }
+}
@@ -1,26 +1,27 @@
 package com.andreistraut.drp.core.communicator;
 
-import com.andreistraut.drp.core.model.Fields;
 import com.andreistraut.drp.core.model.Messages;
 import com.andreistraut.drp.core.model.ValidationErrorLog;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
 import io.netty.handler.codec.http.*;
 import io.netty.util.CharsetUtil;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.nio.charset.Charset;
-import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import org.apache.commons.validator.routines.UrlValidator;
 import org.apache.http.HttpEntity;
@@ -30,18 +31,35 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.EntityUtils;
 
+/**
+ * Translates proxy requests into HttpComponents requests. A translator holds no per-request state, so a single
+ * instance can be shared by any number of threads: use {@link #getInstance()} rather than creating one per request.
+ * The translate methods report validation errors in their result; the from methods throw them instead
+ */
 public class RequestTranslator {
 
     private static final List<HttpMethod> SUPPORTED_HTTP_METHODS = Lists.newArrayList(
             HttpMethod.DELETE, HttpMethod.GET, HttpMethod.HEAD, HttpMethod.OPTIONS, HttpMethod.POST, HttpMethod.PUT);
 
-    private ValidationErrorLog errorLog;
+    private static final ContentType TEXT_PLAIN_UTF_8 = ContentType.create("text/plain", CharsetUtil.UTF_8);
+
+    private final UrlValidator urlValidator;
 
     public RequestTranslator() {
-        this.errorLog = new ValidationErrorLog();
+        this.urlValidator = new UrlValidator(UrlValidator.ALLOW_ALL_SCHEMES + UrlValidator.ALLOW_LOCAL_URLS);
+    }
+
+    /**
+     * Get the translator shared by the whole application
+     *
+     * @return The shared translator
+     */
+    public static RequestTranslator getInstance() {
+        return SharedInstanceHolder.INSTANCE;
     }
 
     /**
@@ -57,15 +75,7 @@ public class RequestTranslator {
     public HttpRequestBase fromJsonString(HttpHeaders requestHeaders, String content)
             throws IllegalArgumentException, IllegalStateException, UnsupportedEncodingException {
 
-        Map<String, String> headersMap = Maps.<String, String>newHashMap();
-
-        if (requestHeaders != null) {
-            requestHeaders.entries().forEach((header) -> {
-                headersMap.put(header.getKey().trim(), header.getValue());
-            });
-        }
-
-        return fromJsonString(headersMap, content);
+        return translateJsonString(requestHeaders, content).getRequestOrThrow();
     }
 
     /**
@@ -81,58 +91,250 @@ public class RequestTranslator {
     public HttpRequestBase fromJsonString(Map<String, String> requestHeaders, String content)
             throws IllegalArgumentException, IllegalStateException, UnsupportedEncodingException {
 
-        this.errorLog = new ValidationErrorLog();
+        return translateJsonString(requestHeaders, content).getRequestOrThrow();
+    }
+
+    /**
+     * Parse the given UTF-8 encoded Json request and turn it into a HttpComponent request, without first decoding
+     * the whole content into a string
+     *
+     * @param requestHeaders The request headers
+     * @param content        The request parameters, as UTF-8 encoded Json
+     * @return An HttpComponents request
+     * @throws IllegalArgumentException     On invalid input
+     * @throws IllegalStateException        On invalid input
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public HttpRequestBase fromJsonStream(Map<String, String> requestHeaders, InputStream content)
+            throws IllegalArgumentException, IllegalStateException, UnsupportedEncodingException {
+
+        return translateJsonStream(requestHeaders, content).getRequestOrThrow();
+    }
+
+    /**
+     * Parse the given string request and turn it into a HttpComponent request
+     *
+     * @param requestHeaders The request headers
+     * @param content        The request parameters, as Json
+     * @return The request, or the validation errors
+     * @throws JsonParseException           On malformed Json
+     * @throws IllegalStateException        If the content is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public TranslationResult translateJsonString(HttpHeaders requestHeaders, String content)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        return translateJsonString(RequestHeaders.of(requestHeaders), content);
+    }
+
+    /**
+     * Parse the given string request and turn it into a HttpComponent request
+     *
+     * @param requestHeaders The request headers
+     * @param content        The request parameters, as Json
+     * @return The request, or the validation errors
+     * @throws JsonParseException           On malformed Json
+     * @throws IllegalStateException        If the content is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public TranslationResult translateJsonString(Map<String, String> requestHeaders, String content)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        return translateJsonString(RequestHeaders.of(requestHeaders), content);
+    }
+
+    /**
+     * Parse the given string request and turn it into a HttpComponent request
+     *
+     * @param requestHeaders The request headers
+     * @param content        The request parameters, as Json
+     * @return The request, or the validation errors
+     * @throws JsonParseException           On malformed Json
+     * @throws IllegalStateException        If the content is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public TranslationResult translateJsonString(RequestHeaders requestHeaders, String content)
+            throws IllegalStateException, UnsupportedEncodingException {
 
         if (content == null || isEmptyString(content)) {
-            this.errorLog.addValidationError(Messages.JSON_OBJECT_EXPECTED_EMPTY_FOUND);
-            throw new IllegalArgumentException(this.errorLog.getValidationErrorsString()
-                    .orElse(Messages.UNKNOWN_VALIDATION_ERROR));
+            return invalid(Messages.JSON_OBJECT_EXPECTED_EMPTY_FOUND);
+        }
+
+        return fromEnvelope(RequestEnvelope.read(new StringReader(content), requestHeaders));
+    }
+
+    /**
+     * Parse the given UTF-8 encoded Json request and turn it into a HttpComponent request, without first decoding
+     * the whole content into a string
+     *
+     * @param requestHeaders The request headers
+     * @param content        The request parameters, as UTF-8 encoded Json
+     * @return The request, or the validation errors
+     * @throws JsonParseException           On malformed Json, or errors reading the content
+     * @throws IllegalStateException        If the content is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public TranslationResult translateJsonStream(Map<String, String> requestHeaders, InputStream content)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        return translateJsonStream(RequestHeaders.of(requestHeaders), content);
+    }
+
+    /**
+     * Parse the given UTF-8 encoded Json request and turn it into a HttpComponent request, without first decoding
+     * the whole content into a string
+     *
+     * @param requestHeaders The request headers
+     * @param content        The request parameters, as UTF-8 encoded Json
+     * @return The request, or the validation errors
+     * @throws JsonParseException           On malformed Json, or errors reading the content
+     * @throws IllegalStateException        If the content is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public TranslationResult translateJsonStream(RequestHeaders requestHeaders, InputStream content)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        Optional<RequestEnvelope> envelope = content == null
+                ? Optional.empty()
+                : RequestEnvelope.read(new InputStreamReader(content, CharsetUtil.UTF_8), requestHeaders);
+
+        return fromEnvelope(envelope);
+    }
+
+    /**
+     * Parse the given Json array of requests and turn each into a HttpComponent request
+     *
+     * @param requestHeaders The request headers, used for the requests with no headers of their own
+     * @param content        A Json array of request parameters
+     * @return The requests or their validation errors, in order. The list is empty if the content is empty
+     * @throws JsonParseException           On malformed Json
+     * @throws IllegalStateException        If the content is not a Json array, or an element is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public List<TranslationResult> translateJsonArrayString(Map<String, String> requestHeaders, String content)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        return translateJsonArrayString(RequestHeaders.of(requestHeaders), content);
+    }
+
+    /**
+     * Parse the given Json array of requests and turn each into a HttpComponent request
+     *
+     * @param requestHeaders The request headers, used for the requests with no headers of their own
+     * @param content        A Json array of request parameters
+     * @return The requests or their validation errors, in order. The list is empty if the content is empty
+     * @throws JsonParseException           On malformed Json
+     * @throws IllegalStateException        If the content is not a Json array, or an element is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public List<TranslationResult> translateJsonArrayString(RequestHeaders requestHeaders, String content)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        if (content == null) {
+            return Collections.emptyList();
+        }
+
+        return fromEnvelopes(RequestEnvelope.readArray(new StringReader(content), requestHeaders));
+    }
+
+    /**
+     * Parse the given UTF-8 encoded Json array of requests and turn each into a HttpComponent request, without first
+     * decoding the whole content into a string
+     *
+     * @param requestHeaders The request headers, used for the requests with no headers of their own
+     * @param content        A Json array of request parameters, UTF-8 encoded
+     * @return The requests or their validation errors, in order. The list is empty if the content is empty
+     * @throws JsonParseException           On malformed Json, or errors reading the content
+     * @throws IllegalStateException        If the content is not a Json array, or an element is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public List<TranslationResult> translateJsonArrayStream(Map<String, String> requestHeaders, InputStream content)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        return translateJsonArrayStream(RequestHeaders.of(requestHeaders), content);
+    }
+
+    /**
+     * Parse the given UTF-8 encoded Json array of requests and turn each into a HttpComponent request, without first
+     * decoding the whole content into a string
+     *
+     * @param requestHeaders The request headers, used for the requests with no headers of their own
+     * @param content        A Json array of request parameters, UTF-8 encoded
+     * @return The requests or their validation errors, in order. The list is empty if the content is empty
+     * @throws JsonParseException           On malformed Json, or errors reading the content
+     * @throws IllegalStateException        If the content is not a Json array, or an element is not a Json object
+     * @throws UnsupportedEncodingException On invalid input encoding
+     */
+    public List<TranslationResult> translateJsonArrayStream(RequestHeaders requestHeaders, InputStream content)
+            throws IllegalStateException, UnsupportedEncodingException {
 
+        if (content == null) {
+            return Collections.emptyList();
         }
 
-        JsonObject requestObject = getLowerCasedKeysRequestObject(content);
+        return fromEnvelopes(RequestEnvelope.readArray(
+                new InputStreamReader(content, CharsetUtil.UTF_8), requestHeaders));
+    }
+
+    private List<TranslationResult> fromEnvelopes(List<Optional<RequestEnvelope>> envelopes)
+            throws IllegalStateException, UnsupportedEncodingException {
+
+        List<TranslationResult> results = new ArrayList<>(envelopes.size());
 
-        /** Validate the parameters, and throw an error if anything wrong*/
-        if (!validate(requestObject)) {
-            throw new IllegalArgumentException(this.errorLog.getValidationErrorsString()
-                    .orElse(Messages.UNKNOWN_VALIDATION_ERROR));
+        for (Optional<RequestEnvelope> envelope : envelopes) {
+            results.add(fromEnvelope(envelope));
         }
 
-        String endpoint = requestObject.get(Fields.ENDPOINT).getAsString();
-        HttpMethod method = HttpMethod.valueOf(requestObject.get(Fields.METHOD).getAsString().trim().toUpperCase());
+        return results;
+    }
 
-        /** Parse the request headers if present */
-        Map<String, String> headers = requestObject.has(Fields.HEADERS)
-                ? parseRequestHeaders(requestObject.get(Fields.HEADERS).getAsJsonObject())
-                : requestHeaders;
+    private TranslationResult fromEnvelope(Optional<RequestEnvelope> parsedContent)
+            throws IllegalStateException, UnsupportedEncodingException {
 
-        HttpRequestBase request = getRequestBase(method, endpoint);
+        if (!parsedContent.isPresent()) {
+            return invalid(Messages.JSON_OBJECT_EXPECTED_EMPTY_FOUND);
+        }
 
-        /** Set the headers from the proxy request, if present */
-        for (Map.Entry<String, String> header : headers.entrySet()) {
+        RequestEnvelope envelope = parsedContent.get();
+        ValidationErrorLog errorLog = new ValidationErrorLog();
 
-            if (header.getKey().trim().equalsIgnoreCase(HttpHeaderNames.CONTENT_LENGTH.toString())) {
-                continue;
-            }
+        /** Validate the parameters, and report the errors if anything wrong*/
+        if (!validate(envelope, errorLog)) {
+            return TranslationResult.invalid(errorLog);
+        }
+
+        String endpoint = envelope.getEndpoint().getAsString();
+        HttpMethod method = HttpMethod.valueOf(envelope.getMethod().getAsString().trim().toUpperCase());
 
-            request.addHeader(header.getKey().toLowerCase().trim(), header.getValue());
+        if (!isTranslatableMethod(method)) {
+            return invalid(Messages.ONLY_GET_POST_PUT_METHODS_SUPPORTED);
         }
 
-        String contentType = headers.containsKey(HttpHeaderNames.CONTENT_TYPE.toString())
-                ? headers.get(HttpHeaderNames.CONTENT_TYPE.toString())
-                : HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString();
+        HttpRequestBase request = getRequestBase(method, endpoint);
+
+        /** Set the headers from the envelope if present, otherwise from the proxy request, repeated ones included */
+        envelope.getHeaders().forEach((name, value) -> {
+            if (!RequestHeaders.nameEquals(name, HttpHeaderNames.CONTENT_LENGTH)) {
+                request.addHeader(name.toLowerCase().trim(), value);
+            }
+        });
 
         /** If request is POST or other request type that contains a body, set it */
-        if (HttpEntityEnclosingRequest.class.isInstance(request) && requestObject.has(Fields.REQUEST)) {
-            String requestBody = parseRequestBody(requestObject.get(Fields.REQUEST), contentType);
-            HttpEntityEnclosingRequest.class.cast(request).setEntity(new StringEntity(requestBody));
+        if (HttpEntityEnclosingRequest.class.isInstance(request)
+                && envelope.getPayloadType() != RequestEnvelope.PayloadType.ABSENT) {
+            HttpEntity requestBody = envelope.getPayloadType() == RequestEnvelope.PayloadType.OBJECT
+                    ? encodeRequestBody(envelope)
+                    : parseRequestBody(envelope.getPrimitivePayload());
+            HttpEntityEnclosingRequest.class.cast(request).setEntity(requestBody);
         }
 
-        return request;
+        return TranslationResult.valid(request);
     }
 
     /**
-     * Convert the given Netty httprequest and turn it into a HttpComponent request
+     * Convert the given Netty httprequest and turn it into a HttpComponent request. The body, if any, is not copied:
+     * the request entity is a {@link ByteBufEntity} holding its own reference to the Netty request content, which
+     * should be released once the request has been dispatched
      *
      * @param fullHttpRequest The Netty HttpRequest
      * @return An HttpComponents request
@@ -143,24 +345,21 @@ public class RequestTranslator {
     public HttpRequestBase fromFullHttpRequest(FullHttpRequest fullHttpRequest)
             throws IllegalArgumentException, IllegalStateException, UnsupportedEncodingException {
 
-        this.errorLog = new ValidationErrorLog();
         String endpoint = fullHttpRequest.uri();
         HttpMethod method = fullHttpRequest.method();
 
         HttpRequestBase request = getRequestBase(method, endpoint);
 
-        for (Entry<String, String> header : fullHttpRequest.headers().entries()) {
-            if (header.getKey().trim().equalsIgnoreCase(HttpHeaderNames.CONTENT_LENGTH.toString())) {
-                continue;
+        RequestHeaders.of(fullHttpRequest.headers()).forEach((name, value) -> {
+            if (!RequestHeaders.nameEquals(name, HttpHeaderNames.CONTENT_LENGTH)) {
+                request.addHeader(name, value);
             }
-
-            request.addHeader(header.getKey(), header.getValue());
-        }
+        });
 
         /** If request is POST or other request type that contains a body, set it */
         if (HttpEntityEnclosingRequest.class.isInstance(request)) {
             HttpEntityEnclosingRequest.class.cast(request).setEntity(
-                    new StringEntity(fullHttpRequest.content().toString(CharsetUtil.UTF_8)));
+                    new ByteBufEntity(fullHttpRequest.content().retainedDuplicate()));
         }
 
         return request;
@@ -179,95 +378,98 @@ public class RequestTranslator {
     public HttpRequestBase fromStringUrl(Map<String, String> requestHeaders, String url)
             throws IllegalArgumentException, IllegalStateException, UnsupportedEncodingException {
 
-        this.errorLog = new ValidationErrorLog();
+        return translateStringUrl(requestHeaders, url).getRequestOrThrow();
+    }
+
+    /**
+     * Create an HttpComponents request from headers and an url
+     *
+     * @param requestHeaders The headers to use
+     * @param url            The remote endpoint
+     * @return The request, or the validation errors
+     */
+    public TranslationResult translateStringUrl(Map<String, String> requestHeaders, String url) {
+
+        return translateStringUrl(RequestHeaders.of(requestHeaders), url);
+    }
+
+    /**
+     * Create an HttpComponents request from headers and an url
+     *
+     * @param requestHeaders The headers to use
+     * @param url            The remote endpoint
+     * @return The request, or the validation errors
+     */
+    public TranslationResult translateStringUrl(RequestHeaders requestHeaders, String url) {
+
+        ValidationErrorLog errorLog = new ValidationErrorLog();
 
-        if (!validateURL(url)) {
-            this.errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_PROVIDED);
-            throw new IllegalArgumentException(this.errorLog.getValidationErrorsString()
-                    .orElse(Messages.UNKNOWN_VALIDATION_ERROR));
+        if (!validateURL(url, errorLog)) {
+            errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_PROVIDED);
+            return TranslationResult.invalid(errorLog);
         }
 
         HttpRequestBase request = getRequestBase(HttpMethod.GET, url);
 
         if (requestHeaders == null) {
-            return request;
+            return TranslationResult.valid(request);
         }
 
-        for (Entry<String, String> header : requestHeaders.entrySet()) {
-            if (header.getKey().trim().equalsIgnoreCase(HttpHeaderNames.CONTENT_LENGTH.toString())) {
-                continue;
+        requestHeaders.forEach((name, value) -> {
+            if (!RequestHeaders.nameEquals(name, HttpHeaderNames.CONTENT_LENGTH) && !isEmptyString(name)) {
+                request.addHeader(name, value);
             }
+        });
 
-            if (isEmptyString(header.getKey())) {
-                continue;
-            }
-
-            request.addHeader(header.getKey(), header.getValue());
-        }
-
-        return request;
+        return TranslationResult.valid(request);
     }
 
     /**
-     * Extract and return the header with the given name from the given request
+     * Extract and return the header with the given name from the given request. If the header is repeated, the first
+     * one is returned
      *
      * @param request    The request
      * @param headerName The name of the header
      * @return An Optional containing the header, as Name-Value entry, or an Optional.absent if header is not found
      */
     public Optional<Entry<String, String>> getHeader(HttpRequestBase request, String headerName) {
-        Map<String, String> headers = Lists.newArrayList(request.getAllHeaders()).stream()
-                .filter(header -> header != null)
-                .map(header -> new AbstractMap.SimpleImmutableEntry<>(header.getName(), header.getValue()))
-                .collect(Collectors.toMap(header -> header.getKey(), header -> header.getValue()));
-
-        return this.getHeader(headers, headerName);
+        return getHeader(RequestHeaders.of(request), headerName);
     }
 
     /**
-     * Extract and return the header with the given name from the given request
+     * Extract and return the header with the given name from the given request. If the header is repeated, the first
+     * one is returned
      *
      * @param request    The request
      * @param headerName The name of the header
      * @return An Optional containing the header, as Name-Value entry, or an Optional.absent if header is not found
      */
     public Optional<Entry<String, String>> getHeader(FullHttpRequest request, String headerName) {
-        Map<String, String> headers = request.headers().entries().stream()
-                .map(header -> new AbstractMap.SimpleImmutableEntry<>(header.getKey(), header.getValue()))
-                .collect(Collectors.toMap(header -> header.getKey(), header -> header.getValue()));
-
-        return this.getHeader(headers, headerName);
+        return getHeader(RequestHeaders.of(request.headers()), headerName);
     }
 
     /**
-     * Extract and return the value of the header with the given name from the given request
+     * Extract and return the value of the header with the given name from the given request. If the header is
+     * repeated, the value of the first one is returned
      *
      * @param request    The request
      * @param headerName The name of the header
      * @return An Optional containing the header value, or an Optional.absent if header is not found
      */
     public Optional<String> getHeaderValue(HttpRequestBase request, String headerName) {
-        Map<String, String> headers = Lists.newArrayList(request.getAllHeaders()).stream()
-                .filter(header -> header != null)
-                .map(header -> new AbstractMap.SimpleImmutableEntry<>(header.getName(), header.getValue()))
-                .collect(Collectors.toMap(header -> header.getKey(), header -> header.getValue()));
-
-        return this.getHeaderValue(headers, headerName);
+        return Optional.ofNullable(RequestHeaders.of(request).get(headerName));
     }
 
     /**
-     * Extract and return the value of the header with the given name from the given request
+     * Extract and return the value of the header with the given name from the given request. If the header is
+     * repeated, the value of the first one is returned
      *
      * @param request    The request
      * @param headerName The name of the header
      * @return An Optional containing the header value, or an Optional.absent if header is not found
      */
     public Optional<String> getHeaderValue(FullHttpRequest request, String headerName) {
-        Map<String, String> headers = request.headers().entries().stream()
-                .map(header -> new AbstractMap.SimpleImmutableEntry<>(header.getKey(), header.getValue()))
-                .collect(Collectors.toMap(header -> header.getKey(), header -> header.getValue()));
-
-        return this.getHeaderValue(headers, headerName);
+        return Optional.ofNullable(RequestHeaders.of(request.headers()).get(headerName));
     }
 
     /**
@@ -319,13 +521,17 @@ public class RequestTranslator {
         return Optional.ofNullable(responseString);
     }
 
-    /**
-     * Get the log containing the validation errors
-     *
-     * @return The error log
-     */
-    public ValidationErrorLog getErrorLog() {
-        return this.errorLog;
+    private TranslationResult invalid(String validationError) {
+        ValidationErrorLog errorLog = new ValidationErrorLog();
+        errorLog.addValidationError(validationError);
+
+        return TranslationResult.invalid(errorLog);
+    }
+
+    private boolean isTranslatableMethod(HttpMethod method) {
+        return method.name().equals(HttpMethod.GET.name())
+                || method.name().equals(HttpMethod.POST.name())
+                || method.name().equals(HttpMethod.PUT.name());
     }
 
     private HttpRequestBase getRequestBase(HttpMethod method, String endpoint) {
@@ -341,181 +547,129 @@ public class RequestTranslator {
         }
     }
 
-    private boolean validate(JsonObject object) {
+    private boolean validate(RequestEnvelope envelope, ValidationErrorLog errorLog) {
 
         boolean valid = true;
+        JsonElement endpoint = envelope.getEndpoint();
+        JsonElement method = envelope.getMethod();
 
-        if (!object.has(Fields.ENDPOINT) || isEmptyString(object.get(Fields.ENDPOINT))
-                || isEmptyString(object.get(Fields.ENDPOINT).getAsString())) {
-            this.errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_PROVIDED);
+        if (endpoint == null || isEmptyString(endpoint) || isEmptyString(endpoint.getAsString())) {
+            errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_PROVIDED);
             valid = false;
         }
 
-        if (object.has(Fields.ENDPOINT) && !isEmptyString(object.get(Fields.ENDPOINT))
-                && !isEmptyString(object.get(Fields.ENDPOINT).getAsString())) {
+        if (endpoint != null && !isEmptyString(endpoint) && !isEmptyString(endpoint.getAsString())) {
             /** validateUrl method adds its own messages to validation log, no need to do it here */
-            if (!this.validateURL(object.get(Fields.ENDPOINT).getAsString())) {
+            if (!this.validateURL(endpoint.getAsString(), errorLog)) {
                 valid = false;
             }
         }
 
-        if (!object.has(Fields.METHOD) || isEmptyString(object.get(Fields.METHOD))
-                || isEmptyString(object.get(Fields.METHOD).getAsString())) {
-            this.errorLog.addValidationError(Messages.HTTP_METHOD_MUST_BE_SPECIFIED);
+        if (method == null || isEmptyString(method) || isEmptyString(method.getAsString())) {
+            errorLog.addValidationError(Messages.HTTP_METHOD_MUST_BE_SPECIFIED);
             valid = false;
         }
 
-        if (object.has(Fields.METHOD) && !isEmptyString(object.get(Fields.METHOD))
-                && !isEmptyString(object.get(Fields.METHOD).getAsString())) {
-            HttpMethod method = HttpMethod.valueOf(object.get(Fields.METHOD).getAsString().trim().toUpperCase());
+        if (method != null && !isEmptyString(method) && !isEmptyString(method.getAsString())) {
+            HttpMethod httpMethod = HttpMethod.valueOf(method.getAsString().trim().toUpperCase());
 
-            if (method == null || !SUPPORTED_HTTP_METHODS.contains(method)) {
-                this.errorLog.addValidationError(Messages.CORRECT_HTTP_METHOD_MUST_BE_SPECIFIED);
+            if (httpMethod == null || !SUPPORTED_HTTP_METHODS.contains(httpMethod)) {
+                errorLog.addValidationError(Messages.CORRECT_HTTP_METHOD_MUST_BE_SPECIFIED);
                 valid = false;
             }
 
-            if (method != null && !SUPPORTED_HTTP_METHODS.contains(method)) {
-                this.errorLog.addValidationError(Messages.ONLY_GET_POST_PUT_METHODS_SUPPORTED);
+            if (httpMethod != null && !SUPPORTED_HTTP_METHODS.contains(httpMethod)) {
+                errorLog.addValidationError(Messages.ONLY_GET_POST_PUT_METHODS_SUPPORTED);
                 valid = false;
             }
         }
 
-        if (hasRequestField(object) && !hasRequestContent(object)) {
-            this.errorLog.addValidationError(Messages.REQUEST_PARAMS_MUST_BE_PROVIDED);
+        if (hasRequestField(envelope) && !hasRequestContent(envelope)) {
+            errorLog.addValidationError(Messages.REQUEST_PARAMS_MUST_BE_PROVIDED);
             valid = false;
         }
 
-        if (hasRequestField(object) && !object.get(Fields.REQUEST).isJsonObject()
-                && !object.get(Fields.REQUEST).isJsonPrimitive()) {
-            this.errorLog.addValidationError(Messages.REQUEST_PARAMS_MUST_BE_JSON_OR_STRING);
+        if (hasRequestField(envelope) && envelope.getPayloadType() != RequestEnvelope.PayloadType.OBJECT
+                && envelope.getPayloadType() != RequestEnvelope.PayloadType.PRIMITIVE) {
+            errorLog.addValidationError(Messages.REQUEST_PARAMS_MUST_BE_JSON_OR_STRING);
             valid = false;
         }
 
         return valid;
     }
 
-    private boolean validateURL(String url) {
+    private boolean validateURL(String url, ValidationErrorLog errorLog) {
         if (url == null || url.isEmpty()) {
-            this.errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_PROVIDED);
+            errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_PROVIDED);
             return false;
         }
 
-        UrlValidator validator = new UrlValidator(
-                UrlValidator.ALLOW_ALL_SCHEMES + UrlValidator.ALLOW_LOCAL_URLS);
-
-        if (!validator.isValid(url.trim())) {
-            this.errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_VALID);
+        if (!this.urlValidator.isValid(url.trim())) {
+            errorLog.addValidationError(Messages.ENDPOINT_URL_MUST_BE_VALID);
             return false;
         }
 
         return true;
     }
 
-    private JsonObject getLowerCasedKeysRequestObject(String content) {
-        JsonObject requestObject = (new JsonParser()).parse(content).getAsJsonObject();
-        JsonObject normalized = new JsonObject();
-
-        for (Map.Entry<String, JsonElement> field : requestObject.entrySet()) {
-            normalized.add(field.getKey().toLowerCase().trim(), requestObject.get(field.getKey()));
-        }
-
-        return normalized;
+    private boolean hasRequestField(RequestEnvelope envelope) {
+        return envelope.getPayloadType() != RequestEnvelope.PayloadType.ABSENT;
     }
 
-    private boolean hasRequestField(JsonObject object) {
-        return object.has(Fields.REQUEST);
-    }
-
-    private boolean hasRequestContent(JsonObject object) {
-
-        final String EMPTY_STRING = "";
-        final String SPACE = " ";
-        final String QUOTE = "\"";
-
-        if (!object.has(Fields.REQUEST)) {
-            return false;
-        }
+    private boolean hasRequestContent(RequestEnvelope envelope) {
 
-        if (object.get(Fields.REQUEST) == null) {
+        if (!hasRequestField(envelope)) {
             return false;
         }
 
-        if (object.get(Fields.REQUEST).isJsonNull()) {
+        if (envelope.getPayloadType() == RequestEnvelope.PayloadType.NULL) {
             return false;
         }
 
-        return !isEmptyString(object.get(Fields.REQUEST).toString());
+        /** Objects and arrays are never empty, as their Json text always has brackets */
+        return envelope.getPayloadType() != RequestEnvelope.PayloadType.PRIMITIVE
+                || !isEmptyString(envelope.getPrimitivePayload().toString());
     }
 
-    private Map<String, String> parseRequestHeaders(JsonObject requestHeaders) {
-        Map<String, String> headers = Maps.<String, String>newHashMap();
-
-        for (Map.Entry<String, JsonElement> header : requestHeaders.entrySet()) {
+    /**
+     * String payloads already holding form fields or escapes are sent as they are; others are url-encoded
+     */
+    private HttpEntity parseRequestBody(JsonPrimitive requestBody) {
+        String body = requestBody.getAsString();
+        BodyEncoder encoder = BodyEncoder.get();
 
-            if (header.getValue().isJsonPrimitive() || header.getValue().isJsonObject()) {
-                headers.put(header.getKey().trim(), header.getValue().getAsString());
-            }
+        if (body.indexOf('&') >= 0 || body.indexOf('%') >= 0) {
+            encoder.append(body);
+        } else {
+            encoder.writeUrlEncoded(body);
         }
 
-        return headers;
+        return new ByteArrayEntity(encoder.toByteArray(), TEXT_PLAIN_UTF_8);
     }
 
-    private String parseRequestBody(JsonElement requestBody, String type) throws UnsupportedEncodingException {
-        StringBuilder builder = new StringBuilder();
-
-        if (requestBody.isJsonPrimitive()) {
+    private HttpEntity encodeRequestBody(RequestEnvelope envelope) throws UnsupportedEncodingException {
+        String contentType = envelope.getContentType();
 
-            String body = requestBody.getAsString();
-            if(body.contains("&") || body.contains("%")) {
-                builder.append(body);
-            } else {
-                builder.append(URLEncoder.encode(body, "UTF-8"));
-            }
+        try {
+            byte[] body = envelope.getEncodedObjectPayload(contentType);
 
-        } else if (requestBody.isJsonObject()) {
-            if(type.toLowerCase().trim().equals(HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString().toLowerCase().trim())) {
-                for (Map.Entry<String, JsonElement> requestParameter : requestBody.getAsJsonObject().entrySet()) {
-
-                    if (requestParameter.getValue().isJsonPrimitive()
-                            || requestParameter.getValue().isJsonObject()) {
-                        builder.append(URLEncoder.encode(requestParameter.getKey(), "UTF-8")).append("=")
-                                .append(URLEncoder.encode(requestParameter.getValue().getAsString(), "UTF-8"));
-
-                    }
-                }
-            } else if(type.toLowerCase().trim().equals(HttpHeaderValues.APPLICATION_JSON.toString().toLowerCase().trim())) {
-                JsonObject object = new JsonObject();
-                for (Map.Entry<String, JsonElement> requestParameter : requestBody.getAsJsonObject().entrySet()) {
-                    object.add(requestParameter.getKey(), requestParameter.getValue());
-                }
-                builder.append(object);
+            if (RequestEnvelope.isFormUrlEncoded(contentType)) {
+                return new ByteArrayEntity(body, ContentType.APPLICATION_FORM_URLENCODED);
             }
-        }
-
-        return builder.toString();
-    }
 
-    private Optional<Entry<String, String>> getHeader(Map<String, String> headers, String headerName) {
-        for (Entry<String, String> header : headers.entrySet()) {
-            if (header.getKey().trim().equalsIgnoreCase(headerName.trim())) {
-                return Optional.of(new AbstractMap.SimpleImmutableEntry(header.getKey(), header.getValue()));
-            }
+            return new ByteArrayEntity(body, RequestEnvelope.isJson(contentType) ? ContentType.APPLICATION_JSON : null);
+        } catch (UnsupportedEncodingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
         }
-
-        return Optional.empty();
     }
 
-    private Optional<String> getHeaderValue(Map<String, String> headers, String headerName) {
-        for (Entry<String, String> header : headers.entrySet()) {
-            if (header.getKey().trim().equalsIgnoreCase(headerName.trim())) {
-                return Optional.of(header.getValue());
-            }
-        }
-
-        return Optional.empty();
+    private Optional<Entry<String, String>> getHeader(RequestHeaders headers, String headerName) {
+        return Optional.ofNullable(headers.getEntry(headerName));
     }
 
-    private boolean isEmptyString(String string) {
+    static boolean isEmptyString(String string) {
 
         final String EMPTY_STRING = "";
         final String SPACE = " ";
@@ -531,7 +685,7 @@ public class RequestTranslator {
         return cleanedContent.equals(EMPTY_STRING);
     }
 
-    private boolean isEmptyString(JsonElement json) {
+    static boolean isEmptyString(JsonElement json) {
 
         if (json.isJsonNull()) {
             return true;
@@ -543,4 +697,9 @@ public class RequestTranslator {
             return true;
         }
     }
+
+    private static class SharedInstanceHolder {
+
+        private static final RequestTranslator INSTANCE = new RequestTranslator();
+    }
 }
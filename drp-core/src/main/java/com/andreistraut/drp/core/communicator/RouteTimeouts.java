@@ -0,0 +1,127 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.util.Locale;
+
+/**
+ * The timeouts of the upstream calls to one route: connect, connection request (pool lease) and socket (read)
+ * timeouts, which bound each step of a call, and a deadline, which bounds the whole call until the response head is
+ * received. Instances are immutable
+ */
+public final class RouteTimeouts {
+
+    /** Keys of the timeouts in the {@link #parse(String, RouteTimeouts)} format */
+    public static final String CONNECT = "connect";
+    public static final String POOL = "pool";
+    public static final String READ = "read";
+    public static final String TOTAL = "total";
+
+    private final int connectTimeoutMillis;
+    private final int connectionRequestTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final int deadlineMillis;
+
+    /**
+     * @param connectTimeoutMillis           Connect timeout, in milliseconds. 0 waits indefinitely
+     * @param connectionRequestTimeoutMillis Timeout for leasing a pooled connection, in milliseconds. 0 waits
+     * indefinitely
+     * @param socketTimeoutMillis            Timeout between two packets read, in milliseconds. 0 waits indefinitely
+     * @param deadlineMillis                 Total time allowed for the call, in milliseconds. 0 sets no deadline
+     */
+    public RouteTimeouts(int connectTimeoutMillis, int connectionRequestTimeoutMillis, int socketTimeoutMillis,
+            int deadlineMillis) {
+        if (connectTimeoutMillis < 0 || connectionRequestTimeoutMillis < 0 || socketTimeoutMillis < 0
+                || deadlineMillis < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        }
+
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Parse timeouts written as comma-separated key=milliseconds pairs, such as
+     * {@code connect=1000,read=300000,total=600000}. The keys are {@value #CONNECT}, {@value #POOL}, {@value #READ}
+     * and {@value #TOTAL}; missing ones are taken from the given defaults
+     *
+     * @param spec     The timeouts
+     * @param defaults The timeouts used for the missing keys
+     * @return The parsed timeouts
+     * @throws IllegalArgumentException If a key is unknown, or a value is not a non-negative integer
+     */
+    public static RouteTimeouts parse(String spec, RouteTimeouts defaults) throws IllegalArgumentException {
+        int connect = defaults.connectTimeoutMillis;
+        int pool = defaults.connectionRequestTimeoutMillis;
+        int read = defaults.socketTimeoutMillis;
+        int total = defaults.deadlineMillis;
+
+        for (String pair : spec.split(",")) {
+            String[] keyValue = pair.split("=", 2);
+
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException(String.format("Timeout must be given as key=milliseconds: %s", pair));
+            }
+
+            int millis;
+            try {
+                millis = Integer.parseInt(keyValue[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Timeout must be an integer: %s", pair), e);
+            }
+
+            switch (keyValue[0].trim().toLowerCase(Locale.ROOT)) {
+                case CONNECT:
+                    connect = millis;
+                    break;
+                case POOL:
+                    pool = millis;
+                    break;
+                case READ:
+                    read = millis;
+                    break;
+                case TOTAL:
+                    total = millis;
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown timeout: %s", keyValue[0]));
+            }
+        }
+
+        return new RouteTimeouts(connect, pool, read, total);
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getConnectionRequestTimeoutMillis() {
+        return connectionRequestTimeoutMillis;
+    }
+
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    /**
+     * @return The total time allowed for a call, in milliseconds, or 0 if there is no deadline
+     */
+    public int getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * @param deadlineMillis The deadline to use instead, in milliseconds, or 0 for none
+     * @return These timeouts, with the given deadline
+     */
+    public RouteTimeouts withDeadlineMillis(int deadlineMillis) {
+        return new RouteTimeouts(connectTimeoutMillis, connectionRequestTimeoutMillis, socketTimeoutMillis,
+                deadlineMillis);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s=%s,%s=%s,%s=%s,%s=%s", CONNECT, connectTimeoutMillis, POOL,
+                connectionRequestTimeoutMillis, READ, socketTimeoutMillis, TOTAL, deadlineMillis);
+    }
+}
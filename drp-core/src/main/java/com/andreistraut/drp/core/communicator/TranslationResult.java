@@ -0,0 +1,71 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.model.Messages;
+import com.andreistraut.drp.core.model.ValidationErrorLog;
+import java.util.Optional;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * The outcome of a single {@link RequestTranslator} call: either the translated request, or the validation errors
+ * that prevented the translation
+ */
+public final class TranslationResult {
+
+    private final HttpRequestBase request;
+    private final ValidationErrorLog errorLog;
+
+    private TranslationResult(HttpRequestBase request, ValidationErrorLog errorLog) {
+        this.request = request;
+        this.errorLog = errorLog;
+    }
+
+    static TranslationResult valid(HttpRequestBase request) {
+        return new TranslationResult(request, new ValidationErrorLog());
+    }
+
+    static TranslationResult invalid(ValidationErrorLog errorLog) {
+        return new TranslationResult(null, errorLog);
+    }
+
+    /**
+     * @return Whether the translation succeeded
+     */
+    public boolean isValid() {
+        return request != null;
+    }
+
+    /**
+     * @return The translated request, or an empty Optional if validation failed
+     */
+    public Optional<HttpRequestBase> getRequest() {
+        return Optional.ofNullable(request);
+    }
+
+    /**
+     * @return The validation errors, empty if the translation succeeded
+     */
+    public ValidationErrorLog getErrorLog() {
+        return errorLog;
+    }
+
+    /**
+     * @return The validation errors, one per line
+     */
+    public String getErrorMessage() {
+        return errorLog.getValidationErrorsString().orElse(Messages.UNKNOWN_VALIDATION_ERROR);
+    }
+
+    /**
+     * Get the translated request, failing the way the throwing {@link RequestTranslator} methods do
+     *
+     * @return The translated request
+     * @throws IllegalArgumentException If validation failed, with the validation errors as message
+     */
+    public HttpRequestBase getRequestOrThrow() throws IllegalArgumentException {
+        if (request == null) {
+            throw new IllegalArgumentException(getErrorMessage());
+        }
+
+        return request;
+    }
+}
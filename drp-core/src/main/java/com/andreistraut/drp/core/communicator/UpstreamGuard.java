@@ -0,0 +1,222 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.cache.ResponseCache;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIUtils;
+
+/**
+ * Isolates upstream hosts from each other. Each host (scheme, name and port) gets its own circuit breaker, which
+ * stops calling it while it keeps failing or answering slowly, and its own bulkhead, which caps the calls in flight
+ * to it. Either one refuses a call with an {@link UpstreamUnavailableException}, right away, so that a dead or
+ * overloaded host cannot tie up the dispatcher threads and connections that the other hosts need. A call is in
+ * flight until its response head is received; 5xx responses count as failures. Hosts are chosen by clients, so at most
+ * {@link #MAX_HOSTS} are tracked: once full, idle hosts with a closed circuit breaker are forgotten, least recently
+ * used first. Instances are thread-safe
+ */
+public class UpstreamGuard implements ResponseCache.Upstream {
+
+    /** Upstream hosts are chosen by clients, so the number of hosts with their own breaker and bulkhead is bounded */
+    static final int MAX_HOSTS = 1_000;
+
+    /** Hosts are evicted down to this number, so that a full map is not swept for every new host */
+    private static final int EVICTION_TARGET = MAX_HOSTS * 9 / 10;
+
+    /** Hosts unused for this long are forgotten first, whatever the state of their circuit breaker */
+    private static final long IDLE_HOST_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final ResponseCache.Upstream upstream;
+    private final DispatcherSettings settings;
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * @param upstream The upstream call being guarded
+     * @param settings The dispatcher settings holding the circuit breaker thresholds and the bulkhead size
+     */
+    public UpstreamGuard(ResponseCache.Upstream upstream, DispatcherSettings settings) {
+        if (upstream == null) {
+            throw new IllegalArgumentException("Upstream cannot be null");
+        }
+
+        if (settings == null) {
+            throw new IllegalArgumentException("DispatcherSettings cannot be null");
+        }
+
+        this.upstream = upstream;
+        this.settings = settings;
+    }
+
+    /**
+     * Execute the request, unless its host is unavailable
+     *
+     * @param request The request to forward
+     * @return The response
+     * @throws UpstreamUnavailableException If the circuit breaker of the host is open, or its bulkhead is full
+     * @throws IOException                  Thrown by the upstream call
+     */
+    @Override
+    public HttpResponse execute(HttpRequestBase request) throws IOException {
+        String hostName = getHostName(request);
+        Host host = getHost(hostName);
+
+        /** Counted before the bulkhead is entered, so that the host is not evicted meanwhile */
+        host.inFlight.incrementAndGet();
+        host.lastUsedNanos = System.nanoTime();
+
+        if (host.permits != null && !host.permits.tryAcquire()) {
+            host.inFlight.decrementAndGet();
+            throw new UpstreamUnavailableException(
+                    String.format("Too many concurrent requests to %s", hostName), 0);
+        }
+
+        try {
+            if (host.breaker != null && !host.breaker.tryAcquirePermission()) {
+                throw new UpstreamUnavailableException(
+                        String.format("Circuit breaker open for %s", hostName), host.breaker.getRetryAfterMillis());
+            }
+
+            return host.breaker != null ? executeRecorded(request, host.breaker) : upstream.execute(request);
+        } finally {
+            if (host.permits != null) {
+                host.permits.release();
+            }
+
+            host.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The circuit breakers of the hosts tracked, by host, or an empty map if they are disabled
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        Map<String, CircuitBreaker> breakers = new TreeMap<>();
+
+        hosts.forEach((name, host) -> {
+            if (host.breaker != null) {
+                breakers.put(name, host.breaker);
+            }
+        });
+
+        return Collections.unmodifiableMap(breakers);
+    }
+
+    /**
+     * @param hostName A host, as scheme://name:port
+     * @return The number of calls in flight to the host
+     */
+    public int getInFlightCount(String hostName) {
+        Host host = hosts.get(hostName);
+
+        return host == null ? 0 : host.inFlight.get();
+    }
+
+    /**
+     * @return The number of hosts tracked
+     */
+    public int getHostCount() {
+        return hosts.size();
+    }
+
+    private Host getHost(String hostName) {
+        Host host = hosts.get(hostName);
+
+        if (host != null) {
+            return host;
+        }
+
+        if (hosts.size() >= MAX_HOSTS) {
+            evictIdleHosts();
+        }
+
+        if (hosts.size() >= MAX_HOSTS) {
+            /** Every tracked host is busy or failing: the call gets a breaker and bulkhead of its own, not kept */
+            return new Host();
+        }
+
+        return hosts.computeIfAbsent(hostName, name -> new Host());
+    }
+
+    /**
+     * Forget the hosts unused for long, then the least recently used hosts with nothing worth keeping: no calls in
+     * flight and a closed circuit breaker. One thread evicts at a time; the others go on meanwhile
+     */
+    private void evictIdleHosts() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long now = System.nanoTime();
+            hosts.values().removeIf(host -> host.inFlight.get() == 0 && now - host.lastUsedNanos > IDLE_HOST_NANOS);
+
+            int excess = hosts.size() - EVICTION_TARGET;
+            if (excess <= 0) {
+                return;
+            }
+
+            List<Map.Entry<String, Host>> evictable = hosts.entrySet().stream()
+                    .filter(entry -> entry.getValue().isEvictable())
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().lastUsedNanos - now))
+                    .limit(excess)
+                    .collect(Collectors.toList());
+
+            for (Map.Entry<String, Host> entry : evictable) {
+                hosts.remove(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private HttpResponse executeRecorded(HttpRequestBase request, CircuitBreaker breaker) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            HttpResponse response = upstream.execute(request);
+            failed = response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+
+            return response;
+        } finally {
+            breaker.onResult(failed, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return The host the request is sent to, as scheme://name:port
+     */
+    static String getHostName(HttpRequestBase request) {
+        HttpHost host = URIUtils.extractHost(request.getURI());
+
+        return host != null ? host.toURI() : String.valueOf(request.getURI().getAuthority());
+    }
+
+    private class Host {
+
+        private final CircuitBreaker breaker = settings.isCircuitBreakerEnabled() ? new CircuitBreaker(settings) : null;
+        private final Semaphore permits = settings.getMaxRequestsPerHost() > 0
+                ? new Semaphore(settings.getMaxRequestsPerHost())
+                : null;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        boolean isEvictable() {
+            return inFlight.get() == 0 && (breaker == null || breaker.getState() == CircuitBreaker.State.CLOSED);
+        }
+    }
+}
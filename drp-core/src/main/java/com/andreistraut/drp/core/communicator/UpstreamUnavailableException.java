@@ -0,0 +1,37 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling an upstream host that is known to be failing, or that already has too many requests in
+ * flight. Servers answer it with 503 Service Unavailable
+ */
+public class UpstreamUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param message          The reason the host was not called
+     * @param retryAfterMillis How long until the host may be called again, in milliseconds, or 0 if unknown
+     */
+    public UpstreamUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return How long until the host may be called again, in milliseconds, or 0 if unknown
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return The delay for a Retry-After header, in whole seconds, or 0 if unknown
+     */
+    public long getRetryAfterSeconds() {
+        return (retryAfterMillis + 999) / 1000;
+    }
+}
@@ -0,0 +1,128 @@
+package com.andreistraut.drp.core.compression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Which responses are compressed for the clients that accept it, and at which level. Only bodies of the listed media
+ * types are compressed, and only if their size is unknown, as with streamed bodies, or at least the minimum size:
+ * smaller ones gain little, and some grow. Media types are given either exactly, such as application/json, with a
+ * wildcard subtype, such as text/*, or as a structured syntax suffix, such as +json
+ */
+public final class CompressionPolicy {
+
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int DEFAULT_MIN_SIZE_BYTES = 1024;
+    public static final List<String> DEFAULT_MEDIA_TYPES = Collections.unmodifiableList(Arrays.asList(
+            "text/*", "application/json", "application/javascript", "application/xml", "application/x-ndjson",
+            "+json", "+xml"));
+
+    private static final String WILDCARD_SUBTYPE = "/*";
+    private static final String SUFFIX = "+";
+
+    private final int level;
+    private final int minSizeBytes;
+    private final List<String> mediaTypes;
+
+    public CompressionPolicy() {
+        this(DEFAULT_LEVEL, DEFAULT_MIN_SIZE_BYTES, DEFAULT_MEDIA_TYPES);
+    }
+
+    /**
+     * @param level        The compression level, from 1 (fastest) to 9 (smallest)
+     * @param minSizeBytes Minimum size, in bytes, of the bodies of known size that are compressed
+     * @param mediaTypes   The media types of the bodies that are compressed
+     */
+    public CompressionPolicy(int level, int minSizeBytes, Collection<String> mediaTypes) {
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be an integer between 1 and 9");
+        }
+
+        if (minSizeBytes < 0) {
+            throw new IllegalArgumentException("Minimum compressed size cannot be negative");
+        }
+
+        if (mediaTypes.isEmpty()) {
+            throw new IllegalArgumentException("At least one compressed media type must be given");
+        }
+
+        List<String> types = new ArrayList<>(mediaTypes.size());
+        for (String mediaType : mediaTypes) {
+            types.add(mediaType.trim().toLowerCase(Locale.ROOT));
+        }
+
+        this.level = level;
+        this.minSizeBytes = minSizeBytes;
+        this.mediaTypes = Collections.unmodifiableList(types);
+    }
+
+    /**
+     * @param mediaTypes Comma-separated media types, such as {@code text/*,application/json,+json}
+     * @return The media types
+     */
+    public static List<String> parseMediaTypes(String mediaTypes) {
+        List<String> types = new ArrayList<>();
+
+        for (String mediaType : mediaTypes.split(",")) {
+            if (!mediaType.trim().isEmpty()) {
+                types.add(mediaType.trim());
+            }
+        }
+
+        return types;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMinSizeBytes() {
+        return minSizeBytes;
+    }
+
+    public List<String> getMediaTypes() {
+        return mediaTypes;
+    }
+
+    /**
+     * @param contentType   The Content-Type header value of the response, or null
+     * @param contentLength The size of the body, in bytes, or -1 if unknown
+     * @return Whether the body is worth compressing
+     */
+    public boolean isCompressible(String contentType, long contentLength) {
+        if (contentType == null || (contentLength >= 0 && contentLength < minSizeBytes)) {
+            return false;
+        }
+
+        return isCompressibleType(contentType);
+    }
+
+    /**
+     * @param contentType The Content-Type header value of the response, or null
+     * @return Whether bodies of the type are compressed, if large enough
+     */
+    public boolean isCompressibleType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        int parameters = contentType.indexOf(';');
+        String type = (parameters >= 0 ? contentType.substring(0, parameters) : contentType)
+                .trim().toLowerCase(Locale.ROOT);
+
+        for (String mediaType : mediaTypes) {
+            if (mediaType.startsWith(SUFFIX) ? type.endsWith(mediaType)
+                    : mediaType.endsWith(WILDCARD_SUBTYPE)
+                            ? type.startsWith(mediaType.substring(0, mediaType.length() - 1))
+                            : type.equals(mediaType)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
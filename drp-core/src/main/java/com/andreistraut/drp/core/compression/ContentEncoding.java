@@ -0,0 +1,250 @@
+package com.andreistraut.drp.core.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+
+/**
+ * Content codings of response bodies: negotiation with the Accept-Encoding header of a client, compression, and
+ * decompression of upstream responses. Only gzip and deflate are supported, as they are the codings the JDK implements
+ */
+public final class ContentEncoding {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /** Accept-Encoding header value of upstream calls: the codings that can be decompressed */
+    public static final String UPSTREAM_ACCEPT_ENCODING = GZIP + "," + DEFLATE;
+
+    private static final String X_GZIP = "x-gzip";
+    private static final String IDENTITY = "identity";
+    private static final String ANY = "*";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * @param response An upstream response
+     * @return The content coding of the response body, in lower case, or null if it has none or is identity
+     */
+    public static String getContentEncoding(HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+
+        if (header == null || header.getValue() == null) {
+            return null;
+        }
+
+        String coding = header.getValue().trim().toLowerCase(Locale.ROOT);
+
+        return coding.isEmpty() || coding.equals(IDENTITY) ? null : coding;
+    }
+
+    /**
+     * Decompress the body of the given response as it is read, if it is gzip or deflate encoded. The Content-Encoding,
+     * Content-Length and Content-MD5 headers are removed, as HttpComponents does when decompressing. Bodies in other
+     * codings are left as they are
+     *
+     * @param response An upstream response
+     * @return The same response
+     */
+    public static HttpResponse decode(HttpResponse response) {
+        String coding = getContentEncoding(response);
+        HttpEntity entity = response.getEntity();
+
+        if (coding == null || entity == null) {
+            return response;
+        }
+
+        switch (coding) {
+            case GZIP:
+            case X_GZIP:
+                response.setEntity(new GzipDecompressingEntity(entity));
+                break;
+            case DEFLATE:
+                response.setEntity(new DeflateDecompressingEntity(entity));
+                break;
+            default:
+                return response;
+        }
+
+        response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+        response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+        response.removeHeaders(HttpHeaders.CONTENT_MD5);
+
+        return response;
+    }
+
+    /**
+     * Whether a client accepts the given content coding. Clients that send no Accept-Encoding header are taken to
+     * accept none, as most of them cannot decode any
+     *
+     * @param acceptEncoding The Accept-Encoding header value of the client, or null
+     * @param coding         A content coding, such as gzip
+     * @return Whether the coding is listed, or matched by *, with a non-zero quality
+     */
+    public static boolean accepts(String acceptEncoding, String coding) {
+        return quality(acceptEncoding, coding) > 0;
+    }
+
+    /**
+     * Choose the coding to compress a response with for a client, preferring gzip when both are equally accepted
+     *
+     * @param acceptEncoding The Accept-Encoding header value of the client, or null
+     * @return {@value #GZIP}, {@value #DEFLATE}, or null if the client accepts neither
+     */
+    public static String negotiate(String acceptEncoding) {
+        double gzip = quality(acceptEncoding, GZIP);
+        double deflate = quality(acceptEncoding, DEFLATE);
+
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /**
+     * @param body   The body to compress
+     * @param coding {@value #GZIP} or {@value #DEFLATE}
+     * @param level  The compression level, from 1 (fastest) to 9 (smallest)
+     * @return The compressed body
+     */
+    public static byte[] compress(byte[] body, String coding, int level) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+
+        try (DeflaterOutputStream out = compressingStream(compressed, coding, level)) {
+            out.write(body);
+        } catch (IOException e) {
+            /** Writing to memory never fails */
+            throw new IllegalStateException(e);
+        }
+
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Compress what is written to the given stream. Flushing the returned stream flushes what was compressed so far,
+     * so streamed bodies reach the client as they are produced. Call {@link DeflaterOutputStream#finish()} once the
+     * body is written, or could not be: it writes the end of the compressed body and releases the compressor, even if
+     * writing fails, without closing the given stream
+     *
+     * @param out    The stream to write the compressed body to
+     * @param coding {@value #GZIP} or {@value #DEFLATE}
+     * @param level  The compression level, from 1 (fastest) to 9 (smallest)
+     * @return The stream to write the body to
+     * @throws IOException On errors writing the gzip header
+     */
+    public static DeflaterOutputStream compressingStream(OutputStream out, String coding, int level)
+            throws IOException {
+        if (GZIP.equals(coding)) {
+            return new LeveledGzipOutputStream(out, level);
+        } else if (DEFLATE.equals(coding)) {
+            return new LeveledDeflaterOutputStream(out, level);
+        }
+
+        throw new IllegalArgumentException(String.format("Unsupported content coding: %s", coding));
+    }
+
+    /**
+     * @return The quality of the coding in the Accept-Encoding header: that of the coding itself if listed, otherwise
+     * that of *, otherwise 0
+     */
+    private static double quality(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return 0;
+        }
+
+        String wanted = X_GZIP.equals(coding) ? GZIP : coding;
+        double anyQuality = 0;
+
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (name.equals(X_GZIP) ? wanted.equals(GZIP) : name.equals(wanted)) {
+                return quality;
+            }
+
+            if (name.equals(ANY)) {
+                anyQuality = quality;
+            }
+        }
+
+        return anyQuality;
+    }
+
+    /**
+     * GZIPOutputStream compresses at the default level, unless its deflater is set otherwise
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        private boolean finished;
+
+        private LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, true);
+            def.setLevel(level);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+
+                try {
+                    super.finish();
+                } finally {
+                    def.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * DeflaterOutputStream leaves the native memory of a deflater it did not create to the garbage collector, unless
+     * ended explicitly
+     */
+    private static final class LeveledDeflaterOutputStream extends DeflaterOutputStream {
+
+        private boolean finished;
+
+        private LeveledDeflaterOutputStream(OutputStream out, int level) {
+            super(out, new Deflater(level), true);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+
+                try {
+                    super.finish();
+                } finally {
+                    def.end();
+                }
+            }
+        }
+    }
+}
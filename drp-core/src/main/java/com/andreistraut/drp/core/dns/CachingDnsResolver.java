@@ -0,0 +1,403 @@
+package com.andreistraut.drp.core.dns;
+
+import com.andreistraut.drp.core.metrics.LatencyHistogram;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.http.conn.DnsResolver;
+
+/**
+ * Caches the addresses of upstream hosts in front of another resolver, such as the JVM's or a hosts file. Neither
+ * exposes the time to live of the records, so addresses are kept for a configured one. A host looked up in the last
+ * fifth of its time to live is refreshed in the background, while the cached addresses are still returned, so hot
+ * hosts never wait for a lookup; a failed refresh keeps them until they expire. Failed lookups are cached too, for a
+ * shorter time, so unresolvable hosts do not cost a lookup per call. A missing host is looked up on the calling
+ * thread, so that slow hosts only hold up their own calls, and concurrent lookups of the same host share a single
+ * one. Refreshes, and lookups for {@link #resolveAsync}, run on a few threads of the resolver's own, and are refused
+ * once too many are waiting for them. Instances are thread-safe
+ */
+public class CachingDnsResolver implements DnsResolver, Closeable {
+
+    /** Upstream hosts are chosen by clients, so the number of cached hosts is bounded */
+    static final int MAX_ENTRIES = 10_000;
+
+    /** Fraction of the time to live after which a cache hit refreshes the addresses in the background */
+    static final double REFRESH_AHEAD_FRACTION = 0.8;
+
+    private static final int LOOKUP_THREADS = 4;
+    private static final int MAX_QUEUED_LOOKUPS = 256;
+    private static final int LOOKUP_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static final Logger LOGGER = Logger.getLogger(CachingDnsResolver.class.getName());
+
+    private final DnsResolver source;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final boolean refreshAhead;
+    private final long lookupTimeoutMillis;
+    private final LongSupplier clock;
+    private final ThreadPoolExecutor lookupExecutor;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<InetAddress[]>> lookups = new ConcurrentHashMap<>();
+    private final LatencyHistogram lookupLatency = new LatencyHistogram();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param source            The resolver whose answers are cached
+     * @param ttlMillis         How long resolved addresses are kept, in milliseconds
+     * @param negativeTtlMillis How long failed lookups are kept, in milliseconds. 0 does not cache them
+     * @param refreshAhead      Whether hosts looked up near the end of their time to live are refreshed in the
+     * background
+     * @param lookupTimeoutMillis How long a call waits for a lookup of the same host made by another one, in
+     * milliseconds. 0 waits for as long as the lookup takes
+     */
+    public CachingDnsResolver(DnsResolver source, long ttlMillis, long negativeTtlMillis, boolean refreshAhead,
+            long lookupTimeoutMillis) {
+        this(source, ttlMillis, negativeTtlMillis, refreshAhead, lookupTimeoutMillis, System::nanoTime);
+    }
+
+    CachingDnsResolver(DnsResolver source, long ttlMillis, long negativeTtlMillis, boolean refreshAhead,
+            long lookupTimeoutMillis, LongSupplier clock) {
+        if (source == null) {
+            throw new IllegalArgumentException("Source resolver cannot be null");
+        }
+
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("DNS cache time to live must be an integer larger than 0");
+        }
+
+        if (negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("DNS negative cache time to live cannot be negative");
+        }
+
+        if (lookupTimeoutMillis < 0) {
+            throw new IllegalArgumentException("DNS lookup timeout cannot be negative");
+        }
+
+        this.source = source;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.refreshAhead = refreshAhead;
+        this.lookupTimeoutMillis = lookupTimeoutMillis;
+        this.clock = clock;
+        this.lookupExecutor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS,
+                LOOKUP_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_LOOKUPS),
+                new DefaultThreadFactory("drp-dns", true));
+        this.lookupExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the addresses of a host, from the cache if they are there, or else looking them up on the calling thread,
+     * unless another call is looking them up already
+     *
+     * @param host The host name
+     * @return The addresses of the host
+     * @throws UnknownHostException If the host could not be resolved, now or within the negative time to live, or if
+     * the lookup made by another call did not complete within the lookup timeout
+     */
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        String key = host.toLowerCase(Locale.ROOT);
+        Entry entry = getFresh(key, host);
+
+        if (entry != null) {
+            return entry.get(host);
+        }
+
+        misses.increment();
+
+        CompletableFuture<InetAddress[]> lookup = new CompletableFuture<>();
+        CompletableFuture<InetAddress[]> running = lookups.putIfAbsent(key, lookup);
+
+        if (running == null) {
+            runLookup(key, host, lookup);
+            running = lookup;
+        }
+
+        try {
+            InetAddress[] addresses = lookupTimeoutMillis > 0
+                    ? running.get(lookupTimeoutMillis, TimeUnit.MILLISECONDS)
+                    : running.get();
+
+            return addresses.clone();
+        } catch (ExecutionException e) {
+            throw asUnknownHost(host, e.getCause());
+        } catch (TimeoutException e) {
+            throw new UnknownHostException(
+                    String.format("Timed out after %sms waiting for %s to be resolved", lookupTimeoutMillis, host));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException(String.format("Interrupted while resolving %s", host));
+        }
+    }
+
+    /**
+     * Get the addresses of a host without blocking the calling thread
+     *
+     * @param host The host name
+     * @return The addresses of the host, completed at once if they are cached. Completed exceptionally with an
+     * {@link UnknownHostException} if the host could not be resolved
+     */
+    public CompletableFuture<InetAddress[]> resolveAsync(String host) {
+        String key = host.toLowerCase(Locale.ROOT);
+        Entry entry = getFresh(key, host);
+        CompletableFuture<InetAddress[]> addresses = new CompletableFuture<>();
+
+        if (entry != null) {
+            try {
+                addresses.complete(entry.get(host));
+            } catch (UnknownHostException e) {
+                addresses.completeExceptionally(e);
+            }
+
+            return addresses;
+        }
+
+        misses.increment();
+
+        lookupInBackground(key, host).whenComplete((resolved, failure) -> {
+            if (failure == null) {
+                addresses.complete(resolved.clone());
+            } else {
+                addresses.completeExceptionally(asUnknownHost(host, failure));
+            }
+        });
+
+        return addresses;
+    }
+
+    /**
+     * @return The latency histogram of the lookups made by the source resolver, failed ones included
+     */
+    public LatencyHistogram getLookupLatency() {
+        return lookupLatency;
+    }
+
+    /**
+     * @return The number of lookups answered from the cache with addresses
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache with a failure
+     */
+    public long getNegativeHitCount() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to wait for the source resolver
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of background refreshes of cached addresses
+     */
+    public long getRefreshCount() {
+        return refreshes.sum();
+    }
+
+    /**
+     * @return The number of lookups of the source resolver that failed
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * @return The number of cached hosts, resolved or failed, expired ones included until they are replaced
+     */
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Stop the lookup threads. Lookups in progress fail
+     */
+    @Override
+    public void close() {
+        lookupExecutor.shutdownNow();
+    }
+
+    /**
+     * Get the cached entry of a host, if it has not expired, and start refreshing it if it is about to
+     */
+    private Entry getFresh(String key, String host) {
+        Entry entry = entries.get(key);
+        long now = clock.getAsLong();
+
+        if (entry == null || now - entry.expiresAt >= 0) {
+            return null;
+        }
+
+        if (entry.addresses == null) {
+            negativeHits.increment();
+            return entry;
+        }
+
+        hits.increment();
+
+        if (refreshAhead && now - entry.refreshAt >= 0 && !lookups.containsKey(key)) {
+            CompletableFuture<InetAddress[]> refresh = new CompletableFuture<>();
+
+            /** A refresh refused for want of threads is tried again by a later hit, or replaced by a lookup on expiry */
+            if (lookups.putIfAbsent(key, refresh) == null && submit(key, host, refresh)) {
+                refreshes.increment();
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Start a lookup of the host on the resolver's threads, unless one is in progress already
+     *
+     * @return The lookup, completed with the addresses or the failure once they are cached. Completed exceptionally
+     * with a {@link RejectedExecutionException} if too many lookups are waiting for a thread
+     */
+    private CompletableFuture<InetAddress[]> lookupInBackground(String key, String host) {
+        CompletableFuture<InetAddress[]> lookup = new CompletableFuture<>();
+        CompletableFuture<InetAddress[]> running = lookups.putIfAbsent(key, lookup);
+
+        if (running != null) {
+            return running;
+        }
+
+        submit(key, host, lookup);
+
+        return lookup;
+    }
+
+    /**
+     * Run a lookup registered for the host on the resolver's threads
+     *
+     * @return Whether it was accepted, or else failed and unregistered
+     */
+    private boolean submit(String key, String host, CompletableFuture<InetAddress[]> lookup) {
+        try {
+            lookupExecutor.execute(() -> runLookup(key, host, lookup));
+            return true;
+        } catch (RejectedExecutionException e) {
+            lookups.remove(key, lookup);
+            lookup.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    private void runLookup(String key, String host, CompletableFuture<InetAddress[]> lookup) {
+        long start = System.nanoTime();
+
+        try {
+            InetAddress[] addresses = source.resolve(host);
+
+            if (addresses == null || addresses.length == 0) {
+                throw new UnknownHostException(host);
+            }
+
+            long latency = System.nanoTime() - start;
+            store(key, new Entry(addresses, null, clock.getAsLong(), ttlNanos));
+
+            lookups.remove(key, lookup);
+            lookupLatency.record(latency);
+            lookup.complete(addresses);
+        } catch (UnknownHostException | RuntimeException e) {
+            long latency = System.nanoTime() - start;
+
+            LOGGER.log(Level.FINE, String.format("Could not resolve %s: %s", host, e.getMessage()), e);
+
+            /** Addresses still cached are kept until they expire; only hosts that cannot be resolved are cached */
+            Entry cached = entries.get(key);
+            long now = clock.getAsLong();
+
+            if (e instanceof UnknownHostException && negativeTtlNanos > 0
+                    && (cached == null || now - cached.expiresAt >= 0)) {
+                store(key, new Entry(null, e.getMessage(), now, negativeTtlNanos));
+            }
+
+            lookups.remove(key, lookup);
+            lookupLatency.record(latency);
+            failures.increment();
+            lookup.completeExceptionally(e);
+        }
+    }
+
+    private void store(String key, Entry entry) {
+        if (entries.size() >= MAX_ENTRIES && !entries.containsKey(key)) {
+            long now = clock.getAsLong();
+            entries.values().removeIf(cached -> now - cached.expiresAt >= 0);
+
+            Iterator<String> keys = entries.keySet().iterator();
+            while (entries.size() >= MAX_ENTRIES && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+
+        entries.put(key, entry);
+    }
+
+    private static UnknownHostException asUnknownHost(String host, Throwable failure) {
+        if (failure instanceof UnknownHostException) {
+            return (UnknownHostException) failure;
+        }
+
+        UnknownHostException unknownHost = new UnknownHostException(
+                String.format("Could not resolve %s: %s", host, failure.getMessage()));
+        unknownHost.initCause(failure);
+
+        return unknownHost;
+    }
+
+    /**
+     * The addresses of a host, or the failure to resolve it
+     */
+    private static class Entry {
+
+        private final InetAddress[] addresses;
+        private final String failure;
+        private final long expiresAt;
+        private final long refreshAt;
+
+        Entry(InetAddress[] addresses, String failure, long resolvedAt, long ttlNanos) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.expiresAt = resolvedAt + ttlNanos;
+            this.refreshAt = resolvedAt + (long) (ttlNanos * REFRESH_AHEAD_FRACTION);
+        }
+
+        /**
+         * @return A copy of the addresses, which callers may reorder
+         * @throws UnknownHostException If the entry caches a failure
+         */
+        InetAddress[] get(String host) throws UnknownHostException {
+            if (addresses == null) {
+                throw new UnknownHostException(failure != null ? failure : host);
+            }
+
+            return addresses.clone();
+        }
+    }
+}
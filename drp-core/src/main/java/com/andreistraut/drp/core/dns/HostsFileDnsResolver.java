@@ -0,0 +1,110 @@
+package com.andreistraut.drp.core.dns;
+
+import io.netty.util.NetUtil;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.http.conn.DnsResolver;
+
+/**
+ * Resolves host names from a file in the hosts format: an address followed by the names it is for, with comments
+ * starting at '#'. Names are matched in any case, and a name listed on several lines gets every address, in order.
+ * Other names are passed to a fallback resolver, if one is given. The file is read once, on construction, so it can
+ * stand in for a DNS server when testing, or pin upstream hosts without touching the system configuration
+ */
+public class HostsFileDnsResolver implements DnsResolver {
+
+    private final Map<String, InetAddress[]> hosts;
+    private final DnsResolver fallback;
+
+    /**
+     * @param hostsFile The hosts file, read as UTF-8
+     * @param fallback  The resolver of names the file does not list, or null to fail on them
+     * @throws IOException If the file could not be read
+     */
+    public HostsFileDnsResolver(Path hostsFile, DnsResolver fallback) throws IOException {
+        try (Reader reader = Files.newBufferedReader(hostsFile, StandardCharsets.UTF_8)) {
+            this.hosts = parse(reader);
+        }
+
+        this.fallback = fallback;
+    }
+
+    /**
+     * @param hosts    The hosts file content
+     * @param fallback The resolver of names the content does not list, or null to fail on them
+     * @throws IOException If the content could not be read
+     */
+    public HostsFileDnsResolver(Reader hosts, DnsResolver fallback) throws IOException {
+        this.hosts = parse(hosts);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        InetAddress[] addresses = hosts.get(host.toLowerCase(Locale.ROOT));
+
+        if (addresses != null) {
+            return addresses.clone();
+        }
+
+        if (fallback == null) {
+            throw new UnknownHostException(String.format("%s is not in the hosts file", host));
+        }
+
+        return fallback.resolve(host);
+    }
+
+    /**
+     * @return The number of names listed
+     */
+    public int size() {
+        return hosts.size();
+    }
+
+    private static Map<String, InetAddress[]> parse(Reader content) throws IOException {
+        Map<String, List<InetAddress>> addresses = new HashMap<>();
+        BufferedReader reader = content instanceof BufferedReader
+                ? (BufferedReader) content
+                : new BufferedReader(content);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length < 2) {
+                continue;
+            }
+
+            /** The address is parsed as it is written, never looked up */
+            byte[] address = NetUtil.createByteArrayFromIpAddressString(tokens[0]);
+            if (address == null) {
+                continue;
+            }
+
+            for (int i = 1; i < tokens.length; i++) {
+                addresses.computeIfAbsent(tokens[i].toLowerCase(Locale.ROOT), name -> new ArrayList<>())
+                        .add(InetAddress.getByAddress(tokens[i], address));
+            }
+        }
+
+        Map<String, InetAddress[]> hosts = new HashMap<>();
+        addresses.forEach((name, list) -> hosts.put(name, list.toArray(new InetAddress[list.size()])));
+
+        return hosts;
+    }
+}
@@ -0,0 +1,210 @@
+package com.andreistraut.drp.core.logging;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes one line per request to the {@value #LOGGER_NAME} logger, at INFO. Request threads only hand finished
+ * entries over to a bounded queue; a single background thread formats and writes them, so neither formatting nor
+ * log I/O happens on the request path. When the queue is full, entries are dropped and counted rather than making
+ * request threads wait. Only a sample of the requests is logged, and nothing at all if the logger is not enabled for
+ * INFO
+ */
+public class AccessLog implements Closeable {
+
+    public static final String LOGGER_NAME = "com.andreistraut.drp.access";
+
+    /** Fraction of the requests logged by default */
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+
+    /** Number of entries waiting to be written beyond which entries are dropped */
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    private static final Logger LOGGER = Logger.getLogger(LOGGER_NAME);
+
+    private static final Object SHARED_INSTANCE_LOCK = new Object();
+    private static volatile AccessLog sharedInstance;
+
+    /** Entries written per pass of the writer thread */
+    private static final int WRITE_BATCH_SIZE = 256;
+
+    private final double sampleRate;
+    private final BlockingQueue<AccessLogEntry> queue;
+    private final LongAdder droppedCount = new LongAdder();
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    /** Only accessed by the writer thread */
+    private long reportedDroppedCount;
+
+    /**
+     * Create an access log, and start its writer thread
+     *
+     * @param sampleRate    Fraction of the requests logged, between 0 and 1
+     * @param queueCapacity Number of entries waiting to be written beyond which entries are dropped
+     */
+    public AccessLog(double sampleRate, int queueCapacity) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        }
+
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be an integer larger than 0");
+        }
+
+        this.sampleRate = sampleRate;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.writer = new Thread(this::writeEntries, "drp-access-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Get the access log shared by the whole application
+     *
+     * @return The shared access log, created with default settings on first use unless configured before
+     * @see #configureSharedInstance(double, int)
+     */
+    public static AccessLog getInstance() {
+        AccessLog instance = sharedInstance;
+
+        if (instance == null) {
+            synchronized (SHARED_INSTANCE_LOCK) {
+                if (sharedInstance == null) {
+                    sharedInstance = new AccessLog(DEFAULT_SAMPLE_RATE, DEFAULT_QUEUE_CAPACITY);
+                }
+                instance = sharedInstance;
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * Create the access log shared by the whole application. Must be called at startup, before anything uses the
+     * shared access log
+     *
+     * @param sampleRate    Fraction of the requests logged, between 0 and 1
+     * @param queueCapacity Number of entries waiting to be written beyond which entries are dropped
+     * @return The shared access log
+     * @throws IllegalStateException If the shared access log has already been created
+     */
+    public static AccessLog configureSharedInstance(double sampleRate, int queueCapacity) throws IllegalStateException {
+        synchronized (SHARED_INSTANCE_LOCK) {
+            if (sharedInstance != null) {
+                throw new IllegalStateException("The shared access log has already been created");
+            }
+
+            sharedInstance = new AccessLog(sampleRate, queueCapacity);
+            return sharedInstance;
+        }
+    }
+
+    /**
+     * Start timing a request, if it is sampled
+     *
+     * @return The entry of the request, or null if the request is not logged
+     */
+    public AccessLogEntry start() {
+        if (closed || !LOGGER.isLoggable(Level.INFO)) {
+            return null;
+        }
+
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return null;
+        }
+
+        return new AccessLogEntry();
+    }
+
+    /**
+     * Stop timing a request, and queue its entry for writing
+     *
+     * @param entry    The entry returned by {@link #start()}. Nothing is logged if it is null
+     * @param status   The status of the response sent to the client
+     * @param bytesOut The size of the response body, in bytes, or -1 if it is not known
+     */
+    public void finish(AccessLogEntry entry, int status, long bytesOut) {
+        if (entry == null) {
+            return;
+        }
+
+        entry.finish(status, bytesOut);
+
+        if (!queue.offer(entry)) {
+            droppedCount.increment();
+        }
+    }
+
+    /**
+     * @return The number of entries dropped because too many were waiting to be written
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Write the entries still queued, and stop the writer thread
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeEntries() {
+        List<AccessLogEntry> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            queue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+            write(batch);
+        }
+
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private void write(List<AccessLogEntry> batch) {
+        long dropped = droppedCount.sum();
+
+        if (dropped > reportedDroppedCount) {
+            LOGGER.logp(Level.WARNING, AccessLog.class.getName(), "write",
+                    String.format("%s access log entries dropped, the log could not keep up",
+                            dropped - reportedDroppedCount));
+            reportedDroppedCount = dropped;
+        }
+
+        /** The source is given explicitly, so the logger does not walk the stack to infer it */
+        for (AccessLogEntry entry : batch) {
+            LOGGER.logp(Level.INFO, AccessLog.class.getName(), "write", entry.format());
+        }
+
+        batch.clear();
+    }
+}
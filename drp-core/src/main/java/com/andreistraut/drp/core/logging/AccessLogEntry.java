@@ -0,0 +1,85 @@
+package com.andreistraut.drp.core.logging;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One line of the access log: who sent a request, where it was forwarded, how it was answered and how long that
+ * took. Entries are created by {@link AccessLog#start()} only for sampled requests, filled in by the thread
+ * handling the request, and formatted by the access log writer
+ */
+public final class AccessLogEntry {
+
+    private static final String NONE = "-";
+
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private String client = NONE;
+    private String method = NONE;
+    private String upstream = NONE;
+    private long bytesIn = -1;
+    private long upstreamNanos = -1;
+    private int status;
+    private long bytesOut = -1;
+    private long durationNanos = -1;
+
+    AccessLogEntry() {
+    }
+
+    /**
+     * @param client The address of the client
+     */
+    public void setClient(String client) {
+        this.client = client;
+    }
+
+    /**
+     * @param method   The method of the forwarded request
+     * @param upstream The URL the request is forwarded to
+     */
+    public void setRequest(String method, String upstream) {
+        this.method = method;
+        this.upstream = upstream;
+    }
+
+    /**
+     * @param bytesIn The size of the request received from the client, in bytes
+     */
+    public void setBytesIn(long bytesIn) {
+        this.bytesIn = bytesIn;
+    }
+
+    /**
+     * @param upstreamNanos How long the upstream call took, until its response head was received
+     */
+    public void setUpstreamNanos(long upstreamNanos) {
+        this.upstreamNanos = upstreamNanos;
+    }
+
+    void finish(int status, long bytesOut) {
+        this.status = status;
+        this.bytesOut = bytesOut;
+        this.durationNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return The entry as space-separated key=value pairs, unknown values written as -
+     */
+    String format() {
+        return new StringBuilder(160)
+                .append(Instant.ofEpochMilli(startMillis))
+                .append(" client=").append(client)
+                .append(" method=").append(method)
+                .append(" upstream=").append(upstream)
+                .append(" status=").append(status)
+                .append(" bytes_in=").append(bytesIn < 0 ? NONE : String.valueOf(bytesIn))
+                .append(" bytes_out=").append(bytesOut < 0 ? NONE : String.valueOf(bytesOut))
+                .append(" duration_ms=").append(toMillis(durationNanos))
+                .append(" upstream_ms=").append(toMillis(upstreamNanos))
+                .toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return nanos < 0 ? NONE : String.valueOf(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+}
@@ -0,0 +1,106 @@
+package com.andreistraut.drp.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets, from 1ms to 60s. Recording is lock-free: each bucket is a {@link LongAdder},
+ * so concurrent recorders do not contend. Percentiles are approximated by the upper bound of the bucket they fall in
+ */
+public class LatencyHistogram {
+
+    /** Upper bounds of the buckets, in seconds. Slower calls go to an overflow bucket */
+    static final double[] BUCKET_BOUNDS_SECONDS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param durationNanos The duration to record
+     */
+    public void record(long durationNanos) {
+        int bucket = 0;
+
+        while (bucket < BUCKET_BOUNDS_NANOS.length && durationNanos > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+
+        buckets[bucket].increment();
+        sumNanos.add(durationNanos);
+    }
+
+    /**
+     * @return The number of durations in each bucket, the overflow bucket last. The counts are read one by one, so
+     * they may miss durations recorded meanwhile
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+
+        return count;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @param quantile The quantile, between 0 and 1
+     * @return The upper bound of the bucket holding the quantile, in milliseconds, the largest bound if it is in the
+     * overflow bucket, or 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double quantile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+
+        for (long count : counts) {
+            total += count;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+            seen += counts[i];
+
+            if (seen >= rank) {
+                return BUCKET_BOUNDS_SECONDS[i] * 1000;
+            }
+        }
+
+        return BUCKET_BOUNDS_SECONDS[BUCKET_BOUNDS_SECONDS.length - 1] * 1000;
+    }
+}
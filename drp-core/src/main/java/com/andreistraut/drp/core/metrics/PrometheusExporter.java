@@ -0,0 +1,253 @@
+package com.andreistraut.drp.core.metrics;
+
+import com.andreistraut.drp.core.cache.DiskResponseStore;
+import com.andreistraut.drp.core.cache.ResponseCache;
+import com.andreistraut.drp.core.communicator.CircuitBreaker;
+import com.andreistraut.drp.core.communicator.Http2Upstream;
+import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import com.andreistraut.drp.core.dns.CachingDnsResolver;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Writes the proxy metrics, and the gauges of a dispatcher (connection pool, HTTP/2 connections, dispatch queue,
+ * cache, coalescer, circuit breakers and DNS cache), in the Prometheus text exposition format
+ */
+public class PrometheusExporter {
+
+    /** Content type of the Prometheus text exposition format */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ProxyMetrics metrics;
+    private final RequestDispatcher dispatcher;
+
+    /**
+     * @param metrics    The proxy metrics
+     * @param dispatcher The dispatcher whose gauges are exported along
+     */
+    public PrometheusExporter(ProxyMetrics metrics, RequestDispatcher dispatcher) {
+        this.metrics = metrics;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * @return The current value of all metrics, in the Prometheus text format
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        writeProxyMetrics(out);
+        writeDispatcherMetrics(out);
+
+        return out.toString();
+    }
+
+    private void writeProxyMetrics(StringBuilder out) {
+        header(out, "drp_requests_received_total", "counter", "Requests received from clients");
+        sample(out, "drp_requests_received_total", "", metrics.getRequestsReceived());
+
+        header(out, "drp_responses_sent_total", "counter", "Responses sent to clients, by status class");
+        for (Map.Entry<String, Long> responses : metrics.getResponsesSent().entrySet()) {
+            sample(out, "drp_responses_sent_total", labels("code", responses.getKey()), responses.getValue());
+        }
+
+        header(out, "drp_requests_in_flight", "gauge", "Requests received and not answered yet");
+        sample(out, "drp_requests_in_flight", "", metrics.getRequestsInFlight());
+
+        header(out, "drp_translation_failures_total", "counter", "Request envelopes that could not be translated");
+        sample(out, "drp_translation_failures_total", "", metrics.getTranslationFailures());
+
+        header(out, "drp_received_bytes_total", "counter", "Bytes received from clients");
+        sample(out, "drp_received_bytes_total", "", metrics.getBytesReceived());
+
+        header(out, "drp_sent_bytes_total", "counter", "Bytes sent to clients");
+        sample(out, "drp_sent_bytes_total", "", metrics.getBytesSent());
+
+        header(out, "drp_upstream_requests_in_flight", "gauge", "Upstream calls waiting for their response head");
+        sample(out, "drp_upstream_requests_in_flight", "", metrics.getUpstreamCallsInFlight());
+
+        header(out, "drp_upstream_request_duration_seconds", "histogram",
+                "Time to the upstream response head, by host and status class");
+        for (Map.Entry<String, Map<String, LatencyHistogram>> host : metrics.getUpstreamCalls().entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> calls : host.getValue().entrySet()) {
+                histogram(out, "drp_upstream_request_duration_seconds",
+                        labels("host", host.getKey()) + "," + labels("code", calls.getKey()), calls.getValue());
+            }
+        }
+    }
+
+    private void writeDispatcherMetrics(StringBuilder out) {
+        PoolStats pool = dispatcher.getPoolStats();
+
+        header(out, "drp_upstream_connections", "gauge", "Pooled upstream connections, by state");
+        sample(out, "drp_upstream_connections", labels("state", "leased"), pool.getLeased());
+        sample(out, "drp_upstream_connections", labels("state", "available"), pool.getAvailable());
+        sample(out, "drp_upstream_connections", labels("state", "pending"), pool.getPending());
+
+        header(out, "drp_upstream_connections_max", "gauge", "Maximum number of pooled upstream connections");
+        sample(out, "drp_upstream_connections_max", "", pool.getMax());
+
+        if (dispatcher.getHttp2Upstream().isPresent()) {
+            Http2Upstream http2 = dispatcher.getHttp2Upstream().get();
+
+            header(out, "drp_upstream_http2_connections", "gauge", "Open HTTP/2 upstream connections");
+            sample(out, "drp_upstream_http2_connections", "", http2.getConnectionCount());
+
+            header(out, "drp_upstream_http2_streams", "gauge", "Upstream calls in flight over HTTP/2");
+            sample(out, "drp_upstream_http2_streams", "", http2.getActiveStreamCount());
+
+            header(out, "drp_upstream_http1_hosts", "gauge", "Upstream hosts found not to speak HTTP/2");
+            sample(out, "drp_upstream_http1_hosts", "", http2.getHttp1Hosts().size());
+        }
+
+        header(out, "drp_dispatches", "gauge", "Asynchronous dispatches, by state");
+        sample(out, "drp_dispatches", labels("state", "active"), dispatcher.getActiveDispatchCount());
+        sample(out, "drp_dispatches", labels("state", "queued"), dispatcher.getQueuedDispatchCount());
+
+        if (dispatcher.getResponseCache().isPresent()) {
+            writeCacheMetrics(out, dispatcher.getResponseCache().get());
+        }
+
+        if (dispatcher.getDnsCache().isPresent()) {
+            writeDnsMetrics(out, dispatcher.getDnsCache().get());
+        }
+
+        if (dispatcher.getRequestCoalescer().isPresent()) {
+            header(out, "drp_coalesced_requests_total", "counter", "Requests answered by another request's call");
+            sample(out, "drp_coalesced_requests_total", "",
+                    dispatcher.getRequestCoalescer().get().getCoalescedCount());
+        }
+
+        if (dispatcher.getUpstreamGuard().isPresent()) {
+            Map<String, CircuitBreaker> breakers = dispatcher.getUpstreamGuard().get().getCircuitBreakers();
+
+            header(out, "drp_circuit_breaker_open", "gauge", "Whether the circuit breaker of a host is open");
+            for (Map.Entry<String, CircuitBreaker> breaker : breakers.entrySet()) {
+                sample(out, "drp_circuit_breaker_open", labels("host", breaker.getKey()),
+                        breaker.getValue().getState() == CircuitBreaker.State.OPEN ? 1 : 0);
+            }
+
+            header(out, "drp_circuit_breaker_opened_total", "counter", "Times the circuit breaker of a host opened");
+            for (Map.Entry<String, CircuitBreaker> breaker : breakers.entrySet()) {
+                sample(out, "drp_circuit_breaker_opened_total", labels("host", breaker.getKey()),
+                        breaker.getValue().getOpenCount());
+            }
+        }
+    }
+
+    private static void writeCacheMetrics(StringBuilder out, ResponseCache cache) {
+        DiskResponseStore disk = cache.getDiskStore().orElse(null);
+
+        header(out, "drp_cache_lookups_total", "counter", "Response cache lookups, by result");
+        sample(out, "drp_cache_lookups_total", labels("result", "hit"), cache.getHitCount());
+        sample(out, "drp_cache_lookups_total", labels("result", "miss"), cache.getMissCount());
+        sample(out, "drp_cache_lookups_total", labels("result", "revalidated"), cache.getRevalidationCount());
+
+        header(out, "drp_cache_evictions_total", "counter", "Responses evicted from the cache, by tier");
+        sample(out, "drp_cache_evictions_total", labels("tier", "memory"), cache.getEvictionCount());
+        if (disk != null) {
+            sample(out, "drp_cache_evictions_total", labels("tier", "disk"), disk.getEvictionCount());
+        }
+
+        header(out, "drp_cache_size_bytes", "gauge", "Size of the cached responses, by tier");
+        sample(out, "drp_cache_size_bytes", labels("tier", "memory"), cache.getSizeBytes());
+        if (disk != null) {
+            sample(out, "drp_cache_size_bytes", labels("tier", "disk"), disk.getSizeBytes());
+        }
+
+        header(out, "drp_cache_entries", "gauge", "Number of cached responses, by tier");
+        sample(out, "drp_cache_entries", labels("tier", "memory"), cache.getEntryCount());
+        if (disk != null) {
+            sample(out, "drp_cache_entries", labels("tier", "disk"), disk.getEntryCount());
+        }
+    }
+
+    private static void writeDnsMetrics(StringBuilder out, CachingDnsResolver dns) {
+        header(out, "drp_dns_lookups_total", "counter", "Upstream host name lookups, by result");
+        sample(out, "drp_dns_lookups_total", labels("result", "hit"), dns.getHitCount());
+        sample(out, "drp_dns_lookups_total", labels("result", "negative_hit"), dns.getNegativeHitCount());
+        sample(out, "drp_dns_lookups_total", labels("result", "miss"), dns.getMissCount());
+
+        header(out, "drp_dns_refreshes_total", "counter", "Cached host addresses refreshed ahead of their expiry");
+        sample(out, "drp_dns_refreshes_total", "", dns.getRefreshCount());
+
+        header(out, "drp_dns_failures_total", "counter", "Host name resolutions that failed");
+        sample(out, "drp_dns_failures_total", "", dns.getFailureCount());
+
+        header(out, "drp_dns_cache_entries", "gauge", "Number of cached hosts, resolved or not");
+        sample(out, "drp_dns_cache_entries", "", dns.getEntryCount());
+
+        header(out, "drp_dns_resolution_duration_seconds", "histogram", "Latency of host name resolutions");
+        histogram(out, "drp_dns_resolution_duration_seconds", "", dns.getLookupLatency());
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.getBucketCounts();
+        long cumulative = 0;
+        String bucketLabels = labels.isEmpty() ? "" : labels + ",";
+
+        for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS_SECONDS.length; i++) {
+            cumulative += counts[i];
+            sample(out, name + "_bucket",
+                    bucketLabels + labels("le", String.valueOf(LatencyHistogram.BUCKET_BOUNDS_SECONDS[i])), cumulative);
+        }
+
+        cumulative += counts[counts.length - 1];
+        sample(out, name + "_bucket", bucketLabels + labels("le", "+Inf"), cumulative);
+        sample(out, name + "_sum", labels, histogram.getSumNanos() / NANOS_PER_SECOND);
+        sample(out, name + "_count", labels, cumulative);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        appendName(out, name, labels).append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        appendName(out, name, labels).append(value).append('\n');
+    }
+
+    private static StringBuilder appendName(StringBuilder out, String name, String labels) {
+        out.append(name);
+
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+
+        return out.append(' ');
+    }
+
+    /**
+     * Format a label as name="value", escaping the backslashes, double quotes and line feeds of the value
+     */
+    static String labels(String name, String value) {
+        StringBuilder label = new StringBuilder(name.length() + value.length() + 3).append(name).append("=\"");
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '\\':
+                    label.append("\\\\");
+                    break;
+                case '"':
+                    label.append("\\\"");
+                    break;
+                case '\n':
+                    label.append("\\n");
+                    break;
+                default:
+                    label.append(c);
+            }
+        }
+
+        return label.append('"').toString();
+    }
+}
@@ -0,0 +1,190 @@
+package com.andreistraut.drp.core.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the proxy: requests received and their response status classes, translation
+ * failures, bytes received and sent, and upstream calls per host and status class. All recorders are lock-free, so
+ * recording adds no contention to the request path. Use {@link #getInstance()} to record and read the application's
+ * metrics
+ */
+public class ProxyMetrics {
+
+    /** Label of the status class of upstream calls that failed without a response */
+    public static final String ERROR_STATUS_CLASS = "error";
+
+    /** Upstream hosts are chosen by clients, so the number of hosts with their own series is bounded */
+    static final int MAX_UPSTREAM_HOSTS = 1_000;
+    static final String OTHER_UPSTREAM_HOST = "other";
+
+    private static final String[] STATUS_CLASSES = {ERROR_STATUS_CLASS, "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final LongAdder requestsReceived = new LongAdder();
+    private final LongAdder[] responsesSent = newAdders(STATUS_CLASSES.length);
+    private final LongAdder translationFailures = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder upstreamCallsInFlight = new LongAdder();
+    private final ConcurrentHashMap<String, LatencyHistogram[]> upstreamCalls = new ConcurrentHashMap<>();
+
+    /**
+     * Get the metrics of the whole application
+     *
+     * @return The shared metrics
+     */
+    public static ProxyMetrics getInstance() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    public void recordRequestReceived() {
+        requestsReceived.increment();
+    }
+
+    /**
+     * @param statusCode The status of the response sent to the client
+     */
+    public void recordResponseSent(int statusCode) {
+        responsesSent[statusClassIndex(statusCode)].increment();
+    }
+
+    /**
+     * Record a request envelope that could not be translated into an upstream request
+     */
+    public void recordTranslationFailure() {
+        translationFailures.increment();
+    }
+
+    public void addBytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void upstreamCallStarted() {
+        upstreamCallsInFlight.increment();
+    }
+
+    /**
+     * @param host          The upstream host, as scheme://name:port
+     * @param statusCode    The response status, or 0 if the call failed without a response
+     * @param durationNanos How long the call took
+     */
+    public void upstreamCallFinished(String host, int statusCode, long durationNanos) {
+        upstreamCallsInFlight.decrement();
+
+        LatencyHistogram[] histograms = upstreamCalls.get(host);
+
+        if (histograms == null) {
+            histograms = upstreamCalls.size() < MAX_UPSTREAM_HOSTS
+                    ? upstreamCalls.computeIfAbsent(host, name -> newHistograms())
+                    : upstreamCalls.computeIfAbsent(OTHER_UPSTREAM_HOST, name -> newHistograms());
+        }
+
+        histograms[statusClassIndex(statusCode)].record(durationNanos);
+    }
+
+    public long getRequestsReceived() {
+        return requestsReceived.sum();
+    }
+
+    /**
+     * @return The number of responses sent, by status class, such as 2xx
+     */
+    public Map<String, Long> getResponsesSent() {
+        Map<String, Long> responses = new TreeMap<>();
+
+        for (int i = 1; i < STATUS_CLASSES.length; i++) {
+            responses.put(STATUS_CLASSES[i], responsesSent[i].sum());
+        }
+
+        return Collections.unmodifiableMap(responses);
+    }
+
+    /**
+     * @return The number of requests received but not answered yet
+     */
+    public long getRequestsInFlight() {
+        long responses = 0;
+
+        for (LongAdder sent : responsesSent) {
+            responses += sent.sum();
+        }
+
+        return Math.max(0, requestsReceived.sum() - responses);
+    }
+
+    public long getTranslationFailures() {
+        return translationFailures.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getUpstreamCallsInFlight() {
+        return upstreamCallsInFlight.sum();
+    }
+
+    /**
+     * @return The latency histograms of the upstream calls, by host, then by status class, such as 2xx or
+     * {@value #ERROR_STATUS_CLASS}. Only the status classes with recorded calls are included
+     */
+    public Map<String, Map<String, LatencyHistogram>> getUpstreamCalls() {
+        Map<String, Map<String, LatencyHistogram>> calls = new TreeMap<>();
+
+        upstreamCalls.forEach((host, histograms) -> {
+            Map<String, LatencyHistogram> byStatusClass = new TreeMap<>();
+
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                if (histograms[i].getCount() > 0) {
+                    byStatusClass.put(STATUS_CLASSES[i], histograms[i]);
+                }
+            }
+
+            if (!byStatusClass.isEmpty()) {
+                calls.put(host, Collections.unmodifiableMap(byStatusClass));
+            }
+        });
+
+        return Collections.unmodifiableMap(calls);
+    }
+
+    private static int statusClassIndex(int statusCode) {
+        return statusCode >= 100 && statusCode < 600 ? statusCode / 100 : 0;
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[STATUS_CLASSES.length];
+
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+
+        return histograms;
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+
+    private static class SharedInstanceHolder {
+
+        private static final ProxyMetrics INSTANCE = new ProxyMetrics();
+    }
+}
@@ -0,0 +1,44 @@
+package com.andreistraut.drp.core.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the proxy metrics and of the dispatcher gauges, for servers that do not expose a metrics endpoint
+ */
+public interface ProxyMetricsMXBean {
+
+    long getRequestsReceived();
+
+    Map<String, Long> getResponsesSent();
+
+    long getRequestsInFlight();
+
+    long getTranslationFailures();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getUpstreamRequestsInFlight();
+
+    /**
+     * @return The number of upstream calls, keyed by host and status class, such as "http://example.com:80 2xx"
+     */
+    Map<String, Long> getUpstreamRequests();
+
+    /**
+     * @return The approximate 99th percentile of the upstream call latency, in milliseconds, keyed by host and
+     * status class
+     */
+    Map<String, Double> getUpstreamLatencyP99Millis();
+
+    int getLeasedConnections();
+
+    int getAvailableConnections();
+
+    int getPendingConnections();
+
+    int getActiveDispatches();
+
+    int getQueuedDispatches();
+}
@@ -0,0 +1,132 @@
+package com.andreistraut.drp.core.metrics;
+
+import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the proxy metrics and the gauges of a dispatcher as a JMX MXBean
+ */
+public class ProxyMetricsView implements ProxyMetricsMXBean {
+
+    /** Name under which {@link #register(ProxyMetrics, RequestDispatcher)} registers the view */
+    public static final String OBJECT_NAME = "com.andreistraut.drp:type=Metrics";
+
+    private final ProxyMetrics metrics;
+    private final RequestDispatcher dispatcher;
+
+    /**
+     * @param metrics    The proxy metrics
+     * @param dispatcher The dispatcher whose gauges are exposed along
+     */
+    public ProxyMetricsView(ProxyMetrics metrics, RequestDispatcher dispatcher) {
+        this.metrics = metrics;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Register a view of the given metrics with the platform MBean server, unless one is already registered
+     *
+     * @param metrics    The proxy metrics
+     * @param dispatcher The dispatcher whose gauges are exposed along
+     * @throws JMException If the view cannot be registered
+     */
+    public static void register(ProxyMetrics metrics, RequestDispatcher dispatcher) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            server.registerMBean(new ProxyMetricsView(metrics, dispatcher), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            /** Registered by an earlier deployment of the application in this JVM */
+        }
+    }
+
+    @Override
+    public long getRequestsReceived() {
+        return metrics.getRequestsReceived();
+    }
+
+    @Override
+    public Map<String, Long> getResponsesSent() {
+        return metrics.getResponsesSent();
+    }
+
+    @Override
+    public long getRequestsInFlight() {
+        return metrics.getRequestsInFlight();
+    }
+
+    @Override
+    public long getTranslationFailures() {
+        return metrics.getTranslationFailures();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return metrics.getBytesReceived();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return metrics.getBytesSent();
+    }
+
+    @Override
+    public long getUpstreamRequestsInFlight() {
+        return metrics.getUpstreamCallsInFlight();
+    }
+
+    @Override
+    public Map<String, Long> getUpstreamRequests() {
+        Map<String, Long> requests = new TreeMap<>();
+        upstreamCalls(histogram -> histogram.getCount()).forEach((key, count) -> requests.put(key, count.longValue()));
+
+        return Collections.unmodifiableMap(requests);
+    }
+
+    @Override
+    public Map<String, Double> getUpstreamLatencyP99Millis() {
+        return upstreamCalls(histogram -> histogram.getPercentileMillis(0.99));
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        return dispatcher.getPoolStats().getLeased();
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        return dispatcher.getPoolStats().getAvailable();
+    }
+
+    @Override
+    public int getPendingConnections() {
+        return dispatcher.getPoolStats().getPending();
+    }
+
+    @Override
+    public int getActiveDispatches() {
+        return dispatcher.getActiveDispatchCount();
+    }
+
+    @Override
+    public int getQueuedDispatches() {
+        return dispatcher.getQueuedDispatchCount();
+    }
+
+    private Map<String, Double> upstreamCalls(ToDoubleFunction<LatencyHistogram> value) {
+        Map<String, Double> calls = new TreeMap<>();
+
+        metrics.getUpstreamCalls().forEach((host, byStatusClass) -> byStatusClass.forEach(
+                (statusClass, histogram) -> calls.put(host + " " + statusClass, value.applyAsDouble(histogram))));
+
+        return Collections.unmodifiableMap(calls);
+    }
+}
@@ -16,4 +16,5 @@ public class Messages {
     public static final String HEADER_CANNOT_BE_NULL_ERROR = "ProxyResponse header name or header value cannot be null";
     public static final String HEADER_CANNOT_BE_EMPTY_ERROR = "ProxyResponse header name or header value cannot be empty string";
     public static final String ONLY_GET_POST_PUT_METHODS_SUPPORTED = "Only GET, POST and PUT methods are supported";
+    public static final String BATCH_TOO_LARGE = "A batch may hold at most %s requests";
 }
@@ -12,11 +12,12 @@ import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.http.HttpResponse;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.client.methods.HttpRequestBase;
 
 /**
@@ -43,6 +44,10 @@ public class LocalHttpTestServerHandler extends SimpleChannelInboundHandler<Full
 		String.format("Test server received request: %s", request));
 
 	synchronized (this) {
+	    if (lastRequest instanceof HttpEntityEnclosingRequest) {
+		ReferenceCountUtil.release(((HttpEntityEnclosingRequest) lastRequest).getEntity());
+	    }
+
 	    lastRequest = new RequestTranslator().fromFullHttpRequest(request);
 	}
 	
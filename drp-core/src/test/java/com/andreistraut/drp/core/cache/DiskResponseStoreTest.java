@@ -0,0 +1,173 @@
+package com.andreistraut.drp.core.cache;
+
+import com.andreistraut.drp.core.communicator.FileRegionEntity;
+import io.netty.util.CharsetUtil;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskResponseStoreTest {
+
+    private static final String ENDPOINT = "http://localhost:8089/resource";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLargeResponseStoredOnDisk() throws Exception {
+        DiskResponseStore disk = newStore();
+        ResponseCache cache = new ResponseCache(1_000_000, 1_000, disk);
+        byte[] body = body(50_000);
+        int[] calls = new int[1];
+
+        ResponseCache.Upstream upstream = request -> {
+            calls[0]++;
+            return response(body);
+        };
+
+        HttpResponse first = cache.execute(new HttpGet(ENDPOINT), upstream);
+        Assert.assertTrue("Expected body served from disk", first.getEntity() instanceof FileRegionEntity);
+        Assert.assertArrayEquals(body, EntityUtils.toByteArray(first.getEntity()));
+
+        HttpResponse second = cache.execute(new HttpGet(ENDPOINT), upstream);
+        Assert.assertTrue("Expected body served from disk", second.getEntity() instanceof FileRegionEntity);
+        Assert.assertArrayEquals(body, EntityUtils.toByteArray(second.getEntity()));
+
+        Assert.assertEquals(1, calls[0]);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, disk.getEntryCount());
+        Assert.assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testEvictedResponseMovedToDisk() throws Exception {
+        DiskResponseStore disk = newStore();
+        ResponseCache cache = new ResponseCache(300, 300, disk);
+        int[] calls = new int[1];
+
+        ResponseCache.Upstream upstream = request -> {
+            calls[0]++;
+            return response(request.getURI().getPath().getBytes(CharsetUtil.UTF_8));
+        };
+
+        for (int i = 0; i < 10; i++) {
+            cache.execute(new HttpGet(ENDPOINT + "/" + i), upstream);
+        }
+
+        Assert.assertTrue("Expected evictions from memory", cache.getEvictionCount() > 0);
+        Assert.assertEquals(cache.getEvictionCount(), disk.getEntryCount());
+
+        for (int i = 0; i < 10; i++) {
+            HttpResponse response = cache.execute(new HttpGet(ENDPOINT + "/" + i), upstream);
+            Assert.assertEquals("/resource/" + i, EntityUtils.toString(response.getEntity(), CharsetUtil.UTF_8));
+        }
+
+        Assert.assertEquals(10, calls[0]);
+        Assert.assertEquals(10, cache.getHitCount());
+    }
+
+    @Test
+    public void testResponsesRecoveredAfterRestart() throws Exception {
+        byte[] body = body(20_000);
+        ResponseCache cache = new ResponseCache(1_000_000, 1_000, newStore());
+        EntityUtils.consume(cache.execute(new HttpGet(ENDPOINT), request -> response(body)).getEntity());
+
+        DiskResponseStore reopened = newStore();
+        Assert.assertEquals(1, reopened.getEntryCount());
+
+        ResponseCache restarted = new ResponseCache(1_000_000, 1_000, reopened);
+        HttpResponse response = restarted.execute(new HttpGet(ENDPOINT), request -> {
+            throw new IOException("Expected response served from disk");
+        });
+
+        Assert.assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("max-age=60", response.getFirstHeader("Cache-Control").getValue());
+        Assert.assertArrayEquals(body, EntityUtils.toByteArray(response.getEntity()));
+    }
+
+    @Test
+    public void testIncompleteFilesDiscardedOnRecovery() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 1_000, newStore());
+        EntityUtils.consume(cache.execute(new HttpGet(ENDPOINT), request -> response(body(20_000))).getEntity());
+        EntityUtils.consume(cache.execute(new HttpGet(ENDPOINT + "/2"), request -> response(body(20_000))).getEntity());
+
+        /** Truncate one body, and leave an orphan body and a temporary file behind */
+        Path truncated;
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            truncated = files.filter(file -> file.toString().endsWith(".body")).findFirst().get();
+        }
+        Files.write(truncated, new byte[10]);
+        Files.write(folder.getRoot().toPath().resolve("orphan.body"), new byte[10]);
+        Files.write(folder.getRoot().toPath().resolve("partial.meta.tmp"), new byte[10]);
+
+        DiskResponseStore reopened = newStore();
+
+        Assert.assertEquals(1, reopened.getEntryCount());
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            Assert.assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void testRecoveryEvictsBeyondBounds() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 1_000, newStore());
+        for (int i = 0; i < 5; i++) {
+            HttpResponse response = cache.execute(new HttpGet(ENDPOINT + "/" + i), request -> response(body(20_000)));
+            EntityUtils.consume(response.getEntity());
+        }
+
+        DiskResponseStore reopened = new DiskResponseStore(folder.getRoot().toPath(), 1_000_000, 1_000_000, 3);
+
+        Assert.assertEquals(3, reopened.getEntryCount());
+        Assert.assertEquals(2, reopened.getEvictionCount());
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            Assert.assertEquals(6, files.count());
+        }
+    }
+
+    @Test
+    public void testInvalidateDeletesFiles() throws Exception {
+        DiskResponseStore disk = newStore();
+        ResponseCache cache = new ResponseCache(1_000_000, 1_000, disk);
+        EntityUtils.consume(cache.execute(new HttpGet(ENDPOINT), request -> response(body(20_000))).getEntity());
+
+        cache.invalidate(ENDPOINT);
+
+        Assert.assertEquals(0, disk.getEntryCount());
+        Assert.assertEquals(0, disk.getSizeBytes());
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            Assert.assertEquals(0, files.count());
+        }
+    }
+
+    private DiskResponseStore newStore() throws IOException {
+        return new DiskResponseStore(folder.getRoot().toPath(), 1_000_000, 1_000_000, 1_000);
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        Arrays.fill(body, (byte) 'x');
+        return body;
+    }
+
+    private static HttpResponse response(byte[] body) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.addHeader("Cache-Control", "max-age=60");
+        response.setEntity(new ByteArrayEntity(body));
+
+        return response;
+    }
+}
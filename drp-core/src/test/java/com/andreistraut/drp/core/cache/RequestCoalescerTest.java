@@ -0,0 +1,387 @@
+package com.andreistraut.drp.core.cache;
+
+import com.google.common.collect.Lists;
+import io.netty.util.CharsetUtil;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+    private static final String ENDPOINT = "http://localhost:8089/resource";
+    private static final int CALLERS = 5;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneCall() throws Exception {
+        BlockingUpstream upstream = new BlockingUpstream(() -> response("shared"));
+        RequestCoalescer coalescer = new RequestCoalescer(upstream, 1_000);
+
+        List<Future<HttpResponse>> responses = submit(coalescer, CALLERS, HttpGet::new);
+        awaitWaiters(coalescer, CALLERS - 1);
+        upstream.release();
+
+        for (Future<HttpResponse> response : responses) {
+            HttpResponse shared = response.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(HttpStatus.SC_OK, shared.getStatusLine().getStatusCode());
+            Assert.assertEquals("max-age=60", shared.getFirstHeader("Cache-Control").getValue());
+            Assert.assertEquals("shared", EntityUtils.toString(shared.getEntity(), CharsetUtil.UTF_8));
+        }
+
+        Assert.assertEquals(1, upstream.calls.get());
+        Assert.assertEquals(CALLERS - 1, coalescer.getCoalescedCount());
+        Assert.assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testRequestsWithDifferentHeadersNotCoalesced() throws Exception {
+        BlockingUpstream upstream = new BlockingUpstream(() -> response("body"));
+        RequestCoalescer coalescer = new RequestCoalescer(upstream, 1_000);
+        AtomicInteger language = new AtomicInteger();
+
+        List<Future<HttpResponse>> responses = submit(coalescer, 2, uri -> {
+            HttpGet request = new HttpGet(uri);
+            request.addHeader("Accept-Language", "lang-" + language.incrementAndGet());
+            return request;
+        });
+        awaitCalls(upstream, 2);
+        upstream.release();
+
+        for (Future<HttpResponse> response : responses) {
+            response.get(5, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(2, upstream.calls.get());
+        Assert.assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testHeaderOrderAndCaseIgnored() throws Exception {
+        BlockingUpstream upstream = new BlockingUpstream(() -> response("body"));
+        RequestCoalescer coalescer = new RequestCoalescer(upstream, 1_000);
+        AtomicInteger order = new AtomicInteger();
+
+        List<Future<HttpResponse>> responses = submit(coalescer, 2, uri -> {
+            HttpGet request = new HttpGet(uri);
+            if (order.incrementAndGet() == 1) {
+                request.addHeader("Accept", "text/plain");
+                request.addHeader("X-Trace", "on");
+            } else {
+                request.addHeader("x-trace", "on");
+                request.addHeader("accept", "text/plain");
+            }
+            return request;
+        });
+        awaitWaiters(coalescer, 1);
+        upstream.release();
+
+        for (Future<HttpResponse> response : responses) {
+            response.get(5, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(1, upstream.calls.get());
+    }
+
+    @Test
+    public void testUnsafeRequestsNotCoalesced() throws Exception {
+        BlockingUpstream upstream = new BlockingUpstream(() -> response("created"));
+        RequestCoalescer coalescer = new RequestCoalescer(upstream, 1_000);
+
+        List<Future<HttpResponse>> responses = submit(coalescer, 3, HttpPost::new);
+        awaitCalls(upstream, 3);
+        upstream.release();
+
+        for (Future<HttpResponse> response : responses) {
+            response.get(5, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(3, upstream.calls.get());
+        Assert.assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testFailureSharedWithWaiters() throws Exception {
+        BlockingUpstream upstream = new BlockingUpstream(() -> {
+            throw new IllegalStateException("upstream down");
+        });
+        RequestCoalescer coalescer = new RequestCoalescer(upstream, 1_000);
+
+        List<Future<HttpResponse>> responses = submit(coalescer, CALLERS, HttpGet::new);
+        awaitWaiters(coalescer, CALLERS - 1);
+        upstream.release();
+
+        for (Future<HttpResponse> response : responses) {
+            try {
+                response.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the upstream failure");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("upstream down", e.getCause().getMessage());
+            }
+        }
+
+        Assert.assertEquals(1, upstream.calls.get());
+        Assert.assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testLargeResponseNotShared() throws Exception {
+        byte[] large = new byte[5_000];
+        Arrays.fill(large, (byte) 'x');
+        BlockingUpstream upstream = new BlockingUpstream(() -> response(large));
+        RequestCoalescer coalescer = new RequestCoalescer(upstream, 1_000);
+
+        List<Future<HttpResponse>> responses = submit(coalescer, 3, HttpGet::new);
+        awaitWaiters(coalescer, 2);
+        upstream.release();
+
+        for (Future<HttpResponse> response : responses) {
+            Assert.assertArrayEquals(large, EntityUtils.toByteArray(response.get(5, TimeUnit.SECONDS).getEntity()));
+        }
+
+        Assert.assertEquals(3, upstream.calls.get());
+        Assert.assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testAbortedWaiterStopsWaiting() throws Exception {
+        BlockingUpstream upstream = new BlockingUpstream(() -> response("shared"));
+        RequestCoalescer coalescer = new RequestCoalescer(upstream, 1_000);
+
+        Future<HttpResponse> leader = submit(coalescer, 1, HttpGet::new).get(0);
+        awaitCalls(upstream, 1);
+        HttpGet waiterRequest = new HttpGet(ENDPOINT);
+        Future<HttpResponse> waiter = executor.submit(() -> coalescer.execute(waiterRequest));
+        awaitWaiters(coalescer, 1);
+
+        waiterRequest.abort();
+
+        try {
+            waiter.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the aborted request to stop waiting");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+
+        upstream.release();
+
+        Assert.assertEquals("shared", EntityUtils.toString(leader.get(5, TimeUnit.SECONDS).getEntity()));
+        Assert.assertEquals(1, upstream.calls.get());
+    }
+
+    @Test
+    public void testLeaderAbortDoesNotFailWaiters() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch secondCall = new CountDownLatch(1);
+        RequestCoalescer coalescer = new RequestCoalescer(request -> {
+            if (calls.incrementAndGet() == 1) {
+                CountDownLatch aborted = new CountDownLatch(1);
+                request.setCancellable(() -> {
+                    aborted.countDown();
+                    return true;
+                });
+                await(aborted);
+                throw new IOException("Call aborted");
+            }
+
+            await(secondCall);
+            return response("retried");
+        }, 1_000);
+
+        HttpGet leaderRequest = new HttpGet(ENDPOINT);
+        Future<HttpResponse> leader = executor.submit(() -> coalescer.execute(leaderRequest));
+        awaitCalls(calls, 1);
+        Future<HttpResponse> waiter = submit(coalescer, 1, HttpGet::new).get(0);
+        awaitWaiters(coalescer, 1);
+
+        leaderRequest.abort();
+        awaitCalls(calls, 2);
+        secondCall.countDown();
+
+        try {
+            leader.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the leader to be aborted");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("Call aborted", e.getCause().getMessage());
+        }
+
+        Assert.assertEquals("retried", EntityUtils.toString(waiter.get(5, TimeUnit.SECONDS).getEntity()));
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void testLeaderTimeoutRetriedByWaitersWithLongerTimeouts() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch timedOut = new CountDownLatch(1);
+        RequestCoalescer coalescer = new RequestCoalescer(request -> {
+            if (calls.incrementAndGet() == 1) {
+                await(timedOut);
+                throw new SocketTimeoutException("Read timed out");
+            }
+
+            return response("retried");
+        }, 1_000);
+
+        Future<HttpResponse> leader = submit(coalescer, 1, uri -> withSocketTimeout(uri, 100)).get(0);
+        awaitCalls(calls, 1);
+        Future<HttpResponse> waiter = submit(coalescer, 1, uri -> withSocketTimeout(uri, 1_000)).get(0);
+        awaitWaiters(coalescer, 1);
+        timedOut.countDown();
+
+        try {
+            leader.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the leader to time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+
+        Assert.assertEquals("retried", EntityUtils.toString(waiter.get(5, TimeUnit.SECONDS).getEntity()));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testSequentialRequestsNotCoalesced() throws Exception {
+        int[] calls = new int[1];
+        RequestCoalescer coalescer = new RequestCoalescer(request -> {
+            calls[0]++;
+            return response("body");
+        }, 1_000);
+
+        coalescer.execute(new HttpGet(ENDPOINT));
+        coalescer.execute(new HttpGet(ENDPOINT));
+
+        Assert.assertEquals(2, calls[0]);
+        Assert.assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    private List<Future<HttpResponse>> submit(RequestCoalescer coalescer, int count,
+            Function<String, HttpRequestBase> requests) {
+        List<Future<HttpResponse>> responses = Lists.newArrayList();
+
+        for (int i = 0; i < count; i++) {
+            HttpRequestBase request = requests.apply(ENDPOINT);
+            responses.add(executor.submit(() -> coalescer.execute(request)));
+        }
+
+        return responses;
+    }
+
+    private static void awaitWaiters(RequestCoalescer coalescer, int waiters) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+
+        while (coalescer.getWaitingCount() < waiters) {
+            Assert.assertTrue("Timed out waiting for coalesced requests", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitCalls(BlockingUpstream upstream, int calls) throws InterruptedException {
+        awaitCalls(upstream.calls, calls);
+    }
+
+    private static void awaitCalls(AtomicInteger upstreamCalls, int calls) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+
+        while (upstreamCalls.get() < calls) {
+            Assert.assertTrue("Timed out waiting for upstream calls", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static HttpRequestBase withSocketTimeout(String uri, int socketTimeoutMillis) {
+        HttpGet request = new HttpGet(uri);
+        request.setConfig(RequestConfig.custom().setSocketTimeout(socketTimeoutMillis).build());
+
+        return request;
+    }
+
+    /**
+     * Wait for the latch within an upstream call, which may only throw an IOException
+     */
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static HttpResponse response(String body) {
+        return response(body.getBytes(CharsetUtil.UTF_8));
+    }
+
+    private static HttpResponse response(byte[] body) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.addHeader("Cache-Control", "max-age=60");
+        response.setEntity(new ByteArrayEntity(body));
+
+        return response;
+    }
+
+    /**
+     * An upstream whose calls block until released, so that requests pile up behind them
+     */
+    private static class BlockingUpstream implements ResponseCache.Upstream {
+
+        private final Supplier<HttpResponse> responses;
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+
+        BlockingUpstream(Supplier<HttpResponse> responses) {
+            this.responses = responses;
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequestBase request) throws IOException {
+            calls.incrementAndGet();
+
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+
+            return responses.get();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.andreistraut.drp.core.cache;
+
+import io.netty.util.CharsetUtil;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Function;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+    private static final String ENDPOINT = "http://localhost:8089/resource";
+
+    @Test
+    public void testFreshResponseServedFromCache() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response("body", "Cache-Control", "max-age=60"));
+
+        HttpResponse first = cache.execute(new HttpGet(ENDPOINT), upstream);
+        Assert.assertEquals("body", EntityUtils.toString(first.getEntity(), CharsetUtil.UTF_8));
+
+        HttpResponse second = cache.execute(new HttpGet(ENDPOINT), upstream);
+        Assert.assertEquals("body", EntityUtils.toString(second.getEntity(), CharsetUtil.UTF_8));
+        Assert.assertEquals(HttpStatus.SC_OK, second.getStatusLine().getStatusCode());
+        Assert.assertTrue("Expected Age header on cached response", second.containsHeader(HttpHeaders.AGE));
+
+        Assert.assertEquals(1, upstream.calls);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiresHeaderGivesFreshness() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response("body",
+                "Date", "Mon, 01 Jan 2035 00:00:00 GMT",
+                "Expires", "Mon, 01 Jan 2035 00:10:00 GMT"));
+
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+
+        Assert.assertEquals(1, upstream.calls);
+    }
+
+    @Test
+    public void testNoStoreAndPrivateResponsesNotCached() throws Exception {
+        for (String cacheControl : Arrays.asList("no-store", "private, max-age=60")) {
+            ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+            CountingUpstream upstream = new CountingUpstream(request -> response("body", "Cache-Control", cacheControl));
+
+            cache.execute(new HttpGet(ENDPOINT), upstream);
+            cache.execute(new HttpGet(ENDPOINT), upstream);
+
+            Assert.assertEquals("Expected no caching for " + cacheControl, 2, upstream.calls);
+            Assert.assertEquals(0, cache.getSizeBytes());
+        }
+    }
+
+    @Test
+    public void testResponseWithoutFreshnessOrValidatorNotCached() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response("body"));
+
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+
+        Assert.assertEquals(2, upstream.calls);
+    }
+
+    @Test
+    public void testVaryHeaderSelectsVariant() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response(
+                request.getFirstHeader(HttpHeaders.ACCEPT).getValue(),
+                "Cache-Control", "max-age=60",
+                "Vary", "Accept"));
+
+        Assert.assertEquals("text/plain", get(cache, upstream, HttpHeaders.ACCEPT, "text/plain"));
+        Assert.assertEquals("application/json", get(cache, upstream, HttpHeaders.ACCEPT, "application/json"));
+        Assert.assertEquals("text/plain", get(cache, upstream, HttpHeaders.ACCEPT, "text/plain"));
+        Assert.assertEquals("application/json", get(cache, upstream, HttpHeaders.ACCEPT, "application/json"));
+
+        Assert.assertEquals(2, upstream.calls);
+        Assert.assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testStaleResponseRevalidatedWithETag() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> {
+            if (request.containsHeader(HttpHeaders.IF_NONE_MATCH)) {
+                Assert.assertEquals("\"v1\"", request.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+                return new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_MODIFIED, "Not Modified");
+            }
+
+            return response("body", "Cache-Control", "no-cache", "ETag", "\"v1\"");
+        });
+
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+
+        HttpGet request = new HttpGet(ENDPOINT);
+        HttpResponse revalidated = cache.execute(request, upstream);
+
+        Assert.assertEquals(HttpStatus.SC_OK, revalidated.getStatusLine().getStatusCode());
+        Assert.assertEquals("body", EntityUtils.toString(revalidated.getEntity(), CharsetUtil.UTF_8));
+        Assert.assertFalse("Expected conditional header removed from request",
+                request.containsHeader(HttpHeaders.IF_NONE_MATCH));
+
+        Assert.assertEquals(2, upstream.calls);
+        Assert.assertEquals(1, cache.getRevalidationCount());
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testStaleResponseReplacedWhenChanged() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response(
+                "body" + request.containsHeader(HttpHeaders.IF_NONE_MATCH),
+                "Cache-Control", "max-age=0", "ETag", "\"v1\""));
+
+        Assert.assertEquals("bodyfalse", get(cache, upstream, HttpHeaders.ACCEPT, "*/*"));
+        Assert.assertEquals("bodytrue", get(cache, upstream, HttpHeaders.ACCEPT, "*/*"));
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testRequestNoCacheForcesRevalidation() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response("body",
+                "Cache-Control", "max-age=60", "Last-Modified", "Mon, 01 Jan 2018 00:00:00 GMT"));
+
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+        get(cache, upstream, HttpHeaders.CACHE_CONTROL, "no-cache");
+
+        Assert.assertEquals(2, upstream.calls);
+        Assert.assertEquals("Mon, 01 Jan 2018 00:00:00 GMT",
+                upstream.lastRequestIfModifiedSince);
+    }
+
+    @Test
+    public void testAuthorizedRequestBypassesCache() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response("body", "Cache-Control", "max-age=60"));
+
+        get(cache, upstream, HttpHeaders.AUTHORIZATION, "Basic dXNlcjpwYXNz");
+        get(cache, upstream, HttpHeaders.AUTHORIZATION, "Basic dXNlcjpwYXNz");
+
+        Assert.assertEquals(2, upstream.calls);
+        Assert.assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testUnsafeRequestInvalidatesCachedResponse() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response("body", "Cache-Control", "max-age=60"));
+
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+        cache.execute(new HttpPost(ENDPOINT), upstream);
+        cache.execute(new HttpGet(ENDPOINT), upstream);
+
+        Assert.assertEquals(3, upstream.calls);
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000, 1_000);
+        CountingUpstream upstream = new CountingUpstream(request -> response(new String(new char[300]),
+                "Cache-Control", "max-age=60"));
+
+        cache.execute(new HttpGet(ENDPOINT + "/1"), upstream);
+        cache.execute(new HttpGet(ENDPOINT + "/2"), upstream);
+        cache.execute(new HttpGet(ENDPOINT + "/1"), upstream);
+        cache.execute(new HttpGet(ENDPOINT + "/3"), upstream);
+
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertTrue("Expected cache within its size", cache.getSizeBytes() <= 1_000);
+
+        /** /2 was the least recently used, so /1 must still be cached */
+        cache.execute(new HttpGet(ENDPOINT + "/1"), upstream);
+        Assert.assertEquals(2, cache.getHitCount());
+
+        cache.execute(new HttpGet(ENDPOINT + "/2"), upstream);
+        Assert.assertEquals(4, upstream.calls);
+    }
+
+    @Test
+    public void testOversizedBodyRelayedIntact() throws Exception {
+        ResponseCache cache = new ResponseCache(1_000_000, 100);
+        byte[] body = new byte[20_000];
+        Arrays.fill(body, (byte) 'x');
+
+        CountingUpstream upstream = new CountingUpstream(request -> {
+            HttpResponse response = response("", "Cache-Control", "max-age=60");
+            response.setEntity(new InputStreamEntity(new ByteArrayInputStream(body), -1));
+            return response;
+        });
+
+        HttpResponse response = cache.execute(new HttpGet(ENDPOINT), upstream);
+
+        Assert.assertArrayEquals(body, EntityUtils.toByteArray(response.getEntity()));
+        Assert.assertEquals(0, cache.getSizeBytes());
+    }
+
+    private static String get(ResponseCache cache, CountingUpstream upstream, String header, String value)
+            throws IOException {
+        HttpGet request = new HttpGet(ENDPOINT);
+        request.setHeader(header, value);
+
+        return EntityUtils.toString(cache.execute(request, upstream).getEntity(), CharsetUtil.UTF_8);
+    }
+
+    private static HttpResponse response(String body, String... headers) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+
+        for (int i = 0; i < headers.length; i += 2) {
+            response.addHeader(headers[i], headers[i + 1]);
+        }
+
+        response.setEntity(new StringEntity(body, CharsetUtil.UTF_8));
+
+        return response;
+    }
+
+    private static class CountingUpstream implements ResponseCache.Upstream {
+
+        private final Function<HttpRequestBase, HttpResponse> responder;
+        private int calls;
+        private String lastRequestIfModifiedSince;
+
+        private CountingUpstream(Function<HttpRequestBase, HttpResponse> responder) {
+            this.responder = responder;
+        }
+
+        @Override
+        public HttpResponse execute(HttpRequestBase request) throws IOException {
+            calls++;
+            lastRequestIfModifiedSince = request.containsHeader(HttpHeaders.IF_MODIFIED_SINCE)
+                    ? request.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE).getValue()
+                    : null;
+
+            return responder.apply(request);
+        }
+    }
+}
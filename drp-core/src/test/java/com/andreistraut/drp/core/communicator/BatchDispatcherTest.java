@@ -0,0 +1,201 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.model.Fields;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpStatus;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchDispatcherTest {
+
+    private static EventLoopGroup serverGroup;
+    private static String endpoint;
+
+    private static final AtomicInteger inFlight = new AtomicInteger();
+    private static final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @BeforeClass
+    public static void setUpClass() throws InterruptedException {
+        serverGroup = new NioEventLoopGroup(2);
+
+        Channel server = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline().addLast(new HttpServerCodec(), new HttpObjectAggregator(1048576),
+                                new DelayedEchoHandler());
+                    }
+                })
+                .bind(0).sync().channel();
+
+        endpoint = String.format("http://localhost:%s", ((InetSocketAddress) server.localAddress()).getPort());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Before
+    public void setUp() {
+        maxInFlight.set(0);
+    }
+
+    @Test
+    public void testResultsInRequestOrderWithinConcurrency() throws Exception {
+        JsonArray envelopes = new JsonArray();
+        for (int i = 0; i < 12; i++) {
+            envelopes.add(envelope(endpoint + "/call" + i + "?delay=" + ((i % 3) * 50)));
+        }
+
+        try (RequestDispatcher dispatcher = new RequestDispatcher()) {
+            List<BatchResult> results = new BatchDispatcher(dispatcher, 3)
+                    .dispatchAll(translate(envelopes))
+                    .get(10, TimeUnit.SECONDS);
+
+            Assert.assertEquals(12, results.size());
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals(i, results.get(i).getIndex());
+                Assert.assertEquals(HttpStatus.SC_OK, results.get(i).getStatus());
+                Assert.assertEquals("GET /call" + i, results.get(i).getBody());
+            }
+        }
+
+        Assert.assertTrue("Expected at most 3 calls in flight, but there were " + maxInFlight.get(),
+                maxInFlight.get() <= 3);
+        Assert.assertTrue("Expected calls in parallel, but there were not", maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void testResultsReportedAsTheyComplete() throws Exception {
+        JsonArray envelopes = new JsonArray();
+        envelopes.add(envelope(endpoint + "/slow?delay=500"));
+        envelopes.add(envelope(endpoint + "/fast"));
+
+        List<Integer> completionOrder = new CopyOnWriteArrayList<>();
+
+        try (RequestDispatcher dispatcher = new RequestDispatcher()) {
+            new BatchDispatcher(dispatcher, 2)
+                    .dispatch(translate(envelopes), result -> completionOrder.add(result.getIndex()))
+                    .get(10, TimeUnit.SECONDS);
+        }
+
+        Assert.assertEquals(2, completionOrder.size());
+        Assert.assertEquals(1, (int) completionOrder.get(0));
+    }
+
+    @Test
+    public void testFailedRequestsDoNotFailTheBatch() throws Exception {
+        JsonObject invalid = envelope(endpoint + "/invalid");
+        invalid.remove(Fields.METHOD);
+
+        JsonArray envelopes = new JsonArray();
+        envelopes.add(envelope(endpoint + "/ok"));
+        envelopes.add(invalid);
+        envelopes.add(envelope("http://localhost:1/refused"));
+
+        try (RequestDispatcher dispatcher = new RequestDispatcher()) {
+            List<BatchResult> results = new BatchDispatcher(dispatcher)
+                    .dispatchAll(translate(envelopes))
+                    .get(10, TimeUnit.SECONDS);
+
+            Assert.assertEquals(HttpStatus.SC_OK, results.get(0).getStatus());
+            Assert.assertEquals(HttpStatus.SC_BAD_REQUEST, results.get(1).getStatus());
+            Assert.assertNotNull(results.get(1).getError());
+            Assert.assertEquals(HttpStatus.SC_INTERNAL_SERVER_ERROR, results.get(2).getStatus());
+            Assert.assertNull(results.get(2).getBody());
+
+            JsonArray json = new JsonParser().parse(BatchResult.toJsonArray(results)).getAsJsonArray();
+            Assert.assertEquals(3, json.size());
+            Assert.assertEquals("GET /ok", json.get(0).getAsJsonObject().get("body").getAsString());
+            Assert.assertEquals("text/plain", json.get(0).getAsJsonObject().getAsJsonObject("headers")
+                    .get(HttpHeaderNames.CONTENT_TYPE.toString()).getAsString());
+            Assert.assertFalse("Expected hop-by-hop headers left out, but were not", json.get(0).getAsJsonObject()
+                    .getAsJsonObject("headers").has(HttpHeaderNames.CONTENT_LENGTH.toString()));
+            Assert.assertEquals(HttpStatus.SC_BAD_REQUEST, json.get(1).getAsJsonObject().get("status").getAsInt());
+        }
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        try (RequestDispatcher dispatcher = new RequestDispatcher()) {
+            Assert.assertTrue(new BatchDispatcher(dispatcher)
+                    .dispatchAll(new ArrayList<>())
+                    .get(1, TimeUnit.SECONDS)
+                    .isEmpty());
+        }
+    }
+
+    private static JsonObject envelope(String url) {
+        JsonObject envelope = new JsonObject();
+        envelope.addProperty(Fields.ENDPOINT, url);
+        envelope.addProperty(Fields.METHOD, HttpMethod.GET.name());
+
+        return envelope;
+    }
+
+    private static List<TranslationResult> translate(JsonArray envelopes) throws Exception {
+        return RequestTranslator.getInstance().translateJsonArrayString(Maps.newHashMap(), envelopes.toString());
+    }
+
+    /**
+     * Answers each request with its method and path, after the delay in milliseconds given by its delay parameter
+     */
+    private static class DelayedEchoHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            QueryStringDecoder uri = new QueryStringDecoder(request.uri());
+            long delay = uri.parameters().containsKey("delay")
+                    ? Long.parseLong(uri.parameters().get("delay").get(0))
+                    : 0;
+
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    Unpooled.copiedBuffer(request.method() + " " + uri.path(), StandardCharsets.UTF_8));
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+            ctx.executor().schedule(() -> {
+                inFlight.decrementAndGet();
+                ctx.writeAndFlush(response);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
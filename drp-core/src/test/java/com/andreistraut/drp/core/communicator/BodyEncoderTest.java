@@ -0,0 +1,90 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BodyEncoderTest {
+
+    private static final String[] VALUES = {
+        "",
+        "plain",
+        "Param1 Value&",
+        "a=b&c=d%20e",
+        "._-*~!'()+/?#[]@:;,",
+        "ăîșțâ ÄÖÜß",
+        "日本語 テキスト",
+        "emoji 😀 end",
+        "unpaired \uD83D high",
+        "unpaired \uDE00 low",
+        "trailing high \uD83D"
+    };
+
+    @Test
+    public void testUrlEncodingMatchesUrlEncoder() throws Exception {
+        for (String value : VALUES) {
+            BodyEncoder encoder = BodyEncoder.get();
+            encoder.writeUrlEncoded(value);
+
+            Assert.assertEquals(value, URLEncoder.encode(value, "UTF-8"),
+                    new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testPlainTextIsUtf8() {
+        for (String value : VALUES) {
+            BodyEncoder encoder = BodyEncoder.get();
+            encoder.append(value);
+
+            Assert.assertArrayEquals(value, value.getBytes(StandardCharsets.UTF_8), encoder.toByteArray());
+        }
+    }
+
+    @Test
+    public void testFormFieldsAreJoined() {
+        BodyEncoder encoder = BodyEncoder.get();
+
+        encoder.beginFormField("first name");
+        encoder.append("Jane Doe");
+        encoder.beginFormField("q");
+        encoder.append("a&b=c");
+        encoder.beginFormField("empty");
+
+        Assert.assertEquals("first+name=Jane+Doe&q=a%26b%3Dc&empty=",
+                new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testUnpairedSurrogateStaysInItsField() {
+        BodyEncoder encoder = BodyEncoder.get();
+
+        encoder.beginFormField("a");
+        encoder.append("x\uD83D");
+        encoder.beginFormField("b");
+        encoder.append("y");
+
+        Assert.assertEquals("a=x%3F&b=y", new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        BodyEncoder encoder = BodyEncoder.get();
+        StringBuilder large = new StringBuilder();
+
+        for (int i = 0; i < 10_000; i++) {
+            large.append("value ").append(i);
+        }
+
+        encoder.writeUrlEncoded(large);
+        Assert.assertEquals(large.toString().replace(' ', '+'),
+                new String(encoder.toByteArray(), StandardCharsets.US_ASCII));
+
+        BodyEncoder next = BodyEncoder.get();
+        next.append("next");
+
+        Assert.assertSame(encoder, next);
+        Assert.assertEquals("next", new String(next.toByteArray(), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,138 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(20);
+
+    private long now;
+    private DispatcherSettings settings;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        settings = new DispatcherSettings();
+        settings.setCircuitBreakerEnabled(true);
+        settings.setCircuitBreakerWindowSize(10);
+        settings.setCircuitBreakerMinimumCalls(4);
+        settings.setCircuitBreakerFailureRateThreshold(50);
+        settings.setCircuitBreakerOpenMillis(1_000);
+        settings.setCircuitBreakerHalfOpenCalls(2);
+    }
+
+    @Test
+    public void testOpensAtFailureRate() {
+        CircuitBreaker breaker = newBreaker();
+
+        call(breaker, false);
+        call(breaker, true);
+        call(breaker, false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        call(breaker, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquirePermission());
+        Assert.assertEquals(1_000, breaker.getRetryAfterMillis());
+        Assert.assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void testStaysClosedBelowMinimumCalls() {
+        CircuitBreaker breaker = newBreaker();
+
+        for (int i = 0; i < 3; i++) {
+            call(breaker, true);
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOldOutcomesLeaveTheWindow() {
+        CircuitBreaker breaker = newBreaker();
+
+        for (int i = 0; i < 10; i++) {
+            call(breaker, false);
+        }
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true);
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        /** 5 of the last 10 calls failed, though only 5 of all 15 */
+        call(breaker, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOpensAtSlowCallRate() {
+        settings.setCircuitBreakerSlowCallRateThreshold(75);
+        CircuitBreaker breaker = newBreaker();
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(breaker.tryAcquirePermission());
+            breaker.onResult(false, SLOW);
+        }
+        call(breaker, false);
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testClosesAfterSuccessfulProbes() {
+        CircuitBreaker breaker = newOpenBreaker();
+
+        now += TimeUnit.MILLISECONDS.toNanos(1_000);
+
+        Assert.assertTrue(breaker.tryAcquirePermission());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquirePermission());
+        Assert.assertFalse("Expected only 2 probe calls", breaker.tryAcquirePermission());
+
+        breaker.onResult(false, FAST);
+        breaker.onResult(false, FAST);
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        /** The failures recorded before opening are forgotten */
+        call(breaker, true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testReopensAfterFailedProbe() {
+        CircuitBreaker breaker = newOpenBreaker();
+
+        now += TimeUnit.MILLISECONDS.toNanos(1_000);
+        call(breaker, true);
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(2, breaker.getOpenCount());
+        Assert.assertFalse(breaker.tryAcquirePermission());
+    }
+
+    private CircuitBreaker newBreaker() {
+        return new CircuitBreaker(settings, () -> now);
+    }
+
+    private CircuitBreaker newOpenBreaker() {
+        CircuitBreaker breaker = newBreaker();
+
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true);
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failed) {
+        Assert.assertTrue("Expected the call to be permitted", breaker.tryAcquirePermission());
+        breaker.onResult(failed, FAST);
+    }
+}
@@ -0,0 +1,347 @@
+package com.andreistraut.drp.core.communicator;
+
+import com.andreistraut.drp.core.LocalHttpTestServerHandler;
+import com.andreistraut.drp.core.LocalHttpTestServerInitializer;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2Codec;
+import io.netty.handler.codec.http2.Http2ServerDowngrader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class Http2UpstreamTest {
+
+    private static final String SLOW_PATH = "/slow";
+    private static final String STREAMED_PATH = "/streamed";
+    private static final String LARGE_PATH = "/large";
+
+    /** Larger than the flow-control windows many times over */
+    private static final int LARGE_CHUNK_BYTES = 1_048_576;
+    private static final int LARGE_CHUNKS = 80;
+
+    private static EventLoopGroup serverGroup;
+    private static final AtomicInteger http2Connections = new AtomicInteger();
+    private static String http2Endpoint;
+    private static String http1Endpoint;
+    /** The stream answering the streamed path, whose response is ended by the test */
+    private static final CompletableFuture<ChannelHandlerContext> streamed = new CompletableFuture<>();
+
+    @BeforeClass
+    public static void setUpClass() throws InterruptedException {
+        serverGroup = new NioEventLoopGroup(2);
+
+        Channel http2Server = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        http2Connections.incrementAndGet();
+                        channel.pipeline().addLast(new Http2Codec(true, new ChannelInitializer<Channel>() {
+                            @Override
+                            protected void initChannel(Channel stream) {
+                                stream.pipeline().addLast(new Http2ServerDowngrader(false),
+                                        new HttpObjectAggregator(1048576),
+                                        new EchoHandler());
+                            }
+                        }));
+                    }
+                })
+                .bind(0).sync().channel();
+
+        Channel http1Server = new ServerBootstrap()
+                .group(serverGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new LocalHttpTestServerInitializer(new LocalHttpTestServerHandler()))
+                .bind(0).sync().channel();
+
+        http2Endpoint = String.format("http://localhost:%s",
+                ((InetSocketAddress) http2Server.localAddress()).getPort());
+        http1Endpoint = String.format("http://localhost:%s",
+                ((InetSocketAddress) http1Server.localAddress()).getPort());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testConcurrentCallsShareOneConnection() throws Exception {
+        DispatcherSettings settings = new DispatcherSettings();
+        settings.setHttp2Enabled(true);
+        settings.setHttp2ConnectionsPerHost(1);
+
+        try (RequestDispatcher dispatcher = new RequestDispatcher(settings)) {
+            int connectionsBefore = http2Connections.get();
+            List<CompletableFuture<String>> calls = new ArrayList<>();
+
+            for (int i = 0; i < 20; i++) {
+                HttpPost post = new HttpPost(http2Endpoint + "/echo?call=" + i);
+                post.setEntity(new StringEntity("body " + i, StandardCharsets.UTF_8));
+
+                calls.add(dispatcher.executeAsync(post, response -> EntityUtils.toString(response.getEntity())));
+            }
+
+            for (int i = 0; i < calls.size(); i++) {
+                Assert.assertEquals("POST /echo?call=" + i + " body " + i, calls.get(i).get(10, TimeUnit.SECONDS));
+            }
+
+            Assert.assertEquals(1, http2Connections.get() - connectionsBefore);
+            Assert.assertTrue(dispatcher.getHttp2Upstream().get().getHttp1Hosts().isEmpty());
+            Assert.assertEquals(0, dispatcher.getPoolStats().getLeased() + dispatcher.getPoolStats().getAvailable());
+        }
+    }
+
+    @Test
+    public void testHttp1HostFallsBackToConnectionPool() throws Exception {
+        DispatcherSettings settings = new DispatcherSettings();
+        settings.setHttp2Enabled(true);
+
+        try (RequestDispatcher dispatcher = new RequestDispatcher(settings)) {
+            for (int i = 0; i < 2; i++) {
+                HttpResponse response = dispatcher.execute(new HttpGet(http1Endpoint + "/"));
+
+                Assert.assertEquals(HttpResponseStatus.OK.code(), response.getStatusLine().getStatusCode());
+                EntityUtils.consume(response.getEntity());
+            }
+
+            Assert.assertEquals(1, dispatcher.getHttp2Upstream().get().getHttp1Hosts().size());
+            Assert.assertEquals(0, dispatcher.getHttp2Upstream().get().getConnectionCount());
+        }
+    }
+
+    @Test
+    public void testDeadlineCancelsStream() throws Exception {
+        DispatcherSettings settings = new DispatcherSettings();
+        settings.setHttp2Enabled(true);
+        settings.setDeadlineMillis(300);
+
+        try (RequestDispatcher dispatcher = new RequestDispatcher(settings)) {
+            long start = System.currentTimeMillis();
+
+            try {
+                dispatcher.execute(new HttpGet(http2Endpoint + SLOW_PATH));
+                Assert.fail("Expected the deadline to pass");
+            } catch (DeadlineExceededException e) {
+                Assert.assertTrue("Expected the call aborted at its deadline, but it took "
+                        + (System.currentTimeMillis() - start) + "ms", System.currentTimeMillis() - start < 5_000);
+            }
+
+            Assert.assertEquals(0, dispatcher.getHttp2Upstream().get().getActiveStreamCount());
+        }
+    }
+
+    @Test
+    public void testResponseBodyReadBeforeItEnds() throws Exception {
+        try (Http2Upstream upstream = new Http2Upstream(request -> {
+            throw new IOException("Expected an HTTP/2 call");
+        }, new DispatcherSettings())) {
+            HttpResponse response = upstream.execute(new HttpGet(http2Endpoint + STREAMED_PATH));
+            InputStream body = response.getEntity().getContent();
+
+            Assert.assertEquals(-1, response.getEntity().getContentLength());
+            Assert.assertEquals("first", new String(read(body, 5), StandardCharsets.UTF_8));
+
+            streamed.get(10, TimeUnit.SECONDS).writeAndFlush(new DefaultLastHttpContent(
+                    Unpooled.copiedBuffer("last", StandardCharsets.UTF_8)));
+
+            Assert.assertEquals("last", new String(read(body, 4), StandardCharsets.UTF_8));
+            Assert.assertEquals(-1, body.read());
+            Assert.assertEquals(0, upstream.getActiveStreamCount());
+        }
+    }
+
+    @Test
+    public void testLargeResponseBodyStreamedWhole() throws Exception {
+        try (Http2Upstream upstream = new Http2Upstream(request -> {
+            throw new IOException("Expected an HTTP/2 call");
+        }, new DispatcherSettings())) {
+            HttpResponse response = upstream.execute(new HttpGet(http2Endpoint + LARGE_PATH));
+            byte[] buffer = new byte[8_192];
+            long position = 0;
+
+            Assert.assertEquals((long) LARGE_CHUNK_BYTES * LARGE_CHUNKS, response.getEntity().getContentLength());
+
+            try (InputStream body = response.getEntity().getContent()) {
+                for (int read = body.read(buffer); read != -1; read = body.read(buffer)) {
+                    for (int i = 0; i < read; i++, position++) {
+                        if (buffer[i] != largeByte(position % LARGE_CHUNK_BYTES)) {
+                            Assert.fail("Unexpected byte at " + position);
+                        }
+                    }
+                }
+            }
+
+            Assert.assertEquals((long) LARGE_CHUNK_BYTES * LARGE_CHUNKS, position);
+            Assert.assertEquals(0, upstream.getActiveStreamCount());
+        }
+    }
+
+    @Test
+    public void testClosingResponseBodyResetsStream() throws Exception {
+        try (Http2Upstream upstream = new Http2Upstream(request -> {
+            throw new IOException("Expected an HTTP/2 call");
+        }, new DispatcherSettings())) {
+            HttpResponse response = upstream.execute(new HttpGet(http2Endpoint + LARGE_PATH));
+
+            try (InputStream body = response.getEntity().getContent()) {
+                read(body, 1_024);
+                Assert.assertEquals(1, upstream.getActiveStreamCount());
+            }
+
+            Assert.assertEquals(0, upstream.getActiveStreamCount());
+
+            /** The connection carries on with the other calls */
+            HttpResponse next = upstream.execute(new HttpGet(http2Endpoint + "/echo"));
+            Assert.assertEquals("GET /echo ", EntityUtils.toString(next.getEntity()));
+            Assert.assertEquals(1, upstream.getConnectionCount());
+        }
+    }
+
+    @Test
+    public void testConnectionOpenedOutsideHostLock() throws Exception {
+        DispatcherSettings settings = new DispatcherSettings();
+        settings.setConnectTimeoutMillis(1_000);
+        AtomicInteger fallbackCalls = new AtomicInteger();
+
+        /** Accepts connections but never answers the HTTP/2 preface */
+        try (ServerSocket silentServer = new ServerSocket(0);
+                Http2Upstream upstream = new Http2Upstream(request -> {
+                    fallbackCalls.incrementAndGet();
+                    return new BasicHttpResponse(org.apache.http.HttpVersion.HTTP_1_1, 200, "OK");
+                }, settings)) {
+            String endpoint = String.format("http://localhost:%s/", silentServer.getLocalPort());
+            List<CompletableFuture<HttpResponse>> calls = new ArrayList<>();
+
+            for (int i = 0; i < 5; i++) {
+                calls.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return upstream.execute(new HttpGet(endpoint));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+
+            Socket accepted = silentServer.accept();
+            long start = System.currentTimeMillis();
+            upstream.getConnectionCount();
+            upstream.getActiveStreamCount();
+
+            Assert.assertTrue("Expected the gauges not to wait for the connection being opened",
+                    System.currentTimeMillis() - start < 500);
+
+            for (CompletableFuture<HttpResponse> call : calls) {
+                Assert.assertEquals(200, call.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode());
+            }
+
+            Assert.assertEquals(5, fallbackCalls.get());
+            Assert.assertEquals(1, upstream.getHttp1Hosts().size());
+            accepted.close();
+        }
+    }
+
+    private static byte[] read(InputStream in, int length) throws IOException {
+        byte[] read = new byte[length];
+
+        for (int offset = 0; offset < length; ) {
+            int count = in.read(read, offset, length - offset);
+            Assert.assertTrue("Unexpected end of the response body", count != -1);
+            offset += count;
+        }
+
+        return read;
+    }
+
+    private static byte largeByte(long position) {
+        return (byte) (position % 251);
+    }
+
+    /**
+     * Answers each stream with its method, path and body, except the slow path, which is never answered, the
+     * streamed path, whose first chunk is sent and whose end is left to the test, and the large path, answered in
+     * chunks
+     */
+    private static class EchoHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            if (request.uri().equals(SLOW_PATH)) {
+                return;
+            }
+
+            if (request.uri().equals(STREAMED_PATH)) {
+                ctx.write(new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+                ctx.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer("first", StandardCharsets.UTF_8)));
+                streamed.complete(ctx);
+                return;
+            }
+
+            if (request.uri().equals(LARGE_PATH)) {
+                byte[] chunk = new byte[LARGE_CHUNK_BYTES];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = largeByte(i);
+                }
+
+                DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+                response.headers().set(HttpHeaderNames.CONTENT_LENGTH, (long) LARGE_CHUNK_BYTES * LARGE_CHUNKS);
+                ctx.write(response);
+
+                for (int i = 0; i < LARGE_CHUNKS; i++) {
+                    ctx.write(new DefaultHttpContent(Unpooled.wrappedBuffer(chunk)));
+                }
+
+                ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+                return;
+            }
+
+            String body = String.format("%s %s %s", request.method(), request.uri(),
+                    request.content().toString(StandardCharsets.UTF_8));
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+            ctx.writeAndFlush(response);
+        }
+    }
+}
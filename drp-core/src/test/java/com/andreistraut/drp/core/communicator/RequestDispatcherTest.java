@@ -10,6 +10,7 @@ import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.util.CharsetUtil;
 
+import java.net.ServerSocket;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -20,6 +21,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.util.EntityUtils;
 import org.junit.AfterClass;
@@ -118,6 +120,19 @@ public class RequestDispatcherTest {
                         .equals(HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString()));
     }
 
+    @Test
+    public void testUpstreamCallsAcceptCompressedResponses() throws Exception {
+
+        HttpRequestBase request = new RequestTranslator().fromJsonString(
+                Maps.<String, String>newHashMap(),
+                TestResource.validGETRequestWithNoHeadersRequestStringAsString());
+
+        RequestDispatcher.dispatch(request);
+
+        Assert.assertEquals("gzip,deflate",
+                handler.getLastRequest().getFirstHeader(HttpHeaderNames.ACCEPT_ENCODING.toString()).getValue());
+    }
+
     @Test
     public void testRequestMethodGETRequest() throws Exception {
 
@@ -175,4 +190,96 @@ public class RequestDispatcherTest {
         Assert.assertTrue("Expected Correct HTTP Content, but was not", requestContents.contains(TestResource.REQUEST_PARAM_NAME));
         Assert.assertTrue("Expected Correct HTTP Content, but was not", requestContents.contains(TestResource.REQUEST_PARAM_VALUE));
     }
+
+    @Test
+    public void testConnectionReleasedToPoolAfterResponseConsumed() throws Exception {
+
+        RequestDispatcher dispatcher = new RequestDispatcher();
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                HttpRequestBase request = new RequestTranslator().fromJsonString(
+                        Maps.<String, String>newHashMap(),
+                        TestResource.validPOSTRequestWithRequestStringAsString());
+
+                EntityUtils.consume(dispatcher.execute(request).getEntity());
+            }
+
+            Assert.assertEquals("Expected no leased connections, but there were",
+                    0, dispatcher.getPoolStats().getLeased());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testAsyncDispatchRequestContents() throws Exception {
+
+        HttpRequestBase request = new RequestTranslator().fromJsonString(
+                Maps.<String, String>newHashMap(),
+                TestResource.validPOSTRequestWithRequestStringAsString());
+
+        String responseContents = RequestDispatcher.getInstance()
+                .executeAsync(request, response -> EntityUtils.toString(response.getEntity(), CharsetUtil.UTF_8))
+                .get(10, TimeUnit.SECONDS);
+
+        Assert.assertTrue("Expected Correct HTTP Content, but was not", responseContents.contains(TestResource.REQUEST_PARAM_NAME));
+        Assert.assertTrue("Expected Correct HTTP Content, but was not", responseContents.contains(TestResource.REQUEST_PARAM_VALUE));
+    }
+
+    @Test
+    public void testRouteDeadlineAbortsSilentUpstream() throws Exception {
+
+        try (ServerSocket silentUpstream = new ServerSocket(0)) {
+            String endpoint = String.format("http://localhost:%s", silentUpstream.getLocalPort());
+
+            DispatcherSettings settings = new DispatcherSettings();
+            settings.addRouteTimeouts(endpoint + "/*", new RouteTimeouts(1_000, 1_000, 0, 300));
+
+            try (RequestDispatcher dispatcher = new RequestDispatcher(settings)) {
+                long start = System.currentTimeMillis();
+
+                try {
+                    dispatcher.execute(new HttpGet(endpoint + "/slow"));
+                    Assert.fail("Expected the deadline to pass");
+                } catch (DeadlineExceededException e) {
+                    Assert.assertTrue("Expected the call aborted at its deadline, but it took "
+                            + (System.currentTimeMillis() - start) + "ms", System.currentTimeMillis() - start < 5_000);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClientTimeoutHeaderShortensDeadline() throws Exception {
+
+        try (ServerSocket silentUpstream = new ServerSocket(0);
+                RequestDispatcher dispatcher = new RequestDispatcher()) {
+            HttpGet request = new HttpGet(String.format("http://localhost:%s/slow", silentUpstream.getLocalPort()));
+            request.addHeader(RequestDispatcher.REQUEST_TIMEOUT_HEADER, "200");
+
+            try {
+                dispatcher.execute(request);
+                Assert.fail("Expected the client deadline to pass");
+            } catch (DeadlineExceededException e) {
+                Assert.assertFalse("Expected the client deadline header not forwarded, but it was",
+                        request.containsHeader(RequestDispatcher.REQUEST_TIMEOUT_HEADER));
+            }
+        }
+    }
+
+    @Test
+    public void testRouteTimeoutsOnlyApplyToMatchingEndpoints() throws Exception {
+
+        DispatcherSettings settings = new DispatcherSettings();
+        settings.addRouteTimeouts("http://unreachable.example.com/*", new RouteTimeouts(1, 1, 1, 1));
+
+        try (RequestDispatcher dispatcher = new RequestDispatcher(settings)) {
+            HttpRequestBase request = new RequestTranslator().fromJsonString(
+                    Maps.<String, String>newHashMap(),
+                    TestResource.validPOSTRequestWithRequestStringAsString());
+
+            EntityUtils.consume(dispatcher.execute(request).getEntity());
+        }
+    }
 }
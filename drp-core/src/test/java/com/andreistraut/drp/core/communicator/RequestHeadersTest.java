@@ -0,0 +1,118 @@
+package com.andreistraut.drp.core.communicator;
+
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestHeadersTest {
+
+    @Test
+    public void testNettyHeaders() {
+        HttpHeaders headers = new DefaultHttpHeaders()
+                .add("Accept", "text/html")
+                .add("accept", "application/json")
+                .add(HttpHeaderNames.HOST, "localhost");
+
+        assertHeaders(RequestHeaders.of(headers));
+    }
+
+    @Test
+    public void testHttpComponentsHeaders() {
+        Header[] headers = {
+            new BasicHeader("Accept", "text/html"),
+            new BasicHeader(" accept ", "application/json"),
+            new BasicHeader("Host", "localhost")
+        };
+
+        assertHeaders(RequestHeaders.of(headers));
+    }
+
+    @Test
+    public void testHttpComponentsMessage() {
+        HttpGet request = new HttpGet("http://localhost");
+        RequestHeaders headers = RequestHeaders.of(request);
+
+        Assert.assertTrue(headers.isEmpty());
+
+        request.addHeader("Accept", "text/html");
+        request.addHeader("ACCEPT", "application/json");
+        request.addHeader("host", "localhost");
+
+        assertHeaders(headers);
+    }
+
+    @Test
+    public void testMultiValuedMap() {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Accept", Arrays.asList("text/html", "application/json"));
+        headers.put("Host", Collections.singletonList("localhost"));
+
+        assertHeaders(RequestHeaders.ofMultiValued(headers));
+    }
+
+    @Test
+    public void testSingleValuedMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("Content-Type", "application/json");
+
+        RequestHeaders headers = RequestHeaders.of(map);
+
+        Assert.assertEquals("application/json", headers.get("content-type"));
+        Assert.assertEquals("application/json", headers.get(HttpHeaderNames.CONTENT_TYPE));
+        Assert.assertEquals(Collections.singletonList("application/json"), headers.getAll(" CONTENT-TYPE "));
+        Assert.assertNull(headers.get("Content"));
+        Assert.assertEquals("Content-Type", headers.getEntry("content-type").getKey());
+    }
+
+    @Test
+    public void testNullAndEmpty() {
+        Assert.assertTrue(RequestHeaders.of((HttpHeaders) null).isEmpty());
+        Assert.assertTrue(RequestHeaders.of((Map<String, String>) null).isEmpty());
+        Assert.assertTrue(RequestHeaders.ofMultiValued(null).isEmpty());
+        Assert.assertNull(RequestHeaders.empty().get(HttpHeaderNames.HOST));
+        Assert.assertTrue(RequestHeaders.empty().getAll(HttpHeaderNames.HOST).isEmpty());
+    }
+
+    @Test
+    public void testNameEquals() {
+        Assert.assertTrue(RequestHeaders.nameEquals("Content-Length", HttpHeaderNames.CONTENT_LENGTH));
+        Assert.assertTrue(RequestHeaders.nameEquals(" content-length\t", "CONTENT-LENGTH "));
+        Assert.assertFalse(RequestHeaders.nameEquals("Content-Length", "Content-Type"));
+        Assert.assertFalse(RequestHeaders.nameEquals("Content", "Content-Type"));
+        Assert.assertFalse(RequestHeaders.nameEquals(null, "Content-Type"));
+    }
+
+    /**
+     * Expects two Accept headers, text/html first, and one Host header, named in any case
+     */
+    private static void assertHeaders(RequestHeaders headers) {
+        Assert.assertFalse(headers.isEmpty());
+        Assert.assertEquals("text/html", headers.get("accept"));
+        Assert.assertEquals("text/html", headers.get(" ACCEPT "));
+        Assert.assertEquals(Arrays.asList("text/html", "application/json"), headers.getAll(HttpHeaderNames.ACCEPT));
+        Assert.assertEquals("localhost", headers.get(HttpHeaderNames.HOST));
+        Assert.assertTrue(headers.contains("Host"));
+        Assert.assertFalse(headers.contains(HttpHeaderNames.AUTHORIZATION));
+        Assert.assertNull(headers.get(HttpHeaderNames.AUTHORIZATION));
+        Assert.assertTrue(headers.getAll(HttpHeaderNames.AUTHORIZATION).isEmpty());
+        Assert.assertEquals("text/html", headers.getEntry(" ACCEPT ").getValue());
+        Assert.assertEquals("accept", headers.getEntry(" ACCEPT ").getKey().trim().toLowerCase());
+        Assert.assertNull(headers.getEntry(HttpHeaderNames.AUTHORIZATION));
+
+        List<String> values = new ArrayList<>();
+        headers.forEach((name, value) -> values.add(name.trim().toLowerCase() + "=" + value));
+
+        Assert.assertEquals(Arrays.asList("accept=text/html", "accept=application/json", "host=localhost"), values);
+    }
+}
@@ -3,11 +3,14 @@ package com.andreistraut.drp.core.communicator;
 import com.andreistraut.drp.core.TestResource;
 import com.andreistraut.drp.core.model.Fields;
 import com.andreistraut.drp.core.model.Messages;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -19,18 +22,27 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.util.CharsetUtil;
 
+import java.io.ByteArrayInputStream;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.Rule;
@@ -137,6 +149,28 @@ public class RequestTranslatorTest {
         Assert.assertTrue("Expected header was not present", header.isPresent());
     }
 
+    @Test
+    public void testGetHeaderKeepsTheRequestHeaderName() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        HttpRequestBase request = new HttpGet(TestResource.TEST_ENDPOINT);
+        request.setHeader("Content-Type", HttpHeaderValues.APPLICATION_JSON.toString());
+
+        Optional<Map.Entry<String, String>> header = translator.getHeader(request, " content-type ");
+        Assert.assertTrue("Expected header was not present", header.isPresent());
+        Assert.assertEquals("Content-Type", header.get().getKey());
+        Assert.assertEquals(HttpHeaderValues.APPLICATION_JSON.toString(), header.get().getValue());
+
+        FullHttpRequest nettyRequest = new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, TestResource.TEST_ENDPOINT);
+        nettyRequest.headers().add("X-Custom-Header", "first").add("x-custom-header", "second");
+
+        header = translator.getHeader(nettyRequest, "X-CUSTOM-HEADER");
+        Assert.assertTrue("Expected header was not present", header.isPresent());
+        Assert.assertEquals("X-Custom-Header", header.get().getKey());
+        Assert.assertEquals("first", header.get().getValue());
+    }
+
     @Test
     public void testGetHeaderHttpRequestBaseAbsentHeader() throws Exception {
         RequestTranslator translator = new RequestTranslator();
@@ -1797,4 +1831,337 @@ public class RequestTranslatorTest {
         Assert.assertTrue("Request body did not match expected value",
                 translator.getBody(translatedRequest).get().equals(TestResource.REQUEST_STRING_VALUE));
     }
+
+    @Test
+    public void testFromJsonStringJsonObjectPOSTRequestRequestWithContentJsonObject() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject request = new JsonObject();
+        JsonObject headersJson = new JsonObject();
+        headersJson.addProperty(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.APPLICATION_JSON.toString());
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.POST.name());
+        request.add(Fields.HEADERS, headersJson);
+        request.add(Fields.REQUEST, nestedRequestContent());
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(new DefaultHttpHeaders(), request.toString());
+
+        Assert.assertTrue("Request body did not match expected value",
+                translator.getBody(translatedRequest).get().equals(nestedRequestContent().toString()));
+    }
+
+    @Test
+    public void testFromJsonStringJsonObjectPOSTRequestRequestBeforeHeaders() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        /** The content type is only known once the headers that follow the request are read */
+        JsonObject request = new JsonObject();
+        JsonObject headersJson = new JsonObject();
+        headersJson.addProperty(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.APPLICATION_JSON.toString());
+        request.add(Fields.REQUEST, nestedRequestContent());
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.POST.name());
+        request.add(Fields.HEADERS, headersJson);
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(new DefaultHttpHeaders(), request.toString());
+
+        Assert.assertTrue("Request body did not match expected value",
+                translator.getBody(translatedRequest).get().equals(nestedRequestContent().toString()));
+    }
+
+    @Test
+    public void testFromJsonStringJsonObjectPOSTRequestFormUrlEncodedRequestBeforeHeaders() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject content = new JsonObject();
+        content.addProperty(TestResource.REQUEST_PARAM_NAME, "Param1 Value&");
+
+        JsonObject request = new JsonObject();
+        JsonObject headersJson = new JsonObject();
+        headersJson.addProperty(HttpHeaderNames.CONTENT_TYPE.toString(),
+                HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString());
+        request.add(Fields.REQUEST, content);
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.POST.name());
+        request.add(Fields.HEADERS, headersJson);
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(new DefaultHttpHeaders(), request.toString());
+
+        Assert.assertTrue("Request body did not match expected value",
+                translator.getBody(translatedRequest).get().equals(TestResource.REQUEST_PARAM_NAME + "=Param1+Value%26"));
+    }
+
+    @Test
+    public void testFromJsonStringJsonObjectUppercaseFieldNames() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject request = new JsonObject();
+        JsonObject headersJson = new JsonObject();
+        headersJson.addProperty(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.APPLICATION_JSON.toString());
+        request.addProperty(Fields.ENDPOINT.toUpperCase(), TestResource.TEST_ENDPOINT);
+        request.addProperty(" " + Fields.METHOD.toUpperCase(), HttpMethod.POST.name());
+        request.add(Fields.HEADERS.toUpperCase(), headersJson);
+        request.add(Fields.REQUEST.toUpperCase(), nestedRequestContent());
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(new DefaultHttpHeaders(), request.toString());
+
+        Assert.assertTrue("Expected POST HTTP Method, but was not",
+                HttpMethod.valueOf(translatedRequest.getMethod()).equals(HttpMethod.POST));
+        Assert.assertTrue("Expected header value present, but was not",
+                translator.getHeaderValue(translatedRequest, HttpHeaderNames.CONTENT_TYPE.toString()).isPresent());
+        Assert.assertTrue("Request body did not match expected value",
+                translator.getBody(translatedRequest).get().equals(nestedRequestContent().toString()));
+    }
+
+    @Test
+    public void testFromJsonStringJsonObjectMalformed() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+        String request = TestResource.validPOSTRequestWithRequestStringAsString();
+
+        exception.expect(JsonSyntaxException.class);
+        translator.fromJsonString(new DefaultHttpHeaders(), request.substring(0, request.length() - 1));
+    }
+
+    @Test
+    public void testFromJsonStreamJsonObjectPOSTRequestRequestWithContentJsonObject() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject request = new JsonObject();
+        JsonObject headersJson = new JsonObject();
+        headersJson.addProperty(HttpHeaderNames.CONTENT_TYPE.toString(), HttpHeaderValues.APPLICATION_JSON.toString());
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.POST.name());
+        request.add(Fields.HEADERS, headersJson);
+        request.add(Fields.REQUEST, nestedRequestContent());
+
+        HttpRequestBase translatedRequest = translator.fromJsonStream(Maps.newHashMap(),
+                new ByteArrayInputStream(request.toString().getBytes(CharsetUtil.UTF_8)));
+
+        Assert.assertTrue("Request body did not match expected value",
+                translator.getBody(translatedRequest).get().equals(nestedRequestContent().toString()));
+    }
+
+    @Test
+    public void testTranslateJsonStringValid() throws Exception {
+        TranslationResult result = RequestTranslator.getInstance().translateJsonString(
+                new DefaultHttpHeaders(), TestResource.validPOSTRequestWithRequestStringAsString());
+
+        Assert.assertTrue("Expected valid translation, but was not", result.isValid());
+        Assert.assertTrue("Expected translated request, but was absent", result.getRequest().isPresent());
+        Assert.assertTrue("Expected no validation errors, but there were",
+                result.getErrorLog().getValidationErrors().isEmpty());
+    }
+
+    @Test
+    public void testTranslateJsonStringInvalid() throws Exception {
+        TranslationResult result = RequestTranslator.getInstance().translateJsonString(
+                new DefaultHttpHeaders(), TestResource.requestWithoutMethodProperty());
+
+        Assert.assertTrue("Expected invalid translation, but was not", !result.isValid());
+        Assert.assertTrue("Expected no translated request, but was present", !result.getRequest().isPresent());
+        Assert.assertTrue("Expected validation error was not present",
+                result.getErrorLog().getValidationErrors().contains(Messages.HTTP_METHOD_MUST_BE_SPECIFIED));
+
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage(Messages.HTTP_METHOD_MUST_BE_SPECIFIED);
+        result.getRequestOrThrow();
+    }
+
+    @Test
+    public void testTranslateJsonStringUnsupportedMethod() throws Exception {
+        JsonObject request = new JsonObject();
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.DELETE.name());
+
+        TranslationResult result = RequestTranslator.getInstance().translateJsonString(
+                new DefaultHttpHeaders(), request.toString());
+
+        Assert.assertTrue("Expected invalid translation, but was not", !result.isValid());
+        Assert.assertTrue("Expected validation error was not present",
+                result.getErrorLog().getValidationErrors().contains(Messages.ONLY_GET_POST_PUT_METHODS_SUPPORTED));
+    }
+
+    @Test
+    public void testTranslateStringUrlInvalid() throws Exception {
+        TranslationResult result = RequestTranslator.getInstance().translateStringUrl(Maps.newHashMap(), "INVALID_URL");
+
+        Assert.assertTrue("Expected invalid translation, but was not", !result.isValid());
+        Assert.assertTrue("Expected validation error was not present",
+                result.getErrorLog().getValidationErrors().contains(Messages.ENDPOINT_URL_MUST_BE_VALID));
+    }
+
+    @Test
+    public void testSharedInstanceConcurrentTranslations() throws Exception {
+        RequestTranslator translator = RequestTranslator.getInstance();
+        String validRequest = TestResource.validPOSTRequestWithRequestStringAsString();
+        String invalidRequest = TestResource.requestWithInvalidEndpointValue();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> outcomes = Lists.newArrayList();
+
+        try {
+            for (int i = 0; i < 400; i++) {
+                boolean valid = i % 2 == 0;
+
+                outcomes.add(executor.submit(() -> {
+                    TranslationResult result = translator.translateJsonString(
+                            Maps.newHashMap(), valid ? validRequest : invalidRequest);
+
+                    /** Each result must only carry the errors of its own translation */
+                    return valid
+                            ? result.isValid() && result.getErrorLog().getValidationErrors().isEmpty()
+                            : !result.isValid() && result.getErrorLog().getValidationErrors().size() == 1;
+                }));
+            }
+
+            for (Future<Boolean> outcome : outcomes) {
+                Assert.assertTrue("Translation result was mixed up with another translation",
+                        outcome.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTranslateJsonArrayStreamKeepsOrderAndErrors() throws Exception {
+        String batch = "[" + TestResource.validPOSTRequestWithRequestStringAsString() + ","
+                + TestResource.requestWithoutMethodProperty() + ", null, "
+                + TestResource.validGETRequestWithRequestJsonObjectAsString() + "]";
+
+        List<TranslationResult> results = RequestTranslator.getInstance().translateJsonArrayStream(Maps.newHashMap(),
+                new ByteArrayInputStream(batch.getBytes(CharsetUtil.UTF_8)));
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(HttpMethod.POST.name(), results.get(0).getRequestOrThrow().getMethod());
+        Assert.assertTrue("Expected validation error was not present",
+                results.get(1).getErrorLog().getValidationErrors().contains(Messages.HTTP_METHOD_MUST_BE_SPECIFIED));
+        Assert.assertEquals(Messages.JSON_OBJECT_EXPECTED_EMPTY_FOUND, results.get(2).getErrorMessage());
+        Assert.assertEquals(HttpMethod.GET.name(), results.get(3).getRequestOrThrow().getMethod());
+    }
+
+    @Test
+    public void testTranslateJsonArrayStringEmpty() throws Exception {
+        Assert.assertTrue(RequestTranslator.getInstance().translateJsonArrayString(Maps.newHashMap(), "[]").isEmpty());
+        Assert.assertTrue(RequestTranslator.getInstance().translateJsonArrayString(Maps.newHashMap(), "").isEmpty());
+    }
+
+    @Test
+    public void testTranslateJsonArrayStringNotArray() throws Exception {
+        exception.expect(IllegalStateException.class);
+        RequestTranslator.getInstance().translateJsonArrayString(Maps.newHashMap(),
+                TestResource.validPOSTRequestWithRequestStringAsString());
+    }
+
+    @Test
+    public void testTranslateJsonArrayStringMalformed() throws Exception {
+        String batch = "[" + TestResource.validPOSTRequestWithRequestStringAsString() + ",";
+
+        exception.expect(JsonSyntaxException.class);
+        RequestTranslator.getInstance().translateJsonArrayString(Maps.newHashMap(), batch);
+    }
+
+    @Test
+    public void testGetHeaderValueHttpRequestBaseRepeatedHeader() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        HttpRequestBase request = new HttpGet(TestResource.TEST_ENDPOINT);
+        request.addHeader(HttpHeaderNames.ACCEPT.toString(), HttpHeaderValues.APPLICATION_JSON.toString());
+        request.addHeader("Accept", HttpHeaderValues.TEXT_PLAIN.toString());
+
+        Optional<String> headerValue = translator.getHeaderValue(request, HttpHeaderNames.ACCEPT.toString());
+        Assert.assertEquals(HttpHeaderValues.APPLICATION_JSON.toString(), headerValue.get());
+        Assert.assertTrue(translator.getHeader(request, "ACCEPT").isPresent());
+    }
+
+    @Test
+    public void testFromJsonStringKeepsRepeatedRequestHeaders() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject request = new JsonObject();
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.GET.name());
+
+        HttpHeaders headers = new DefaultHttpHeaders()
+                .add(HttpHeaderNames.ACCEPT, HttpHeaderValues.APPLICATION_JSON)
+                .add(HttpHeaderNames.ACCEPT, HttpHeaderValues.TEXT_PLAIN)
+                .add(HttpHeaderNames.CONTENT_LENGTH, 0);
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(headers, request.toString());
+
+        Assert.assertEquals(2, translatedRequest.getHeaders(HttpHeaderNames.ACCEPT.toString()).length);
+        Assert.assertFalse(translator.getHeader(translatedRequest, HttpHeaderNames.CONTENT_LENGTH.toString()).isPresent());
+    }
+
+    @Test
+    public void testFromJsonStringEnvelopeContentTypeAnyCase() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject request = new JsonObject();
+        JsonObject headersJson = new JsonObject();
+        headersJson.addProperty("Content-Type", HttpHeaderValues.APPLICATION_JSON.toString());
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.POST.name());
+        request.add(Fields.HEADERS, headersJson);
+        request.add(Fields.REQUEST, nestedRequestContent());
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(Maps.newHashMap(), request.toString());
+
+        Assert.assertEquals(nestedRequestContent().toString(), translator.getBody(translatedRequest).get());
+    }
+
+    @Test
+    public void testFromJsonStringFormUrlEncodedFieldsAreJoined() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject request = new JsonObject();
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.POST.name());
+        request.add(Fields.REQUEST, TestResource.requestContentAsKeyValue());
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(Maps.newHashMap(), request.toString());
+        HttpEntity entity = ((HttpEntityEnclosingRequest) translatedRequest).getEntity();
+
+        Assert.assertEquals(TestResource.REQUEST_PARAM_NAME + "=" + TestResource.REQUEST_PARAM_VALUE
+                + "&Param2Name=Param2Value&Param3Name=Param3Value&Param4Name=Param4Value",
+                EntityUtils.toString(entity));
+        Assert.assertEquals(HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString(),
+                ContentType.get(entity).getMimeType());
+    }
+
+    @Test
+    public void testFromJsonStringJsonObjectPOSTRequestUtf8WithCharsetParameter() throws Exception {
+        RequestTranslator translator = new RequestTranslator();
+
+        JsonObject content = new JsonObject();
+        content.addProperty("Text", "ăîșț 日本語");
+
+        JsonObject request = new JsonObject();
+        JsonObject headersJson = new JsonObject();
+        headersJson.addProperty(HttpHeaderNames.CONTENT_TYPE.toString(), " Application/JSON; charset=UTF-8");
+        request.addProperty(Fields.ENDPOINT, TestResource.TEST_ENDPOINT);
+        request.addProperty(Fields.METHOD, HttpMethod.POST.name());
+        request.add(Fields.HEADERS, headersJson);
+        request.add(Fields.REQUEST, content);
+
+        HttpRequestBase translatedRequest = translator.fromJsonString(Maps.newHashMap(), request.toString());
+        HttpEntity entity = ((HttpEntityEnclosingRequest) translatedRequest).getEntity();
+
+        Assert.assertArrayEquals(content.toString().getBytes(CharsetUtil.UTF_8), EntityUtils.toByteArray(entity));
+    }
+
+    private JsonObject nestedRequestContent() {
+        JsonObject content = TestResource.requestContentAsKeyValue();
+        JsonArray values = new JsonArray();
+        values.add(new JsonPrimitive(1.50));
+        values.add(JsonNull.INSTANCE);
+        values.add(new JsonPrimitive(true));
+
+        JsonObject nested = new JsonObject();
+        nested.add("Values", values);
+        nested.addProperty("Text", "Quoted \"value\"");
+        content.add("Nested", nested);
+
+        return content;
+    }
 }
@@ -0,0 +1,41 @@
+package com.andreistraut.drp.core.communicator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RouteTimeoutsTest {
+
+    private static final RouteTimeouts DEFAULTS = new RouteTimeouts(1_000, 2_000, 3_000, 0);
+
+    @Test
+    public void testParseOverridesGivenTimeouts() {
+        RouteTimeouts timeouts = RouteTimeouts.parse("read=300000, total=600000", DEFAULTS);
+
+        Assert.assertEquals(1_000, timeouts.getConnectTimeoutMillis());
+        Assert.assertEquals(2_000, timeouts.getConnectionRequestTimeoutMillis());
+        Assert.assertEquals(300_000, timeouts.getSocketTimeoutMillis());
+        Assert.assertEquals(600_000, timeouts.getDeadlineMillis());
+    }
+
+    @Test
+    public void testParseAllTimeouts() {
+        RouteTimeouts timeouts = RouteTimeouts.parse("connect=10,POOL=20,read=30,total=40", DEFAULTS);
+
+        Assert.assertEquals("connect=10,pool=20,read=30,total=40", timeouts.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownTimeout() {
+        RouteTimeouts.parse("write=100", DEFAULTS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidValue() {
+        RouteTimeouts.parse("read=soon", DEFAULTS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTimeout() {
+        RouteTimeouts.parse("total=-1", DEFAULTS);
+    }
+}
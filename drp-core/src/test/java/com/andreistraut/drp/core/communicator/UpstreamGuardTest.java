@@ -0,0 +1,181 @@
+package com.andreistraut.drp.core.communicator;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UpstreamGuardTest {
+
+    private static final String FAILING_HOST = "http://failing.example.com:8089";
+    private static final String HEALTHY_HOST = "http://healthy.example.com:8089";
+
+    private ExecutorService executor;
+    private DispatcherSettings settings;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        settings = new DispatcherSettings();
+        settings.setCircuitBreakerWindowSize(4);
+        settings.setCircuitBreakerMinimumCalls(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOpenBreakerFailsFastForItsHostOnly() throws Exception {
+        settings.setCircuitBreakerEnabled(true);
+        AtomicInteger calls = new AtomicInteger();
+
+        UpstreamGuard guard = new UpstreamGuard(request -> {
+            calls.incrementAndGet();
+
+            if (request.getURI().toString().startsWith(FAILING_HOST)) {
+                throw new ConnectException("Connection refused");
+            }
+
+            return response(HttpStatus.SC_OK);
+        }, settings);
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                guard.execute(new HttpGet(FAILING_HOST + "/resource"));
+                Assert.fail("Expected the upstream failure");
+            } catch (ConnectException e) {
+                /** Expected */
+            }
+        }
+
+        try {
+            guard.execute(new HttpGet(FAILING_HOST + "/resource"));
+            Assert.fail("Expected the circuit breaker to be open");
+        } catch (UpstreamUnavailableException e) {
+            Assert.assertTrue(e.getRetryAfterSeconds() > 0);
+        }
+
+        Assert.assertEquals(HttpStatus.SC_OK,
+                guard.execute(new HttpGet(HEALTHY_HOST + "/resource")).getStatusLine().getStatusCode());
+        Assert.assertEquals(5, calls.get());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, guard.getCircuitBreakers().get(FAILING_HOST).getState());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, guard.getCircuitBreakers().get(HEALTHY_HOST).getState());
+    }
+
+    @Test
+    public void testServerErrorsCountAsFailures() throws Exception {
+        settings.setCircuitBreakerEnabled(true);
+        UpstreamGuard guard = new UpstreamGuard(request -> response(HttpStatus.SC_BAD_GATEWAY), settings);
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(HttpStatus.SC_BAD_GATEWAY,
+                    guard.execute(new HttpGet(FAILING_HOST)).getStatusLine().getStatusCode());
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, guard.getCircuitBreakers().get(FAILING_HOST).getState());
+    }
+
+    @Test
+    public void testBulkheadRefusesExcessRequests() throws Exception {
+        settings.setMaxRequestsPerHost(2);
+        CountDownLatch released = new CountDownLatch(1);
+
+        UpstreamGuard guard = new UpstreamGuard(request -> {
+            if (request.getURI().toString().startsWith(FAILING_HOST)) {
+                await(released);
+            }
+
+            return response(HttpStatus.SC_OK);
+        }, settings);
+
+        Future<HttpResponse> first = executor.submit(() -> guard.execute(new HttpGet(FAILING_HOST)));
+        Future<HttpResponse> second = executor.submit(() -> guard.execute(new HttpGet(FAILING_HOST)));
+        awaitInFlight(guard, FAILING_HOST, 2);
+
+        try {
+            guard.execute(new HttpGet(FAILING_HOST));
+            Assert.fail("Expected the bulkhead to be full");
+        } catch (UpstreamUnavailableException e) {
+            Assert.assertEquals(0, e.getRetryAfterSeconds());
+        }
+
+        /** Other hosts have their own bulkheads */
+        Assert.assertEquals(HttpStatus.SC_OK, guard.execute(new HttpGet(HEALTHY_HOST)).getStatusLine().getStatusCode());
+
+        released.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(0, guard.getInFlightCount(FAILING_HOST));
+        Assert.assertEquals(HttpStatus.SC_OK, guard.execute(new HttpGet(FAILING_HOST)).getStatusLine().getStatusCode());
+        Assert.assertTrue("Expected no circuit breakers", guard.getCircuitBreakers().isEmpty());
+    }
+
+    @Test
+    public void testHostsAreBounded() throws Exception {
+        settings.setCircuitBreakerEnabled(true);
+        UpstreamGuard guard = new UpstreamGuard(request -> {
+            if (request.getURI().toString().startsWith(FAILING_HOST)) {
+                throw new ConnectException("Connection refused");
+            }
+
+            return response(HttpStatus.SC_OK);
+        }, settings);
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                guard.execute(new HttpGet(FAILING_HOST));
+                Assert.fail("Expected the upstream failure");
+            } catch (ConnectException e) {
+                /** Expected */
+            }
+        }
+
+        for (int i = 0; i < UpstreamGuard.MAX_HOSTS * 2; i++) {
+            guard.execute(new HttpGet("http://host" + i + ".example.com:8089/resource"));
+        }
+
+        Assert.assertTrue(guard.getHostCount() <= UpstreamGuard.MAX_HOSTS);
+
+        /** Hosts with an open circuit breaker are remembered, and the most recent hosts are kept */
+        Assert.assertEquals(CircuitBreaker.State.OPEN, guard.getCircuitBreakers().get(FAILING_HOST).getState());
+        Assert.assertTrue(guard.getCircuitBreakers().containsKey(
+                "http://host" + (UpstreamGuard.MAX_HOSTS * 2 - 1) + ".example.com:8089"));
+    }
+
+    private static void awaitInFlight(UpstreamGuard guard, String host, int calls) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+
+        while (guard.getInFlightCount(host) < calls) {
+            Assert.assertTrue("Timed out waiting for upstream calls", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static HttpResponse response(int status) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+    }
+}
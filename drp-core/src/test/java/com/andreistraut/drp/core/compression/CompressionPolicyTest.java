@@ -0,0 +1,54 @@
+package com.andreistraut.drp.core.compression;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompressionPolicyTest {
+
+    @Test
+    public void testDefaultTypes() {
+        CompressionPolicy policy = new CompressionPolicy();
+
+        Assert.assertTrue(policy.isCompressibleType("text/html; charset=UTF-8"));
+        Assert.assertTrue(policy.isCompressibleType("Application/JSON"));
+        Assert.assertTrue(policy.isCompressibleType("application/problem+json"));
+        Assert.assertTrue(policy.isCompressibleType("application/atom+xml"));
+        Assert.assertFalse(policy.isCompressibleType("image/png"));
+        Assert.assertFalse(policy.isCompressibleType("application/octet-stream"));
+        Assert.assertFalse(policy.isCompressibleType(null));
+    }
+
+    @Test
+    public void testMinimumSize() {
+        CompressionPolicy policy = new CompressionPolicy(6, 1024, CompressionPolicy.DEFAULT_MEDIA_TYPES);
+
+        Assert.assertFalse(policy.isCompressible("application/json", 1023));
+        Assert.assertTrue(policy.isCompressible("application/json", 1024));
+        Assert.assertTrue("Bodies of unknown size are compressed", policy.isCompressible("application/json", -1));
+        Assert.assertFalse(policy.isCompressible(null, 4096));
+    }
+
+    @Test
+    public void testParseMediaTypes() {
+        CompressionPolicy policy = new CompressionPolicy(1, 0,
+                CompressionPolicy.parseMediaTypes(" image/svg+xml, ,text/* "));
+
+        Assert.assertEquals(Arrays.asList("image/svg+xml", "text/*"), policy.getMediaTypes());
+        Assert.assertTrue(policy.isCompressibleType("image/svg+xml"));
+        Assert.assertTrue(policy.isCompressibleType("text/csv"));
+        Assert.assertFalse(policy.isCompressibleType("application/json"));
+        Assert.assertFalse(policy.isCompressibleType("texts/plain"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        new CompressionPolicy(10, 0, CompressionPolicy.DEFAULT_MEDIA_TYPES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoMediaTypes() {
+        new CompressionPolicy(6, 0, Collections.<String>emptyList());
+    }
+}
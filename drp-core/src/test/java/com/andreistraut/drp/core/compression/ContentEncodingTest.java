@@ -0,0 +1,83 @@
+package com.andreistraut.drp.core.compression;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentEncodingTest {
+
+    private static final String BODY = "{\"message\":\"" + new String(new char[2048]).replace('\0', 'a') + "\"}";
+
+    @Test
+    public void testNegotiate() {
+        Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate, br"));
+        Assert.assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+        Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("x-gzip"));
+        Assert.assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+        Assert.assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, *"));
+        Assert.assertNull(ContentEncoding.negotiate("br, identity"));
+        Assert.assertNull(ContentEncoding.negotiate(null));
+    }
+
+    @Test
+    public void testAccepts() {
+        Assert.assertTrue(ContentEncoding.accepts("GZIP", ContentEncoding.GZIP));
+        Assert.assertTrue(ContentEncoding.accepts("br, *;q=0.1", ContentEncoding.DEFLATE));
+        Assert.assertTrue(ContentEncoding.accepts("br", "br"));
+        Assert.assertFalse(ContentEncoding.accepts("gzip; q=0", ContentEncoding.GZIP));
+        Assert.assertFalse(ContentEncoding.accepts("deflate", ContentEncoding.GZIP));
+        Assert.assertFalse(ContentEncoding.accepts(null, ContentEncoding.GZIP));
+    }
+
+    @Test
+    public void testCompressedBodiesAreDecoded() throws IOException {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+
+        for (String coding : new String[]{ContentEncoding.GZIP, ContentEncoding.DEFLATE}) {
+            byte[] compressed = ContentEncoding.compress(body, coding, 9);
+            Assert.assertTrue(compressed.length < body.length / 10);
+
+            HttpResponse response = response(compressed, coding);
+            Assert.assertEquals(coding, ContentEncoding.getContentEncoding(response));
+
+            ContentEncoding.decode(response);
+
+            Assert.assertNull(ContentEncoding.getContentEncoding(response));
+            Assert.assertNull(response.getFirstHeader(HttpHeaders.CONTENT_LENGTH));
+            Assert.assertEquals(BODY, EntityUtils.toString(response.getEntity(), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void testUnsupportedCodingIsLeftAsIs() throws IOException {
+        HttpResponse response = response(new byte[]{1, 2, 3}, "br");
+
+        ContentEncoding.decode(response);
+
+        Assert.assertEquals("br", ContentEncoding.getContentEncoding(response));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, EntityUtils.toByteArray(response.getEntity()));
+        Assert.assertNull(ContentEncoding.getContentEncoding(response(new byte[0], "identity")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompressUnsupportedCoding() {
+        ContentEncoding.compress(new byte[16], "br", 6);
+    }
+
+    private static HttpResponse response(byte[] body, String coding) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        response.setEntity(new ByteArrayEntity(body));
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, coding);
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(body.length));
+
+        return response;
+    }
+}
@@ -0,0 +1,340 @@
+package com.andreistraut.drp.core.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.conn.DnsResolver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingDnsResolverTest {
+
+    private static final String HOST = "upstream.example.com";
+    private static final String UNKNOWN_HOST = "unknown.example.com";
+    private static final String SLOW_HOST = "slow.example.com";
+    private static final long TTL_MILLIS = 10_000;
+    private static final long NEGATIVE_TTL_MILLIS = 1_000;
+    private static final long LOOKUP_TIMEOUT_MILLIS = 5_000;
+
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private volatile byte lastOctet = 1;
+    private volatile CountDownLatch release;
+    private volatile boolean failing;
+    private volatile Thread lookupThread;
+    private final CountDownLatch slowRelease = new CountDownLatch(1);
+    private CachingDnsResolver resolver;
+
+    /**
+     * Stands in for a DNS server: resolves HOST to 10.0.0.x, where x changes between tests, SLOW_HOST once it is
+     * released, and nothing else
+     */
+    private final DnsResolver source = host -> {
+        lookups.incrementAndGet();
+        lookupThread = Thread.currentThread();
+
+        if (SLOW_HOST.equals(host)) {
+            try {
+                slowRelease.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return new InetAddress[]{InetAddress.getByAddress(host, new byte[]{10, 0, 0, 99})};
+        }
+
+        if (release != null) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (failing || !HOST.equalsIgnoreCase(host)) {
+            throw new UnknownHostException(host);
+        }
+
+        return new InetAddress[]{InetAddress.getByAddress(host, new byte[]{10, 0, 0, lastOctet})};
+    };
+
+    @Before
+    public void setUp() {
+        resolver = new CachingDnsResolver(source, TTL_MILLIS, NEGATIVE_TTL_MILLIS, true, LOOKUP_TIMEOUT_MILLIS,
+                now::get);
+    }
+
+    @After
+    public void tearDown() {
+        slowRelease.countDown();
+        resolver.close();
+    }
+
+    @Test
+    public void testHitsWithinTtl() throws Exception {
+        Assert.assertEquals("10.0.0.1", resolver.resolve(HOST)[0].getHostAddress());
+
+        advanceMillis(TTL_MILLIS / 2);
+        lastOctet = 2;
+
+        Assert.assertEquals("10.0.0.1", resolver.resolve(HOST)[0].getHostAddress());
+        Assert.assertEquals("10.0.0.1", resolver.resolve(HOST.toUpperCase())[0].getHostAddress());
+        Assert.assertEquals(1, lookups.get());
+        Assert.assertEquals(1, resolver.getMissCount());
+        Assert.assertEquals(2, resolver.getHitCount());
+        Assert.assertEquals(1, resolver.getEntryCount());
+        Assert.assertEquals(1, resolver.getLookupLatency().getCount());
+    }
+
+    @Test
+    public void testExpiredAddressesAreLookedUpAgain() throws Exception {
+        resolver.resolve(HOST);
+
+        advanceMillis(TTL_MILLIS);
+        lastOctet = 2;
+
+        Assert.assertEquals("10.0.0.2", resolver.resolve(HOST)[0].getHostAddress());
+        Assert.assertEquals(2, lookups.get());
+        Assert.assertEquals(2, resolver.getMissCount());
+    }
+
+    @Test
+    public void testRefreshAhead() throws Exception {
+        resolver.resolve(HOST);
+
+        advanceMillis((long) (TTL_MILLIS * CachingDnsResolver.REFRESH_AHEAD_FRACTION));
+        lastOctet = 2;
+
+        /** The cached addresses are returned at once, and replaced in the background */
+        Assert.assertEquals("10.0.0.1", resolver.resolve(HOST)[0].getHostAddress());
+        awaitCompletedLookups(2);
+        Assert.assertEquals("10.0.0.2", resolver.resolve(HOST)[0].getHostAddress());
+
+        /** The refreshed addresses live a whole time to live from the refresh */
+        advanceMillis(TTL_MILLIS / 2);
+        lastOctet = 3;
+
+        Assert.assertEquals("10.0.0.2", resolver.resolve(HOST)[0].getHostAddress());
+        Assert.assertEquals(1, resolver.getMissCount());
+        Assert.assertEquals(1, resolver.getRefreshCount());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsAddressesUntilExpiry() throws Exception {
+        resolver.resolve(HOST);
+
+        advanceMillis((long) (TTL_MILLIS * CachingDnsResolver.REFRESH_AHEAD_FRACTION));
+        failing = true;
+
+        Assert.assertEquals("10.0.0.1", resolver.resolve(HOST)[0].getHostAddress());
+        awaitCompletedLookups(2);
+        Assert.assertEquals(1, resolver.getFailureCount());
+
+        Assert.assertEquals("10.0.0.1", resolver.resolve(HOST)[0].getHostAddress());
+
+        advanceMillis(TTL_MILLIS);
+
+        try {
+            resolver.resolve(HOST);
+            Assert.fail("Expected the host not to resolve once its addresses expired");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    @Test
+    public void testNoRefreshAheadWhenDisabled() throws Exception {
+        resolver.close();
+        resolver = new CachingDnsResolver(source, TTL_MILLIS, NEGATIVE_TTL_MILLIS, false, LOOKUP_TIMEOUT_MILLIS,
+                now::get);
+
+        resolver.resolve(HOST);
+        advanceMillis(TTL_MILLIS - 1);
+        resolver.resolve(HOST);
+
+        Assert.assertEquals(1, lookups.get());
+        Assert.assertEquals(0, resolver.getRefreshCount());
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception {
+        assertUnknown(UNKNOWN_HOST);
+        advanceMillis(NEGATIVE_TTL_MILLIS / 2);
+        assertUnknown(UNKNOWN_HOST);
+
+        Assert.assertEquals(1, lookups.get());
+        Assert.assertEquals(1, resolver.getNegativeHitCount());
+        Assert.assertEquals(1, resolver.getFailureCount());
+        Assert.assertEquals(1, resolver.getLookupLatency().getCount());
+
+        advanceMillis(NEGATIVE_TTL_MILLIS);
+        assertUnknown(UNKNOWN_HOST);
+
+        Assert.assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testNoNegativeCachingWhenDisabled() throws Exception {
+        resolver.close();
+        resolver = new CachingDnsResolver(source, TTL_MILLIS, 0, true, LOOKUP_TIMEOUT_MILLIS, now::get);
+
+        assertUnknown(UNKNOWN_HOST);
+        assertUnknown(UNKNOWN_HOST);
+
+        Assert.assertEquals(2, lookups.get());
+        Assert.assertEquals(0, resolver.getEntryCount());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLookup() throws Exception {
+        release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<InetAddress[]>> resolved = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                resolved.add(callers.submit(() -> resolver.resolve(HOST)));
+            }
+
+            awaitLookups(1);
+            release.countDown();
+
+            for (Future<InetAddress[]> addresses : resolved) {
+                Assert.assertEquals("10.0.0.1", addresses.get(5, TimeUnit.SECONDS)[0].getHostAddress());
+            }
+
+            Assert.assertEquals(1, lookups.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMissesAreLookedUpOnTheCallingThread() throws Exception {
+        resolver.resolve(HOST);
+
+        Assert.assertSame(Thread.currentThread(), lookupThread);
+    }
+
+    @Test
+    public void testSlowHostDoesNotHoldUpOthers() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<InetAddress[]>> slow = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                slow.add(callers.submit(() -> resolver.resolve(SLOW_HOST)));
+            }
+
+            awaitLookups(1);
+
+            Assert.assertEquals("10.0.0.1", resolver.resolve(HOST)[0].getHostAddress());
+
+            slowRelease.countDown();
+            for (Future<InetAddress[]> addresses : slow) {
+                Assert.assertEquals("10.0.0.99", addresses.get(5, TimeUnit.SECONDS)[0].getHostAddress());
+            }
+
+            Assert.assertEquals(2, lookups.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaitForAnotherLookupIsBounded() throws Exception {
+        resolver.close();
+        resolver = new CachingDnsResolver(source, TTL_MILLIS, NEGATIVE_TTL_MILLIS, true, 50, now::get);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+
+        try {
+            Future<InetAddress[]> first = callers.submit(() -> resolver.resolve(SLOW_HOST));
+            awaitLookups(1);
+
+            try {
+                resolver.resolve(SLOW_HOST);
+                Assert.fail("Expected the wait for the first lookup to time out");
+            } catch (UnknownHostException expected) {
+                Assert.assertTrue(expected.getMessage().contains("Timed out"));
+            }
+
+            slowRelease.countDown();
+            Assert.assertEquals("10.0.0.99", first.get(5, TimeUnit.SECONDS)[0].getHostAddress());
+            Assert.assertEquals(1, lookups.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResolveAsync() throws Exception {
+        release = new CountDownLatch(1);
+        CompletableFuture<InetAddress[]> addresses = resolver.resolveAsync(HOST);
+
+        Assert.assertFalse(addresses.isDone());
+        release.countDown();
+        Assert.assertEquals("10.0.0.1", addresses.get(5, TimeUnit.SECONDS)[0].getHostAddress());
+
+        CompletableFuture<InetAddress[]> cached = resolver.resolveAsync(HOST);
+        Assert.assertTrue(cached.isDone());
+
+        try {
+            resolver.resolveAsync(UNKNOWN_HOST).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the host not to resolve");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof UnknownHostException);
+        }
+    }
+
+    @Test
+    public void testReturnedAddressesAreCopies() throws Exception {
+        resolver.resolve(HOST)[0] = null;
+
+        Assert.assertNotNull(resolver.resolve(HOST)[0]);
+    }
+
+    private void assertUnknown(String host) {
+        try {
+            resolver.resolve(host);
+            Assert.fail(String.format("Expected %s not to resolve", host));
+        } catch (UnknownHostException expected) {
+            Assert.assertTrue(expected.getMessage().contains(host));
+        }
+    }
+
+    private void advanceMillis(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private void awaitLookups(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lookups.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        Assert.assertEquals(count, lookups.get());
+    }
+
+    /**
+     * Wait for lookups to be stored, as the latency of a lookup is recorded once it is
+     */
+    private void awaitCompletedLookups(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resolver.getLookupLatency().getCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        Assert.assertEquals(count, resolver.getLookupLatency().getCount());
+    }
+}
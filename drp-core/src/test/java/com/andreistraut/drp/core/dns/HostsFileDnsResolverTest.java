@@ -0,0 +1,48 @@
+package com.andreistraut.drp.core.dns;
+
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HostsFileDnsResolverTest {
+
+    private static final String HOSTS = "# Upstreams\n"
+            + "10.0.0.1   api.example.com  API-alias   # primary\n"
+            + "\n"
+            + "   10.0.0.2\tapi.example.com\n"
+            + "::1 ipv6.example.com\n"
+            + "not-an-address ignored.example.com\n"
+            + "10.0.0.3\n";
+
+    @Test
+    public void testResolvesListedNames() throws Exception {
+        HostsFileDnsResolver resolver = new HostsFileDnsResolver(new StringReader(HOSTS), null);
+        InetAddress[] addresses = resolver.resolve("API.example.com");
+
+        Assert.assertEquals(2, addresses.length);
+        Assert.assertEquals("10.0.0.1", addresses[0].getHostAddress());
+        Assert.assertEquals("10.0.0.2", addresses[1].getHostAddress());
+        Assert.assertEquals("api.example.com", addresses[0].getHostName());
+        Assert.assertEquals("10.0.0.1", resolver.resolve("api-alias")[0].getHostAddress());
+        Assert.assertArrayEquals(InetAddress.getByName("::1").getAddress(),
+                resolver.resolve("ipv6.example.com")[0].getAddress());
+        Assert.assertEquals(3, resolver.size());
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testUnlistedNameWithoutFallback() throws Exception {
+        new HostsFileDnsResolver(new StringReader(HOSTS), null).resolve("ignored.example.com");
+    }
+
+    @Test
+    public void testUnlistedNameGoesToFallback() throws Exception {
+        InetAddress fallbackAddress = InetAddress.getByAddress("other.example.com", new byte[]{(byte) 192, (byte) 168, 0, 1});
+        HostsFileDnsResolver resolver = new HostsFileDnsResolver(new StringReader(HOSTS),
+                host -> new InetAddress[]{fallbackAddress});
+
+        Assert.assertSame(fallbackAddress, resolver.resolve("other.example.com")[0]);
+        Assert.assertEquals("10.0.0.1", resolver.resolve("api.example.com")[0].getHostAddress());
+    }
+}
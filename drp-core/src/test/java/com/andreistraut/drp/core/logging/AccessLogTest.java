@@ -0,0 +1,116 @@
+package com.andreistraut.drp.core.logging;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccessLogTest {
+
+    private final Logger logger = Logger.getLogger(AccessLog.LOGGER_NAME);
+    private final List<LogRecord> records = new CopyOnWriteArrayList<>();
+    private final CountDownLatch writerReleased = new CountDownLatch(1);
+    private volatile boolean blockWriter;
+
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            if (blockWriter) {
+                try {
+                    writerReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(handler);
+        logger.setLevel(null);
+    }
+
+    @Test
+    public void testEntriesAreWrittenByTheWriterThread() {
+        AccessLog accessLog = new AccessLog(1, 16);
+
+        AccessLogEntry entry = accessLog.start();
+        entry.setClient("/127.0.0.1:50000");
+        entry.setRequest("GET", "http://example.com/resource");
+        entry.setBytesIn(120);
+        entry.setUpstreamNanos(TimeUnit.MILLISECONDS.toNanos(42));
+        accessLog.finish(entry, 200, 4096);
+        accessLog.close();
+
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals(Level.INFO, records.get(0).getLevel());
+
+        String line = records.get(0).getMessage();
+        Assert.assertTrue(line, line.contains(" client=/127.0.0.1:50000 method=GET upstream=http://example.com/resource"
+                + " status=200 bytes_in=120 bytes_out=4096 duration_ms="));
+        Assert.assertTrue(line, line.endsWith(" upstream_ms=42"));
+    }
+
+    @Test
+    public void testUnsampledRequestsAreNotLogged() {
+        AccessLog accessLog = new AccessLog(0, 16);
+
+        Assert.assertNull(accessLog.start());
+        accessLog.finish(null, 200, 0);
+        accessLog.close();
+
+        logger.setLevel(Level.WARNING);
+        accessLog = new AccessLog(1, 16);
+
+        Assert.assertNull("Expected no entry while the logger is disabled", accessLog.start());
+        accessLog.close();
+
+        Assert.assertTrue(records.isEmpty());
+    }
+
+    @Test
+    public void testEntriesAreDroppedWhenTheWriterFallsBehind() throws InterruptedException {
+        blockWriter = true;
+        AccessLog accessLog = new AccessLog(1, 4);
+
+        /** The writer takes the first entry and blocks writing it */
+        accessLog.finish(accessLog.start(), 200, 0);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (accessLog.getDroppedCount() == 0) {
+            Assert.assertTrue("Timed out waiting for entries to be dropped", System.currentTimeMillis() < deadline);
+            accessLog.finish(accessLog.start(), 200, 0);
+        }
+
+        blockWriter = false;
+        writerReleased.countDown();
+        accessLog.close();
+
+        Assert.assertTrue(accessLog.getDroppedCount() > 0);
+        Assert.assertTrue(records.stream().anyMatch(record -> record.getLevel() == Level.WARNING
+                && record.getMessage().contains("access log entries dropped")));
+    }
+}
@@ -0,0 +1,46 @@
+package com.andreistraut.drp.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testDurationsGoToTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(500));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(7));
+        histogram.record(TimeUnit.MINUTES.toNanos(2));
+
+        long[] counts = histogram.getBucketCounts();
+
+        Assert.assertEquals(LatencyHistogram.BUCKET_BOUNDS_SECONDS.length + 1, counts.length);
+        /** Bucket bounds are inclusive */
+        Assert.assertEquals(2, counts[0]);
+        Assert.assertEquals(1, counts[3]);
+        Assert.assertEquals(1, counts[counts.length - 1]);
+        Assert.assertEquals(4, histogram.getCount());
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(500) + TimeUnit.MILLISECONDS.toNanos(8)
+                + TimeUnit.MINUTES.toNanos(2), histogram.getSumNanos());
+    }
+
+    @Test
+    public void testPercentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        Assert.assertEquals(0, histogram.getPercentileMillis(0.99), 0);
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(400));
+        histogram.record(TimeUnit.MINUTES.toNanos(5));
+
+        Assert.assertEquals(25, histogram.getPercentileMillis(0.5), 0.001);
+        Assert.assertEquals(500, histogram.getPercentileMillis(0.99), 0.001);
+        Assert.assertEquals(60_000, histogram.getPercentileMillis(1), 0.001);
+    }
+}
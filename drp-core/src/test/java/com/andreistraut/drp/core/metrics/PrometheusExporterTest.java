@@ -0,0 +1,99 @@
+package com.andreistraut.drp.core.metrics;
+
+import com.andreistraut.drp.core.communicator.DispatcherSettings;
+import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PrometheusExporterTest {
+
+    private static RequestDispatcher dispatcher;
+
+    @BeforeClass
+    public static void setUpClass() {
+        DispatcherSettings settings = new DispatcherSettings();
+        settings.setResponseCacheMaxBytes(1_048_576);
+        settings.setCoalesceRequests(true);
+        settings.setDnsCacheTtlMillis(60_000);
+
+        dispatcher = new RequestDispatcher(settings);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        dispatcher.close();
+    }
+
+    @Test
+    public void testCountersAndHistograms() {
+        ProxyMetrics metrics = new ProxyMetrics();
+
+        metrics.recordRequestReceived();
+        metrics.recordRequestReceived();
+        metrics.recordResponseSent(200);
+        metrics.recordTranslationFailure();
+        metrics.addBytesReceived(120);
+        metrics.addBytesSent(4096);
+        metrics.upstreamCallStarted();
+        metrics.upstreamCallFinished("http://example.com:80", 200, TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.upstreamCallStarted();
+        metrics.upstreamCallFinished("http://example.com:80", 0, TimeUnit.SECONDS.toNanos(90));
+
+        String scrape = new PrometheusExporter(metrics, dispatcher).scrape();
+
+        Assert.assertTrue(scrape.contains("# TYPE drp_requests_received_total counter\n"));
+        Assert.assertTrue(scrape.contains("drp_requests_received_total 2\n"));
+        Assert.assertTrue(scrape.contains("drp_responses_sent_total{code=\"2xx\"} 1\n"));
+        Assert.assertTrue(scrape.contains("drp_requests_in_flight 1\n"));
+        Assert.assertTrue(scrape.contains("drp_translation_failures_total 1\n"));
+        Assert.assertTrue(scrape.contains("drp_received_bytes_total 120\n"));
+        Assert.assertTrue(scrape.contains("drp_sent_bytes_total 4096\n"));
+        Assert.assertTrue(scrape.contains("drp_upstream_requests_in_flight 0\n"));
+
+        /** Buckets are cumulative */
+        String series = "drp_upstream_request_duration_seconds_bucket{host=\"http://example.com:80\",code=\"2xx\",";
+        Assert.assertTrue(scrape.contains(series + "le=\"0.025\"} 0\n"));
+        Assert.assertTrue(scrape.contains(series + "le=\"0.05\"} 1\n"));
+        Assert.assertTrue(scrape.contains(series + "le=\"+Inf\"} 1\n"));
+        Assert.assertTrue(scrape.contains(
+                "drp_upstream_request_duration_seconds_count{host=\"http://example.com:80\",code=\"error\"} 1\n"));
+        Assert.assertTrue(scrape.contains(
+                "drp_upstream_request_duration_seconds_sum{host=\"http://example.com:80\",code=\"error\"} 90.0\n"));
+    }
+
+    @Test
+    public void testDispatcherGauges() {
+        String scrape = new PrometheusExporter(new ProxyMetrics(), dispatcher).scrape();
+
+        Assert.assertTrue(scrape.contains("drp_upstream_connections{state=\"leased\"} 0\n"));
+        Assert.assertTrue(scrape.contains("drp_dispatches{state=\"queued\"} 0\n"));
+        Assert.assertTrue(scrape.contains("drp_cache_lookups_total{result=\"hit\"} 0\n"));
+        Assert.assertTrue(scrape.contains("drp_coalesced_requests_total 0\n"));
+        Assert.assertFalse("Expected no circuit breaker metrics", scrape.contains("drp_circuit_breaker"));
+        Assert.assertTrue(scrape.contains("drp_dns_lookups_total{result=\"miss\"} 0\n"));
+        Assert.assertTrue(scrape.contains("drp_dns_cache_entries 0\n"));
+        Assert.assertTrue(scrape.contains("drp_dns_resolution_duration_seconds_bucket{le=\"+Inf\"} 0\n"));
+        Assert.assertTrue(scrape.contains("drp_dns_resolution_duration_seconds_count 0\n"));
+    }
+
+    @Test
+    public void testUpstreamHostsAreBounded() {
+        ProxyMetrics metrics = new ProxyMetrics();
+
+        for (int i = 0; i <= ProxyMetrics.MAX_UPSTREAM_HOSTS; i++) {
+            metrics.upstreamCallStarted();
+            metrics.upstreamCallFinished("http://host" + i + ".example.com:80", 200, 1);
+        }
+
+        Assert.assertEquals(ProxyMetrics.MAX_UPSTREAM_HOSTS + 1, metrics.getUpstreamCalls().size());
+        Assert.assertEquals(1, metrics.getUpstreamCalls().get(ProxyMetrics.OTHER_UPSTREAM_HOST).get("2xx").getCount());
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() {
+        Assert.assertEquals("host=\"a\\\\b\\\"c\\nd\"", PrometheusExporter.labels("host", "a\\b\"c\nd"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.andreistraut.drp.local.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Tells cleartext HTTP/2 connections made with prior knowledge, which open with the HTTP/2 connection preface, from
+ * HTTP/1.x ones. It configures the pipeline for either protocol, then removes itself, handing over the bytes it read
+ */
+class Http2PrefaceDetector extends ByteToMessageDecoder {
+
+    private static final ByteBuf CONNECTION_PREFACE = Unpooled.unreleasableBuffer(Http2CodecUtil.connectionPrefaceBuf());
+
+    private final Consumer<ChannelPipeline> http2;
+    private final Consumer<ChannelPipeline> http1;
+
+    /**
+     * @param http2 Adds the HTTP/2 handlers to the end of the pipeline
+     * @param http1 Adds the HTTP/1.x handlers to the end of the pipeline
+     */
+    Http2PrefaceDetector(Consumer<ChannelPipeline> http2, Consumer<ChannelPipeline> http1) {
+        this.http2 = http2;
+        this.http1 = http1;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        int prefaceLength = CONNECTION_PREFACE.readableBytes();
+        int bytes = Math.min(in.readableBytes(), prefaceLength);
+
+        if (ByteBufUtil.equals(in, in.readerIndex(), CONNECTION_PREFACE, CONNECTION_PREFACE.readerIndex(), bytes)) {
+            if (bytes < prefaceLength) {
+                return;
+            }
+
+            http2.accept(ctx.pipeline());
+        } else {
+            http1.accept(ctx.pipeline());
+        }
+
+        ctx.pipeline().remove(this);
+    }
+}
@@ -1,5 +1,30 @@
 package com.andreistraut.drp.local.server;
 
+import com.andreistraut.drp.core.communicator.DispatcherSettings;
+import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import com.andreistraut.drp.core.communicator.RouteTimeouts;
+import com.andreistraut.drp.core.compression.CompressionPolicy;
+import com.andreistraut.drp.core.dns.HostsFileDnsResolver;
+import com.andreistraut.drp.core.logging.AccessLog;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLException;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
 /**
  * Main entry point. This class initializes the parameters for the local HTTP server, and starts it
  */
@@ -7,20 +32,225 @@ public final class LocalHttpServer {
 
     private static final int DEFAULT_LISTEN_PORT = 8089;
 
-    public static void main(String[] args) throws InterruptedException, IllegalArgumentException, NumberFormatException {
+    private static final String EPOLL_OPTION = "--epoll";
+    private static final String WORKERS_OPTION = "--workers=";
+    private static final String STREAM_OPTION = "--stream";
+    private static final String MAX_REQUEST_SIZE_OPTION = "--max-request-size=";
+    private static final String CACHE_SIZE_OPTION = "--cache-size=";
+    private static final String CACHE_DIRECTORY_OPTION = "--cache-dir=";
+    private static final String CACHE_DISK_SIZE_OPTION = "--cache-disk-size=";
+    private static final String COALESCE_OPTION = "--coalesce";
+    private static final String CIRCUIT_BREAKER_OPTION = "--circuit-breaker";
+    private static final String MAX_REQUESTS_PER_HOST_OPTION = "--max-requests-per-host=";
+    private static final String BATCH_CONCURRENCY_OPTION = "--batch-concurrency=";
+    private static final String MAX_BATCH_SIZE_OPTION = "--max-batch-size=";
+    private static final String TIMEOUT_OPTION = "--timeout=";
+    private static final String DEADLINE_OPTION = "--deadline=";
+    private static final String ROUTE_TIMEOUT_OPTION = "--route-timeout=";
+    private static final String ACCESS_LOG_SAMPLE_OPTION = "--access-log-sample=";
+    private static final String HTTP2_OPTION = "--http2";
+    private static final String HTTP2_UPSTREAM_OPTION = "--http2-upstream";
+    private static final String TLS_CERTIFICATE_OPTION = "--tls-cert=";
+    private static final String TLS_KEY_OPTION = "--tls-key=";
+    private static final String COMPRESS_OPTION = "--compress";
+    private static final String COMPRESS_LEVEL_OPTION = "--compress-level=";
+    private static final String COMPRESS_MIN_SIZE_OPTION = "--compress-min-size=";
+    private static final String COMPRESS_TYPES_OPTION = "--compress-types=";
+    private static final String DNS_TTL_OPTION = "--dns-ttl=";
+    private static final String DNS_NEGATIVE_TTL_OPTION = "--dns-negative-ttl=";
+    private static final String HOSTS_FILE_OPTION = "--hosts-file=";
+
+    public static void main(String[] args)
+            throws InterruptedException, IllegalArgumentException, NumberFormatException, SSLException {
         int port = DEFAULT_LISTEN_PORT;
+        int workerThreads = LocalHttpServerRunner.DEFAULT_WORKER_THREADS;
+        boolean useEpoll = false;
+        boolean streamResponses = false;
+        int maxRequestSize = LocalHttpServerInitializer.DEFAULT_MAX_REQUEST_SIZE;
+        DispatcherSettings dispatcherSettings = new DispatcherSettings();
+        Map<String, String> routeTimeouts = new LinkedHashMap<>();
+        double accessLogSampleRate = AccessLog.DEFAULT_SAMPLE_RATE;
+        boolean http2 = false;
+        String tlsCertificate = null;
+        String tlsKey = null;
+        boolean compress = false;
+        int compressLevel = CompressionPolicy.DEFAULT_LEVEL;
+        int compressMinSize = CompressionPolicy.DEFAULT_MIN_SIZE_BYTES;
+        List<String> compressTypes = CompressionPolicy.DEFAULT_MEDIA_TYPES;
+        String hostsFile = null;
+
+        // Get the options and the port, if specified, and correct
+        for (String arg : args) {
+            if (arg.equals(EPOLL_OPTION)) {
+                useEpoll = true;
+            } else if (arg.equals(STREAM_OPTION)) {
+                streamResponses = true;
+            } else if (arg.equals(HTTP2_OPTION)) {
+                http2 = true;
+            } else if (arg.equals(HTTP2_UPSTREAM_OPTION)) {
+                dispatcherSettings.setHttp2Enabled(true);
+            } else if (arg.startsWith(TLS_CERTIFICATE_OPTION)) {
+                tlsCertificate = arg.substring(TLS_CERTIFICATE_OPTION.length());
+            } else if (arg.startsWith(TLS_KEY_OPTION)) {
+                tlsKey = arg.substring(TLS_KEY_OPTION.length());
+            } else if (arg.equals(COMPRESS_OPTION)) {
+                compress = true;
+            } else if (arg.startsWith(COMPRESS_LEVEL_OPTION)) {
+                compressLevel = Integer.parseInt(arg.substring(COMPRESS_LEVEL_OPTION.length()));
+            } else if (arg.startsWith(COMPRESS_MIN_SIZE_OPTION)) {
+                compressMinSize = Integer.parseInt(arg.substring(COMPRESS_MIN_SIZE_OPTION.length()));
+            } else if (arg.startsWith(COMPRESS_TYPES_OPTION)) {
+                compressTypes = CompressionPolicy.parseMediaTypes(arg.substring(COMPRESS_TYPES_OPTION.length()));
+            } else if (arg.startsWith(DNS_TTL_OPTION)) {
+                dispatcherSettings.setDnsCacheTtlMillis(Integer.parseInt(arg.substring(DNS_TTL_OPTION.length())));
+            } else if (arg.startsWith(DNS_NEGATIVE_TTL_OPTION)) {
+                dispatcherSettings.setDnsNegativeTtlMillis(
+                        Integer.parseInt(arg.substring(DNS_NEGATIVE_TTL_OPTION.length())));
+            } else if (arg.startsWith(HOSTS_FILE_OPTION)) {
+                hostsFile = arg.substring(HOSTS_FILE_OPTION.length());
+            } else if (arg.equals(COALESCE_OPTION)) {
+                dispatcherSettings.setCoalesceRequests(true);
+            } else if (arg.equals(CIRCUIT_BREAKER_OPTION)) {
+                dispatcherSettings.setCircuitBreakerEnabled(true);
+            } else if (arg.startsWith(MAX_REQUESTS_PER_HOST_OPTION)) {
+                int maxRequestsPerHost = Integer.parseInt(arg.substring(MAX_REQUESTS_PER_HOST_OPTION.length()));
+
+                if (maxRequestsPerHost <= 0) {
+                    throw new IllegalArgumentException("Maximum requests per host must be an integer larger than 0");
+                }
+
+                dispatcherSettings.setMaxRequestsPerHost(maxRequestsPerHost);
+            } else if (arg.startsWith(BATCH_CONCURRENCY_OPTION)) {
+                dispatcherSettings.setBatchConcurrency(
+                        Integer.parseInt(arg.substring(BATCH_CONCURRENCY_OPTION.length())));
+            } else if (arg.startsWith(MAX_BATCH_SIZE_OPTION)) {
+                dispatcherSettings.setMaxBatchSize(Integer.parseInt(arg.substring(MAX_BATCH_SIZE_OPTION.length())));
+            } else if (arg.startsWith(TIMEOUT_OPTION)) {
+                dispatcherSettings.setTimeoutMillis(Integer.parseInt(arg.substring(TIMEOUT_OPTION.length())));
+            } else if (arg.startsWith(DEADLINE_OPTION)) {
+                dispatcherSettings.setDeadlineMillis(Integer.parseInt(arg.substring(DEADLINE_OPTION.length())));
+            } else if (arg.startsWith(ROUTE_TIMEOUT_OPTION)) {
+                String[] route = arg.substring(ROUTE_TIMEOUT_OPTION.length()).split("=", 2);
+
+                if (route.length != 2) {
+                    throw new IllegalArgumentException("Route timeouts must be given as PATTERN=TIMEOUTS");
+                }
+
+                routeTimeouts.put(route[0], route[1]);
+            } else if (arg.startsWith(ACCESS_LOG_SAMPLE_OPTION)) {
+                accessLogSampleRate = Double.parseDouble(arg.substring(ACCESS_LOG_SAMPLE_OPTION.length()));
+
+                if (accessLogSampleRate < 0 || accessLogSampleRate > 1) {
+                    throw new IllegalArgumentException("Access log sample rate must be between 0 and 1");
+                }
+            } else if (arg.startsWith(MAX_REQUEST_SIZE_OPTION)) {
+                maxRequestSize = Integer.parseInt(arg.substring(MAX_REQUEST_SIZE_OPTION.length()));
+
+                if (maxRequestSize <= 0) {
+                    throw new IllegalArgumentException("Maximum request size must be an integer larger than 0");
+                }
+            } else if (arg.startsWith(CACHE_SIZE_OPTION)) {
+                long cacheSize = Long.parseLong(arg.substring(CACHE_SIZE_OPTION.length()));
+
+                if (cacheSize <= 0) {
+                    throw new IllegalArgumentException("Cache size must be an integer larger than 0");
+                }
+
+                dispatcherSettings.setResponseCacheMaxBytes(cacheSize);
+            } else if (arg.startsWith(CACHE_DIRECTORY_OPTION)) {
+                dispatcherSettings.setResponseCacheDirectory(arg.substring(CACHE_DIRECTORY_OPTION.length()));
+            } else if (arg.startsWith(CACHE_DISK_SIZE_OPTION)) {
+                long cacheDiskSize = Long.parseLong(arg.substring(CACHE_DISK_SIZE_OPTION.length()));
+
+                if (cacheDiskSize <= 0) {
+                    throw new IllegalArgumentException("Disk cache size must be an integer larger than 0");
+                }
+
+                dispatcherSettings.setResponseCacheDiskMaxBytes(cacheDiskSize);
+            } else if (arg.startsWith(WORKERS_OPTION)) {
+                workerThreads = Integer.parseInt(arg.substring(WORKERS_OPTION.length()));
+
+                if (workerThreads <= 0) {
+                    throw new IllegalArgumentException("Worker thread count must be an integer larger than 0");
+                }
+            } else {
+                port = Integer.parseInt(arg);
+
+                if (port <= 0) {
+                    throw new IllegalArgumentException("Port number must be an integer larger than 0");
+                }
+            }
+        }
 
-        // Get the port, if specified, and correct
-        if (args.length > 0) {
-            port = Integer.parseInt(args[0]);
+        /** Route timeouts default to the global ones, whatever the order of the options */
+        for (Map.Entry<String, String> route : routeTimeouts.entrySet()) {
+            dispatcherSettings.addRouteTimeouts(route.getKey(),
+                    RouteTimeouts.parse(route.getValue(), dispatcherSettings.getDefaultTimeouts()));
+        }
 
-            if (port <= 0) {
-                throw new IllegalArgumentException("Port number must be an integer larger than 0");
+        /** Hosts the file does not list are still resolved by the system */
+        if (hostsFile != null) {
+            try {
+                dispatcherSettings.setDnsResolver(
+                        new HostsFileDnsResolver(Paths.get(hostsFile), SystemDefaultDnsResolver.INSTANCE));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(String.format("Could not read the hosts file %s", hostsFile), e);
             }
         }
 
-        LocalHttpServerInitializer initializer = new LocalHttpServerInitializer();
+        /** The handler relays compressed upstream bodies as they are to the clients that accept them */
+        dispatcherSettings.setDecompressResponses(false);
+
+        RequestDispatcher.configureSharedInstance(dispatcherSettings);
+        AccessLog.configureSharedInstance(accessLogSampleRate, AccessLog.DEFAULT_QUEUE_CAPACITY);
+
+        if ((tlsCertificate == null) != (tlsKey == null)) {
+            throw new IllegalArgumentException("TLS needs both a certificate chain and a private key");
+        }
+
+        SslContext sslContext = tlsCertificate != null ? createSslContext(tlsCertificate, tlsKey, http2) : null;
+
+        /** The policy is validated even if compression is off, so mistyped options are not silently ignored */
+        CompressionPolicy compressionPolicy = new CompressionPolicy(compressLevel, compressMinSize, compressTypes);
+
+        LocalHttpServerInitializer initializer = new LocalHttpServerInitializer(
+                streamResponses, maxRequestSize, http2, sslContext, compress ? compressionPolicy : null);
+
+        new LocalHttpServerRunner(port, initializer, workerThreads, useEpoll).run();
+    }
+
+    /**
+     * Create the server TLS context. With HTTP/2, it offers h2 and http/1.1 through ALPN, which needs either OpenSSL
+     * (netty-tcnative) or the Jetty ALPN extension of the JDK; without them, TLS connections are served over HTTP/1.1
+     * only
+     */
+    private static SslContext createSslContext(String certificate, String key, boolean http2) throws SSLException {
+        SslContextBuilder builder = SslContextBuilder.forServer(new File(certificate), new File(key));
+
+        if (!http2) {
+            return builder.build();
+        }
+
+        SslProvider provider = OpenSsl.isAlpnSupported() ? SslProvider.OPENSSL : SslProvider.JDK;
 
-        new LocalHttpServerRunner(port, initializer).run();
+        try {
+            return SslContextBuilder.forServer(new File(certificate), new File(key))
+                    .sslProvider(provider)
+                    /** HTTP/2 forbids the cipher suites of earlier TLS versions */
+                    .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(
+                            ApplicationProtocolConfig.Protocol.ALPN,
+                            ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                            ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                            ApplicationProtocolNames.HTTP_2,
+                            ApplicationProtocolNames.HTTP_1_1))
+                    .build();
+        } catch (RuntimeException | LinkageError e) {
+            /** Without OpenSSL, this version of Netty looks for the Jetty ALPN extension of the JDK */
+            Logger.getLogger(LocalHttpServer.class.getName()).log(Level.WARNING,
+                    String.format("ALPN is not available, TLS connections will use HTTP/1.1 only: %s", e.getMessage()));
+
+            return builder.build();
+        }
     }
 }
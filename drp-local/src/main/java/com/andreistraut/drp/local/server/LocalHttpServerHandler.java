@@ -1,38 +1,66 @@
 package com.andreistraut.drp.local.server;
 
+import com.andreistraut.drp.core.communicator.BatchDispatcher;
+import com.andreistraut.drp.core.communicator.BatchResult;
+import com.andreistraut.drp.core.communicator.FileRegionEntity;
 import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import com.andreistraut.drp.core.communicator.RequestHeaders;
 import com.andreistraut.drp.core.communicator.RequestTranslator;
+import com.andreistraut.drp.core.communicator.TranslationResult;
+import com.andreistraut.drp.core.communicator.UpstreamUnavailableException;
+import com.andreistraut.drp.core.compression.ContentEncoding;
+import com.andreistraut.drp.core.logging.AccessLog;
+import com.andreistraut.drp.core.logging.AccessLogEntry;
+import com.andreistraut.drp.core.metrics.PrometheusExporter;
+import com.andreistraut.drp.core.metrics.ProxyMetrics;
 import com.andreistraut.drp.core.model.Messages;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gson.JsonSyntaxException;
-import com.google.gson.stream.MalformedJsonException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 
 import java.util.List;
 import java.util.Map;
 
 import static io.netty.handler.codec.http.HttpVersion.*;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHttpResponse;
 
@@ -41,6 +69,9 @@ import org.apache.http.message.BasicHttpResponse;
  */
 public class LocalHttpServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
+    private final boolean streamResponses;
+    private final boolean fileRegions;
+
     private final List<String> allowedHttpMethods = Lists.newArrayList(
             HttpMethod.HEAD.name(),
             HttpMethod.OPTIONS.name(),
@@ -57,16 +88,121 @@ public class LocalHttpServerHandler extends SimpleChannelInboundHandler<FullHttp
             HttpHeaderNames.ACCESS_CONTROL_ALLOW_METHODS.toString(),
             "X-Requested-With");
 
+    /** Upstream connection-specific headers, which must not be relayed to the client */
+    private final List<String> hopByHopHttpHeaders = Lists.newArrayList(
+            HttpHeaderNames.CONNECTION.toString(),
+            "Keep-Alive",
+            HttpHeaderNames.PROXY_AUTHENTICATE.toString(),
+            HttpHeaderNames.PROXY_AUTHORIZATION.toString(),
+            HttpHeaderNames.TE.toString(),
+            HttpHeaderNames.TRAILER.toString(),
+            HttpHeaderNames.TRANSFER_ENCODING.toString(),
+            HttpHeaderNames.UPGRADE.toString(),
+            HttpHeaderNames.CONTENT_LENGTH.toString());
+
     private final String ACCESS_CONTROL_MAX_AGE_DURATION = "3600";
 
+    /** Path at which GET requests are answered with the proxy metrics, in the Prometheus text format */
+    public static final String METRICS_PATH = "/metrics";
+
+    /** Path at which POST requests carry a Json array of envelopes, dispatched in parallel */
+    public static final String BATCH_PATH = "/batch";
+
+    /** Size of the reads when copying upstream bodies into response buffers */
+    private static final int CONTENT_READ_SIZE = 8192;
+
+    /** Reading from a connection pauses while this many pipelined requests are awaiting their responses */
+    private static final int MAX_PIPELINED_REQUESTS = 16;
+
+    /**
+     * Pipelined requests may complete out of order, but responses must be written in request order. Responses are
+     * parked here, keyed by request sequence number, until all earlier ones have been written. Only ever accessed
+     * from the channel's event loop
+     */
+    private final Map<Integer, PendingResponse> pendingResponses = Maps.<Integer, PendingResponse>newHashMap();
+    private int nextRequestSequence = 0;
+
+    /** Access log entries of the sampled requests, keyed by request sequence number. Only accessed from the event loop */
+    private final Map<Integer, AccessLogEntry> accessLogEntries = Maps.<Integer, AccessLogEntry>newHashMap();
+    private int nextResponseSequence = 0;
+
+    /** The streamed response currently being written; later responses wait until it completes */
+    private StreamedResponse activeStream;
+
+    public LocalHttpServerHandler() {
+        this(false);
+    }
+
+    /**
+     * @param streamResponses Whether to relay upstream response bodies chunk by chunk, with chunked transfer encoding,
+     * instead of reading them fully into memory first
+     */
+    public LocalHttpServerHandler(boolean streamResponses) {
+        this(streamResponses, true);
+    }
+
+    /**
+     * @param streamResponses Whether to relay upstream response bodies chunk by chunk, with chunked transfer encoding,
+     * instead of reading them fully into memory first
+     * @param fileRegions     Whether bodies read from files may be written as file regions. They cannot be when the
+     * connection is encrypted, or carries HTTP/2 frames
+     */
+    public LocalHttpServerHandler(boolean streamResponses, boolean fileRegions) {
+        this.streamResponses = streamResponses;
+        this.fileRegions = fileRegions;
+    }
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) {
         ctx.flush();
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (activeStream != null) {
+            activeStream.writabilityChanged();
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (activeStream != null) {
+            activeStream.cancel();
+        }
+
+        releasePendingResponses();
+        accessLogEntries.clear();
+        super.channelInactive(ctx);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws IOException {
 
+        int sequence = nextRequestSequence++;
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+
+        if (nextRequestSequence - nextResponseSequence >= MAX_PIPELINED_REQUESTS) {
+            ctx.channel().config().setAutoRead(false);
+        }
+
+        ProxyMetrics.getInstance().recordRequestReceived();
+
+        AccessLogEntry accessLogEntry = AccessLog.getInstance().start();
+        if (accessLogEntry != null) {
+            accessLogEntry.setClient(String.valueOf(ctx.channel().remoteAddress()));
+            accessLogEntry.setBytesIn(request.content().readableBytes());
+            accessLogEntries.put(sequence, accessLogEntry);
+        }
+
+        String path = new QueryStringDecoder(request.uri()).path();
+
+        if (request.method() == HttpMethod.GET && METRICS_PATH.equals(path)) {
+            writeMetrics(ctx, sequence, keepAlive);
+            return;
+        }
+
         if (request.method() != HttpMethod.POST && request.method() != HttpMethod.PUT && request.method() != HttpMethod.OPTIONS) {
             HttpResponse response = new BasicHttpResponse(
                     new ProtocolVersion(
@@ -75,29 +211,89 @@ public class LocalHttpServerHandler extends SimpleChannelInboundHandler<FullHttp
                             request.protocolVersion().minorVersion()),
                     HttpResponseStatus.FORBIDDEN.code(),
                     String.format(Messages.UNSUPPORTED_HTTP_METHOD, HttpMethod.POST.toString(), HttpMethod.PUT.toString()));
-            writeResponse(request, response, ctx);
+            writeResponse(ctx, sequence, keepAlive, response);
             return;
         }
 
-        Optional<Map<String, String>> requestHeaders = parseHeaders(request);
-        Optional<String> requestContent = parseContent(request);
+        RequestHeaders requestHeaders = RequestHeaders.of(request.headers());
+        Optional<InputStream> requestContent = parseContent(request);
 
         if (request.method() == HttpMethod.OPTIONS) {
             HttpResponse response = buildResponseFrame(request, HttpResponseStatus.OK, null);
-            writeResponse(request, response, ctx);
+            writeResponse(ctx, sequence, keepAlive, response);
+
+            return;
+        }
 
+        if (request.method() == HttpMethod.POST && BATCH_PATH.equals(path)) {
+            dispatchBatch(ctx, sequence, keepAlive, request, requestHeaders, requestContent.orElse(null));
             return;
         }
 
         try {
-            HttpRequestBase proxyRequest = new RequestTranslator().fromJsonString(
-                    requestHeaders.orElse(null), requestContent.orElse(null));
-            HttpResponse response = RequestDispatcher.dispatch(proxyRequest);
-            response = addCorsHeadersToResponse(response);
+            TranslationResult translation = RequestTranslator.getInstance().translateJsonStream(
+                    requestHeaders, requestContent.orElse(null));
+
+            if (!translation.isValid()) {
+                ProxyMetrics.getInstance().recordTranslationFailure();
+                Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.WARNING,
+                        String.format("Invalid request content submitted: %s", translation.getErrorMessage()));
+
+                HttpResponse response = buildResponseFrame(
+                        request,
+                        HttpResponseStatus.FORBIDDEN,
+                        translation.getErrorMessage());
+                writeResponse(ctx, sequence, keepAlive, response);
+                return;
+            }
+
+            HttpRequestBase proxyRequest = translation.getRequestOrThrow();
+
+            if (accessLogEntry != null) {
+                accessLogEntry.setRequest(proxyRequest.getMethod(), proxyRequest.getURI().toString());
+            }
+
+            /** The client may give its deadline on the envelope request, as well as among the forwarded headers */
+            String clientTimeout = request.headers().get(RequestDispatcher.REQUEST_TIMEOUT_HEADER);
+            if (clientTimeout != null) {
+                proxyRequest.setHeader(RequestDispatcher.REQUEST_TIMEOUT_HEADER, clientTimeout);
+            }
 
-            writeResponse(request, response, ctx);
+            String acceptEncoding = request.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+            long dispatchStartNanos = System.nanoTime();
+
+            /** The upstream call and the response body read happen on a dispatcher thread, never on the event loop */
+            if (streamResponses && request.protocolVersion().equals(HTTP_1_1)) {
+                RequestDispatcher.getInstance()
+                        .executeAsync(proxyRequest, response -> {
+                            recordUpstreamTime(accessLogEntry, dispatchStartNanos);
+                            streamResponse(ctx, sequence, keepAlive,
+                                    addCorsHeadersToResponse(decodeUnlessAccepted(response, acceptEncoding)));
+                            return null;
+                        })
+                        .whenComplete((ignored, error) -> {
+                            if (error != null) {
+                                ctx.executor().execute(() -> writeDispatchError(ctx, sequence, keepAlive, request, error));
+                            }
+                        });
+            } else {
+                RequestDispatcher.getInstance()
+                        .executeAsync(proxyRequest, response -> {
+                            recordUpstreamTime(accessLogEntry, dispatchStartNanos);
+                            return toPendingResponse(ctx,
+                                    addCorsHeadersToResponse(decodeUnlessAccepted(response, acceptEncoding)), keepAlive);
+                        })
+                        .whenComplete((response, error) -> ctx.executor().execute(() -> {
+                            if (error == null) {
+                                writeResponse(ctx, sequence, response);
+                            } else {
+                                writeDispatchError(ctx, sequence, keepAlive, request, error);
+                            }
+                        }));
+            }
 
-        } catch (JsonSyntaxException | MalformedJsonException e) {
+        } catch (JsonSyntaxException e) {
+            ProxyMetrics.getInstance().recordTranslationFailure();
             Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.WARNING,
                     String.format("Invalid JSON Object submitted, exception raised: %s", e.getMessage()), e);
 
@@ -105,9 +301,10 @@ public class LocalHttpServerHandler extends SimpleChannelInboundHandler<FullHttp
                     request,
                     HttpResponseStatus.FORBIDDEN,
                     String.format("Invalid JSON Object submitted: %s", e.getMessage()));
-            writeResponse(request, response, ctx);
+            writeResponse(ctx, sequence, keepAlive, response);
 
         } catch (IllegalStateException | IllegalArgumentException e) {
+            ProxyMetrics.getInstance().recordTranslationFailure();
             Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.WARNING,
                     String.format("Invalid request content submitted: %s", e.getMessage()), e);
 
@@ -115,7 +312,7 @@ public class LocalHttpServerHandler extends SimpleChannelInboundHandler<FullHttp
                     request,
                     HttpResponseStatus.FORBIDDEN,
                     e.getMessage());
-            writeResponse(request, response, ctx);
+            writeResponse(ctx, sequence, keepAlive, response);
 
         } catch (IOException e) {
             Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.SEVERE,
@@ -125,46 +322,459 @@ public class LocalHttpServerHandler extends SimpleChannelInboundHandler<FullHttp
                     request,
                     HttpResponseStatus.INTERNAL_SERVER_ERROR,
                     String.format("%s: %s", e.getClass().getSimpleName(), e.getMessage()));
-            writeResponse(request, response, ctx);
+            writeResponse(ctx, sequence, keepAlive, response);
         }
     }
 
-    private Optional<Map<String, String>> parseHeaders(FullHttpRequest message) {
+    /**
+     * Dispatch a Json array of envelopes, a limited number at a time, and answer with their results: one Json object
+     * per line, written as each request completes, if the client accepts NDJSON, or else a Json array in request
+     * order once all have completed. Requests that fail do not fail the batch, but get an error result
+     */
+    private void dispatchBatch(ChannelHandlerContext ctx, int sequence, boolean keepAlive, FullHttpRequest request,
+            RequestHeaders requestHeaders, InputStream requestContent) throws IOException {
 
-        Map<String, String> headers = Maps.<String, String>newHashMap();
+        List<TranslationResult> batch;
 
-        if (!message.headers().isEmpty()) {
-            for (Map.Entry<String, String> header : message.headers()) {
-                headers.put(header.getKey(), header.getValue());
-            }
+        try {
+            batch = RequestTranslator.getInstance().translateJsonArrayStream(requestHeaders, requestContent);
+        } catch (JsonSyntaxException e) {
+            ProxyMetrics.getInstance().recordTranslationFailure();
+            Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.WARNING,
+                    String.format("Invalid JSON Array submitted, exception raised: %s", e.getMessage()), e);
+
+            writeResponse(ctx, sequence, keepAlive, buildResponseFrame(
+                    request,
+                    HttpResponseStatus.FORBIDDEN,
+                    String.format("Invalid JSON Array submitted: %s", e.getMessage())));
+            return;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            ProxyMetrics.getInstance().recordTranslationFailure();
+            Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.WARNING,
+                    String.format("Invalid batch content submitted: %s", e.getMessage()), e);
+
+            writeResponse(ctx, sequence, keepAlive, buildResponseFrame(request, HttpResponseStatus.FORBIDDEN, e.getMessage()));
+            return;
         }
 
-        return Optional.ofNullable(headers);
+        int maxBatchSize = RequestDispatcher.getInstance().getSettings().getMaxBatchSize();
+        if (batch.size() > maxBatchSize) {
+            writeResponse(ctx, sequence, keepAlive, buildResponseFrame(
+                    request,
+                    HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE,
+                    String.format(Messages.BATCH_TOO_LARGE, maxBatchSize)));
+            return;
+        }
+
+        /** The client deadline applies to each request of the batch */
+        String clientTimeout = request.headers().get(RequestDispatcher.REQUEST_TIMEOUT_HEADER);
+        if (clientTimeout != null) {
+            batch.forEach(translation -> translation.getRequest().ifPresent(proxyRequest ->
+                    proxyRequest.setHeader(RequestDispatcher.REQUEST_TIMEOUT_HEADER, clientTimeout)));
+        }
+
+        BatchDispatcher batchDispatcher = new BatchDispatcher(RequestDispatcher.getInstance());
+        String accept = request.headers().get(HttpHeaderNames.ACCEPT);
+        boolean ndjson = accept != null && accept.contains(BatchResult.NDJSON_CONTENT_TYPE);
+
+        /** Results are read into strings on the dispatcher threads; the event loop only writes them */
+        if (ndjson && request.protocolVersion().equals(HTTP_1_1)) {
+            DefaultHttpResponse head = new DefaultHttpResponse(HTTP_1_1, HttpResponseStatus.OK);
+            copyResponseHeaders(buildResponseFrame(request, HttpResponseStatus.OK, null), head.headers());
+            head.headers().set(HttpHeaderNames.CONTENT_TYPE, BatchResult.NDJSON_CONTENT_TYPE);
+            HttpUtil.setTransferEncodingChunked(head, true);
+
+            StreamedResponse streamed = new StreamedResponse(head);
+            writeResponse(ctx, sequence, keepAlive, streamed);
+
+            batchDispatcher
+                    .dispatch(batch, result -> {
+                        ByteBuf line = Unpooled.copiedBuffer(result.toJson() + "\n", CharsetUtil.UTF_8);
+                        ctx.executor().execute(() -> streamed.push(ctx, new DefaultHttpContent(line)));
+                    })
+                    .whenComplete((ignored, error) -> ctx.executor().execute(
+                            () -> streamed.push(ctx, LastHttpContent.EMPTY_LAST_CONTENT)));
+            return;
+        }
+
+        batchDispatcher
+                .dispatchAll(batch)
+                .whenComplete((results, error) -> ctx.executor().execute(() -> {
+                    if (error != null) {
+                        writeDispatchError(ctx, sequence, keepAlive, request, error);
+                        return;
+                    }
+
+                    try {
+                        HttpResponse response = buildResponseFrame(request, HttpResponseStatus.OK, null);
+                        response.setEntity(new StringEntity(
+                                ndjson ? BatchResult.toNdjson(results) : BatchResult.toJsonArray(results),
+                                ContentType.create(ndjson ? BatchResult.NDJSON_CONTENT_TYPE
+                                        : HttpHeaderValues.APPLICATION_JSON.toString(), CharsetUtil.UTF_8)));
+                        response.setHeader(response.getEntity().getContentType());
+
+                        writeResponse(ctx, sequence, keepAlive, response);
+                    } catch (IOException e) {
+                        writeDispatchError(ctx, sequence, keepAlive, request, e);
+                    }
+                }));
+    }
+
+    /**
+     * Answer with the proxy metrics and the shared dispatcher gauges. Rendering them only reads counters, so it is
+     * done on the event loop
+     */
+    private void writeMetrics(ChannelHandlerContext ctx, int sequence, boolean keepAlive) {
+        String metrics = new PrometheusExporter(ProxyMetrics.getInstance(), RequestDispatcher.getInstance()).scrape();
+
+        FullHttpResponse response = new DefaultFullHttpResponse(
+                HTTP_1_1, HttpResponseStatus.OK, Unpooled.copiedBuffer(metrics, CharsetUtil.UTF_8), false);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, PrometheusExporter.CONTENT_TYPE);
+
+        writeResponse(ctx, sequence, keepAlive, response);
+    }
+
+    /**
+     * Record, on the dispatcher thread, how long the upstream call took. The entry is handed back to the event loop
+     * through its task queue, which makes the time visible there
+     */
+    private static void recordUpstreamTime(AccessLogEntry accessLogEntry, long dispatchStartNanos) {
+        if (accessLogEntry != null) {
+            accessLogEntry.setUpstreamNanos(System.nanoTime() - dispatchStartNanos);
+        }
     }
 
-    private Optional<String> parseContent(FullHttpRequest request) {
+    private void writeDispatchError(ChannelHandlerContext ctx, int sequence, boolean keepAlive,
+            FullHttpRequest request, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+
+        /** Refused upstream calls are expected while a host is down, and logged without their stack trace */
+        if (cause instanceof UpstreamUnavailableException) {
+            Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.WARNING,
+                    String.format("Upstream unavailable: %s", cause.getMessage()));
+        } else {
+            Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.SEVERE,
+                    String.format("Exception raised: %s", cause.getMessage()), cause);
+        }
+
+        HttpResponseStatus status;
+        if (cause instanceof RejectedExecutionException || cause instanceof UpstreamUnavailableException) {
+            status = HttpResponseStatus.SERVICE_UNAVAILABLE;
+        } else if (cause instanceof InterruptedIOException) {
+            /** Connect, read and pool timeouts, and passed deadlines */
+            status = HttpResponseStatus.GATEWAY_TIMEOUT;
+        } else {
+            status = HttpResponseStatus.INTERNAL_SERVER_ERROR;
+        }
+
+        try {
+            HttpResponse response = buildResponseFrame(
+                    request,
+                    status,
+                    String.format("%s: %s", cause.getClass().getSimpleName(), cause.getMessage()));
+
+            if (cause instanceof UpstreamUnavailableException
+                    && ((UpstreamUnavailableException) cause).getRetryAfterSeconds() > 0) {
+                response.addHeader(HttpHeaderNames.RETRY_AFTER.toString(),
+                        String.valueOf(((UpstreamUnavailableException) cause).getRetryAfterSeconds()));
+            }
+
+            writeResponse(ctx, sequence, keepAlive, response);
+        } catch (IOException e) {
+            Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.SEVERE,
+                    String.format("Could not write error response: %s", e.getMessage()), e);
+            ctx.close();
+        }
+    }
+
+    private Optional<InputStream> parseContent(FullHttpRequest request) {
         if (request.content().isReadable()) {
-            return Optional.ofNullable(request.content().toString(CharsetUtil.UTF_8));
+            return Optional.of(new ByteBufInputStream(request.content()));
         }
 
         return Optional.empty();
     }
 
-    private void writeResponse(FullHttpRequest request, HttpResponse proxyResponse, ChannelHandlerContext ctx) throws IOException {
+    private void writeResponse(ChannelHandlerContext ctx, int sequence, boolean keepAlive, HttpResponse proxyResponse)
+            throws IOException {
+        writeResponse(ctx, sequence, keepAlive, toFullHttpResponse(ctx, proxyResponse));
+    }
+
+    /**
+     * Queue the response to the request with the given sequence number, and write out all responses that are next
+     * in line. Must be called from the channel's event loop
+     */
+    private void writeResponse(ChannelHandlerContext ctx, int sequence, boolean keepAlive, FullHttpResponse response) {
+        writeResponse(ctx, sequence, PendingResponse.full(response, keepAlive));
+    }
+
+    /**
+     * Queue the streamed response to the request with the given sequence number, and write out all responses that
+     * are next in line. Must be called from the channel's event loop
+     */
+    private void writeResponse(ChannelHandlerContext ctx, int sequence, boolean keepAlive, StreamedResponse response) {
+        writeResponse(ctx, sequence, PendingResponse.streamed(response, keepAlive));
+    }
+
+    /**
+     * Queue the given response to the request with the given sequence number, and write out all responses that are
+     * next in line. Must be called from the channel's event loop
+     */
+    private void writeResponse(ChannelHandlerContext ctx, int sequence, PendingResponse response) {
+        ProxyMetrics.getInstance().recordResponseSent(response.status().code());
+
+        if (!accessLogEntries.isEmpty()) {
+            AccessLog.getInstance().finish(accessLogEntries.remove(sequence), response.status().code(), response.bodySize());
+        }
+
+        pendingResponses.put(sequence, response);
+        writePendingResponses(ctx);
+    }
+
+    private void writePendingResponses(ChannelHandlerContext ctx) {
+        if (activeStream != null) {
+            return;
+        }
+
+        PendingResponse next;
+        while ((next = pendingResponses.remove(nextResponseSequence)) != null) {
+            nextResponseSequence++;
+
+            if (next.streamedResponse != null) {
+                writeStreamedResponseHead(ctx, next.streamedResponse, next.keepAlive);
+                return;
+            }
+
+            if (next.fileRegion != null) {
+                writeFileResponse(ctx, next);
+
+                if (!next.keepAlive) {
+                    releasePendingResponses();
+                    return;
+                }
+
+                continue;
+            }
+
+            HttpUtil.setContentLength(next.fullResponse, next.fullResponse.content().readableBytes());
+
+            if (!next.keepAlive) {
+                next.fullResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+                ctx.writeAndFlush(next.fullResponse).addListener(ChannelFutureListener.CLOSE);
+                releasePendingResponses();
+                return;
+            }
+
+            next.fullResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            ctx.write(next.fullResponse);
+        }
+
+        ctx.flush();
+
+        if (!ctx.channel().config().isAutoRead() && nextRequestSequence - nextResponseSequence < MAX_PIPELINED_REQUESTS) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * Write a response whose body is a file region. The kernel copies the file straight to the socket, without it
+     * passing through user space
+     */
+    private void writeFileResponse(ChannelHandlerContext ctx, PendingResponse response) {
+        HttpUtil.setContentLength(response.fileHead, response.fileRegion.count());
+        response.fileHead.headers().set(HttpHeaderNames.CONNECTION,
+                response.keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+
+        ctx.write(response.fileHead);
+        ctx.write(response.fileRegion);
+
+        if (response.keepAlive) {
+            ctx.write(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Write the head of a streamed response and let its dispatcher thread relay the body. Responses queued behind it
+     * are written once the body is complete
+     */
+    private void writeStreamedResponseHead(ChannelHandlerContext ctx, StreamedResponse streamed, boolean keepAlive) {
+        streamed.head().headers().set(HttpHeaderNames.CONNECTION,
+                keepAlive ? HttpHeaderValues.KEEP_ALIVE : HttpHeaderValues.CLOSE);
+
+        activeStream = streamed;
+        ctx.writeAndFlush(streamed.head());
+        streamed.start();
 
-        RequestTranslator translator = new RequestTranslator();
+        streamed.completion().whenComplete((ignored, error) -> ctx.executor().execute(() -> {
+            activeStream = null;
+
+            if (error != null) {
+                ctx.close();
+                return;
+            }
 
-        String messageContent = translator.getBody(proxyResponse).orElse("");
+            if (!keepAlive) {
+                ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+
+            writePendingResponses(ctx);
+        }));
+    }
+
+    /**
+     * Relay the given upstream response to the client as a chunked response. Runs on a dispatcher thread, and blocks
+     * until the upstream body has been fully relayed
+     */
+    private void streamResponse(ChannelHandlerContext ctx, int sequence, boolean keepAlive, HttpResponse proxyResponse)
+            throws IOException {
+
+        HttpEntity entity = proxyResponse.getEntity();
+
+        if (entity == null || entity instanceof FileRegionEntity) {
+            PendingResponse response = toPendingResponse(ctx, proxyResponse, keepAlive);
+            ctx.executor().execute(() -> writeResponse(ctx, sequence, response));
+            return;
+        }
+
+        /**
+         * The body is opened before the response takes its place in the queue: until then, a failure is still answered
+         * with an error response, in that place
+         */
+        InputStream content;
+        try {
+            content = entity.getContent();
+        } catch (IOException | RuntimeException e) {
+            if (proxyResponse instanceof Closeable) {
+                ((Closeable) proxyResponse).close();
+            }
+
+            throw e;
+        }
+
+        DefaultHttpResponse head = new DefaultHttpResponse(
+                HTTP_1_1, HttpResponseStatus.valueOf(proxyResponse.getStatusLine().getStatusCode()));
+        copyResponseHeaders(proxyResponse, head.headers());
+        HttpUtil.setTransferEncodingChunked(head, true);
+
+        StreamedResponse streamed = new StreamedResponse(head);
+        ctx.executor().execute(() -> writeResponse(ctx, sequence, keepAlive, streamed));
+
+        /** From here on the response is committed, so failures can only be reported by closing the connection */
+        try {
+            streamed.relay(ctx, content, RequestDispatcher.getInstance().getSettings().getSocketTimeoutMillis());
+            content.close();
+        } catch (IOException e) {
+            Logger.getLogger(LocalHttpServerHandler.class.getName()).log(Level.WARNING,
+                    String.format("Response streaming aborted: %s", e.getMessage()), e);
+
+            /** Closing the response discards the upstream connection instead of draining the rest of the body */
+            if (proxyResponse instanceof Closeable) {
+                ((Closeable) proxyResponse).close();
+            }
+        }
+    }
+
+    private void releasePendingResponses() {
+        pendingResponses.values().forEach(pending -> {
+            if (pending.fullResponse != null) {
+                ReferenceCountUtil.release(pending.fullResponse);
+            } else if (pending.fileRegion != null) {
+                ReferenceCountUtil.release(pending.fileRegion);
+            } else {
+                pending.streamedResponse.cancel();
+            }
+        });
+        pendingResponses.clear();
+    }
+
+    /**
+     * Convert the given upstream response for writing. Bodies read from files, such as those of the disk response
+     * cache, are sent as file regions; other bodies are read into a buffer
+     */
+    private PendingResponse toPendingResponse(ChannelHandlerContext ctx, HttpResponse proxyResponse, boolean keepAlive)
+            throws IOException {
+        if (fileRegions && proxyResponse.getEntity() instanceof FileRegionEntity) {
+            DefaultHttpResponse head = new DefaultHttpResponse(
+                    HTTP_1_1, HttpResponseStatus.valueOf(proxyResponse.getStatusLine().getStatusCode()));
+            copyResponseHeaders(proxyResponse, head.headers());
+
+            return PendingResponse.file(head, ((FileRegionEntity) proxyResponse.getEntity()).toFileRegion(), keepAlive);
+        }
+
+        return PendingResponse.full(toFullHttpResponse(ctx, proxyResponse), keepAlive);
+    }
+
+    private FullHttpResponse toFullHttpResponse(ChannelHandlerContext ctx, HttpResponse proxyResponse) throws IOException {
+
+        ByteBuf content = readContent(ctx, proxyResponse.getEntity());
 
         FullHttpResponse response = new DefaultFullHttpResponse(
                 HTTP_1_1, HttpResponseStatus.parseLine(proxyResponse.getStatusLine().getStatusCode() + ""),
-                Unpooled.copiedBuffer(messageContent, CharsetUtil.UTF_8), false);
+                content, false);
+
+        copyResponseHeaders(proxyResponse, response.headers());
+
+        return response;
+    }
+
+    /**
+     * Read the given entity straight into a pooled buffer, with no intermediate copies or charset decoding
+     */
+    private ByteBuf readContent(ChannelHandlerContext ctx, HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+
+        long contentLength = entity.getContentLength();
+        boolean lengthKnown = contentLength >= 0 && contentLength <= Integer.MAX_VALUE;
+        ByteBuf content = lengthKnown ? ctx.alloc().buffer((int) contentLength) : ctx.alloc().buffer();
+
+        try (InputStream stream = entity.getContent()) {
+            int toRead = lengthKnown ? (int) contentLength : CONTENT_READ_SIZE;
+            int read;
+
+            while (toRead > 0 && (read = content.writeBytes(stream, toRead)) >= 0) {
+                toRead = lengthKnown ? toRead - read : CONTENT_READ_SIZE;
+            }
+        } catch (IOException | RuntimeException e) {
+            content.release();
+            throw e;
+        }
+
+        return content;
+    }
+
+    /**
+     * Upstream bodies are relayed as the upstream encoded them if the client accepts their coding, saving both the
+     * decompression and the compressor's work, and are decompressed otherwise
+     */
+    private static HttpResponse decodeUnlessAccepted(HttpResponse proxyResponse, String acceptEncoding) {
+        String coding = ContentEncoding.getContentEncoding(proxyResponse);
 
+        if (coding != null && !ContentEncoding.accepts(acceptEncoding, coding)) {
+            ContentEncoding.decode(proxyResponse);
+        }
+
+        return proxyResponse;
+    }
+
+    private void copyResponseHeaders(HttpResponse proxyResponse, HttpHeaders headers) {
         for (Header header : proxyResponse.getAllHeaders()) {
-            response.headers().set(header.getName(), header.getValue());
+            if (isHopByHopHeader(header.getName())) {
+                continue;
+            }
+
+            headers.set(header.getName(), header.getValue());
         }
+    }
 
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    private boolean isHopByHopHeader(String headerName) {
+        return hopByHopHttpHeaders.stream().anyMatch(hopByHop -> hopByHop.equalsIgnoreCase(headerName.trim()));
     }
 
     @Override
@@ -198,9 +808,62 @@ public class LocalHttpServerHandler extends SimpleChannelInboundHandler<FullHttp
         response.addHeader(HttpHeaderNames.ACCESS_CONTROL_ALLOW_METHODS.toString(), String.join(",", allowedHttpMethods));
 
         if (message != null) {
-            response.setEntity(new StringEntity(message));
+            response.setEntity(new StringEntity(message, CharsetUtil.UTF_8));
         }
 
         return response;
     }
+
+    /**
+     * A response waiting for its turn to be written: either a full response, a streamed response, or a response head
+     * with a file region body
+     */
+    private static final class PendingResponse {
+
+        private final FullHttpResponse fullResponse;
+        private final StreamedResponse streamedResponse;
+        private final DefaultHttpResponse fileHead;
+        private final FileRegion fileRegion;
+        private final boolean keepAlive;
+
+        private PendingResponse(FullHttpResponse fullResponse, StreamedResponse streamedResponse,
+                DefaultHttpResponse fileHead, FileRegion fileRegion, boolean keepAlive) {
+            this.fullResponse = fullResponse;
+            this.streamedResponse = streamedResponse;
+            this.fileHead = fileHead;
+            this.fileRegion = fileRegion;
+            this.keepAlive = keepAlive;
+        }
+
+        private HttpResponseStatus status() {
+            if (fullResponse != null) {
+                return fullResponse.status();
+            }
+
+            return streamedResponse != null ? streamedResponse.head().status() : fileHead.status();
+        }
+
+        /**
+         * @return The size of the body, in bytes, or -1 for streamed bodies, whose size is not known in advance
+         */
+        private long bodySize() {
+            if (fullResponse != null) {
+                return fullResponse.content().readableBytes();
+            }
+
+            return fileRegion != null ? fileRegion.count() : -1;
+        }
+
+        private static PendingResponse full(FullHttpResponse response, boolean keepAlive) {
+            return new PendingResponse(response, null, null, null, keepAlive);
+        }
+
+        private static PendingResponse streamed(StreamedResponse response, boolean keepAlive) {
+            return new PendingResponse(null, response, null, null, keepAlive);
+        }
+
+        private static PendingResponse file(DefaultHttpResponse head, FileRegion body, boolean keepAlive) {
+            return new PendingResponse(null, null, head, body, keepAlive);
+        }
+    }
 }
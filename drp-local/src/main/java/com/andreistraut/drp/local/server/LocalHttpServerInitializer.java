@@ -1,27 +1,172 @@
 package com.andreistraut.drp.local.server;
 
+import com.andreistraut.drp.core.compression.CompressionPolicy;
+import com.andreistraut.drp.core.metrics.ProxyMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpRequestDecoder;
-import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2Codec;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameLogger;
+import io.netty.handler.codec.http2.Http2ServerDowngrader;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.logging.LogLevel;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.AsciiString;
 
 /**
- * Initializer for local Netty-based server
+ * Initializer for local Netty-based server. Connections speak HTTP/1.1 and, if enabled, HTTP/2: over cleartext
+ * either with prior knowledge or by upgrading from HTTP/1.1 (h2c), and over TLS as negotiated with ALPN (h2). Each
+ * HTTP/2 stream gets a child channel with the same request handler as an HTTP/1.1 connection, so many concurrent
+ * proxy calls share one connection
  */
 public class LocalHttpServerInitializer extends ChannelInitializer<SocketChannel> {
 
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 1048576;
+
+    /** Netty logs every HTTP/2 frame at INFO by default; frames are only worth logging when debugging */
+    private static final Http2FrameLogger HTTP2_FRAME_LOGGER = new Http2FrameLogger(LogLevel.DEBUG, Http2Codec.class);
+
+    private static final TrafficCountingHandler TRAFFIC_COUNTER = new TrafficCountingHandler(ProxyMetrics.getInstance());
+
+    private final boolean streamResponses;
+    private final int maxRequestSize;
+    private final boolean http2;
+    private final SslContext sslContext;
+    private final CompressionPolicy compressionPolicy;
+
+    private final ChannelHandler http2StreamInitializer = new ChannelInitializer<Channel>() {
+        @Override
+        protected void initChannel(Channel stream) {
+            ChannelPipeline p = stream.pipeline();
+
+            p.addLast(new Http2ServerDowngrader(true));
+            addCompressor(p);
+            p.addLast(new HttpObjectAggregator(maxRequestSize));
+            // HTTP/2 frames cannot carry file regions
+            p.addLast(new LocalHttpServerHandler(streamResponses, false));
+        }
+    };
+
+    public LocalHttpServerInitializer() {
+        this(false, DEFAULT_MAX_REQUEST_SIZE);
+    }
+
+    /**
+     * @param streamResponses Whether upstream response bodies are relayed chunk by chunk instead of being read fully
+     * into memory first
+     * @param maxRequestSize  Maximum size, in bytes, of a request envelope
+     */
+    public LocalHttpServerInitializer(boolean streamResponses, int maxRequestSize) {
+        this(streamResponses, maxRequestSize, false, null);
+    }
+
+    /**
+     * @param streamResponses Whether upstream response bodies are relayed chunk by chunk instead of being read fully
+     * into memory first
+     * @param maxRequestSize  Maximum size, in bytes, of a request envelope
+     * @param http2           Whether to accept HTTP/2 connections as well as HTTP/1.1 ones
+     * @param sslContext      The server TLS context, or null to accept cleartext connections. To negotiate HTTP/2,
+     * it must be configured for ALPN
+     */
+    public LocalHttpServerInitializer(boolean streamResponses, int maxRequestSize, boolean http2, SslContext sslContext) {
+        this(streamResponses, maxRequestSize, http2, sslContext, null);
+    }
+
+    /**
+     * @param streamResponses   Whether upstream response bodies are relayed chunk by chunk instead of being read fully
+     * into memory first
+     * @param maxRequestSize    Maximum size, in bytes, of a request envelope
+     * @param http2             Whether to accept HTTP/2 connections as well as HTTP/1.1 ones
+     * @param sslContext        The server TLS context, or null to accept cleartext connections. To negotiate HTTP/2,
+     * it must be configured for ALPN
+     * @param compressionPolicy Which responses to compress for the clients that accept it, or null to compress none
+     */
+    public LocalHttpServerInitializer(boolean streamResponses, int maxRequestSize, boolean http2, SslContext sslContext,
+            CompressionPolicy compressionPolicy) {
+        if (maxRequestSize <= 0) {
+            throw new IllegalArgumentException("Maximum request size must be an integer larger than 0");
+        }
+
+        this.streamResponses = streamResponses;
+        this.maxRequestSize = maxRequestSize;
+        this.http2 = http2;
+        this.sslContext = sslContext;
+        this.compressionPolicy = compressionPolicy;
+    }
+
     @Override
     public void initChannel(SocketChannel ch) {
         ChannelPipeline p = ch.pipeline();
 
-        p.addLast(new HttpRequestDecoder());
-        // Uncomment the following line if you don't want to handle HttpChunks.
-        p.addLast(new HttpObjectAggregator(1048576));
-        p.addLast(new HttpResponseEncoder());
-        // Remove the following line if you don't want automatic content compression.
-        //p.addLast(new HttpContentCompressor());
-        p.addLast(new LocalHttpServerHandler());
+        p.addLast(TRAFFIC_COUNTER);
+
+        if (sslContext != null) {
+            p.addLast(sslContext.newHandler(ch.alloc()));
+        }
+
+        if (!http2) {
+            addHttp1Handlers(p, false);
+        } else if (sslContext != null) {
+            p.addLast(new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                @Override
+                protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+                    if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                        addHttp2Handlers(ctx.pipeline());
+                    } else {
+                        addHttp1Handlers(ctx.pipeline(), false);
+                    }
+                }
+            });
+        } else {
+            p.addLast(new Http2PrefaceDetector(this::addHttp2Handlers, pipeline -> addHttp1Handlers(pipeline, true)));
+        }
+    }
+
+    private void addHttp1Handlers(ChannelPipeline p, boolean h2cUpgrade) {
+        HttpServerCodec codec = new HttpServerCodec();
+        p.addLast(codec);
+
+        if (h2cUpgrade) {
+            p.addLast(new HttpServerUpgradeHandler(codec, protocol ->
+                    AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)
+                            ? new Http2ServerUpgradeCodec(newHttp2Codec())
+                            : null,
+                    maxRequestSize));
+        }
+
+        addCompressor(p);
+        // The request envelope names the upstream, so it has to be read whole before anything can be dispatched
+        p.addLast(new HttpObjectAggregator(maxRequestSize));
+        // TLS encrypts in user space, so file regions cannot be sent straight from the file to the socket
+        p.addLast(new LocalHttpServerHandler(streamResponses, sslContext == null));
+    }
+
+    /**
+     * The compressor sits in front of the aggregator, so it sees each request's Accept-Encoding header and the chunks
+     * of streamed responses
+     */
+    private void addCompressor(ChannelPipeline p) {
+        if (compressionPolicy != null) {
+            p.addLast(new ResponseCompressor(compressionPolicy));
+        }
+    }
+
+    private void addHttp2Handlers(ChannelPipeline p) {
+        p.addLast(newHttp2Codec());
+    }
+
+    private Http2Codec newHttp2Codec() {
+        return new Http2Codec(true, new Http2StreamChannelBootstrap().handler(http2StreamInitializer),
+                HTTP2_FRAME_LOGGER);
     }
 }
@@ -1,16 +1,20 @@
-
 package com.andreistraut.drp.local.server;
 
+import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import com.andreistraut.drp.core.logging.AccessLog;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.logging.LogLevel;
-import io.netty.handler.logging.LoggingHandler;
 
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,10 +23,26 @@ import java.util.logging.Logger;
  */
 public class LocalHttpServerRunner {
 
+    public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
     private final int port;
     private final ChannelInitializer<SocketChannel> initializer;
+    private final int workerThreads;
+    private final boolean useEpoll;
+
+    private volatile Channel serverChannel;
 
     public LocalHttpServerRunner(int port, ChannelInitializer<SocketChannel> initializer) {
+        this(port, initializer, DEFAULT_WORKER_THREADS, false);
+    }
+
+    /**
+     * @param port          The port to listen on
+     * @param initializer   The initializer of accepted channels
+     * @param workerThreads The number of event loop threads serving accepted channels
+     * @param useEpoll      Whether to use the native epoll transport. Falls back to NIO where epoll is not available
+     */
+    public LocalHttpServerRunner(int port, ChannelInitializer<SocketChannel> initializer, int workerThreads, boolean useEpoll) {
 
         if (port <= 0) {
             throw new IllegalArgumentException("Port number must be an integer larger than 0");
@@ -32,29 +52,79 @@ public class LocalHttpServerRunner {
             throw new IllegalArgumentException("ChannelInitializer cannot be null");
         }
 
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("Worker thread count must be an integer larger than 0");
+        }
+
         this.port = port;
         this.initializer = initializer;
+        this.workerThreads = workerThreads;
+        this.useEpoll = useEpoll;
     }
 
     public void run() throws InterruptedException {
 
-        // Configure the server.
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        boolean epoll = isEpollUsable();
+
+        // Configure the server. The boss group only accepts, the worker group does all the channel I/O
+        EventLoopGroup bossGroup = epoll ? new EpollEventLoopGroup(1) : new NioEventLoopGroup(1);
+        EventLoopGroup workerGroup = epoll ? new EpollEventLoopGroup(workerThreads) : new NioEventLoopGroup(workerThreads);
+        Class<? extends ServerChannel> channelClass = epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+
         try {
             ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .handler(new LoggingHandler(LogLevel.INFO))
+            b.group(bossGroup, workerGroup)
+                    .channel(channelClass)
                     .childHandler(initializer);
 
             Channel ch = b.bind(port).sync().channel();
+            serverChannel = ch;
 
             Logger.getLogger(LocalHttpServerRunner.class.getName()).log(Level.INFO,
-                    String.format("Server started and listening on port", port));
+                    String.format("Server started and listening on port %s (%s transport, %s worker threads)",
+                            port, epoll ? "epoll" : "nio", workerThreads));
 
             ch.closeFuture().sync();
         } finally {
             bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            closeDispatcher();
+            AccessLog.getInstance().close();
+        }
+    }
+
+    /**
+     * Stop listening, and make {@link #run()} return once the event loops have been shut down
+     */
+    public void stop() {
+        Channel ch = serverChannel;
+
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    private boolean isEpollUsable() {
+        if (!useEpoll) {
+            return false;
+        }
+
+        if (!Epoll.isAvailable()) {
+            Logger.getLogger(LocalHttpServerRunner.class.getName()).log(Level.WARNING,
+                    String.format("Native epoll transport is not available, falling back to nio: %s",
+                            Epoll.unavailabilityCause().getMessage()));
+            return false;
+        }
+
+        return true;
+    }
+
+    private void closeDispatcher() {
+        try {
+            RequestDispatcher.getInstance().close();
+        } catch (IOException e) {
+            Logger.getLogger(LocalHttpServerRunner.class.getName()).log(Level.WARNING,
+                    String.format("Could not close upstream connections: %s", e.getMessage()), e);
         }
     }
 }
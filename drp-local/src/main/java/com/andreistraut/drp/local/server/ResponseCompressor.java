@@ -0,0 +1,55 @@
+package com.andreistraut.drp.local.server;
+
+import com.andreistraut.drp.core.compression.CompressionPolicy;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+
+/**
+ * Compresses the responses the policy allows, with gzip or deflate as negotiated with the client. Responses already
+ * encoded, such as compressed upstream bodies relayed as they are, and file region responses, whose bodies never pass
+ * through the pipeline, are sent untouched
+ */
+class ResponseCompressor extends HttpContentCompressor {
+
+    private final CompressionPolicy policy;
+
+    ResponseCompressor(CompressionPolicy policy) {
+        super(policy.getLevel());
+        this.policy = policy;
+    }
+
+    @Override
+    protected Result beginEncode(HttpResponse response, String acceptEncoding) throws Exception {
+        boolean fullResponse = response instanceof FullHttpResponse;
+
+        if (!fullResponse && !HttpUtil.isTransferEncodingChunked(response)) {
+            return null;
+        }
+
+        HttpHeaders headers = response.headers();
+        String contentType = headers.get(HttpHeaderNames.CONTENT_TYPE);
+
+        if (!policy.isCompressibleType(contentType)) {
+            return null;
+        }
+
+        /** Whether the response is compressed depends on the client's Accept-Encoding, which caches have to know */
+        if (!headers.containsValue(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING, true)) {
+            headers.add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+
+        long contentLength = fullResponse
+                ? ((FullHttpResponse) response).content().readableBytes()
+                : HttpUtil.getContentLength(response, -1L);
+
+        if (!policy.isCompressible(contentType, contentLength)) {
+            return null;
+        }
+
+        return super.beginEncode(response, acceptEncoding);
+    }
+}
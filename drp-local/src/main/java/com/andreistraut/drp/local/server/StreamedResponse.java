@@ -0,0 +1,206 @@
+package com.andreistraut.drp.local.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A response whose body is relayed to the client chunk by chunk, as it is read from the upstream. At most one chunk
+ * is held in memory at a time, and reading from the upstream pauses while the client connection is not writable.
+ * Alternatively, body parts produced on the channel's event loop are pushed as they come, and held until the
+ * response's turn
+ */
+final class StreamedResponse {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final long WRITABILITY_RECHECK_MILLIS = 1_000;
+
+    private final HttpResponse head;
+    private final CompletableFuture<Void> turn = new CompletableFuture<>();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    /** Body parts pushed before the response's turn. Only accessed from the channel's event loop */
+    private final List<HttpContent> pushedParts = new ArrayList<>();
+
+    /**
+     * @param head The status line and headers of the response, written by the channel's event loop once all earlier
+     * responses on the connection have been written
+     */
+    StreamedResponse(HttpResponse head) {
+        this.head = head;
+    }
+
+    HttpResponse head() {
+        return head;
+    }
+
+    /**
+     * Signal that the head has been written, and the body may follow. Called from the channel's event loop
+     */
+    void start() {
+        turn.complete(null);
+    }
+
+    /**
+     * Signal that the connection was closed before the body could be written
+     */
+    void cancel() {
+        turn.completeExceptionally(new ClosedChannelException());
+        writabilityChanged();
+    }
+
+    /**
+     * @return A future completed once the whole body has been handed to the channel, or exceptionally if relaying it
+     * failed
+     */
+    CompletableFuture<Void> completion() {
+        return completion;
+    }
+
+    synchronized void writabilityChanged() {
+        notifyAll();
+    }
+
+    /**
+     * Relay the given upstream body to the client. Blocks until the body has been fully read, so this must not be
+     * called from an event loop
+     *
+     * @param ctx           The client channel context
+     * @param content       The upstream response body
+     * @param timeoutMillis How long to wait for this response's turn, or for the client to accept more data
+     * @throws IOException On upstream read errors, client connection loss, or timeout
+     */
+    void relay(ChannelHandlerContext ctx, InputStream content, long timeoutMillis) throws IOException {
+        try {
+            awaitTurn(timeoutMillis);
+
+            while (true) {
+                awaitWritable(ctx, timeoutMillis);
+
+                ByteBuf chunk = ctx.alloc().buffer(CHUNK_SIZE);
+                int read;
+
+                try {
+                    read = chunk.writeBytes(content, CHUNK_SIZE);
+                } catch (IOException e) {
+                    chunk.release();
+                    throw e;
+                }
+
+                if (read < 0) {
+                    chunk.release();
+                    break;
+                }
+
+                ctx.writeAndFlush(new DefaultHttpContent(chunk));
+            }
+
+            ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            completion.complete(null);
+        } catch (IOException e) {
+            completion.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Write the given body part once the head has been written, or right away if it already was. The body is complete
+     * with the first {@link LastHttpContent} pushed. Must be called from the channel's event loop
+     *
+     * @param ctx  The client channel context
+     * @param part The body part, released if the connection was closed before it could be written
+     */
+    void push(ChannelHandlerContext ctx, HttpContent part) {
+        if (turn.isCompletedExceptionally()) {
+            ReferenceCountUtil.release(part);
+            return;
+        }
+
+        if (!turn.isDone()) {
+            /** The turn is given and taken away on the event loop, so the parts are written or released there */
+            if (pushedParts.isEmpty()) {
+                turn.whenComplete((ignored, error) -> writePushedParts(ctx));
+            }
+
+            pushedParts.add(part);
+            return;
+        }
+
+        writePushedPart(ctx, part);
+    }
+
+    private void writePushedParts(ChannelHandlerContext ctx) {
+        for (HttpContent part : pushedParts) {
+            if (turn.isCompletedExceptionally()) {
+                ReferenceCountUtil.release(part);
+            } else {
+                writePushedPart(ctx, part);
+            }
+        }
+
+        pushedParts.clear();
+
+        if (turn.isCompletedExceptionally()) {
+            completion.completeExceptionally(new ClosedChannelException());
+        }
+    }
+
+    private void writePushedPart(ChannelHandlerContext ctx, HttpContent part) {
+        ctx.writeAndFlush(part);
+
+        if (part instanceof LastHttpContent) {
+            completion.complete(null);
+        }
+    }
+
+    private void awaitTurn(long timeoutMillis) throws IOException {
+        try {
+            turn.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for earlier responses to be written");
+        } catch (ExecutionException e) {
+            throw new ClosedChannelException();
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("Timed out waiting for earlier responses to be written");
+        }
+    }
+
+    private synchronized void awaitWritable(ChannelHandlerContext ctx, long timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while (!ctx.channel().isWritable()) {
+            if (!ctx.channel().isActive() || turn.isCompletedExceptionally()) {
+                throw new ClosedChannelException();
+            }
+
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                throw new SocketTimeoutException("Timed out waiting for the client to read the response");
+            }
+
+            try {
+                wait(Math.min(remainingMillis, WRITABILITY_RECHECK_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the client to read the response");
+            }
+        }
+    }
+}
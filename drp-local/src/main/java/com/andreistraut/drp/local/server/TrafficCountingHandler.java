@@ -0,0 +1,48 @@
+package com.andreistraut.drp.local.server;
+
+import com.andreistraut.drp.core.metrics.ProxyMetrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+
+/**
+ * Counts the bytes received from and sent to clients. It sits first in the pipeline, so it counts the bytes on the
+ * wire, and it holds no state, so a single instance is shared by all channels
+ */
+@ChannelHandler.Sharable
+public class TrafficCountingHandler extends ChannelDuplexHandler {
+
+    private final ProxyMetrics metrics;
+
+    public TrafficCountingHandler(ProxyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        metrics.addBytesReceived(sizeOf(msg));
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        metrics.addBytesSent(sizeOf(msg));
+        super.write(ctx, msg, promise);
+    }
+
+    private static long sizeOf(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        } else if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        } else if (msg instanceof FileRegion) {
+            return ((FileRegion) msg).count();
+        }
+
+        return 0;
+    }
+}
@@ -1,12 +1,213 @@
 
 package com.andreistraut.drp.web.webservice;
 
+import com.andreistraut.drp.core.communicator.DispatcherSettings;
+import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import com.andreistraut.drp.core.communicator.RouteTimeouts;
+import com.andreistraut.drp.core.compression.CompressionPolicy;
+import com.andreistraut.drp.core.dns.HostsFileDnsResolver;
+import com.andreistraut.drp.core.logging.AccessLog;
+import com.andreistraut.drp.core.metrics.ProxyMetrics;
+import com.andreistraut.drp.core.metrics.ProxyMetricsView;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
 import javax.ws.rs.core.Application;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
 
 @javax.ws.rs.ApplicationPath("/api")
 public class ApplicationConfig extends Application {
 
+    /** System property holding the response cache size, in bytes. The cache is disabled if it is not set */
+    public static final String CACHE_SIZE_PROPERTY = "drp.cache.size";
+
+    /** System property holding the directory of the disk tier of the response cache */
+    public static final String CACHE_DIRECTORY_PROPERTY = "drp.cache.dir";
+
+    /** System property holding the disk tier size, in bytes */
+    public static final String CACHE_DISK_SIZE_PROPERTY = "drp.cache.disk.size";
+
+    /** System property enabling request coalescing when set to true */
+    public static final String COALESCE_PROPERTY = "drp.coalesce";
+
+    /** System property enabling the per-host circuit breakers when set to true */
+    public static final String CIRCUIT_BREAKER_PROPERTY = "drp.circuitbreaker";
+
+    /** System property holding the maximum number of requests in flight to a single upstream host */
+    public static final String MAX_REQUESTS_PER_HOST_PROPERTY = "drp.host.max.requests";
+
+    /** System property enabling HTTP/2 upstream calls, with HTTP/1.1 fallback, when set to true */
+    public static final String HTTP2_UPSTREAM_PROPERTY = "drp.http2.upstream";
+
+    /** System property holding the maximum number of the requests of a batch in flight at once */
+    public static final String BATCH_CONCURRENCY_PROPERTY = "drp.batch.concurrency";
+
+    /** System property holding the maximum number of requests in a batch */
+    public static final String MAX_BATCH_SIZE_PROPERTY = "drp.batch.max.size";
+
+    /** System property holding the number of threads the upstream calls are made on */
+    public static final String DISPATCH_THREADS_PROPERTY = "drp.dispatch.threads";
+
+    /** System property holding the number of requests that may wait for a dispatch thread; further ones get a 503 */
+    public static final String DISPATCH_QUEUE_SIZE_PROPERTY = "drp.dispatch.queue.size";
+
+    /**
+     * System property holding how long a request waits for its upstream call to be answered, in milliseconds, before
+     * it is answered with 504 Gateway Timeout. Unset or 0, requests wait for the upstream timeouts and deadlines
+     */
+    public static final String RESPONSE_TIMEOUT_PROPERTY = "drp.response.timeout";
+
+    /** System property holding the connect, pool and read timeout of the upstream calls, in milliseconds */
+    public static final String TIMEOUT_PROPERTY = "drp.timeout";
+
+    /** System property holding the total time allowed for an upstream call, in milliseconds */
+    public static final String DEADLINE_PROPERTY = "drp.deadline";
+
+    /**
+     * System property holding the timeouts of specific routes, as space-separated PATTERN=TIMEOUTS entries, such as
+     * {@code http://reports.example.com/*=read=300000,total=600000}
+     */
+    public static final String ROUTE_TIMEOUTS_PROPERTY = "drp.route.timeouts";
+
+    /** System property holding the fraction of the requests written to the access log, between 0 and 1 */
+    public static final String ACCESS_LOG_SAMPLE_PROPERTY = "drp.accesslog.sample";
+
+    /** System property enabling the compression of responses, for the clients that accept it, when set to true */
+    public static final String COMPRESSION_PROPERTY = "drp.compression";
+
+    /** System property holding the compression level, from 1 (fastest) to 9 (smallest) */
+    public static final String COMPRESSION_LEVEL_PROPERTY = "drp.compression.level";
+
+    /** System property holding the size, in bytes, under which responses are not compressed */
+    public static final String COMPRESSION_MIN_SIZE_PROPERTY = "drp.compression.min.size";
+
+    /**
+     * System property holding the comma-separated media types of the responses to compress, such as
+     * {@code text/*,application/json,+xml}
+     */
+    public static final String COMPRESSION_TYPES_PROPERTY = "drp.compression.types";
+
+    /**
+     * System property holding how long the addresses of upstream hosts are cached, in milliseconds. Unset or 0, they
+     * are not cached by the dispatcher
+     */
+    public static final String DNS_TTL_PROPERTY = "drp.dns.ttl";
+
+    /** System property holding how long upstream hosts that could not be resolved are remembered, in milliseconds */
+    public static final String DNS_NEGATIVE_TTL_PROPERTY = "drp.dns.negative.ttl";
+
+    /** System property holding a hosts file resolving upstream hosts ahead of the system resolver */
+    public static final String HOSTS_FILE_PROPERTY = "drp.hosts.file";
+
+    private static final CompressionPolicy COMPRESSION_POLICY;
+    private static final long RESPONSE_TIMEOUT_MILLIS = Long.getLong(RESPONSE_TIMEOUT_PROPERTY, 0);
+
+    /**
+     * The shared dispatcher keeps its defaults unless one of the properties above is set, except that it leaves
+     * compressed upstream bodies as they are, for the resource to pass them through. The metrics are exposed over
+     * JMX, as the application has no metrics endpoint of its own
+     */
+    static {
+	RequestDispatcher.configureSharedInstance(readDispatcherSettings());
+	COMPRESSION_POLICY = Boolean.getBoolean(COMPRESSION_PROPERTY) ? readCompressionPolicy() : null;
+
+	String accessLogSampleRate = System.getProperty(ACCESS_LOG_SAMPLE_PROPERTY);
+	if (accessLogSampleRate != null) {
+	    AccessLog.configureSharedInstance(Double.parseDouble(accessLogSampleRate), AccessLog.DEFAULT_QUEUE_CAPACITY);
+	}
+
+	try {
+	    ProxyMetricsView.register(ProxyMetrics.getInstance(), RequestDispatcher.getInstance());
+	} catch (JMException e) {
+	    Logger.getLogger(ApplicationConfig.class.getName()).log(Level.WARNING,
+		    String.format("Metrics not exposed over JMX: %s", e.getMessage()), e);
+	}
+    }
+
+    private static DispatcherSettings readDispatcherSettings() {
+	DispatcherSettings settings = new DispatcherSettings();
+	long cacheSize = Long.getLong(CACHE_SIZE_PROPERTY, 0);
+
+	if (cacheSize > 0) {
+	    settings.setResponseCacheMaxBytes(cacheSize);
+	    settings.setResponseCacheDirectory(System.getProperty(CACHE_DIRECTORY_PROPERTY));
+	    settings.setResponseCacheDiskMaxBytes(
+		    Long.getLong(CACHE_DISK_SIZE_PROPERTY, DispatcherSettings.DEFAULT_RESPONSE_CACHE_DISK_MAX_BYTES));
+	}
+
+	settings.setCoalesceRequests(Boolean.getBoolean(COALESCE_PROPERTY));
+	settings.setCircuitBreakerEnabled(Boolean.getBoolean(CIRCUIT_BREAKER_PROPERTY));
+	settings.setMaxRequestsPerHost(Integer.getInteger(MAX_REQUESTS_PER_HOST_PROPERTY, 0));
+	settings.setHttp2Enabled(Boolean.getBoolean(HTTP2_UPSTREAM_PROPERTY));
+	settings.setDispatchThreads(
+		Integer.getInteger(DISPATCH_THREADS_PROPERTY, DispatcherSettings.DEFAULT_DISPATCH_THREADS));
+	settings.setDispatchQueueSize(
+		Integer.getInteger(DISPATCH_QUEUE_SIZE_PROPERTY, DispatcherSettings.DEFAULT_DISPATCH_QUEUE_SIZE));
+	settings.setBatchConcurrency(
+		Integer.getInteger(BATCH_CONCURRENCY_PROPERTY, DispatcherSettings.DEFAULT_BATCH_CONCURRENCY));
+	settings.setMaxBatchSize(Integer.getInteger(MAX_BATCH_SIZE_PROPERTY, DispatcherSettings.DEFAULT_MAX_BATCH_SIZE));
+	settings.setTimeoutMillis(Integer.getInteger(TIMEOUT_PROPERTY, DispatcherSettings.DEFAULT_TIMEOUT_MILLIS));
+	settings.setDeadlineMillis(Integer.getInteger(DEADLINE_PROPERTY, DispatcherSettings.DEFAULT_DEADLINE_MILLIS));
+	settings.setDecompressResponses(false);
+	settings.setDnsCacheTtlMillis(Integer.getInteger(DNS_TTL_PROPERTY, DispatcherSettings.DEFAULT_DNS_CACHE_TTL_MILLIS));
+	settings.setDnsNegativeTtlMillis(
+		Integer.getInteger(DNS_NEGATIVE_TTL_PROPERTY, DispatcherSettings.DEFAULT_DNS_NEGATIVE_TTL_MILLIS));
+
+	String hostsFile = System.getProperty(HOSTS_FILE_PROPERTY);
+
+	if (hostsFile != null) {
+	    try {
+		settings.setDnsResolver(new HostsFileDnsResolver(Paths.get(hostsFile), SystemDefaultDnsResolver.INSTANCE));
+	    } catch (IOException e) {
+		throw new UncheckedIOException(String.format("Could not read the hosts file %s", hostsFile), e);
+	    }
+	}
+
+	String routeTimeouts = System.getProperty(ROUTE_TIMEOUTS_PROPERTY, "").trim();
+
+	if (!routeTimeouts.isEmpty()) {
+	    for (String route : routeTimeouts.split("\\s+")) {
+		String[] patternAndTimeouts = route.split("=", 2);
+
+		if (patternAndTimeouts.length != 2) {
+		    throw new IllegalArgumentException("Route timeouts must be given as PATTERN=TIMEOUTS");
+		}
+
+		settings.addRouteTimeouts(patternAndTimeouts[0],
+			RouteTimeouts.parse(patternAndTimeouts[1], settings.getDefaultTimeouts()));
+	    }
+	}
+
+	return settings;
+    }
+
+    private static CompressionPolicy readCompressionPolicy() {
+	String mediaTypes = System.getProperty(COMPRESSION_TYPES_PROPERTY);
+
+	return new CompressionPolicy(
+		Integer.getInteger(COMPRESSION_LEVEL_PROPERTY, CompressionPolicy.DEFAULT_LEVEL),
+		Integer.getInteger(COMPRESSION_MIN_SIZE_PROPERTY, CompressionPolicy.DEFAULT_MIN_SIZE_BYTES),
+		mediaTypes != null ? CompressionPolicy.parseMediaTypes(mediaTypes) : CompressionPolicy.DEFAULT_MEDIA_TYPES);
+    }
+
+    /**
+     * @return Which responses to compress, or null if compression is disabled
+     */
+    static CompressionPolicy getCompressionPolicy() {
+	return COMPRESSION_POLICY;
+    }
+
+    /**
+     * @return How long a request waits for its upstream call to be answered, in milliseconds, or 0 for no limit
+     */
+    static long getResponseTimeoutMillis() {
+	return RESPONSE_TIMEOUT_MILLIS;
+    }
+
     @Override
     public Set<Class<?>> getClasses() {
 	Set<Class<?>> resources = new java.util.HashSet<>();
@@ -1,13 +1,35 @@
 package com.andreistraut.drp.web.webservice;
 
+import com.andreistraut.drp.core.communicator.BatchDispatcher;
+import com.andreistraut.drp.core.communicator.BatchResult;
 import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import com.andreistraut.drp.core.communicator.RequestHeaders;
 import com.andreistraut.drp.core.communicator.RequestTranslator;
-import com.google.common.collect.Maps;
+import com.andreistraut.drp.core.communicator.TranslationResult;
+import com.andreistraut.drp.core.communicator.UpstreamUnavailableException;
+import com.andreistraut.drp.core.compression.CompressionPolicy;
+import com.andreistraut.drp.core.compression.ContentEncoding;
+import com.andreistraut.drp.core.logging.AccessLog;
+import com.andreistraut.drp.core.logging.AccessLogEntry;
+import com.andreistraut.drp.core.metrics.ProxyMetrics;
+import com.andreistraut.drp.core.model.Messages;
+import com.google.gson.JsonParseException;
 import io.netty.util.CharsetUtil;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ws.rs.Consumes;
@@ -18,15 +40,17 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
-import org.apache.http.ParseException;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.util.EntityUtils;
 
 /**
  * Root REST Web Service
@@ -41,6 +65,11 @@ public class RequestResource {
 
     private static final Logger LOGGER = Logger.getLogger(RequestResource.class.getName());
 
+    /** Headers of a single connection, which are not relayed to the client */
+    private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList(
+	    "Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization", "TE", "Trailer", "Transfer-Encoding",
+	    "Upgrade");
+
     /**
      * Creates a new instance of RequestResource
      */
@@ -65,91 +94,463 @@ public class RequestResource {
     }
 
     /**
-     * Forwards a GET request to the url specified as request parameter
+     * Forwards a GET request to the url specified as request parameter. The container thread returns once the
+     * request is dispatched, and the response is resumed when the upstream answers
      *
+     * @param asyncResponse The suspended response to the client
      * @param headers The request headers
      * @param url the endpoint url
-     * 
-     * @return HTTP response with default text/plain encoding, or the encoding defined by the request headers, if present
      */
     @GET
     @Path("get/{url}")
     @Consumes({MediaType.WILDCARD})
     @Produces({MediaType.WILDCARD})
-    public Response get(@Context HttpHeaders headers, @PathParam("url") String url) {
-	
-	Map<String, String> requestHeaders = Maps.<String, String>newHashMap();
+    public void get(@Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers,
+	    @PathParam("url") String url) {
+	suspended(asyncResponse, accessLogEntry -> forwardGet(headers, url, accessLogEntry));
+    }
+
+    private CompletableFuture<Response> forwardGet(HttpHeaders headers, String url, AccessLogEntry accessLogEntry) {
 	
-	for(Map.Entry<String, List<String>> header : headers.getRequestHeaders().entrySet()) {
-	    requestHeaders.put(header.getKey(), String.join(";", header.getValue()));
-	}
+	RequestHeaders requestHeaders = RequestHeaders.ofMultiValued(headers.getRequestHeaders());
 	
-	try {
+	TranslationResult translation = RequestTranslator.getInstance().translateStringUrl(requestHeaders, url);
 	
-	    HttpRequestBase request = new RequestTranslator().fromStringUrl(requestHeaders, url);
-	    HttpResponse response = RequestDispatcher.dispatch(request);
+	if (!translation.isValid()) {
+	    ProxyMetrics.getInstance().recordTranslationFailure();
 
-	    ResponseBuilder builder = Response
-		    .status(Response.Status.OK)
-		    .entity(EntityUtils.toString(response.getEntity(), CharsetUtil.UTF_8));
-
-	    for(Header header : response.getAllHeaders()) {
-		builder.header(header.getName(), header.getValue());
-	    }
-
-	    return builder.build();
-	} catch (IOException | ParseException e) {
-	    Logger.getLogger(RequestDispatcher.class.getName()).log(Level.SEVERE, 
-		    String.format("Exception raised: %s", e.getMessage()), e);
-
-	    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+	    return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
 		    .type(MediaType.TEXT_PLAIN)
-		    .entity(e.getMessage())
-		    .build();
+		    .entity(translation.getErrorMessage())
+		    .build());
 	}
+	
+	HttpRequestBase request = translation.getRequestOrThrow();
+	logRequest(accessLogEntry, request);
+
+	return dispatch(request, headers, accessLogEntry);
     }
 
     /**
-     * PUT method for updating or creating an instance of RequestResource
+     * Forwards the request described by a Json envelope. The container thread returns once the request is
+     * dispatched, and the response is resumed when the upstream answers
      *
-     * @param headers
-     * @param content representation for the resource
-     * @return an instance of json
-     * @throws java.io.UnsupportedEncodingException
+     * @param asyncResponse The suspended response to the client
+     * @param headers The request headers
+     * @param content The Json request envelope
      */
     @POST
     @Path("post/")
     @Consumes({MediaType.APPLICATION_JSON})
     @Produces({MediaType.WILDCARD})
-    public Response post(@Context HttpHeaders headers, String content) throws UnsupportedEncodingException {
-	
-	Map<String, String> requestHeaders = Maps.<String, String>newHashMap();
+    public void post(@Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers, String content) {
+	suspended(asyncResponse, accessLogEntry -> {
+	    if (accessLogEntry != null) {
+		accessLogEntry.setBytesIn(requestSize(headers, content));
+	    }
+
+	    return forwardPost(headers, content, accessLogEntry);
+	});
+    }
+
+    private CompletableFuture<Response> forwardPost(HttpHeaders headers, String content,
+	    AccessLogEntry accessLogEntry) {
 	
-	for(Map.Entry<String, List<String>> header : headers.getRequestHeaders().entrySet()) {
-	    requestHeaders.put(header.getKey(), String.join(";", header.getValue()));
-	}
+	RequestHeaders requestHeaders = RequestHeaders.ofMultiValued(headers.getRequestHeaders());
 	
 	try {
-	    HttpRequestBase request = new RequestTranslator().fromJsonString(requestHeaders, content);
-	    HttpResponse response = RequestDispatcher.dispatch(request);
+	    TranslationResult translation = RequestTranslator.getInstance().translateJsonString(requestHeaders, content);
+	    
+	    if (!translation.isValid()) {
+		ProxyMetrics.getInstance().recordTranslationFailure();
 
-	    ResponseBuilder builder = Response
-		    .status(Response.Status.OK)
-		    .entity(EntityUtils.toString(response.getEntity(), CharsetUtil.UTF_8));
+		return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
+			.type(MediaType.TEXT_PLAIN)
+			.entity(translation.getErrorMessage())
+			.build());
+	    }
+	    
+	    HttpRequestBase request = translation.getRequestOrThrow();
+	    logRequest(accessLogEntry, request);
 
-	    for(Header header : response.getAllHeaders()) {
-		builder.header(header.getName(), header.getValue());
+	    /** The client may give its deadline on the envelope request, as well as among the forwarded headers */
+	    String clientTimeout = headers.getRequestHeaders().getFirst(RequestDispatcher.REQUEST_TIMEOUT_HEADER);
+	    if (clientTimeout != null) {
+		request.setHeader(RequestDispatcher.REQUEST_TIMEOUT_HEADER, clientTimeout);
 	    }
 
-	    return builder.build();
+	    return dispatch(request, headers, accessLogEntry);
 	} catch(IllegalStateException | IllegalArgumentException | IOException e) {
 	    Logger.getLogger(RequestDispatcher.class.getName()).log(Level.SEVERE, 
 		    String.format("Invalid JSON Object submitted, exception raised: %s", e.getMessage()), e);
 
+	    return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
+		    .type(MediaType.TEXT_PLAIN)
+		    .entity(e.getMessage())
+		    .build());
+	}
+    }
+
+    /**
+     * Forwards a Json array of requests, a limited number at a time, and answers with their results: one Json object
+     * per line, written as each request completes, if the client accepts NDJSON, or else a Json array in request order
+     *
+     * @param headers The request headers
+     * @param content A Json array of request envelopes
+     * @return The results of the forwarded requests
+     */
+    @POST
+    @Path("batch/")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON, BatchResult.NDJSON_CONTENT_TYPE})
+    public Response batch(@Context HttpHeaders headers, String content) {
+	return recorded(accessLogEntry -> {
+	    if (accessLogEntry != null) {
+		accessLogEntry.setBytesIn(requestSize(headers, content));
+	    }
+
+	    return forwardBatch(headers, content);
+	});
+    }
+
+    private Response forwardBatch(HttpHeaders headers, String content) {
+
+	RequestHeaders requestHeaders = RequestHeaders.ofMultiValued(headers.getRequestHeaders());
+
+	List<TranslationResult> batch;
+
+	try {
+	    batch = RequestTranslator.getInstance().translateJsonArrayString(requestHeaders, content);
+	} catch(IllegalStateException | IllegalArgumentException | JsonParseException | IOException e) {
+	    ProxyMetrics.getInstance().recordTranslationFailure();
+	    LOGGER.log(Level.WARNING, String.format("Invalid JSON Array submitted, exception raised: %s", e.getMessage()), e);
+
 	    return Response.status(Response.Status.BAD_REQUEST)
 		    .type(MediaType.TEXT_PLAIN)
 		    .entity(e.getMessage())
 		    .build();
 	}
+
+	int maxBatchSize = RequestDispatcher.getInstance().getSettings().getMaxBatchSize();
+	if (batch.size() > maxBatchSize) {
+	    return Response.status(HttpStatus.SC_REQUEST_TOO_LONG)
+		    .type(MediaType.TEXT_PLAIN)
+		    .entity(String.format(Messages.BATCH_TOO_LARGE, maxBatchSize))
+		    .build();
+	}
+
+	/** The client deadline applies to each request of the batch */
+	String clientTimeout = headers.getRequestHeaders().getFirst(RequestDispatcher.REQUEST_TIMEOUT_HEADER);
+	if (clientTimeout != null) {
+	    batch.forEach(translation -> translation.getRequest().ifPresent(request ->
+		    request.setHeader(RequestDispatcher.REQUEST_TIMEOUT_HEADER, clientTimeout)));
+	}
+
+	BatchDispatcher dispatcher = new BatchDispatcher(RequestDispatcher.getInstance());
+
+	if (acceptsNdjson(headers)) {
+	    StreamingOutput results = output -> streamBatch(dispatcher, batch, output);
+
+	    return Response.ok(results, BatchResult.NDJSON_CONTENT_TYPE).build();
+	}
+
+	/** The dispatch future never completes exceptionally: failed requests get an error result */
+	return Response.ok(BatchResult.toJsonArray(dispatcher.dispatchAll(batch).join()), MediaType.APPLICATION_JSON)
+		.build();
+    }
+
+    /**
+     * Writes the results of a batch one per line, as they complete, flushing each line to the client
+     */
+    private static void streamBatch(BatchDispatcher dispatcher, List<TranslationResult> batch, OutputStream output)
+	    throws IOException {
+
+	BlockingQueue<BatchResult> results = new LinkedBlockingQueue<>();
+	dispatcher.dispatch(batch, results::add);
+
+	Writer writer = new OutputStreamWriter(output, CharsetUtil.UTF_8);
+
+	for (int i = 0; i < batch.size(); i++) {
+	    try {
+		writer.write(results.take().toJson());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new InterruptedIOException("Interrupted while waiting for the batch results");
+	    }
+
+	    writer.write('\n');
+	    writer.flush();
+	}
+    }
+
+    /**
+     * @return Whether the client explicitly accepts NDJSON. Wildcards do not count, so that clients that accept
+     * anything get a single Json array
+     */
+    private static boolean acceptsNdjson(HttpHeaders headers) {
+	MediaType ndjson = MediaType.valueOf(BatchResult.NDJSON_CONTENT_TYPE);
+
+	return headers.getAcceptableMediaTypes().stream()
+		.anyMatch(type -> !type.isWildcardType() && !type.isWildcardSubtype() && type.isCompatible(ndjson));
+    }
+
+    /**
+     * Counts the request, and its response by status class, and writes it to the access log if it is sampled
+     *
+     * @param forward Forwards the request, filling in its access log entry, which is null if it is not sampled
+     * @return The response of the forwarded request
+     */
+    private Response recorded(Function<AccessLogEntry, Response> forward) {
+	ProxyMetrics metrics = ProxyMetrics.getInstance();
+	metrics.recordRequestReceived();
+
+	AccessLogEntry accessLogEntry = AccessLog.getInstance().start();
+	Response response = forward.apply(accessLogEntry);
+
+	metrics.recordResponseSent(response.getStatus());
+
+	if (!logWhenWritten(accessLogEntry, response)) {
+	    AccessLog.getInstance().finish(accessLogEntry, response.getStatus(), bodySize(response));
+	}
+
+	return response;
+    }
+
+    /**
+     * Counts the request, and its response by status class, and writes it to the access log if it is sampled. The
+     * container thread only dispatches the request: the response is resumed from the dispatcher thread that receives
+     * it, or with 504 Gateway Timeout if the response timeout, when one is set, passes first
+     *
+     * @param asyncResponse The suspended response to the client
+     * @param forward Dispatches the request, filling in its access log entry, which is null if it is not sampled
+     */
+    private void suspended(AsyncResponse asyncResponse, Function<AccessLogEntry, CompletableFuture<Response>> forward) {
+	ProxyMetrics.getInstance().recordRequestReceived();
+
+	AccessLogEntry accessLogEntry = AccessLog.getInstance().start();
+	long timeoutMillis = ApplicationConfig.getResponseTimeoutMillis();
+
+	if (timeoutMillis > 0) {
+	    asyncResponse.setTimeoutHandler(timedOutResponse -> resume(timedOutResponse, accessLogEntry,
+		    timedOut(new InterruptedIOException(String.format(
+			    "No response within the %sms response timeout", timeoutMillis)))));
+	    asyncResponse.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	forward.apply(accessLogEntry).thenAccept(response -> resume(asyncResponse, accessLogEntry, response));
+    }
+
+    /**
+     * Answer the client with the response, unless it was answered already, at its response timeout. A response that
+     * is not written is discarded, releasing its upstream connection
+     */
+    private static void resume(AsyncResponse asyncResponse, AccessLogEntry accessLogEntry, Response response) {
+	/** Set before resuming, as the container may write the body on this thread */
+	boolean loggedWhenWritten = logWhenWritten(accessLogEntry, response);
+
+	if (!asyncResponse.resume(response)) {
+	    discard(response);
+	    return;
+	}
+
+	ProxyMetrics.getInstance().recordResponseSent(response.getStatus());
+
+	if (!loggedWhenWritten) {
+	    AccessLog.getInstance().finish(accessLogEntry, response.getStatus(), bodySize(response));
+	}
+    }
+
+    /**
+     * Have the access log entry of a response with an upstream body finished once the body is written, when the
+     * number of bytes sent to the client is known
+     *
+     * @return False if the entry is to be finished now: the request is not sampled, or its response has no upstream
+     * body
+     */
+    private static boolean logWhenWritten(AccessLogEntry accessLogEntry, Response response) {
+	if (accessLogEntry == null || !(response.getEntity() instanceof UpstreamBody)) {
+	    return false;
+	}
+
+	int status = response.getStatus();
+	((UpstreamBody) response.getEntity()).whenWritten(bytesOut ->
+		AccessLog.getInstance().finish(accessLogEntry, status, bytesOut));
+
+	return true;
+    }
+
+    /**
+     * Forwards the request on one of the dispatcher's threads, which also builds the response to the client
+     *
+     * @return A future completed with the response to the client, which never completes exceptionally: failed upstream
+     * calls, and calls refused because the dispatch queue is full, get an error response
+     */
+    private static CompletableFuture<Response> dispatch(HttpRequestBase request, HttpHeaders headers,
+	    AccessLogEntry accessLogEntry) {
+
+	/** Request headers are read here, on the container thread, as some containers only allow it there */
+	String acceptEncoding = headers.getRequestHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING);
+	long startNanos = System.nanoTime();
+
+	return RequestDispatcher.getInstance()
+		.executeAsync(request, response -> {
+		    if (accessLogEntry != null) {
+			accessLogEntry.setUpstreamNanos(System.nanoTime() - startNanos);
+		    }
+
+		    return toResponse(acceptEncoding, response);
+		})
+		.exceptionally(RequestResource::dispatchFailed);
+    }
+
+    /**
+     * Release the upstream connection of a response that will not be written
+     */
+    private static void discard(Response response) {
+	if (response.getEntity() instanceof UpstreamBody) {
+	    ((UpstreamBody) response.getEntity()).discard();
+	}
+    }
+
+    /**
+     * @param error Why the upstream call, or the building of its response, failed
+     * @return 503 response if the call was refused, 504 if it timed out, or else 500
+     */
+    private static Response dispatchFailed(Throwable error) {
+	Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+	if (cause instanceof UpstreamUnavailableException) {
+	    return unavailable((UpstreamUnavailableException) cause);
+	} else if (cause instanceof RejectedExecutionException) {
+	    LOGGER.log(Level.WARNING, "Dispatch queue full, request refused");
+
+	    return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+		    .type(MediaType.TEXT_PLAIN)
+		    .entity(String.format("%s: %s", cause.getClass().getSimpleName(), cause.getMessage()))
+		    .build();
+	} else if (cause instanceof InterruptedIOException) {
+	    return timedOut((InterruptedIOException) cause);
+	}
+
+	LOGGER.log(Level.SEVERE, String.format("Exception raised: %s", cause.getMessage()), cause);
+
+	return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+		.type(MediaType.TEXT_PLAIN)
+		.entity(cause.getMessage())
+		.build();
+    }
+
+    /**
+     * Builds the response to the client from the upstream response, with its status and headers, and its body
+     * streamed. Compressed upstream bodies are passed through as they are if the client accepts their coding, and
+     * decompressed otherwise. Uncompressed bodies are compressed if compression is enabled, and the client accepts gzip
+     * or deflate
+     */
+    private static Response toResponse(String acceptEncoding, HttpResponse response) {
+	String coding = ContentEncoding.getContentEncoding(response);
+
+	if (coding != null && !ContentEncoding.accepts(acceptEncoding, coding)) {
+	    /** Codings that cannot be decompressed, if any, are still passed through */
+	    coding = ContentEncoding.getContentEncoding(ContentEncoding.decode(response));
+	}
+
+	Header contentType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+	CompressionPolicy policy = ApplicationConfig.getCompressionPolicy();
+	ResponseBuilder builder = Response.status(response.getStatusLine().getStatusCode());
+	String compression = null;
+
+	if (coding == null && policy != null
+		&& policy.isCompressibleType(contentType == null ? null : contentType.getValue())) {
+	    builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+	    if (response.getEntity() != null && policy.isCompressible(contentType.getValue(),
+		    response.getEntity().getContentLength())) {
+		compression = ContentEncoding.negotiate(acceptEncoding);
+	    }
+	}
+
+	if (response.getEntity() != null) {
+	    builder.entity(new UpstreamBody(response, compression, policy != null ? policy.getLevel() : 0));
+	}
+
+	for(Header header : response.getAllHeaders()) {
+	    /** The container frames the body itself, and the length of a compressed body is only known once sent */
+	    if (isHopByHopHeader(header.getName())
+		    || (compression != null && header.getName().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH))) {
+		continue;
+	    }
+
+	    builder.header(header.getName(), header.getValue());
+	}
+
+	if (compression != null) {
+	    builder.header(HttpHeaders.CONTENT_ENCODING, compression);
+	}
+
+	return builder.build();
+    }
+
+    private static boolean isHopByHopHeader(String headerName) {
+	return HOP_BY_HOP_HEADERS.stream().anyMatch(hopByHop -> hopByHop.equalsIgnoreCase(headerName.trim()));
+    }
+
+    private static void logRequest(AccessLogEntry accessLogEntry, HttpRequestBase request) {
+	if (accessLogEntry != null) {
+	    accessLogEntry.setRequest(request.getMethod(), request.getURI().toString());
+	}
+    }
+
+    /**
+     * @return The size in bytes of the proxy's own messages, or -1 for other bodies, whose size is not known before
+     * they are written
+     */
+    private static long bodySize(Response response) {
+	return response.getEntity() instanceof String
+		? ((String) response.getEntity()).getBytes(StandardCharsets.UTF_8).length
+		: -1;
+    }
+
+    /**
+     * @return The size in bytes of the request body: its Content-Length, or else the size of the body decoded by the
+     * container, encoded as UTF-8
+     */
+    private static long requestSize(HttpHeaders headers, String content) {
+	return headers.getLength() >= 0 ? headers.getLength() : content.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Answers a request whose upstream host was not called, because its circuit breaker is open or it already has
+     * too many requests in flight
+     *
+     * @param e The reason the host was not called
+     * @return 503 response, with a Retry-After header when the host may be called again at a known time
+     */
+    private static Response unavailable(UpstreamUnavailableException e) {
+	LOGGER.log(Level.WARNING, String.format("Upstream unavailable: %s", e.getMessage()));
+
+	ResponseBuilder builder = Response.status(Response.Status.SERVICE_UNAVAILABLE)
+		.type(MediaType.TEXT_PLAIN)
+		.entity(e.getMessage());
+
+	if (e.getRetryAfterSeconds() > 0) {
+	    builder.header("Retry-After", e.getRetryAfterSeconds());
+	}
+
+	return builder.build();
+    }
+
+    /**
+     * Answers a request whose upstream call timed out, or passed its deadline
+     *
+     * @param e The timeout
+     * @return 504 response
+     */
+    private static Response timedOut(InterruptedIOException e) {
+	LOGGER.log(Level.WARNING, String.format("Upstream call timed out: %s", e.getMessage()));
+
+	return Response.status(HttpStatus.SC_GATEWAY_TIMEOUT)
+		.type(MediaType.TEXT_PLAIN)
+		.entity(e.getMessage())
+		.build();
     }
 }
@@ -0,0 +1,157 @@
+package com.andreistraut.drp.web.webservice;
+
+import com.andreistraut.drp.core.compression.ContentEncoding;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Streams the body of an upstream response to the client as it is read, so bodies are never held whole in memory,
+ * and binary ones are relayed byte for byte. Bodies are copied through a buffer of the container thread, reused by
+ * every response it writes, and compressed on the fly if a coding is given
+ */
+class UpstreamBody implements StreamingOutput {
+
+    static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final HttpResponse response;
+    private final String compression;
+    private final int compressionLevel;
+
+    /** Told the number of bytes written to the client, if set */
+    private volatile LongConsumer written;
+
+    /**
+     * @param response         The upstream response, whose entity has not been read yet
+     * @param compression      The coding to compress the body with, or null to relay it as it is
+     * @param compressionLevel The compression level, from 1 (fastest) to 9 (smallest)
+     */
+    UpstreamBody(HttpResponse response, String compression, int compressionLevel) {
+	this.response = response;
+	this.compression = compression;
+	this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param written Told the number of bytes written to the client, compressed or not, once the body is written or
+     * writing it fails. Only known then for chunked and compressed bodies
+     */
+    void whenWritten(LongConsumer written) {
+	this.written = written;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+	HttpEntity entity = response.getEntity();
+
+	if (entity == null) {
+	    return;
+	}
+
+	CountingOutputStream counted = new CountingOutputStream(output);
+	DeflaterOutputStream compressed = compression != null
+		? ContentEncoding.compressingStream(counted, compression, compressionLevel)
+		: null;
+	OutputStream out = compressed != null ? compressed : counted;
+	byte[] buffer = BUFFER.get();
+
+	try {
+	    InputStream content = entity.getContent();
+	    int read;
+
+	    while ((read = content.read(buffer)) != -1) {
+		out.write(buffer, 0, read);
+
+		/** Bodies sent slowly by the upstream reach the client as they arrive, not once the container buffer fills */
+		if (content.available() == 0) {
+		    out.flush();
+		}
+	    }
+
+	    content.close();
+
+	    if (compressed != null) {
+		compressed.finish();
+	    }
+	} catch (IOException | RuntimeException e) {
+	    discard();
+
+	    if (compressed != null) {
+		finishQuietly(compressed);
+	    }
+
+	    throw e;
+	} finally {
+	    LongConsumer listener = written;
+
+	    if (listener != null) {
+		listener.accept(counted.count);
+	    }
+	}
+    }
+
+    /**
+     * Abort the upstream response, closing its connection instead of reading the rest of the body to reuse it. Used
+     * when the client is gone, or the response is never written
+     */
+    void discard() {
+	if (!(response instanceof Closeable)) {
+	    EntityUtils.consumeQuietly(response.getEntity());
+	    return;
+	}
+
+	try {
+	    ((Closeable) response).close();
+	} catch (IOException e) {
+	    Logger.getLogger(UpstreamBody.class.getName()).log(Level.FINE,
+		    String.format("Could not close upstream response: %s", e.getMessage()), e);
+	}
+    }
+
+    /**
+     * Release the compressor of a body that could not be written whole
+     */
+    private static void finishQuietly(DeflaterOutputStream compressed) {
+	try {
+	    compressed.finish();
+	} catch (IOException e) {
+	    /** The client is gone; the compressor is released nonetheless */
+	}
+    }
+
+    /**
+     * Counts the bytes written through it, without buffering them
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+	private long count;
+
+	CountingOutputStream(OutputStream out) {
+	    super(out);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+	    out.write(b);
+	    count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+	    out.write(b, off, len);
+	    count += len;
+	}
+    }
+}
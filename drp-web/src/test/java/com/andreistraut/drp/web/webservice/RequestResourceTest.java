@@ -0,0 +1,425 @@
+package com.andreistraut.drp.web.webservice;
+
+import com.andreistraut.drp.core.communicator.RequestDispatcher;
+import com.andreistraut.drp.core.logging.AccessLog;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RequestResourceTest {
+
+    private static final int DISPATCH_THREADS = 2;
+    private static final int DISPATCH_QUEUE_SIZE = 1;
+    private static final String CHUNKED_BODY = "chunked, d\u00e9j\u00e0 \u2713";
+
+    private static HttpServer upstream;
+    private static String slowEndpoint;
+    private static String chunkedEndpoint;
+
+    /** Held, as loggers are only weakly referenced */
+    private static final Logger accessLogger = Logger.getLogger(AccessLog.LOGGER_NAME);
+    private static final BlockingQueue<String> accessLogEntries = new LinkedBlockingQueue<>();
+    private static final Handler accessLogHandler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            accessLogEntries.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private static volatile CountDownLatch released;
+    private static final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        /** Read once, when the shared dispatcher is configured */
+        System.setProperty(ApplicationConfig.DISPATCH_THREADS_PROPERTY, String.valueOf(DISPATCH_THREADS));
+        System.setProperty(ApplicationConfig.DISPATCH_QUEUE_SIZE_PROPERTY, String.valueOf(DISPATCH_QUEUE_SIZE));
+        System.setProperty(ApplicationConfig.RESPONSE_TIMEOUT_PROPERTY, "60000");
+        ApplicationConfig.getResponseTimeoutMillis();
+
+        /** Answers only once released */
+        upstream = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        upstream.setExecutor(Executors.newCachedThreadPool());
+        upstream.createContext("/slow", exchange -> {
+            calls.incrementAndGet();
+
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            byte[] body = "answered".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        /** Answers at once, with a body of unknown length */
+        upstream.createContext("/chunked", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(CHUNKED_BODY.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        upstream.start();
+
+        slowEndpoint = String.format("http://localhost:%s/slow", upstream.getAddress().getPort());
+        chunkedEndpoint = String.format("http://localhost:%s/chunked", upstream.getAddress().getPort());
+        accessLogger.addHandler(accessLogHandler);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        accessLogger.removeHandler(accessLogHandler);
+        upstream.stop(0);
+    }
+
+    @Before
+    public void setUp() throws InterruptedException {
+        released = new CountDownLatch(1);
+        calls.set(0);
+
+        /** The dispatch threads of the previous test may still be resuming its responses */
+        long deadline = System.currentTimeMillis() + 5_000;
+        RequestDispatcher dispatcher = RequestDispatcher.getInstance();
+
+        while (dispatcher.getActiveDispatchCount() + dispatcher.getQueuedDispatchCount() > 0) {
+            Assert.assertTrue("Timed out waiting for the dispatcher", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        released.countDown();
+    }
+
+    @Test
+    public void testGetReturnsBeforeUpstreamAnswers() throws Exception {
+        SuspendedResponse response = new SuspendedResponse();
+
+        new RequestResource().get(response, new RequestHeaders(), slowEndpoint);
+        awaitCalls(1);
+
+        Assert.assertFalse("Expected the container thread back before the upstream answered",
+                response.resumed.isDone());
+
+        released.countDown();
+        Response resumed = response.resumed.get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(200, resumed.getStatus());
+        Assert.assertEquals("answered", write(resumed));
+    }
+
+    @Test
+    public void testPostReturnsBeforeUpstreamAnswers() throws Exception {
+        SuspendedResponse response = new SuspendedResponse();
+        String envelope = String.format("{\"endpoint\":\"%s\",\"method\":\"GET\",\"request\":{}}", slowEndpoint);
+
+        new RequestResource().post(response, new RequestHeaders(), envelope);
+        awaitCalls(1);
+
+        Assert.assertFalse("Expected the container thread back before the upstream answered",
+                response.resumed.isDone());
+
+        released.countDown();
+        Response resumed = response.resumed.get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(200, resumed.getStatus());
+        Assert.assertEquals("answered", write(resumed));
+    }
+
+    @Test
+    public void testResponseTimeoutAnswersGatewayTimeout() throws Exception {
+        SuspendedResponse response = new SuspendedResponse();
+
+        new RequestResource().get(response, new RequestHeaders(), slowEndpoint);
+        awaitCalls(1);
+
+        Assert.assertEquals(60_000, response.timeoutMillis);
+        response.timeoutHandler.handleTimeout(response);
+
+        Assert.assertEquals(504, response.resumed.get(10, TimeUnit.SECONDS).getStatus());
+
+        /** The upstream response arriving later is not written */
+        released.countDown();
+        awaitResumeAttempts(response, 2);
+        Assert.assertEquals(504, response.resumed.get().getStatus());
+    }
+
+    @Test
+    public void testFullDispatchQueueAnswersServiceUnavailable() throws Exception {
+        List<SuspendedResponse> accepted = new ArrayList<>();
+        SuspendedResponse refused = null;
+
+        /** Refused requests are answered before the container thread returns */
+        for (int i = 0; i <= DISPATCH_THREADS + DISPATCH_QUEUE_SIZE && refused == null; i++) {
+            SuspendedResponse response = new SuspendedResponse();
+            new RequestResource().get(response, new RequestHeaders(), slowEndpoint);
+
+            if (response.resumed.isDone()) {
+                refused = response;
+            } else {
+                accepted.add(response);
+            }
+        }
+
+        Assert.assertNotNull("Expected a request refused once the dispatch threads and queue were full", refused);
+        Assert.assertEquals(503, refused.resumed.get().getStatus());
+
+        released.countDown();
+
+        for (SuspendedResponse response : accepted) {
+            Assert.assertEquals(200, response.resumed.get(10, TimeUnit.SECONDS).getStatus());
+            write(response.resumed.get());
+        }
+    }
+
+    @Test
+    public void testAccessLogCountsBytesReceivedAndWritten() throws Exception {
+        SuspendedResponse response = new SuspendedResponse();
+        String envelope = String.format("{\"endpoint\":\"%s\",\"method\":\"GET\",\"request\":{},"
+                + "\"note\":\"d\u00e9j\u00e0 vu\"}", chunkedEndpoint);
+
+        new RequestResource().post(response, new RequestHeaders(), envelope);
+        Response resumed = response.resumed.get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(200, resumed.getStatus());
+        Assert.assertEquals(CHUNKED_BODY, write(resumed));
+
+        String entry = awaitAccessLogEntry(chunkedEndpoint);
+        Assert.assertTrue(entry, entry.contains(" bytes_in=" + envelope.getBytes(StandardCharsets.UTF_8).length + " "));
+        Assert.assertTrue(entry, entry.contains(" bytes_out=" + CHUNKED_BODY.getBytes(StandardCharsets.UTF_8).length
+                + " "));
+    }
+
+    private static String awaitAccessLogEntry(String upstream) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+
+        while (System.currentTimeMillis() < deadline) {
+            String entry = accessLogEntries.poll(100, TimeUnit.MILLISECONDS);
+
+            if (entry != null && entry.contains(" upstream=" + upstream + " ")) {
+                return entry;
+            }
+        }
+
+        Assert.fail("Timed out waiting for the access log entry of " + upstream);
+        return null;
+    }
+
+    private static void awaitCalls(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+
+        while (calls.get() < count) {
+            Assert.assertTrue("Timed out waiting for upstream calls", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitResumeAttempts(SuspendedResponse response, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+
+        while (response.resumeAttempts.get() < count) {
+            Assert.assertTrue("Timed out waiting for the response", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static String write(Response response) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(body);
+
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stands in for the container's suspended response: the first response resumed is kept
+     */
+    private static class SuspendedResponse implements AsyncResponse {
+
+        private final CompletableFuture<Response> resumed = new CompletableFuture<>();
+        private final AtomicInteger resumeAttempts = new AtomicInteger();
+        private volatile long timeoutMillis;
+        private volatile TimeoutHandler timeoutHandler;
+
+        @Override
+        public boolean resume(Object response) {
+            resumeAttempts.incrementAndGet();
+
+            return resumed.complete((Response) response);
+        }
+
+        @Override
+        public boolean resume(Throwable response) {
+            resumeAttempts.incrementAndGet();
+
+            return resumed.completeExceptionally(response);
+        }
+
+        @Override
+        public boolean cancel() {
+            return resumed.cancel(false);
+        }
+
+        @Override
+        public boolean cancel(int retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean cancel(Date retryAfter) {
+            return cancel();
+        }
+
+        @Override
+        public boolean isSuspended() {
+            return !resumed.isDone();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return resumed.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return resumed.isDone();
+        }
+
+        @Override
+        public boolean setTimeout(long time, TimeUnit unit) {
+            timeoutMillis = unit.toMillis(time);
+
+            return true;
+        }
+
+        @Override
+        public void setTimeoutHandler(TimeoutHandler handler) {
+            timeoutHandler = handler;
+        }
+
+        @Override
+        public Collection<Class<?>> register(Class<?> callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Collection<Class<?>> register(Object callback) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Request headers without any header
+     */
+    private static class RequestHeaders implements HttpHeaders {
+
+        private final MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+
+        @Override
+        public List<String> getRequestHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public String getHeaderString(String name) {
+            return headers.getFirst(name);
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getRequestHeaders() {
+            return headers;
+        }
+
+        @Override
+        public List<MediaType> getAcceptableMediaTypes() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Locale> getAcceptableLanguages() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return null;
+        }
+
+        @Override
+        public Locale getLanguage() {
+            return null;
+        }
+
+        @Override
+        public Map<String, Cookie> getCookies() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Date getDate() {
+            return null;
+        }
+
+        @Override
+        public int getLength() {
+            return -1;
+        }
+    }
+}